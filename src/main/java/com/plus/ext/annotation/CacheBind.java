@@ -18,13 +18,43 @@ package com.plus.ext.annotation;
 import java.lang.annotation.*;
 
 /**
- * CacheKit工具注解
+ * CacheKit工具注解, 由 JCacheBindInterceptor 读取, 将方法结果缓存到 JRedis 中
+ * <pre>
+ * 例如:
+ * &#64;CacheBind(name = "main", key = "user:{0}", expire = 600)
+ * public User findUser(Long id) {...}
+ *
+ * &#64;CacheBind(name = "main", key = "article:{0.id}:{1}")
+ * public List&lt;Record&gt; comments(Article article, int pageNumber) {...}
+ * </pre>
  */
 @Inherited
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD})
 public @interface CacheBind {
+    /**
+     * JRedis 中的 cacheName, 为空时使用主缓存
+     */
     String name();
 
+    /**
+     * key 模板, {0} 为第一个参数, {0.id} 为第一个参数的 id 属性(Model/Record/Map/JavaBean),
+     * Action 中 {id} 为请求参数 id, {0} 为 url 参数; 为空时由类名、方法名及参数生成
+     */
     String key() default "";
+
+    /**
+     * 过期时间(秒), 小于等于 0 表示不过期
+     */
+    int expire() default 0;
+
+    /**
+     * 是否缓存 null 结果, 防止不存在的数据反复穿透到数据库
+     */
+    boolean cacheNull() default false;
+
+    /**
+     * null 结果的过期时间(秒)
+     */
+    int nullExpire() default 60;
 }
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.annotation;
+
+import com.plus.ext.plugin.jredis.JRateLimitKey;
+
+import java.lang.annotation.*;
+
+/**
+ * 限流注解, 由 JRateLimitInterceptor 读取, 每个 action 使用独立的令牌桶, 超出限额时返回 429
+ * <pre>
+ * 例如:
+ * &#64;RateLimit(permitsPerSecond = 5, capacity = 10)
+ * public void sendSms() {...}
+ *
+ * &#64;RateLimit(permitsPerSecond = 100, key = JRateLimitKey.ACTION)
+ * public void export() {...}
+ * </pre>
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface RateLimit {
+    /**
+     * JRedis 中的 cacheName, 为空时使用主缓存
+     */
+    String name() default "";
+
+    /**
+     * 每秒补充的令牌数
+     */
+    double permitsPerSecond();
+
+    /**
+     * 桶容量(允许的突发请求数), 小于等于 0 时与 permitsPerSecond 相同
+     */
+    long capacity() default 0;
+
+    /**
+     * 限流维度, 默认按 IP
+     */
+    JRateLimitKey key() default JRateLimitKey.IP;
+
+    /**
+     * 按用户限流时, request 或 session 中用户标识的属性名
+     */
+    String userAttr() default "userId";
+
+    /**
+     * 本地预取令牌的时间窗口(毫秒), 0 表示每个请求都访问 Redis
+     */
+    long prefetchMillis() default 100;
+}
@@ -0,0 +1,72 @@
+package com.plus.ext.handler;
+
+import com.jfinal.handler.Handler;
+import com.jfinal.render.RenderFactory;
+import com.plus.ext.plugin.jredis.JCache;
+import com.plus.ext.plugin.jredis.JRateLimitKey;
+import com.plus.ext.plugin.jredis.JRateLimiter;
+import com.plus.ext.util.matcher.AntPathMatcher;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 在 action 之前按 url 限流，超出限额时设置 Retry-After 并返回 429，
+ * 匹配的 url 共用同一个 JRateLimiter；需要按 action 分别限流时使用 &#64;RateLimit
+ * <pre>
+ * 例如：每个 IP 对 /api/** 每秒 20 次，允许突发 40 次
+ * JRateLimiter limiter = new JRateLimiter(JRedis.use(), "api", 20, 40);
+ * me.add(new RateLimitHandler(limiter, JRateLimitKey.IP, "/api/**"));
+ * </pre>
+ */
+public class RateLimitHandler extends Handler {
+
+    private final JRateLimiter limiter;
+    private final JRateLimitKey key;
+    private final String[] urlPatterns;
+    private String userAttr = "userId";
+
+    AntPathMatcher antMatcher = new AntPathMatcher();
+
+    public RateLimitHandler(JRateLimiter limiter, JRateLimitKey key, String... urlPatterns) {
+        this.limiter = limiter;
+        this.key = key;
+        this.urlPatterns = urlPatterns;
+    }
+
+    public RateLimitHandler(JCache cache, double permitsPerSecond, long capacity, JRateLimitKey key, String... urlPatterns) {
+        this(new JRateLimiter(cache, "handler", permitsPerSecond, capacity), key, urlPatterns);
+    }
+
+    /**
+     * 按用户限流时 request 或 session 中用户标识的属性名，默认 userId
+     */
+    public RateLimitHandler setUserAttr(String userAttr) {
+        this.userAttr = userAttr;
+        return this;
+    }
+
+    @Override
+    public void handle(String target, HttpServletRequest request, HttpServletResponse response, boolean[] isHandled) {
+        if (match(target)) {
+            long retryAfter = limiter.acquire(key.resolve(request, userAttr));
+            if (retryAfter > 0) {
+                isHandled[0] = true;
+                response.setHeader("Retry-After", String.valueOf((retryAfter + 999) / 1000));
+                RenderFactory.me().getErrorRender(429).setContext(request, response).render();
+                return;
+            }
+        }
+        next.handle(target, request, response, isHandled);
+    }
+
+    private boolean match(String target) {
+        if (urlPatterns == null || urlPatterns.length == 0)
+            return true;
+        for (String url : urlPatterns) {
+            if (antMatcher.match(url, target))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,52 @@
+package com.plus.ext.handler;
+
+import com.alibaba.fastjson.JSON;
+import com.jfinal.handler.Handler;
+import com.jfinal.log.Log;
+import com.plus.ext.plugin.jredis.JMetricsRegistry;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 以 JSON 输出 JRedis 的指标快照(连接池状态、借出等待时间、每种命令的耗时分布及错误数)
+ * <pre>
+ * 例如：
+ * redisPlugin.setMetricsRegistry(JMetricsRegistry.me);
+ * me.add(new RedisMetricsHandler("/admin/redis/metrics"));
+ * </pre>
+ * 指标中包含内部拓扑信息，请在前置 Handler 或网关中限制访问
+ */
+public class RedisMetricsHandler extends Handler {
+
+    private static final Log log = Log.getLog(RedisMetricsHandler.class);
+
+    private final String path;
+    private final JMetricsRegistry registry;
+
+    public RedisMetricsHandler(String path) {
+        this(path, JMetricsRegistry.me);
+    }
+
+    public RedisMetricsHandler(String path, JMetricsRegistry registry) {
+        this.path = path;
+        this.registry = registry;
+    }
+
+    @Override
+    public void handle(String target, HttpServletRequest request, HttpServletResponse response, boolean[] isHandled) {
+        if (!path.equals(target)) {
+            next.handle(target, request, response, isHandled);
+            return;
+        }
+        isHandled[0] = true;
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        try {
+            response.getWriter().write(JSON.toJSONString(registry.snapshot()));
+        } catch (IOException e) {
+            log.warn("write redis metrics fail", e);
+        }
+    }
+}
@@ -0,0 +1,712 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * AsyncCache.
+ * JCache 的异步 api，每个命令立即返回 CompletableFuture，多个互不依赖的查询可以同时发出：
+ * <pre>
+ * 例如：
+ * JAsyncCache async = JRedis.use().async();
+ * CompletableFuture&lt;String&gt; user = async.get("user:" + id);
+ * CompletableFuture&lt;Map&lt;String, String&gt;&gt; cart = async.hgetAll("cart:" + id);
+ * CompletableFuture.allOf(user, cart).join();
+ * </pre>
+ * 自动 pipeline：命令按 key 所在节点放入队列，每个节点同一时刻只有一个 flush 任务在有界线程池中执行，
+ * 任务执行前及执行期间提交的命令在下一次 flush 时合并为一个 pipeline 发送，并发越高每批越大。
+ * <ul>
+ * <li>全部命令由主节点处理，不经过从节点，没有复制延迟</li>
+ * <li>开启近端缓存时 get/hget 优先读取本地副本，写命令完成前清除本地副本</li>
+ * <li>future 在 flush 线程中完成，耗时的后续处理请使用 thenXxxAsync 指定线程池</li>
+ * <li>未完成的命令超过 maxPending 时新命令直接以 JedisException 失败，不在内存中无限堆积</li>
+ * </ul>
+ */
+public class JAsyncCache {
+
+    private static final Log log = Log.getLog(JAsyncCache.class);
+
+    static final int DEFAULT_MAX_PENDING = 10000;
+
+    /**
+     * 每个 pipeline 最多的命令数，避免单批占用连接过久
+     */
+    private static final int MAX_BATCH = 512;
+
+    private final JCache cache;
+    private final ConcurrentMap<JedisPool, Batcher> batchers = new ConcurrentHashMap<JedisPool, Batcher>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private volatile int maxPending = DEFAULT_MAX_PENDING;
+    private volatile ThreadPoolExecutor executor;
+    private volatile boolean stopped = false;
+
+    JAsyncCache(JCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 由 JRedisPlugin 在启动时设置
+     */
+    void configure(int threads, int maxPending) {
+        if (threads > 0)
+            this.threads = threads;
+        if (maxPending > 0)
+            this.maxPending = maxPending;
+    }
+
+    // --------- String
+
+    /**
+     * 异步 GET，开启近端缓存时命中本地副本直接返回已完成的 future
+     */
+    public CompletableFuture<String> get(final String key) {
+        JNearCache nearCache = nearCacheOf(key);
+        if (nearCache != null) {
+            Object value = nearCache.get(key);
+            if (value != null)
+                return CompletableFuture.completedFuture((String) value);
+            final long stamp = nearCache.stamp();
+            return submit(new Pending<String>(key, false) {
+                Response<String> send(Pipeline pipeline) {
+                    return pipeline.get(key);
+                }
+
+                void received(String value) {
+                    JNearCache nearCache = cache.nearCache;
+                    if (nearCache != null)
+                        nearCache.put(key, value, stamp);
+                }
+            });
+        }
+        return submit(new Pending<String>(key, false) {
+            Response<String> send(Pipeline pipeline) {
+                return pipeline.get(key);
+            }
+        });
+    }
+
+    /**
+     * 按 key 分别发送 GET，集群及分片模式下不要求 key 位于同一节点，同一节点的 key 合并在同一个 pipeline 中
+     */
+    public CompletableFuture<List<String>> mget(String... keys) {
+        final List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(keys.length);
+        for (String key : keys)
+            futures.add(get(key));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(new Function<Void, List<String>>() {
+                    public List<String> apply(Void v) {
+                        List<String> result = new ArrayList<String>(futures.size());
+                        for (CompletableFuture<String> future : futures)
+                            result.add(future.join());
+                        return result;
+                    }
+                });
+    }
+
+    public CompletableFuture<String> set(final String key, final String value) {
+        return submit(new Pending<String>(key, true) {
+            Response<String> send(Pipeline pipeline) {
+                return pipeline.set(key, value);
+            }
+        });
+    }
+
+    public CompletableFuture<String> setex(final String key, final int seconds, final String value) {
+        return submit(new Pending<String>(key, true) {
+            Response<String> send(Pipeline pipeline) {
+                return pipeline.setex(key, seconds, value);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> del(final String key) {
+        return submit(new Pending<Long>(key, true) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.del(key);
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> exists(final String key) {
+        return submit(new Pending<Boolean>(key, false) {
+            Response<Boolean> send(Pipeline pipeline) {
+                return pipeline.exists(key);
+            }
+        });
+    }
+
+    /**
+     * 过期时间改变后近端缓存中的副本可能比 redis 中的 key 存活更久，完成前清除本地副本
+     */
+    public CompletableFuture<Long> expire(final String key, final int seconds) {
+        return submit(new Pending<Long>(key, true) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.expire(key, seconds);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> ttl(final String key) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.ttl(key);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> incr(final String key) {
+        return incrBy(key, 1);
+    }
+
+    public CompletableFuture<Long> incrBy(final String key, final long increment) {
+        return submit(new Pending<Long>(key, true) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.incrBy(key, increment);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> decr(final String key) {
+        return incrBy(key, -1);
+    }
+
+    // --------- Hash
+
+    /**
+     * 异步 HGET，开启近端缓存时命中本地副本直接返回已完成的 future
+     */
+    public CompletableFuture<String> hget(final String key, final String field) {
+        JNearCache nearCache = nearCacheOf(key);
+        if (nearCache != null) {
+            Object value = nearCache.hget(key, field);
+            if (value != null)
+                return CompletableFuture.completedFuture((String) value);
+            final long stamp = nearCache.stamp();
+            return submit(new Pending<String>(key, false) {
+                Response<String> send(Pipeline pipeline) {
+                    return pipeline.hget(key, field);
+                }
+
+                void received(String value) {
+                    JNearCache nearCache = cache.nearCache;
+                    if (nearCache != null)
+                        nearCache.hput(key, field, value, stamp);
+                }
+            });
+        }
+        return submit(new Pending<String>(key, false) {
+            Response<String> send(Pipeline pipeline) {
+                return pipeline.hget(key, field);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> hset(final String key, final String field, final String value) {
+        return submit(new Pending<Long>(key, true) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.hset(key, field, value);
+            }
+        });
+    }
+
+    public CompletableFuture<List<String>> hmget(final String key, final String... fields) {
+        return submit(new Pending<List<String>>(key, false) {
+            Response<List<String>> send(Pipeline pipeline) {
+                return pipeline.hmget(key, fields);
+            }
+        });
+    }
+
+    public CompletableFuture<Map<String, String>> hgetAll(final String key) {
+        return submit(new Pending<Map<String, String>>(key, false) {
+            Response<Map<String, String>> send(Pipeline pipeline) {
+                return pipeline.hgetAll(key);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> hdel(final String key, final String... fields) {
+        return submit(new Pending<Long>(key, true) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.hdel(key, fields);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> hincrBy(final String key, final String field, final long value) {
+        return submit(new Pending<Long>(key, true) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.hincrBy(key, field, value);
+            }
+        });
+    }
+
+    // --------- List
+
+    public CompletableFuture<Long> lpush(final String key, final String... values) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.lpush(key, values);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> rpush(final String key, final String... values) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.rpush(key, values);
+            }
+        });
+    }
+
+    public CompletableFuture<List<String>> lrange(final String key, final long start, final long end) {
+        return submit(new Pending<List<String>>(key, false) {
+            Response<List<String>> send(Pipeline pipeline) {
+                return pipeline.lrange(key, start, end);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> llen(final String key) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.llen(key);
+            }
+        });
+    }
+
+    // --------- Set
+
+    public CompletableFuture<Long> sadd(final String key, final String... members) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.sadd(key, members);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> srem(final String key, final String... members) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.srem(key, members);
+            }
+        });
+    }
+
+    public CompletableFuture<Set<String>> smembers(final String key) {
+        return submit(new Pending<Set<String>>(key, false) {
+            Response<Set<String>> send(Pipeline pipeline) {
+                return pipeline.smembers(key);
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> sismember(final String key, final String member) {
+        return submit(new Pending<Boolean>(key, false) {
+            Response<Boolean> send(Pipeline pipeline) {
+                return pipeline.sismember(key, member);
+            }
+        });
+    }
+
+    // --------- Sorted Set
+
+    public CompletableFuture<Long> zadd(final String key, final double score, final String member) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.zadd(key, score, member);
+            }
+        });
+    }
+
+    public CompletableFuture<Double> zscore(final String key, final String member) {
+        return submit(new Pending<Double>(key, false) {
+            Response<Double> send(Pipeline pipeline) {
+                return pipeline.zscore(key, member);
+            }
+        });
+    }
+
+    public CompletableFuture<Double> zincrby(final String key, final double score, final String member) {
+        return submit(new Pending<Double>(key, false) {
+            Response<Double> send(Pipeline pipeline) {
+                return pipeline.zincrby(key, score, member);
+            }
+        });
+    }
+
+    public CompletableFuture<Set<String>> zrange(final String key, final long start, final long end) {
+        return submit(new Pending<Set<String>>(key, false) {
+            Response<Set<String>> send(Pipeline pipeline) {
+                return pipeline.zrange(key, start, end);
+            }
+        });
+    }
+
+    public CompletableFuture<Set<String>> zrevrange(final String key, final long start, final long end) {
+        return submit(new Pending<Set<String>>(key, false) {
+            Response<Set<String>> send(Pipeline pipeline) {
+                return pipeline.zrevrange(key, start, end);
+            }
+        });
+    }
+
+    public CompletableFuture<Long> zcard(final String key) {
+        return submit(new Pending<Long>(key, false) {
+            Response<Long> send(Pipeline pipeline) {
+                return pipeline.zcard(key);
+            }
+        });
+    }
+
+    // --------- 其他命令
+
+    /**
+     * 在 key 所在节点的自动 pipeline 中发送自定义命令，不清除近端缓存
+     */
+    public <T> CompletableFuture<T> execute(String key, final JIAsyncCommand<T> command) {
+        return submit(new Pending<T>(key, false) {
+            Response<T> send(Pipeline pipeline) {
+                return command.send(pipeline);
+            }
+        });
+    }
+
+    /**
+     * 在自动 pipeline 中执行脚本，回复的转换与 JScriptCall.execute() 相同。
+     * 节点确认缓存脚本之前以 EVAL 发送，之后以 EVALSHA 发送
+     * <pre>
+     * 例如：
+     * CompletableFuture&lt;Long&gt; n = async.script(cache.script("reserve").key("stock:" + id).arg(count));
+     * </pre>
+     */
+    public <T> CompletableFuture<T> script(final JScriptCall call) {
+        String key = call.firstKey();
+        if (key == null)
+            throw new IllegalArgumentException("script without key can not be routed");
+        return submit(new Pending<T>(key, false) {
+            Response<Object> response;
+
+            Response<T> send(Pipeline pipeline) {
+                // 回复需要转换，完成时由 get() 读取
+                response = call.execute(pipeline);
+                return null;
+            }
+
+            @SuppressWarnings("unchecked")
+            T get() {
+                return (T) call.decode(response.get());
+            }
+        });
+    }
+
+    /**
+     * 尚未完成的命令数
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    // ---------
+
+    private JNearCache nearCacheOf(String key) {
+        JNearCache nearCache = cache.nearCache;
+        return (nearCache != null && nearCache.accept(key)) ? nearCache : null;
+    }
+
+    private <T> CompletableFuture<T> submit(Pending<T> command) {
+        if (stopped) {
+            command.future.completeExceptionally(stoppedException());
+            return command.future;
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            command.future.completeExceptionally(new JedisException("too many pending async commands of " + cache.getName()));
+            return command.future;
+        }
+        enqueue(command);
+        return command.future;
+    }
+
+    private void enqueue(Pending<?> command) {
+        JedisPool pool;
+        try {
+            pool = cache.router.poolOf(command.key);
+        } catch (RuntimeException e) {
+            fail(command, e);
+            return;
+        }
+        Batcher batcher = batchers.get(pool);
+        if (batcher == null) {
+            batcher = new Batcher(pool);
+            Batcher prev = batchers.putIfAbsent(pool, batcher);
+            if (prev != null)
+                batcher = prev;
+        }
+        batcher.add(command);
+    }
+
+    private void fail(Pending<?> command, Throwable e) {
+        pending.decrementAndGet();
+        command.future.completeExceptionally(e);
+    }
+
+    /**
+     * 在一个 pipeline 中发送一批命令。连接失败时整批失败；集群 slot 迁移时刷新路由表，
+     * 被重定向的命令重新入队一次
+     */
+    private void flush(JedisPool pool, List<Pending<?>> batch) {
+        Jedis jedis = null;
+        try {
+            jedis = cache.router.borrow(pool);
+            Pipeline pipeline = jedis.pipelined();
+            JScriptScope scripts = JScriptScope.open(pipeline, jedis);
+            boolean synced = false;
+            try {
+                for (Pending<?> command : batch) {
+                    try {
+                        command.sendTo(pipeline);
+                    } catch (IllegalArgumentException e) {
+                        // 自定义命令的参数错误只影响这一条命令
+                        fail(command, e);
+                    }
+                }
+                pipeline.sync();
+                synced = true;
+            } finally {
+                scripts.close(synced);
+            }
+        } catch (RuntimeException e) {
+            for (Pending<?> command : batch) {
+                if (!command.future.isDone())
+                    fail(command, e);
+            }
+            return;
+        } finally {
+            if (jedis != null)
+                cache.router.release(jedis);
+        }
+
+        invalidate(batch);
+
+        List<Pending<?>> redirected = null;
+        for (Pending<?> command : batch) {
+            if (command.future.isDone())
+                continue;
+            try {
+                command.complete();
+                pending.decrementAndGet();
+            } catch (JedisRedirectionException e) {
+                if (command.redirections-- > 0) {
+                    if (redirected == null)
+                        redirected = new ArrayList<Pending<?>>();
+                    redirected.add(command);
+                } else {
+                    fail(command, e);
+                }
+            } catch (RuntimeException e) {
+                fail(command, e);
+            }
+        }
+        if (redirected != null) {
+            cache.router.renew();
+            for (Pending<?> command : redirected)
+                enqueue(command);
+        }
+    }
+
+    /**
+     * 写命令完成前清除近端缓存及热点 key 的本地副本，future 完成后读到的一定不是写入前的本地副本
+     */
+    private void invalidate(List<Pending<?>> batch) {
+        JHotKeys hotKeys = cache.hotKeys;
+        if (hotKeys != null) {
+            for (Pending<?> command : batch) {
+                if (command.write)
+                    hotKeys.evict(command.key);
+            }
+        }
+        if (cache.nearCache == null)
+            return;
+        Set<String> keys = null;
+        for (Pending<?> command : batch) {
+            if (command.write && nearCacheOf(command.key) != null) {
+                if (keys == null)
+                    keys = new LinkedHashSet<String>();
+                keys.add(command.key);
+            }
+        }
+        if (keys == null)
+            return;
+        try {
+            cache.invalidate(keys.toArray(new String[keys.size()]));
+        } catch (RuntimeException e) {
+            log.warn("invalidate near cache of " + cache.getName() + " fail", e);
+        }
+    }
+
+    private ThreadPoolExecutor executor() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    // 每个节点最多一个任务在队列中，队列长度不超过节点数
+                    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "jredis-async-" + cache.getName() + "-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 等待已提交的命令发送完成，之后提交的命令直接失败
+     */
+    void stop() {
+        stopped = true;
+        ThreadPoolExecutor executor = this.executor;
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS))
+                    executor.shutdownNow();
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Batcher batcher : batchers.values())
+            batcher.failQueued();
+    }
+
+    private JedisException stoppedException() {
+        return new JedisException("async cache " + cache.getName() + " is stopped");
+    }
+
+    // ---------
+
+    /**
+     * 一个节点的命令队列，scheduled 保证同一时刻只有一个 flush 任务
+     */
+    private class Batcher implements Runnable {
+        final JedisPool pool;
+        final ConcurrentLinkedQueue<Pending<?>> queue = new ConcurrentLinkedQueue<Pending<?>>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Batcher(JedisPool pool) {
+            this.pool = pool;
+        }
+
+        void add(Pending<?> command) {
+            queue.add(command);
+            if (stopped) {
+                // stop() 清理队列之后才入队的命令不会再被发送
+                if (queue.remove(command))
+                    fail(command, stoppedException());
+                return;
+            }
+            if (scheduled.compareAndSet(false, true))
+                schedule();
+        }
+
+        private void schedule() {
+            try {
+                executor().execute(this);
+            } catch (RejectedExecutionException e) {
+                // 线程池已关闭，队列中的命令不会再被发送
+                scheduled.set(false);
+                failQueued();
+            }
+        }
+
+        void failQueued() {
+            Pending<?> command;
+            while ((command = queue.poll()) != null)
+                fail(command, stoppedException());
+        }
+
+        public void run() {
+            try {
+                List<Pending<?>> batch = new ArrayList<Pending<?>>();
+                Pending<?> command;
+                while (batch.size() < MAX_BATCH && (command = queue.poll()) != null)
+                    batch.add(command);
+                if (!batch.isEmpty())
+                    flush(pool, batch);
+            } catch (Throwable e) {
+                log.error("flush async commands of " + cache.getName() + " fail", e);
+            } finally {
+                scheduled.set(false);
+                // 本批执行期间到达的命令，重新排队让其他节点的任务有机会执行
+                if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+                    schedule();
+            }
+        }
+    }
+
+    /**
+     * 一条等待发送的命令，write 为 true 时完成前清除近端缓存
+     */
+    private static abstract class Pending<T> {
+        final String key;
+        final boolean write;
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        int redirections = 1;
+        private Response<T> response;
+
+        Pending(String key, boolean write) {
+            this.key = key;
+            this.write = write;
+        }
+
+        abstract Response<T> send(Pipeline pipeline);
+
+        /**
+         * 取得结果后、完成 future 之前回调
+         */
+        void received(T value) {
+        }
+
+        void sendTo(Pipeline pipeline) {
+            response = send(pipeline);
+        }
+
+        T get() {
+            return response.get();
+        }
+
+        void complete() {
+            T value = get();
+            received(value);
+            future.complete(value);
+        }
+    }
+}
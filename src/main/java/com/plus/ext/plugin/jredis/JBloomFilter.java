@@ -0,0 +1,230 @@
+package com.plus.ext.plugin.jredis;
+
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import redis.clients.jedis.Pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BloomFilter.
+ * 基于 Redis 位图的布隆过滤器，全部位保存在名为 name 的字符串中，多个进程共享。
+ * mightContain 返回 false 时元素一定未添加过，返回 true 时有 fpp 的概率误判；元素不能删除。
+ * <p/>
+ * 位数 m 及哈希函数个数 k 由 expectedInsertions 及 fpp 计算，同一个 name 必须使用相同的参数，
+ * 否则已添加的元素会被判定为不存在。每次 add/mightContain 是一个含 k 条 SETBIT/GETBIT 的 pipeline，
+ * 只有一次网络往返。Redis 字符串最多 2^32 位，一千万元素、1% 误判率约占用 12MB
+ * <pre>
+ * 例如：
+ * JBloomFilter seen = JRedis.use().bloomFilter("seen:article", 10000000, 0.01);
+ * seen.addAll(urls);
+ * if (!seen.mightContain(url))
+ *     ...
+ * </pre>
+ */
+public class JBloomFilter {
+
+    /**
+     * Redis 字符串的最大位数
+     */
+    static final long MAX_BITS = 1L << 32;
+
+    /**
+     * addAll/mightContainAll 每个 pipeline 的元素数，避免一次缓存过多响应
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private final JCache cache;
+    private final String name;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long bitSize;
+    private final int hashCount;
+
+    JBloomFilter(JCache cache, String name, long expectedInsertions, double fpp) {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("bloom filter name can not be empty");
+        if (expectedInsertions <= 0)
+            throw new IllegalArgumentException("expectedInsertions must be greater than 0");
+        if (fpp <= 0 || fpp >= 1)
+            throw new IllegalArgumentException("fpp must be in (0, 1)");
+        long bitSize = optimalBitSize(expectedInsertions, fpp);
+        if (bitSize > MAX_BITS)
+            throw new IllegalArgumentException("bloom filter " + name + " needs " + bitSize
+                    + " bits, more than the 2^32 bits a redis string can hold");
+        this.cache = cache;
+        this.name = name;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.bitSize = bitSize;
+        this.hashCount = optimalHashCount(expectedInsertions, bitSize);
+    }
+
+    static long optimalBitSize(long n, double p) {
+        return Math.max(64, (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2))));
+    }
+
+    static int optimalHashCount(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    /**
+     * 元素对应的 k 个位，以 murmur3 128 位哈希的两半做双重哈希
+     */
+    long[] offsets(String value) {
+        byte[] hash = Hashing.murmur3_128().hashString(value, StandardCharsets.UTF_8).asBytes();
+        long hash1 = Longs.fromBytes(hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]);
+        long hash2 = Longs.fromBytes(hash[15], hash[14], hash[13], hash[12], hash[11], hash[10], hash[9], hash[8]);
+        long[] offsets = new long[hashCount];
+        long combined = hash1;
+        for (int i = 0; i < hashCount; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % bitSize;
+            combined += hash2;
+        }
+        return offsets;
+    }
+
+    /**
+     * 添加元素
+     *
+     * @return 至少有一位由 0 变为 1 时返回 true，即元素之前一定不存在；false 表示元素可能已存在
+     */
+    public boolean add(String value) {
+        final long[] offsets = offsets(value);
+        List<Object> result = cache.pipelined(name, new JIPipelineCallback() {
+            public void call(Pipeline pipeline) {
+                for (long offset : offsets)
+                    pipeline.setbit(name, offset, true);
+            }
+        });
+        return hasZero(result, 0, offsets.length);
+    }
+
+    /**
+     * 批量添加，每 1000 个元素一个 pipeline
+     *
+     * @return 之前一定不存在的元素数
+     */
+    public long addAll(Collection<String> values) {
+        long added = 0;
+        Iterator<String> it = values.iterator();
+        while (it.hasNext()) {
+            final List<long[]> batch = nextBatch(it);
+            List<Object> result = cache.pipelined(name, new JIPipelineCallback() {
+                public void call(Pipeline pipeline) {
+                    for (long[] offsets : batch) {
+                        for (long offset : offsets)
+                            pipeline.setbit(name, offset, true);
+                    }
+                }
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                if (hasZero(result, i * hashCount, hashCount))
+                    added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 元素是否可能已添加，返回 false 时一定未添加
+     */
+    public boolean mightContain(String value) {
+        final long[] offsets = offsets(value);
+        List<Object> result = cache.readPipelined(name, new JIPipelineCallback() {
+            public void call(Pipeline pipeline) {
+                for (long offset : offsets)
+                    pipeline.getbit(name, offset);
+            }
+        });
+        return !hasZero(result, 0, offsets.length);
+    }
+
+    /**
+     * 批量判断，结果与 values 的顺序一致
+     */
+    public List<Boolean> mightContainAll(Collection<String> values) {
+        List<Boolean> contains = new ArrayList<Boolean>(values.size());
+        Iterator<String> it = values.iterator();
+        while (it.hasNext()) {
+            final List<long[]> batch = nextBatch(it);
+            List<Object> result = cache.readPipelined(name, new JIPipelineCallback() {
+                public void call(Pipeline pipeline) {
+                    for (long[] offsets : batch) {
+                        for (long offset : offsets)
+                            pipeline.getbit(name, offset);
+                    }
+                }
+            });
+            for (int i = 0; i < batch.size(); i++)
+                contains.add(!hasZero(result, i * hashCount, hashCount));
+        }
+        return contains;
+    }
+
+    /**
+     * 根据已置位的位数估计已添加的元素数
+     */
+    public long approximateElementCount() {
+        long bitCount = cache.bitcount(name);
+        if (bitCount >= bitSize)
+            return Long.MAX_VALUE;
+        return Math.round(-Math.log1p(-(double) bitCount / bitSize) * bitSize / hashCount);
+    }
+
+    /**
+     * 设置过期时间，例如按天轮换的过滤器
+     */
+    public Long expire(int seconds) {
+        return cache.expire(name, seconds);
+    }
+
+    /**
+     * 删除过滤器，全部元素被清除
+     */
+    public Long delete() {
+        return cache.del(name);
+    }
+
+    /**
+     * 计算下一批(最多 BATCH_SIZE 个)元素的偏移量，大批量添加时内存只与一批的大小有关
+     */
+    private List<long[]> nextBatch(Iterator<String> it) {
+        List<long[]> batch = new ArrayList<long[]>(BATCH_SIZE);
+        while (batch.size() < BATCH_SIZE && it.hasNext())
+            batch.add(offsets(it.next()));
+        return batch;
+    }
+
+    private static boolean hasZero(List<Object> bits, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            if (!Boolean.TRUE.equals(bits.get(i)))
+                return true;
+        }
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getFpp() {
+        return fpp;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+}
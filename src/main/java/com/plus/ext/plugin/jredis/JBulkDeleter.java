@@ -0,0 +1,328 @@
+package com.plus.ext.plugin.jredis;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.jfinal.kit.StrKit;
+import com.jfinal.log.Log;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BulkDeleter.
+ * 按 pattern 通过 SCAN 逐页扫描 key，并以 pipeline 批量 UNLINK(redis 4.0 以下自动退回 DEL)删除，
+ * 支持限速、多线程删除及进度回调，可用于任意一个 JRedis 中的 cache
+ * <pre>
+ * 例如：
+ * JBulkDeleter.Result result = new JBulkDeleter(JRedis.use("session"))
+ *         .match("SESSION:*")
+ *         .scanCount(1000)
+ *         .keysPerSecond(20000)
+ *         .threads(2)
+ *         .execute();
+ * </pre>
+ */
+public class JBulkDeleter {
+
+    private static final Log log = Log.getLog(JBulkDeleter.class);
+
+    /**
+     * UNLINK 在 redis 4.0 才加入，jedis 2.9 没有对应 api，通过脚本调用
+     */
+    static final JScript UNLINK_SCRIPT = JScript.of("return redis.call('UNLINK', unpack(KEYS))");
+    private static final int MAX_BATCH_SIZE = 5000;
+
+    /**
+     * 进度回调，多线程删除时会在不同线程中被调用
+     */
+    public interface Listener {
+        void onProgress(long scanned, long deleted);
+    }
+
+    public static class Result {
+        private final long scanned;
+        private final long deleted;
+        private final long batches;
+        private final long elapsedMillis;
+
+        Result(long scanned, long deleted, long batches, long elapsedMillis) {
+            this.scanned = scanned;
+            this.deleted = deleted;
+            this.batches = batches;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getScanned() {
+            return scanned;
+        }
+
+        public long getDeleted() {
+            return deleted;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "scanned=" + scanned + ", deleted=" + deleted + ", batches=" + batches + ", elapsedMillis=" + elapsedMillis;
+        }
+    }
+
+    private final JCache cache;
+    private String pattern;
+    private int scanCount = 1000;
+    private int batchSize = 100;
+    private double keysPerSecond = 0;
+    private int threads = 1;
+    private boolean unlink = true;
+    private Listener listener;
+
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile boolean useUnlink;
+    private RateLimiter rateLimiter;
+
+    public JBulkDeleter(JCache cache) {
+        if (cache == null)
+            throw new IllegalArgumentException("cache can not be null");
+        this.cache = cache;
+    }
+
+    /**
+     * 要删除的 key 的模式，例如: USER:1:*，不允许为空或 *
+     */
+    public JBulkDeleter match(String pattern) {
+        this.pattern = pattern;
+        return this;
+    }
+
+    /**
+     * 每次 SCAN 的 COUNT 提示值
+     */
+    public JBulkDeleter scanCount(int scanCount) {
+        this.scanCount = scanCount;
+        return this;
+    }
+
+    /**
+     * 每条 UNLINK/DEL 命令包含的 key 数量，一页 SCAN 结果拆成多条命令放在同一个 pipeline 中
+     */
+    public JBulkDeleter batchSize(int batchSize) {
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE)
+            throw new IllegalArgumentException("batchSize must between 1 and " + MAX_BATCH_SIZE);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 每秒最多删除的 key 数量，小于等于 0 表示不限速
+     */
+    public JBulkDeleter keysPerSecond(double keysPerSecond) {
+        this.keysPerSecond = keysPerSecond;
+        return this;
+    }
+
+    /**
+     * 并发执行删除的线程数，SCAN 始终在调用线程中顺序执行
+     */
+    public JBulkDeleter threads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be greater than 0");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * 是否优先使用 UNLINK 在后台释放内存，默认 true
+     */
+    public JBulkDeleter unlink(boolean unlink) {
+        this.unlink = unlink;
+        return this;
+    }
+
+    public JBulkDeleter listener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 执行删除，任一批次失败时停止扫描并抛出异常，已删除的 key 不会恢复
+     */
+    public Result execute() {
+        if (StrKit.isBlank(pattern) || "*".equals(pattern.trim()))
+            throw new IllegalArgumentException("pattern can not be blank or *, use flushDB instead");
+        long start = System.currentTimeMillis();
+        scanned.set(0);
+        deleted.set(0);
+        batches.set(0);
+        useUnlink = unlink;
+        rateLimiter = keysPerSecond > 0 ? RateLimiter.create(keysPerSecond) : null;
+        ScanParams params = new ScanParams().match(pattern).count(scanCount);
+
+        if (threads == 1)
+            executeInCurrentThread(params);
+        else
+            executeInPool(params);
+
+        Result result = new Result(scanned.get(), deleted.get(), batches.get(), System.currentTimeMillis() - start);
+        log.info("bulk delete " + pattern + " on cache " + cache.getName() + ": " + result);
+        return result;
+    }
+
+    private void executeInCurrentThread(ScanParams params) {
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            ScanResult<String> page = cache.scan(cursor, params);
+            cursor = page.getStringCursor();
+            scanned.addAndGet(page.getResult().size());
+            delete(page.getResult());
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+    }
+
+    private void executeInPool(ScanParams params) {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        // 限制排队中的页数，扫描速度快于删除时阻塞扫描线程
+        final Semaphore permits = new Semaphore(threads * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jredis-bulk-delete-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> page = cache.scan(cursor, params);
+                cursor = page.getStringCursor();
+                scanned.addAndGet(page.getResult().size());
+
+                final List<String> keys = page.getResult();
+                if (keys.isEmpty())
+                    continue;
+                permits.acquire();
+                if (failure.get() != null)
+                    break;
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            delete(keys);
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor) && failure.get() == null);
+
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisException("bulk delete interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t != null)
+            throw new JedisException("bulk delete fail", t);
+    }
+
+    private void delete(List<String> keys) {
+        if (keys.isEmpty())
+            return;
+        if (rateLimiter != null)
+            rateLimiter.acquire(keys.size());
+
+        long count;
+        if (!cache.isSingleNode()) {
+            // 集群及分片模式下 key 分布在多个节点，按节点分组并行 DEL
+            count = cache.del(keys.toArray(new String[keys.size()]));
+        } else {
+            count = deletePage(keys, true);
+            cache.invalidate(keys.toArray(new String[keys.size()]));
+        }
+        batches.incrementAndGet();
+        long total = deleted.addAndGet(count);
+        if (listener != null)
+            listener.onProgress(scanned.get(), total);
+    }
+
+    /**
+     * 在一个 pipeline 中删除一页 key，返回删除的数量。重做本页时不再限速，DEL/UNLINK 对已删除的 key 是幂等的
+     *
+     * @param reload 收到 NOSCRIPT 时是否重做本页
+     */
+    private long deletePage(final List<String> keys, boolean reload) {
+        final boolean unlinkThisPage = useUnlink;
+        List<Object> replies = cache.pipelined(new JIPipelineCallback() {
+            public void call(Pipeline pipeline) {
+                for (int from = 0; from < keys.size(); from += batchSize) {
+                    List<String> batch = keys.subList(from, Math.min(from + batchSize, keys.size()));
+                    if (unlinkThisPage) {
+                        cache.script(UNLINK_SCRIPT).keys(batch.toArray(new String[batch.size()])).execute(pipeline);
+                    } else {
+                        pipeline.del(batch.toArray(new String[batch.size()]));
+                    }
+                }
+            }
+        });
+
+        long count = 0;
+        JedisDataException error = null;
+        for (Object reply : replies) {
+            if (reply instanceof JedisDataException) {
+                if (error == null)
+                    error = (JedisDataException) reply;
+            } else {
+                count += (Long) reply;
+            }
+        }
+        if (error == null)
+            return count;
+        if (error instanceof JedisNoScriptException && reload) {
+            // 节点重启、故障转移或 SCRIPT FLUSH 后脚本不在缓存中，pipeline 关闭时已清除该节点的记录，重做时发送 EVAL
+            return count + deletePage(keys, false);
+        }
+        if (unlinkThisPage && isUnknownCommand(error)) {
+            log.warn("UNLINK not available on cache " + cache.getName() + ", fall back to DEL: " + error.getMessage());
+            useUnlink = false;
+            return count + deletePage(keys, false);
+        }
+        throw error;
+    }
+
+    /**
+     * redis 4.0 以下在脚本中调用 UNLINK 返回 Unknown Redis command called from Lua script，
+     * 其他错误(如 NOSCRIPT、OOM)不退回 DEL
+     */
+    private static boolean isUnknownCommand(JedisDataException e) {
+        String message = e.getMessage();
+        if (message == null)
+            return false;
+        message = message.toLowerCase();
+        return message.contains("unknown redis command") || message.contains("unknown command");
+    }
+}
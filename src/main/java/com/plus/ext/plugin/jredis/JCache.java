@@ -19,10 +19,23 @@ package com.plus.ext.plugin.jredis;
 import com.jfinal.plugin.redis.IKeyNamingPolicy;
 import com.jfinal.plugin.redis.serializer.ISerializer;
 import redis.clients.jedis.*;
-
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
 
 /**
  * Cache.
@@ -34,17 +47,202 @@ import java.util.Set;
 public class JCache {
 
     final String name;
-    final JedisPool jedisPool;
+    final JRedisRouter router;
     final ISerializer serializer;
     final IKeyNamingPolicy keyNamingPolicy;
 
-    private final ThreadLocal<Jedis> threadLocalJedis = new ThreadLocal<Jedis>();
+    JRedisNode node;
+    JNearCache nearCache;
+    JHotKeys hotKeys;
+
+    /**
+     * pfadd 批量添加时每条命令的元素数
+     */
+    static final int BATCH_ELEMENTS = 1000;
+
+    private final ThreadLocal<Jedis> threadLocalJedis;
+    private final ThreadLocal<Boolean> primaryReads;
+    private final boolean readFromPrimary;
+    private final JObjectCache objectCache;
+    private final JLockSupport locks;
+    private final ConcurrentMap<String, JScript> scripts;
+    private final Set<JQueueConsumer> queueConsumers;
+    private final JAsyncCache async;
+    private final JRefresher refresher;
+    private volatile JCache primary;
 
-    JCache(String name, JedisPool jedisPool, ISerializer serializer, IKeyNamingPolicy keyNamingPolicy) {
+    JCache(String name, JRedisRouter router, ISerializer serializer, IKeyNamingPolicy keyNamingPolicy) {
         this.name = name;
-        this.jedisPool = jedisPool;
+        this.router = router;
         this.serializer = serializer;
         this.keyNamingPolicy = keyNamingPolicy;
+        this.threadLocalJedis = new ThreadLocal<Jedis>();
+        this.primaryReads = new ThreadLocal<Boolean>();
+        this.readFromPrimary = false;
+        this.objectCache = new JObjectCache(this);
+        this.locks = new JLockSupport(this);
+        this.scripts = new ConcurrentHashMap<String, JScript>();
+        this.queueConsumers = Collections.newSetFromMap(new ConcurrentHashMap<JQueueConsumer, Boolean>());
+        this.async = new JAsyncCache(this);
+        this.refresher = new JRefresher(name);
+    }
+
+    /**
+     * 只从主节点读取的视图，与 source 共用连接池、近端缓存及线程内共享的 jedis
+     */
+    private JCache(JCache source) {
+        this.name = source.name;
+        this.router = source.router;
+        this.serializer = source.serializer;
+        this.keyNamingPolicy = source.keyNamingPolicy;
+        this.node = source.node;
+        this.nearCache = source.nearCache;
+        this.hotKeys = source.hotKeys;
+        this.threadLocalJedis = source.threadLocalJedis;
+        this.primaryReads = source.primaryReads;
+        this.readFromPrimary = true;
+        this.objectCache = new JObjectCache(this);
+        this.locks = source.locks;
+        this.scripts = source.scripts;
+        this.queueConsumers = source.queueConsumers;
+        this.async = source.async;
+        this.refresher = source.refresher;
+        this.primary = this;
+    }
+
+    /**
+     * 配置了从节点(JRedisPlugin.setReplicas)时，只读命令默认由从节点处理，可能读到复制延迟中的旧数据。
+     * 返回的 cache 的全部读命令都由主节点处理，用于单次调用的"读己之写"
+     * <pre>
+     * 例子：
+     * cache.set("order:" + id, status);
+     * cache.primary().get("order:" + id);
+     * </pre>
+     */
+    public JCache primary() {
+        JCache primary = this.primary;
+        if (primary == null) {
+            primary = new JCache(this);
+            this.primary = primary;
+        }
+        return primary;
+    }
+
+    /**
+     * 回调中当前线程通过本 cache 发出的全部读命令都由主节点处理，用于一段流程内的"读己之写"
+     * <pre>
+     * 例子：
+     * cache.readFromPrimary(new JICallback() {
+     *     public &lt;T&gt; T call(JCache cache) {
+     *         cache.incr("stock:" + id);
+     *         return (T) cache.get("stock:" + id);
+     *     }
+     * });
+     * </pre>
+     */
+    public <T> T readFromPrimary(JICallback callback) {
+        if (primaryReads.get() != null)
+            return callback.call(this);
+        primaryReads.set(Boolean.TRUE);
+        try {
+            return callback.call(this);
+        } finally {
+            primaryReads.remove();
+        }
+    }
+
+    /**
+     * 对象 api：key 经过 keyNamingPolicy 命名，value 经过插件配置的 ISerializer 序列化后存取，
+     * 与本 cache 共用连接池及线程内共享的 jedis
+     * <pre>
+     * 例子：
+     * JRedis.use().objects().setex("user:" + id, 3600, user);
+     * User user = JRedis.use().objects().get("user:" + id);
+     * </pre>
+     */
+    public JObjectCache objects() {
+        return objectCache;
+    }
+
+    /**
+     * 异步 api，命令返回 CompletableFuture，同一节点上同时提交的命令自动合并为 pipeline，全部由主节点处理
+     * <pre>
+     * 例子：
+     * CompletableFuture&lt;String&gt; name = JRedis.use().async().hget("user:" + id, "name");
+     * CompletableFuture&lt;Long&gt; score = JRedis.use().async().incr("score:" + id);
+     * </pre>
+     */
+    public JAsyncCache async() {
+        return async;
+    }
+
+    /**
+     * 以 name 为 key 的可重入分布式锁，同一个 name 可以多次获取，共享持有状态
+     * <pre>
+     * 例子：
+     * JLock lock = JRedis.use().getLock("lock:stock:" + skuId);
+     * lock.lock();
+     * try {
+     *     ...
+     * } finally {
+     *     lock.unlock();
+     * }
+     * </pre>
+     */
+    public JLock getLock(String name) {
+        return new JLock(locks, name);
+    }
+
+    /**
+     * 停止锁的续租及解锁消息订阅
+     */
+    void stopLocks() {
+        locks.stop();
+    }
+
+    /**
+     * 以 name 为 key 的可靠队列，集群及分片模式下 name 中必须含有 {tag}
+     * <pre>
+     * 例子：
+     * JRedis.use().queue("{mail}").push(JSON.toJSONString(mail));
+     * </pre>
+     */
+    public JQueue queue(String name) {
+        return new JQueue(this, name);
+    }
+
+    void addQueueConsumer(JQueueConsumer consumer) {
+        queueConsumers.add(consumer);
+    }
+
+    void removeQueueConsumer(JQueueConsumer consumer) {
+        queueConsumers.remove(consumer);
+    }
+
+    /**
+     * 停止全部仍在运行的队列消费者，未处理的消息移回队列
+     */
+    void stopQueues() {
+        for (JQueueConsumer consumer : new ArrayList<JQueueConsumer>(queueConsumers))
+            consumer.stop();
+    }
+
+    /**
+     * 等待已提交的异步命令发送完成
+     */
+    void stopAsync() {
+        async.stop();
+    }
+
+    JRefresher refresher() {
+        return refresher;
+    }
+
+    /**
+     * 停止 objects().fetch(...) 的后台刷新
+     */
+    void stopRefresher() {
+        refresher.stop();
     }
 
     /**
@@ -53,12 +251,13 @@ public class JCache {
      * 对于某个原本带有生存时间（TTL）的键来说， 当 SET 命令成功在这个键上执行时， 这个键原有的 TTL 将被清除。
      */
     public String set(String key, String value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.set(key, value);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.set(key, value);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -66,49 +265,170 @@ public class JCache {
      * 如果 key 已经存在， SETEX 命令将覆写旧值。
      */
     public String setex(String key, int seconds, String value) {
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.setex(key, seconds, value);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 批量写入并设置过期时间，每个 key 的过期时间在 [seconds * (1 - jitter), seconds] 之间随机，
+     * 避免同一批写入的 key 在同一时刻过期后同时回源。集群及分片模式下按节点分组并行写入
+     * <pre>
+     * 例子：
+     * cache.msetex(configs, 3600, 0.1);
+     * </pre>
+     *
+     * @param jitter 0 到 1 之间，0 表示不随机
+     */
+    public String msetex(Map<String, String> keysValues, int seconds, double jitter) {
+        if (keysValues.isEmpty())
+            return "OK";
+        byte[][] kv = new byte[keysValues.size() * 2][];
+        int[] ttls = new int[keysValues.size()];
+        String[] keys = new String[keysValues.size()];
+        int i = 0;
+        for (Map.Entry<String, String> e : keysValues.entrySet()) {
+            keys[i] = e.getKey();
+            kv[i * 2] = SafeEncoder.encode(e.getKey());
+            kv[i * 2 + 1] = SafeEncoder.encode(e.getValue());
+            ttls[i] = jitter(seconds, jitter);
+            i++;
+        }
+        String result = msetex(kv, ttls);
+        invalidate(keys);
+        return result;
+    }
+
+    String msetex(byte[][] keysValues, int[] seconds) {
+        if (!router.isSingleNode())
+            return router.msetex(keysValues, seconds);
+        List<byte[]> keys = new ArrayList<byte[]>(seconds.length);
+        List<byte[]> args = new ArrayList<byte[]>(seconds.length * 2);
+        for (int i = 0; i < seconds.length; i++) {
+            keys.add(keysValues[i * 2]);
+            args.add(Protocol.toByteArray(seconds[i]));
+            args.add(keysValues[i * 2 + 1]);
+        }
         Jedis jedis = getJedis();
         try {
-            return jedis.setex(key, seconds, value);
+            jedis.eval(JRedisRouter.MSETEX_SCRIPT.sourceBytes(), keys, args);
+            return "OK";
         } finally {
             close(jedis);
         }
     }
 
+    /**
+     * 在 [seconds * (1 - jitter), seconds] 之间随机选取过期时间，不会超过 seconds
+     */
+    static int jitter(int seconds, double jitter) {
+        if (seconds <= 0)
+            throw new IllegalArgumentException("seconds must be greater than 0");
+        if (jitter < 0 || jitter > 1)
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        int range = (int) (seconds * jitter);
+        if (range == 0)
+            return seconds;
+        return Math.max(1, seconds - ThreadLocalRandom.current().nextInt(range + 1));
+    }
+
     /**
      * 返回 key 所关联的 value 值
      * 如果 key 不存在那么返回特殊值 nil 。
+     * 开启近端缓存(JRedisPlugin.setNearCache)时优先从本地缓存读取，
+     * 开启热点 key 本地提升(JRedisPlugin.setHotKeys)时热点 key 从本地短时缓存读取。
      */
     @SuppressWarnings("unchecked")
     public String get(String key) {
-        Jedis jedis = getJedis();
+        JNearCache nearCache = nearCacheOf(key);
+        if (nearCache == null) {
+            JHotKeys hotKeys = this.hotKeys;
+            if (hotKeys != null && hotKeys.isPromoting(key))
+                return getPromoted(hotKeys, key);
+            return getFromRedis(key, false);
+        }
+
+        Object value = nearCache.get(key);
+        if (value != null)
+            return (String) value;
+        long stamp = nearCache.stamp();
+        // 回填近端缓存的值从主节点读取，避免把从节点复制延迟中的旧值缓存到本地
+        String result = getFromRedis(key, true);
+        nearCache.put(key, result, stamp);
+        return result;
+    }
+
+    private String getPromoted(JHotKeys hotKeys, String key) {
+        Object value = hotKeys.getPromoted(key);
+        if (value != null) {
+            // 本地命中也计入访问频率，否则热点 key 会因为不再访问 Redis 而退出
+            hotKeys.record(key);
+            return (String) value;
+        }
+        long stamp = hotKeys.stamp();
+        String result = getFromRedis(key, true);
+        hotKeys.promote(key, result, stamp);
+        return result;
+    }
+
+    private String getFromRedis(String key, boolean primary) {
+        JRedisRouter.NodeCallback<String> get = new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.get(key);
+            }
+        };
         try {
-            return jedis.get(key);
-        } finally {
-            close(jedis);
+            return primary ? execute(key, get) : executeRead(key, get);
+        } catch (JRedisCircuitOpenException e) {
+            return fallback("GET", key, e);
         }
     }
 
+    /**
+     * 二进制 key 的 GET，不经过近端缓存及序列化，供自行编码 value 的场合(如 shiro 缓存)使用
+     */
+    public byte[] get(byte[] key) {
+        return executeRead(key, new JRedisRouter.NodeCallback<byte[]>() {
+            public byte[] call(Jedis jedis) {
+                return jedis.get(key);
+            }
+        });
+    }
+
     /**
      * 删除给定的一个 key
      * 不存在的 key 会被忽略。
      */
     public Long del(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.del(key);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.del(key);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 删除给定的多个 key
      * 不存在的 key 会被忽略。
+     * 集群及分片模式下按节点分组并行删除。
      */
     public Long del(String... keys) {
+        if (!router.isSingleNode()) {
+            Long result = router.del(keysToBytes(keys));
+            invalidate(keys);
+            return result;
+        }
         Jedis jedis = getJedis();
         try {
-            return jedis.del(keys);
+            Long result = jedis.del(keys);
+            invalidate(jedis, keys);
+            return result;
         } finally {
             close(jedis);
         }
@@ -121,9 +441,20 @@ public class JCache {
      * KEYS h*llo 匹配 hllo 和 heeeeello 等。
      * KEYS h[ae]llo 匹配 hello 和 hallo ，但不匹配 hillo 。
      * 特殊符号用 \ 隔开
+     * 集群及分片模式下返回全部主节点结果的并集。
      */
-    public Set<String> keys(String pattern) {
-        Jedis jedis = getJedis();
+    public Set<String> keys(final String pattern) {
+        if (!router.isSingleNode()) {
+            Set<String> result = new HashSet<String>();
+            for (Set<String> keys : router.broadcast(new JRedisRouter.NodeCallback<Set<String>>() {
+                public Set<String> call(Jedis jedis) {
+                    return jedis.keys(pattern);
+                }
+            }))
+                result.addAll(keys);
+            return result;
+        }
+        Jedis jedis = getReadJedis();
         try {
             return jedis.keys(pattern);
         } finally {
@@ -145,9 +476,17 @@ public class JCache {
     public String mset(String... keysValues) {
         if (keysValues.length % 2 != 0)
             throw new IllegalArgumentException("wrong number of arguments for met, keysValues length can not be odd");
+        if (!router.isSingleNode()) {
+            // 按节点分组执行，不同节点之间不再是原子操作
+            String result = router.mset(keysToBytes(keysValues));
+            invalidate(keysOf(keysValues));
+            return result;
+        }
         Jedis jedis = getJedis();
         try {
-            return jedis.mset(keysValues);
+            String result = jedis.mset(keysValues);
+            invalidate(jedis, keysOf(keysValues));
+            return result;
         } finally {
             close(jedis);
         }
@@ -159,7 +498,13 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List mget(String... keys) {
-        Jedis jedis = getJedis();
+        if (!router.isSingleNode()) {
+            List<String> result = new ArrayList<String>(keys.length);
+            for (byte[] value : router.mget(keysToBytes(keys)))
+                result.add(value != null ? SafeEncoder.encode(value) : null);
+            return result;
+        }
+        Jedis jedis = getReadJedis();
         try {
             return jedis.mget(keys);
         } finally {
@@ -175,12 +520,13 @@ public class JCache {
      * 关于递增(increment) / 递减(decrement)操作的更多信息，请参见 INCR 命令。
      */
     public Long decr(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.decr(key);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.decr(key);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -191,12 +537,13 @@ public class JCache {
      * 关于更多递增(increment) / 递减(decrement)操作的更多信息，请参见 INCR 命令。
      */
     public Long decrBy(String key, long longValue) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.decrBy(key, longValue);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.decrBy(key, longValue);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -206,12 +553,13 @@ public class JCache {
      * 本操作的值限制在 64 位(bit)有符号数字表示之内。
      */
     public Long incr(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.incr(key);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.incr(key);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -222,31 +570,40 @@ public class JCache {
      * 关于递增(increment) / 递减(decrement)操作的更多信息，参见 INCR 命令。
      */
     public Long incrBy(String key, long longValue) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.incrBy(key, longValue);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.incrBy(key, longValue);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 检查给定 key 是否存在。
      */
     public boolean exists(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.exists(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.exists(key);
+            }
+        });
     }
 
     /**
      * 从当前数据库中随机返回(不删除)一个 key 。
      */
     public String randomKey() {
-        Jedis jedis = getJedis();
+        if (!router.isSingleNode()) {
+            List<JedisPool> masters = router.masters();
+            Jedis jedis = router.borrow(masters.get(ThreadLocalRandom.current().nextInt(masters.size())));
+            try {
+                return jedis.randomKey();
+            } finally {
+                router.release(jedis);
+            }
+        }
+        Jedis jedis = getReadJedis();
         try {
             return jedis.randomKey();
         } finally {
@@ -260,9 +617,11 @@ public class JCache {
      * 当 newkey 已经存在时， RENAME 命令将覆盖旧值。
      */
     public String rename(String oldkey, String newkey) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getJedis(oldkey, newkey);
         try {
-            return jedis.rename(oldkey, newkey);
+            String result = jedis.rename(oldkey, newkey);
+            invalidate(jedis, oldkey, newkey);
+            return result;
         } finally {
             close(jedis);
         }
@@ -274,24 +633,26 @@ public class JCache {
      * 因此，也可以利用这一特性，将 MOVE 当作锁(locking)原语(primitive)。
      */
     public Long move(String key, int dbIndex) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.move(key, dbIndex);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.move(key, dbIndex);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 将 key 原子性地从当前实例传送到目标实例的指定数据库上，一旦传送成功， key 保证会出现在目标实例上，而当前实例上的 key 会被删除。
      */
     public String migrate(String host, int port, String key, int destinationDb, int timeout) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.migrate(host, port, key, destinationDb, timeout);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.migrate(host, port, key, destinationDb, timeout);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -302,6 +663,7 @@ public class JCache {
      * 1：使用 RedisInterceptor，在本线程内共享同一个 Jedis 对象
      * 2：使用 Redis.call(ICallback) 进行操作
      * 2：自行获取 Jedis 对象进行操作
+     * 仅支持单机模式
      */
     public String select(int databaseIndex) {
         Jedis jedis = getJedis();
@@ -317,48 +679,52 @@ public class JCache {
      * 在 Redis 中，带有生存时间的 key 被称为『易失的』(volatile)。
      */
     public Long expire(String key, int seconds) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.expire(key, seconds);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.expire(key, seconds);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 这个命令和 EXPIREAT 命令类似，但它以毫秒为单位设置 key 的过期 unix 时间戳，而不是像 EXPIREAT 那样，以秒为单位。
      */
     public Long expireAt(String key, long unixTime) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.expireAt(key, unixTime);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.expireAt(key, unixTime);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 这个命令和 EXPIRE 命令的作用类似，但是它以毫秒为单位设置 key 的生存时间，而不像 EXPIRE 命令那样，以秒为单位。
      */
     public Long pexpire(String key, long milliseconds) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.pexpire(key, milliseconds);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.pexpire(key, milliseconds);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 这个命令和 EXPIREAT 命令类似，但它以毫秒为单位设置 key 的过期 unix 时间戳，而不是像 EXPIREAT 那样，以秒为单位。
      */
     public Long pexpireAt(String key, long millisecondsTimestamp) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.pexpireAt(key, millisecondsTimestamp);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.pexpireAt(key, millisecondsTimestamp);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -367,84 +733,81 @@ public class JCache {
      */
     @SuppressWarnings("unchecked")
     public String getSet(String key, String value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.getSet(key, value);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.getSet(key, value);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 移除给定 key 的生存时间，将这个 key 从『易失的』(带生存时间 key )转换成『持久的』(一个不带生存时间、永不过期的 key )。
      */
     public Long persist(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.persist(key);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.persist(key);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 返回 key 所储存的值的类型。
      */
     public String type(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.type(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.type(key);
+            }
+        });
     }
 
     /**
      * 以秒为单位，返回给定 key 的剩余生存时间(TTL, time to live)。
      */
     public Long ttl(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.ttl(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.ttl(key);
+            }
+        });
     }
 
     /**
      * 这个命令类似于 TTL 命令，但它以毫秒为单位返回 key 的剩余生存时间，而不是像 TTL 命令那样，以秒为单位。
      */
     public Long pttl(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.pttl(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.pttl(key);
+            }
+        });
     }
 
     /**
      * 对象被引用的数量
      */
     public Long objectRefcount(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.objectRefcount(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.objectRefcount(key);
+            }
+        });
     }
 
     /**
      * 对象没有被访问的空闲时间
      */
     public Long objectIdletime(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.objectIdletime(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.objectIdletime(key);
+            }
+        });
     }
 
     /**
@@ -453,12 +816,13 @@ public class JCache {
      * 如果域 field 已经存在于哈希表中，旧值将被覆盖。
      */
     public Long hset(String key, String field, String value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hset(key, field, value);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.hset(key, field, value);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -467,24 +831,44 @@ public class JCache {
      * 如果 key 不存在，一个空哈希表被创建并执行 HMSET 操作。
      */
     public String hmset(String key, Map<String, String> hash) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hmset(key, hash);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.hmset(key, hash);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 返回哈希表 key 中给定域 field 的值。
+     * 开启近端缓存(JRedisPlugin.setNearCache)时优先从本地缓存读取。
      */
     @SuppressWarnings("unchecked")
     public String hget(String key, String field) {
-        Jedis jedis = getJedis();
+        JNearCache nearCache = nearCacheOf(key);
+        if (nearCache == null)
+            return hgetFromRedis(key, field, false);
+
+        Object value = nearCache.hget(key, field);
+        if (value != null)
+            return (String) value;
+        long stamp = nearCache.stamp();
+        String result = hgetFromRedis(key, field, true);
+        nearCache.hput(key, field, result, stamp);
+        return result;
+    }
+
+    private String hgetFromRedis(String key, String field, boolean primary) {
+        JRedisRouter.NodeCallback<String> hget = new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.hget(key, field);
+            }
+        };
         try {
-            return jedis.hget(key, field);
-        } finally {
-            close(jedis);
+            return primary ? execute(key, hget) : executeRead(key, hget);
+        } catch (JRedisCircuitOpenException e) {
+            return fallback("HGET", key, e);
         }
     }
 
@@ -495,36 +879,46 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List<String> hmget(String key, String... fields) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hmget(key, fields);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<List<String>>() {
+            public List<String> call(Jedis jedis) {
+                return jedis.hmget(key, fields);
+            }
+        });
+    }
+
+    /**
+     * 二进制 key 及域的 HMGET，不经过序列化
+     */
+    public List<byte[]> hmget(byte[] key, byte[]... fields) {
+        return executeRead(key, new JRedisRouter.NodeCallback<List<byte[]>>() {
+            public List<byte[]> call(Jedis jedis) {
+                return jedis.hmget(key, fields);
+            }
+        });
     }
 
     /**
      * 删除哈希表 key 中的一个或多个指定域，不存在的域将被忽略。
      */
     public Long hdel(String key, String... fields) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hdel(key, fields);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.hdel(key, fields);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
      * 查看哈希表 key 中，给定域 field 是否存在。
      */
     public boolean hexists(String key, String field) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hexists(key, field);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.hexists(key, field);
+            }
+        });
     }
 
     /**
@@ -533,11 +927,14 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Map<String, String> hgetAll(String key) {
-        Jedis jedis = getJedis();
         try {
-            return jedis.hgetAll(key);
-        } finally {
-            close(jedis);
+            return executeRead(key, new JRedisRouter.NodeCallback<Map<String, String>>() {
+                public Map<String, String> call(Jedis jedis) {
+                    return jedis.hgetAll(key);
+                }
+            });
+        } catch (JRedisCircuitOpenException e) {
+            return fallback("HGETALL", key, e);
         }
     }
 
@@ -548,12 +945,13 @@ public class JCache {
      * 返回值整数：增值操作执行后的该字段的值。
      */
     public Long hincrBy(String key, String field, Long value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hincrBy(key, field, value);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.hincrBy(key, field, value);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
     /**
@@ -562,12 +960,13 @@ public class JCache {
      * HINCRBYFLOAT 支持类型为浮点数
      */
     public Double hincrBy(String key, String field, Double value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hincrByFloat(key, field, value);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Double>() {
+            public Double call(Jedis jedis) {
+                Double result = jedis.hincrByFloat(key, field, value);
+                invalidate(jedis, key);
+                return result;
+            }
+        });
     }
 
 
@@ -576,36 +975,33 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List hvals(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hvals(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<List>() {
+            public List call(Jedis jedis) {
+                return jedis.hvals(key);
+            }
+        });
     }
 
     /**
      * 返回哈希表 key 中的所有域。
      */
     public Set<String> hkeys(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hkeys(key);    // 返回 key 的方法不能使用 valueSetFromBytesSet(...)
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Set<String>>() {
+            public Set<String> call(Jedis jedis) {
+                return jedis.hkeys(key);    // 返回 key 的方法不能使用 valueSetFromBytesSet(...)
+            }
+        });
     }
 
     /**
      * 返回哈希表 key 中域的数量。
      */
     public Long hlen(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hlen(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.hlen(key);
+            }
+        });
     }
 
     /**
@@ -616,24 +1012,23 @@ public class JCache {
      * 如果 key 不是列表类型，返回一个错误。
      */
     public String lindex(String key, long index) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lindex(key, index);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.lindex(key, index);
+            }
+        });
     }
 
     /**
      * 获取记数器的值
      */
     public Long getCounter(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return Long.parseLong((String) jedis.get(keyNamingPolicy.getKeyName(key)));
-        } finally {
-            close(jedis);
-        }
+        String name = keyNamingPolicy.getKeyName(key);
+        return executeRead(name, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return Long.parseLong(jedis.get(name));
+            }
+        });
     }
 
     /**
@@ -642,12 +1037,11 @@ public class JCache {
      * 如果 key 不是列表类型，返回一个错误。
      */
     public Long llen(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.llen(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.llen(key);
+            }
+        });
     }
 
     /**
@@ -655,12 +1049,11 @@ public class JCache {
      */
     @SuppressWarnings("unchecked")
     public String lpop(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lpop(key);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.lpop(key);
+            }
+        });
     }
 
     /**
@@ -672,12 +1065,11 @@ public class JCache {
      * 当 key 存在但不是列表类型时，返回一个错误。
      */
     public Long lpush(String key, String... values) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lpush(key, values);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.lpush(key, values);
+            }
+        });
     }
 
     /**
@@ -686,12 +1078,11 @@ public class JCache {
      * 关于列表下标的更多信息，请参考 LINDEX 命令。
      */
     public String lset(String key, long index, String value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lset(key, index, value);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.lset(key, index, value);
+            }
+        });
     }
 
     /**
@@ -702,12 +1093,11 @@ public class JCache {
      * count = 0 : 移除表中所有与 value 相等的值。
      */
     public Long lrem(String key, long count, String value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lrem(key, count, value);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.lrem(key, count, value);
+            }
+        });
     }
 
     /**
@@ -722,12 +1112,11 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List lrange(String key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lrange(key, start, end);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<List>() {
+            public List call(Jedis jedis) {
+                return jedis.lrange(key, start, end);
+            }
+        });
     }
 
     /**
@@ -738,12 +1127,11 @@ public class JCache {
      * 当 key 不是列表类型时，返回一个错误。
      */
     public String ltrim(String key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.ltrim(key, start, end);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.ltrim(key, start, end);
+            }
+        });
     }
 
     /**
@@ -751,12 +1139,11 @@ public class JCache {
      */
     @SuppressWarnings("unchecked")
     public String rpop(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.rpop(key);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.rpop(key);
+            }
+        });
     }
 
     /**
@@ -766,7 +1153,7 @@ public class JCache {
      */
     @SuppressWarnings("unchecked")
     public String rpoplpush(String srcKey, String dstKey) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getJedis(srcKey, dstKey);
         try {
             return jedis.rpoplpush(srcKey, dstKey);
         } finally {
@@ -783,12 +1170,11 @@ public class JCache {
      * 当 key 存在但不是列表类型时，返回一个错误。
      */
     public Long rpush(String key, String... values) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.rpush(key, values);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.rpush(key, values);
+            }
+        });
     }
 
     /**
@@ -798,7 +1184,7 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List<String> blpop(String... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getJedis(keys);
         try {
             return jedis.blpop(keys);
         } finally {
@@ -813,7 +1199,7 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List<String> blpop(int timeout, String... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getJedis(keys);
         try {
             return jedis.blpop(keys);
         } finally {
@@ -829,7 +1215,7 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List<String> brpop(String... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getJedis(keys);
         try {
             return jedis.brpop(keys);
         } finally {
@@ -845,7 +1231,7 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List brpop(int timeout, String... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getJedis(keys);
         try {
             return jedis.brpop(timeout, keys);
         } finally {
@@ -856,8 +1242,20 @@ public class JCache {
     /**
      * 使用客户端向 Redis 服务器发送一个 PING ，如果服务器运作正常的话，会返回一个 PONG 。
      * 通常用于测试与服务器的连接是否仍然生效，或者用于测量延迟值。
+     * 集群及分片模式下 PING 全部主节点，任一节点不可用时抛出异常。
      */
     public String ping() {
+        if (!router.isSingleNode()) {
+            for (String pong : router.broadcast(new JRedisRouter.NodeCallback<String>() {
+                public String call(Jedis jedis) {
+                    return jedis.ping();
+                }
+            })) {
+                if (!"PONG".equals(pong))
+                    return pong;
+            }
+            return "PONG";
+        }
         Jedis jedis = getJedis();
         try {
             return jedis.ping();
@@ -872,24 +1270,22 @@ public class JCache {
      * 当 key 不是集合类型时，返回一个错误。
      */
     public Long sadd(String key, String... members) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.sadd(key, members);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.sadd(key, members);
+            }
+        });
     }
 
     /**
      * 返回集合 key 的基数(集合中元素的数量)。
      */
     public Long scard(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.scard(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.scard(key);
+            }
+        });
     }
 
     /**
@@ -898,12 +1294,11 @@ public class JCache {
      */
     @SuppressWarnings("unchecked")
     public String spop(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.spop(key);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.spop(key);
+            }
+        });
     }
 
     /**
@@ -912,24 +1307,22 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Set smembers(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.smembers(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Set>() {
+            public Set call(Jedis jedis) {
+                return jedis.smembers(key);
+            }
+        });
     }
 
     /**
      * 判断 member 元素是否集合 key 的成员。
      */
     public boolean sismember(String key, String member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.sismember(key, member);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.sismember(key, member);
+            }
+        });
     }
 
     /**
@@ -937,7 +1330,7 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Set sinter(String... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getReadJedis(keys);
         try {
             return jedis.sinter(keys);
         } finally {
@@ -950,12 +1343,11 @@ public class JCache {
      */
     @SuppressWarnings("unchecked")
     public String srandmember(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.srandmember(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.srandmember(key);
+            }
+        });
     }
 
     /**
@@ -968,24 +1360,22 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public List<String> srandmember(String key, int count) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.srandmember(key, count);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<List<String>>() {
+            public List<String> call(Jedis jedis) {
+                return jedis.srandmember(key, count);
+            }
+        });
     }
 
     /**
      * 移除集合 key 中的一个或多个 member 元素，不存在的 member 元素会被忽略。
      */
     public Long srem(String key, String... members) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.srem(key, members);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.srem(key, members);
+            }
+        });
     }
 
     /**
@@ -994,7 +1384,7 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Set sunion(String... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getReadJedis(keys);
         try {
             return jedis.sunion(keys);
         } finally {
@@ -1008,7 +1398,7 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Set sdiff(String... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getReadJedis(keys);
         try {
             return jedis.sdiff(keys);
         } finally {
@@ -1022,33 +1412,30 @@ public class JCache {
      * 并通过重新插入这个 member 元素，来保证该 member 在正确的位置上。
      */
     public Long zadd(String key, double score, String member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zadd(key, score, member);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zadd(key, score, member);
+            }
+        });
     }
 
     public Long zadd(String key, Map<String, Double> scoreMembers) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zadd(key, scoreMembers);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zadd(key, scoreMembers);
+            }
+        });
     }
 
     /**
      * 返回有序集 key 的基数。
      */
     public Long zcard(String key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zcard(key);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zcard(key);
+            }
+        });
     }
 
     /**
@@ -1056,24 +1443,22 @@ public class JCache {
      * 关于参数 min 和 max 的详细使用方法，请参考 ZRANGEBYSCORE 命令。
      */
     public Long zcount(String key, double min, double max) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zcount(key, min, max);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zcount(key, min, max);
+            }
+        });
     }
 
     /**
      * 为有序集 key 的成员 member 的 score 值加上增量 increment 。
      */
     public Double zincrby(String key, double score, String member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zincrby(key, score, member);
-        } finally {
-            close(jedis);
-        }
+        return execute(key, new JRedisRouter.NodeCallback<Double>() {
+            public Double call(Jedis jedis) {
+                return jedis.zincrby(key, score, member);
+            }
+        });
     }
 
     /**
@@ -1084,12 +1469,11 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Set<String> zrange(String key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zrange(key, start, end);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Set<String>>() {
+            public Set<String> call(Jedis jedis) {
+                return jedis.zrange(key, start, end);
+            }
+        });
     }
 
     /**
@@ -1100,12 +1484,11 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Set zrevrange(String key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zrevrange(key, start, end);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Set>() {
+            public Set call(Jedis jedis) {
+                return jedis.zrevrange(key, start, end);
+            }
+        });
     }
 
     /**
@@ -1114,12 +1497,11 @@ public class JCache {
      */
     @SuppressWarnings("rawtypes")
     public Set zrangeByScore(String key, double min, double max) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zrangeByScore(key, min, max);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Set>() {
+            public Set call(Jedis jedis) {
+                return jedis.zrangeByScore(key, min, max);
+            }
+        });
     }
 
     /**
@@ -1128,12 +1510,11 @@ public class JCache {
      * 使用 ZREVRANK 命令可以获得成员按 score 值递减(从大到小)排列的排名。
      */
     public Long zrank(String key, String member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zrank(key, member);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zrank(key, member);
+            }
+        });
     }
 
     /**
@@ -1142,40 +1523,416 @@ public class JCache {
      * 使用 ZRANK 命令可以获得成员按 score 值递增(从小到大)排列的排名。
      */
     public Long zrevrank(String key, String member) {
-        Jedis jedis = getJedis();
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zrevrank(key, member);
+            }
+        });
+    }
+
+    /**
+     * 移除有序集 key 中的一个或多个成员，不存在的成员将被忽略。
+     * 当 key 存在但不是有序集类型时，返回一个错误。
+     */
+    public Long zrem(String key, String... members) {
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zrem(key, members);
+            }
+        });
+    }
+
+    /**
+     * 返回有序集 key 中，成员 member 的 score 值。
+     * 如果 member 元素不是有序集 key 的成员，或 key 不存在，返回 nil 。
+     */
+    public Double zscore(String key, String member) {
+        return executeRead(key, new JRedisRouter.NodeCallback<Double>() {
+            public Double call(Jedis jedis) {
+                return jedis.zscore(key, member);
+            }
+        });
+    }
+
+    /**
+     * ======================================================
+     * ============= 新增 HYPERLOGLOG / BITMAP =============
+     * ======================================================
+     */
+
+    /**
+     * 将任意数量的元素添加到指定的 HyperLogLog 里面，每个 key 固定占用最多 12KB 内存，基数估计的标准误差为 0.81%。
+     * 至少有一个寄存器被修改时返回 1，否则返回 0
+     */
+    public Long pfadd(String key, String... elements) {
+        return execute(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.pfadd(key, elements);
+            }
+        });
+    }
+
+    /**
+     * 批量添加，每 BATCH_ELEMENTS 个元素一条 PFADD，全部命令在同一个 pipeline 中发送
+     *
+     * @return 被修改的 HyperLogLog 数量，0 表示全部元素都可能已经存在
+     */
+    public long pfadd(String key, Collection<String> elements) {
+        Map<String, Collection<String>> batch = new LinkedHashMap<String, Collection<String>>();
+        batch.put(key, elements);
+        return pfadd(batch);
+    }
+
+    /**
+     * 向多个 HyperLogLog 批量添加，例如同时写入日、周、月 UV。
+     * 按节点分组，每个节点一个 pipeline，集群及分片模式下同样可用
+     *
+     * @return 被修改的 HyperLogLog 数量
+     */
+    public long pfadd(Map<String, ? extends Collection<String>> elementsByKey) {
+        long changed = 0;
+        for (List<String> keys : groupByNode(elementsByKey.keySet())) {
+            final List<String> commandKeys = new ArrayList<String>();
+            final List<String[]> commandElements = new ArrayList<String[]>();
+            for (String key : keys) {
+                List<String> elements = new ArrayList<String>(elementsByKey.get(key));
+                for (int i = 0; i < elements.size(); i += BATCH_ELEMENTS) {
+                    List<String> chunk = elements.subList(i, Math.min(elements.size(), i + BATCH_ELEMENTS));
+                    commandKeys.add(key);
+                    commandElements.add(chunk.toArray(new String[chunk.size()]));
+                }
+            }
+            for (Object result : pipelined(keys.get(0), new JIPipelineCallback() {
+                public void call(Pipeline pipeline) {
+                    for (int i = 0; i < commandKeys.size(); i++)
+                        pipeline.pfadd(commandKeys.get(i), commandElements.get(i));
+                }
+            })) {
+                if (result instanceof Long)
+                    changed += (Long) result;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 返回 HyperLogLog 的近似基数，key 不存在时返回 0
+     */
+    public long pfcount(String key) {
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.pfcount(key);
+            }
+        });
+    }
+
+    /**
+     * 返回多个 HyperLogLog 并集的近似基数，集群及分片模式下要求全部 key 位于同一节点
+     */
+    public long pfcount(String... keys) {
+        Jedis jedis = getReadJedis(keys);
         try {
-            return jedis.zrevrank(key, member);
+            return jedis.pfcount(keys);
         } finally {
             close(jedis);
         }
     }
 
     /**
-     * 移除有序集 key 中的一个或多个成员，不存在的成员将被忽略。
-     * 当 key 存在但不是有序集类型时，返回一个错误。
+     * 将多个 HyperLogLog 合并为一个，合并后的 HyperLogLog 保存在 destKey 中，
+     * 集群及分片模式下要求全部 key 位于同一节点
      */
-    public Long zrem(String key, String... members) {
-        Jedis jedis = getJedis();
+    public String pfmerge(String destKey, String... sourceKeys) {
+        String[] keys = new String[sourceKeys.length + 1];
+        keys[0] = destKey;
+        System.arraycopy(sourceKeys, 0, keys, 1, sourceKeys.length);
+        Jedis jedis = getJedis(keys);
         try {
-            return jedis.zrem(key, members);
+            return jedis.pfmerge(destKey, sourceKeys);
         } finally {
             close(jedis);
         }
     }
 
     /**
-     * 返回有序集 key 中，成员 member 的 score 值。
-     * 如果 member 元素不是有序集 key 的成员，或 key 不存在，返回 nil 。
+     * 对 key 所储存的字符串值，设置或清除指定偏移量上的位(bit)，返回该位原来的值。
+     * 偏移量必须小于 2^32，设置较大的偏移量时 Redis 会一次分配到该偏移量为止的内存
      */
-    public Double zscore(String key, String member) {
-        Jedis jedis = getJedis();
+    public Boolean setbit(String key, long offset, boolean value) {
+        return execute(key, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.setbit(key, offset, value);
+            }
+        });
+    }
+
+    /**
+     * 对 key 所储存的字符串值，获取指定偏移量上的位(bit)，偏移量超出字符串长度或 key 不存在时返回 false
+     */
+    public Boolean getbit(String key, long offset) {
+        return executeRead(key, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.getbit(key, offset);
+            }
+        });
+    }
+
+    /**
+     * 计算给定字符串中，被设置为 1 的比特位的数量
+     */
+    public Long bitcount(String key) {
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.bitcount(key);
+            }
+        });
+    }
+
+    /**
+     * 计算给定字符串 start 到 end 字节(不是位)之间被设置为 1 的比特位的数量，可以使用负数下标
+     */
+    public Long bitcount(String key, long start, long end) {
+        return executeRead(key, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.bitcount(key, start, end);
+            }
+        });
+    }
+
+    /**
+     * 对一个或多个字符串进行位操作(AND、OR、XOR、NOT)，结果保存到 destKey 上，返回 destKey 的字节长度。
+     * 集群及分片模式下要求全部 key 位于同一节点
+     */
+    public Long bitop(BitOP op, String destKey, String... srcKeys) {
+        String[] keys = new String[srcKeys.length + 1];
+        keys[0] = destKey;
+        System.arraycopy(srcKeys, 0, keys, 1, srcKeys.length);
+        Jedis jedis = getJedis(keys);
         try {
-            return jedis.zscore(key, member);
+            Long result = jedis.bitop(op, destKey, srcKeys);
+            invalidate(jedis, destKey);
+            return result;
         } finally {
             close(jedis);
         }
     }
 
+    /**
+     * 基于位图的布隆过滤器，保存在名为 name 的字符串中，
+     * 按预计元素数 expectedInsertions 及误判率 fpp 计算位数及哈希函数个数
+     * <pre>
+     * 例子：
+     * JBloomFilter seen = JRedis.use().bloomFilter("seen:article", 10000000, 0.01);
+     * if (!seen.mightContain(url))
+     *     ...
+     * </pre>
+     */
+    public JBloomFilter bloomFilter(String name, long expectedInsertions, double fpp) {
+        return new JBloomFilter(this, name, expectedInsertions, fpp);
+    }
+
+    /**
+     * 基于位图的按天活跃计数，每天一个 name:yyyyMMdd 的字符串，以用户 id 为偏移量，
+     * 一亿用户每天约占用 12MB 内存
+     * <pre>
+     * 例子：
+     * JActiveCounter dau = JRedis.use().activeCounter("{active:user}");
+     * dau.mark(userId);
+     * long today = dau.count(LocalDate.now());
+     * </pre>
+     */
+    public JActiveCounter activeCounter(String name) {
+        return new JActiveCounter(this, name);
+    }
+
+    /**
+     * ======================================================
+     * ==================== 新增 PIPELINE ====================
+     * ======================================================
+     */
+
+    /**
+     * 将回调中的多个命令放入同一个连接的 Pipeline 中，只产生一次网络往返。
+     * 回调中每个命令立即返回 Response，本方法返回后即可通过 Response.get() 取得类型化结果，
+     * 同时本方法按命令顺序返回全部结果。
+     * 当前线程已通过 JRedisInterceptor 或 JRedis.call(...) 持有 jedis 时复用该连接。
+     * <pre>
+     * 例子：
+     * final List&lt;Response&lt;String&gt;&gt; names = new ArrayList&lt;&gt;();
+     * JRedis.use().pipelined(new JIPipelineCallback() {
+     *     public void call(Pipeline pipeline) {
+     *         for (String id : ids)
+     *             names.add(pipeline.hget("user:" + id, "name"));
+     *     }
+     * });
+     * names.get(0).get();
+     * </pre>
+     * 集群及分片模式下请使用 pipelined(key, callback)。
+     */
+    public List<Object> pipelined(JIPipelineCallback callback) {
+        return pipelined(getJedis(), callback);
+    }
+
+    /**
+     * 在 key 所在节点上执行 pipeline，回调中的命令只能操作与 key 位于同一节点的 key，
+     * 集群及分片模式下可以使用 {tag} 让相关 key 落在同一节点
+     */
+    public List<Object> pipelined(String key, JIPipelineCallback callback) {
+        return pipelined(getJedis(key), callback);
+    }
+
+    /**
+     * 只包含读命令的 pipeline，配置了从节点时由从节点处理
+     */
+    List<Object> readPipelined(String key, JIPipelineCallback callback) {
+        return pipelined(getReadJedis(key), callback);
+    }
+
+    private List<Object> pipelined(Jedis jedis, JIPipelineCallback callback) {
+        Pipeline pipeline = null;
+        JScriptScope scripts = null;
+        boolean synced = false;
+        try {
+            pipeline = jedis.pipelined();
+            scripts = JScriptScope.open(pipeline, jedis);
+            callback.call(pipeline);
+            List<Object> result = pipeline.syncAndReturnAll();
+            synced = true;
+            return result;
+        } finally {
+            try {
+                if (scripts != null)
+                    scripts.close(synced);
+                if (pipeline != null && !synced)
+                    discard(jedis, pipeline);
+            } finally {
+                close(jedis);
+            }
+        }
+    }
+
+    /**
+     * 回调异常时读掉已发出命令的响应，避免污染连接。连接已断开或超时时读取也会失败，
+     * 此时关闭 socket(下次使用时自动重连)，并保留原来的异常
+     */
+    private static void discard(Jedis jedis, Pipeline pipeline) {
+        try {
+            pipeline.clear();
+        } catch (RuntimeException e) {
+            try {
+                jedis.getClient().disconnect();
+            } catch (RuntimeException ignored) {
+                // socket 已不可用
+            }
+        }
+    }
+
+    /**
+     * ======================================================
+     * ==================== 新增 PUB/SUB ====================
+     * ======================================================
+     */
+
+    /**
+     * 将信息 message 发送到指定的频道 channel，返回接收到信息 message 的订阅者数量(集群模式下只统计当前节点)。
+     * 集群模式下消息会传播到全部节点；分片模式下按 channel 选择一个分片发送，订阅者订阅了全部分片
+     */
+    public Long publish(String channel, String message) {
+        return execute(channel, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.publish(channel, message);
+            }
+        });
+    }
+
+    /**
+     * 订阅频道，在后台线程中接收消息，断线后自动重连，不再需要时调用 JSubscription.unsubscribe()
+     * <pre>
+     * 例子：
+     * JSubscription subscription = JRedis.use().subscribe(new JIMessageListener() {
+     *     public void onMessage(String channel, String message) {
+     *         localCache.invalidate(message);
+     *     }
+     *
+     *     public void onSubscribe() {
+     *         localCache.invalidateAll();
+     *     }
+     * }, "config:changed");
+     * </pre>
+     */
+    public JSubscription subscribe(JIMessageListener listener, String... channels) {
+        return new JSubscription(name, router.subscribeNodes(node), listener, channels);
+    }
+
+    /**
+     * ======================================================
+     * ==================== 新增 SCRIPT ====================
+     * ======================================================
+     */
+
+    /**
+     * 注册一个脚本，之后可以通过 script(name) 执行，同名脚本被替换
+     * <pre>
+     * 例子：
+     * cache.registerScript("reserve", JScript.classpath("lua/reserve.lua"));
+     * cache.loadScripts();
+     * Long left = cache.script("reserve").key("stock:" + id).arg(1).execute();
+     * </pre>
+     */
+    public JScript registerScript(String name, JScript script) {
+        scripts.put(name, script);
+        return script;
+    }
+
+    public JScript registerScript(String name, String source) {
+        return registerScript(name, JScript.of(source));
+    }
+
+    /**
+     * 已注册的脚本，不存在时返回 null
+     */
+    public JScript getScript(String name) {
+        return scripts.get(name);
+    }
+
+    /**
+     * 通过 SCRIPT LOAD 把已注册的脚本预先加载到全部主节点，可在启动时调用。
+     * 不调用也可以，第一次执行时会自动加载
+     */
+    public void loadScripts() {
+        final List<JScript> all = new ArrayList<JScript>(scripts.values());
+        if (all.isEmpty())
+            return;
+        router.broadcast(new JRedisRouter.NodeCallback<Void>() {
+            public Void call(Jedis jedis) {
+                String node = JScriptScope.nodeOf(jedis);
+                for (JScript script : all) {
+                    jedis.scriptLoad(script.sourceBytes());
+                    script.markLoaded(node);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 在本 cache 上执行脚本，优先使用 EVALSHA，服务端没有缓存该脚本时自动改用 EVAL。
+     * 当前线程持有 jedis 时(JRedisInterceptor、JRedis.call(...))复用该连接
+     */
+    public JScriptCall script(JScript script) {
+        return new JScriptCall(this, script);
+    }
+
+    /**
+     * 执行已注册的脚本
+     */
+    public JScriptCall script(String name) {
+        JScript script = scripts.get(name);
+        if (script == null)
+            throw new IllegalArgumentException("the script not registered: " + name);
+        return new JScriptCall(this, script);
+    }
+
     /**
      * ======================================================
      * ==================== 新增 SCAN ====================
@@ -1195,9 +1952,12 @@ public class JCache {
      * SCAN 命令则不需要在第一个参数提供任何key，因为它迭代的是当前数据库中的所有key。
      * SCAN 命令是一个基于游标的迭代器。这意味着命令每次被调用都需要使用上一次这个调用返回的游标作为该次调用的游标参数，以此来延续之前的迭代过程
      * 当 SCAN 命令的游标参数被设置为 0 时， 服务器将开始一次新的迭代， 而当服务器向用户返回值为 0 的游标时， 表示迭代已结束。
+     * 集群及分片模式下依次遍历每个主节点，返回的游标形如 "节点序号:节点游标"，使用方式不变。
      */
     public ScanResult<String> scan(String cursor, ScanParams params) {
-        Jedis jedis = getJedis();
+        if (!router.isSingleNode())
+            return scanNodes(cursor, params);
+        Jedis jedis = getReadJedis();
         try {
             return jedis.scan(cursor, params);
         } finally {
@@ -1205,86 +1965,265 @@ public class JCache {
         }
     }
 
-    public ScanResult<String> sscan(String key, String cursor, ScanParams params) {
-        Jedis jedis = getJedis();
+    private ScanResult<String> scanNodes(String cursor, ScanParams params) {
+        List<JedisPool> masters = router.masters();
+        int index = 0;
+        String nodeCursor = cursor;
+        int separator = cursor.indexOf(':');
+        if (separator > 0) {
+            index = Integer.parseInt(cursor.substring(0, separator));
+            nodeCursor = cursor.substring(separator + 1);
+        }
+        if (index >= masters.size())
+            return new ScanResult<String>(ScanParams.SCAN_POINTER_START, new ArrayList<String>());
+
+        Jedis jedis = router.borrow(masters.get(index));
         try {
-            return jedis.sscan(key, cursor, params);
+            ScanResult<String> result = jedis.scan(nodeCursor, params);
+            String next = result.getStringCursor();
+            if (!ScanParams.SCAN_POINTER_START.equals(next))
+                next = index + ":" + next;
+            else if (index + 1 < masters.size())
+                next = (index + 1) + ":" + ScanParams.SCAN_POINTER_START;
+            return new ScanResult<String>(next, result.getResult());
         } finally {
-            close(jedis);
+            router.release(jedis);
         }
     }
 
+    public ScanResult<String> sscan(String key, String cursor, ScanParams params) {
+        return executeRead(key, new JRedisRouter.NodeCallback<ScanResult<String>>() {
+            public ScanResult<String> call(Jedis jedis) {
+                return jedis.sscan(key, cursor, params);
+            }
+        });
+    }
+
     public ScanResult<Map.Entry<String, String>> hscan(String key, String cursor, ScanParams params) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hscan(key, cursor, params);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<ScanResult<Map.Entry<String, String>>>() {
+            public ScanResult<Map.Entry<String, String>> call(Jedis jedis) {
+                return jedis.hscan(key, cursor, params);
+            }
+        });
     }
 
     public ScanResult<Tuple> zscan(String key, String cursor, ScanParams params) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zscan(key, cursor, params);
-        } finally {
-            close(jedis);
-        }
+        return executeRead(key, new JRedisRouter.NodeCallback<ScanResult<Tuple>>() {
+            public ScanResult<Tuple> call(Jedis jedis) {
+                return jedis.zscan(key, cursor, params);
+            }
+        });
+    }
+
+    /**
+     * 以迭代器惰性遍历 SCAN 的结果，只在当前页遍历完后才请求下一页，两次请求之间不占用连接
+     * <pre>
+     * 例子：
+     * Iterator&lt;String&gt; it = JRedis.use().scanIterator(new ScanParams().match("USER:1:*").count(1000));
+     * </pre>
+     */
+    public Iterator<String> scanIterator(final ScanParams params) {
+        return new JScanIterator<String>() {
+            protected ScanResult<String> scan(String cursor) {
+                return JCache.this.scan(cursor, params);
+            }
+        };
+    }
+
+    /**
+     * 以 Stream 惰性遍历 SCAN 的结果，见 scanIterator(ScanParams)
+     */
+    public Stream<String> scanStream(ScanParams params) {
+        return JScanIterator.stream(scanIterator(params));
+    }
+
+    public Iterator<String> sscanIterator(final String key, final ScanParams params) {
+        return new JScanIterator<String>() {
+            protected ScanResult<String> scan(String cursor) {
+                return sscan(key, cursor, params);
+            }
+        };
+    }
+
+    public Stream<String> sscanStream(String key, ScanParams params) {
+        return JScanIterator.stream(sscanIterator(key, params));
+    }
+
+    public Iterator<Map.Entry<String, String>> hscanIterator(final String key, final ScanParams params) {
+        return new JScanIterator<Map.Entry<String, String>>() {
+            protected ScanResult<Map.Entry<String, String>> scan(String cursor) {
+                return hscan(key, cursor, params);
+            }
+        };
+    }
+
+    public Stream<Map.Entry<String, String>> hscanStream(String key, ScanParams params) {
+        return JScanIterator.stream(hscanIterator(key, params));
+    }
+
+    public Iterator<Tuple> zscanIterator(final String key, final ScanParams params) {
+        return new JScanIterator<Tuple>() {
+            protected ScanResult<Tuple> scan(String cursor) {
+                return zscan(key, cursor, params);
+            }
+        };
+    }
+
+    public Stream<Tuple> zscanStream(String key, ScanParams params) {
+        return JScanIterator.stream(zscanIterator(key, params));
     }
 
 
     // ---------
 
-//    private byte[] keyToBytes(Object key) {
-//        String keyStr = keyNamingPolicy.getKeyName(key);
-//        return serializer.keyToBytes(keyStr);
-//    }
-//
-//    private String keyFromBytes(byte[] bytes) {
-//        return serializer.keyFromBytes(bytes);
-//    }
-//
-//    private byte[][] keysToBytesArray(Object... keys) {
-//        byte[][] result = new byte[keys.length][];
-//        for (int i = 0; i < result.length; i++)
-//            result[i] = keyToBytes(keys[i]);
-//        return result;
-//    }
-//
-//    private Set<String> keySetFromBytesSet(Set<byte[]> data) {
-//        Set<String> result = new HashSet<String>();
-//        for (byte[] keyBytes : data)
-//            result.add(keyFromBytes(keyBytes));
-//        return result;
-//    }
-//
-//    private byte[] valueToBytes(Object object) {
-//        return serializer.valueToBytes(object);
-//    }
-//
-//    private Object valueFromBytes(byte[] bytes) {
-//        return serializer.valueFromBytes(bytes);
-//    }
-//
-//    private byte[][] valuesToBytesArray(Object... objectArray) {
-//        byte[][] data = new byte[objectArray.length][];
-//        for (int i = 0; i < data.length; i++)
-//            data[i] = valueToBytes(objectArray[i]);
-//        return data;
-//    }
-//
-//    private void valueSetFromBytesSet(Set<byte[]> data, Set<Object> result) {
-//        for (byte[] d : data)
-//            result.add(valueFromBytes(d));
-//    }
-//
-//    @SuppressWarnings("rawtypes")
-//    private List valueListFromBytesList(List<byte[]> data) {
-//        List<Object> result = new ArrayList<Object>();
-//        for (byte[] d : data)
-//            result.add(valueFromBytes(d));
-//        return result;
-//    }
+    byte[] keyToBytes(Object key) {
+        String keyStr = keyNamingPolicy.getKeyName(key);
+        return serializer.keyToBytes(keyStr);
+    }
+
+    String keyFromBytes(byte[] bytes) {
+        return serializer.keyFromBytes(bytes);
+    }
+
+    byte[][] keysToBytesArray(Object... keys) {
+        byte[][] result = new byte[keys.length][];
+        for (int i = 0; i < result.length; i++)
+            result[i] = keyToBytes(keys[i]);
+        return result;
+    }
+
+    Set<String> keySetFromBytesSet(Set<byte[]> data) {
+        Set<String> result = new HashSet<String>();
+        for (byte[] keyBytes : data)
+            result.add(keyFromBytes(keyBytes));
+        return result;
+    }
+
+    byte[] fieldToBytes(Object field) {
+        return serializer.fieldToBytes(field);
+    }
+
+    Object fieldFromBytes(byte[] bytes) {
+        return serializer.fieldFromBytes(bytes);
+    }
+
+    byte[] valueToBytes(Object object) {
+        return serializer.valueToBytes(object);
+    }
+
+    Object valueFromBytes(byte[] bytes) {
+        return serializer.valueFromBytes(bytes);
+    }
+
+    byte[][] valuesToBytesArray(Object... objectArray) {
+        byte[][] data = new byte[objectArray.length][];
+        for (int i = 0; i < data.length; i++)
+            data[i] = valueToBytes(objectArray[i]);
+        return data;
+    }
+
+    void valueSetFromBytesSet(Set<byte[]> data, Set<Object> result) {
+        for (byte[] d : data)
+            result.add(valueFromBytes(d));
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> List<T> valueListFromBytesList(List<byte[]> data) {
+        List<T> result = new ArrayList<T>();
+        for (byte[] d : data)
+            result.add((T) valueFromBytes(d));
+        return result;
+    }
+
+    // ---------
+
+    private JNearCache nearCacheOf(String key) {
+        JNearCache nearCache = this.nearCache;
+        return (nearCache != null && nearCache.accept(key)) ? nearCache : null;
+    }
+
+    /**
+     * 写命令成功后清除近端缓存中的本地副本，并通知其他节点
+     */
+    private void invalidate(Jedis jedis, String... keys) {
+        if (hotKeys != null)
+            hotKeys.evict(keys);
+        if (nearCache != null)
+            nearCache.invalidate(jedis, keys);
+    }
+
+    /**
+     * 对象 api 的写命令执行后清除近端缓存及热点 key 的本地副本，keys 为命名并序列化后的 key
+     */
+    void invalidate(Jedis jedis, byte[]... keys) {
+        if (hotKeys != null || nearCache != null)
+            invalidate(jedis, keyNames(keys));
+    }
+
+    /**
+     * 同 invalidate(Jedis, byte[]...)，用于按节点分组执行的多 key 命令
+     */
+    void invalidate(byte[]... keys) {
+        if (hotKeys != null || nearCache != null)
+            invalidate(keyNames(keys));
+    }
+
+    private static String[] keyNames(byte[][] keys) {
+        String[] names = new String[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            names[i] = SafeEncoder.encode(keys[i]);
+        return names;
+    }
+
+    /**
+     * 供不经过 JCache 写命令(如 pipeline)删除 key 后清除近端缓存
+     */
+    void invalidate(String... keys) {
+        if (hotKeys != null)
+            hotKeys.evict(keys);
+        if (nearCache == null || keys.length == 0)
+            return;
+        execute(keys[0], new JRedisRouter.NodeCallback<Void>() {
+            public Void call(Jedis jedis) {
+                nearCache.invalidate(jedis, keys);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 按所在节点分组，单机模式下只有一组
+     */
+    List<List<String>> groupByNode(Collection<String> keys) {
+        if (router.isSingleNode())
+            return keys.isEmpty() ? Collections.<List<String>>emptyList()
+                    : Collections.<List<String>>singletonList(new ArrayList<String>(keys));
+        Map<JedisPool, List<String>> groups = new LinkedHashMap<JedisPool, List<String>>();
+        for (String key : keys) {
+            JedisPool pool = router.poolOf(key);
+            List<String> group = groups.get(pool);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(pool, group);
+            }
+            group.add(key);
+        }
+        return new ArrayList<List<String>>(groups.values());
+    }
+
+    private static byte[][] keysToBytes(String... keys) {
+        byte[][] result = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++)
+            result[i] = SafeEncoder.encode(keys[i]);
+        return result;
+    }
+
+    private static String[] keysOf(String... keysValues) {
+        String[] keys = new String[keysValues.length / 2];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = keysValues[i * 2];
+        return keys;
+    }
 
     // ---------
 
@@ -1300,16 +2239,221 @@ public class JCache {
         return keyNamingPolicy;
     }
 
+    public JRedisNode getNode() {
+        return node;
+    }
+
+    /**
+     * 各连接池当前借出(active)、空闲(idle)的连接数及等待借出的线程数(waiters)，
+     * 单机模式下为 primary 及 replica-n，分片及集群模式下为节点地址
+     */
+    public Map<String, Map<String, Integer>> getPoolStats() {
+        Map<String, Map<String, Integer>> result = new LinkedHashMap<String, Map<String, Integer>>();
+        for (Map.Entry<String, JedisPool> e : router.namedPools().entrySet()) {
+            Map<String, Integer> stats = new LinkedHashMap<String, Integer>();
+            stats.put("active", e.getValue().getNumActive());
+            stats.put("idle", e.getValue().getNumIdle());
+            stats.put("waiters", e.getValue().getNumWaiters());
+            result.put(e.getKey(), stats);
+        }
+        return result;
+    }
+
+    /**
+     * 未开启近端缓存时返回 null
+     */
+    public JNearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * 未开启热点 key 探测时返回 null
+     */
+    public JHotKeys getHotKeys() {
+        return hotKeys;
+    }
+
     // ---------
 
+    /**
+     * 在 key 所在节点上执行单 key 命令。集群模式下遇到 MOVED 时立即刷新 slot 分布，在新节点上重试一次；
+     * 遇到 ASK(slot 迁移中)时向目标节点发送 ASKING 后重试一次，不必等待定时刷新
+     */
+    <T> T execute(String key, JRedisRouter.NodeCallback<T> callback) {
+        return execute(key, false, callback);
+    }
+
+    <T> T execute(byte[] key, JRedisRouter.NodeCallback<T> callback) {
+        return execute(key, false, callback);
+    }
+
+    /**
+     * 同 execute，使用只读命令的连接
+     */
+    <T> T executeRead(String key, JRedisRouter.NodeCallback<T> callback) {
+        return execute(key, true, callback);
+    }
+
+    <T> T executeRead(byte[] key, JRedisRouter.NodeCallback<T> callback) {
+        return execute(key, true, callback);
+    }
+
+    private <T> T execute(Object key, boolean read, JRedisRouter.NodeCallback<T> callback) {
+        Jedis jedis = jedisOf(key, read);
+        JedisRedirectionException redirection;
+        try {
+            return callback.call(jedis);
+        } catch (JedisRedirectionException e) {
+            // 线程内共享的 jedis 只用于单机模式，不会重定向
+            if (threadLocalJedis.get() != null)
+                throw e;
+            redirection = e;
+        } finally {
+            close(jedis);
+        }
+
+        if (redirection instanceof JedisAskDataException) {
+            jedis = router.borrow(router.nodePool(redirection.getTargetNode()));
+        } else {
+            router.renew();
+            jedis = jedisOf(key, read);
+        }
+        try {
+            if (redirection instanceof JedisAskDataException)
+                jedis.asking();
+            return callback.call(jedis);
+        } finally {
+            close(jedis);
+        }
+    }
+
+    private Jedis jedisOf(Object key, boolean read) {
+        if (key instanceof byte[])
+            return read ? getReadJedis((byte[]) key) : getJedis((byte[]) key);
+        return read ? getReadJedis((String) key) : getJedis((String) key);
+    }
+
+    /**
+     * 单机模式下的连接，集群及分片模式下请使用 getJedis(key)
+     */
     public Jedis getJedis() {
         Jedis jedis = threadLocalJedis.get();
-        return jedis != null ? jedis : jedisPool.getResource();
+        return jedis != null ? jedis : router.borrow(router.pool());
+    }
+
+    /**
+     * key 所在节点的连接，单机模式下与 getJedis() 相同
+     */
+    public Jedis getJedis(String key) {
+        recordAccess(key);
+        Jedis jedis = threadLocalJedis.get();
+        return jedis != null ? jedis : router.borrow(router.poolOf(key));
+    }
+
+    public Jedis getJedis(byte[] key) {
+        recordAccess(key);
+        Jedis jedis = threadLocalJedis.get();
+        return jedis != null ? jedis : router.borrow(router.poolOf(key));
+    }
+
+    /**
+     * 多 key 命令的连接，集群及分片模式下要求全部 key 位于同一节点
+     */
+    Jedis getJedis(String... keys) {
+        Jedis jedis = threadLocalJedis.get();
+        return jedis != null ? jedis : router.borrow(router.poolOf(keys));
+    }
+
+    Jedis getJedis(byte[]... keys) {
+        Jedis jedis = threadLocalJedis.get();
+        return jedis != null ? jedis : router.borrow(router.poolOf(keys));
+    }
+
+    /**
+     * 只读命令使用的连接：配置了从节点时按负载均衡策略选择从节点，
+     * 当前线程已持有 jedis、处于 readFromPrimary(...) 中或通过 primary() 调用时使用主节点
+     */
+    Jedis getReadJedis() {
+        Jedis jedis = threadLocalJedis.get();
+        if (jedis != null)
+            return jedis;
+        return isPrimaryRead() ? router.borrow(router.pool()) : router.readResource();
+    }
+
+    Jedis getReadJedis(String key) {
+        recordAccess(key);
+        Jedis jedis = threadLocalJedis.get();
+        if (jedis != null)
+            return jedis;
+        return isPrimaryRead() ? router.borrow(router.poolOf(key)) : router.readResource(key);
+    }
+
+    Jedis getReadJedis(byte[] key) {
+        recordAccess(key);
+        Jedis jedis = threadLocalJedis.get();
+        if (jedis != null)
+            return jedis;
+        return isPrimaryRead() ? router.borrow(router.poolOf(key)) : router.readResource(key);
+    }
+
+    Jedis getReadJedis(String... keys) {
+        Jedis jedis = threadLocalJedis.get();
+        if (jedis != null)
+            return jedis;
+        return isPrimaryRead() ? router.borrow(router.poolOf(keys)) : router.readResource(keys);
+    }
+
+    Jedis getReadJedis(byte[]... keys) {
+        Jedis jedis = threadLocalJedis.get();
+        if (jedis != null)
+            return jedis;
+        return isPrimaryRead() ? router.borrow(router.poolOf(keys)) : router.readResource(keys);
+    }
+
+    private void recordAccess(String key) {
+        JHotKeys hotKeys = this.hotKeys;
+        if (hotKeys != null)
+            hotKeys.record(key);
+    }
+
+    private void recordAccess(byte[] key) {
+        JHotKeys hotKeys = this.hotKeys;
+        if (hotKeys != null)
+            hotKeys.record(key);
+    }
+
+    private boolean isPrimaryRead() {
+        return readFromPrimary || primaryReads.get() != null;
+    }
+
+    /**
+     * 是否单机模式，只有单机模式支持在线程内共享同一个 jedis 及不带 key 的 pipelined(callback)
+     */
+    public boolean isSingleNode() {
+        return router.isSingleNode();
     }
 
     public void close(Jedis jedis) {
         if (threadLocalJedis.get() == null && jedis != null)
-            jedis.close();
+            router.release(jedis);
+    }
+
+    /**
+     * 断路器打开时读命令的返回值
+     */
+    @SuppressWarnings("unchecked")
+    <T> T fallback(String command, String key, JRedisCircuitOpenException e) {
+        JCircuitBreaker breaker = router.getCircuitBreaker();
+        if (breaker == null)
+            throw e;
+        return (T) breaker.fallback(command, key, e);
+    }
+
+    /**
+     * 未开启断路器时返回 null
+     */
+    public JCircuitBreaker getCircuitBreaker() {
+        return router.getCircuitBreaker();
     }
 
     public Jedis getThreadLocalJedis() {
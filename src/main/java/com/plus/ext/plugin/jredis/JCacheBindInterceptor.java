@@ -0,0 +1,261 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.core.Controller;
+import com.jfinal.kit.StrKit;
+import com.jfinal.log.Log;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Record;
+import com.jfinal.plugin.ehcache.RenderInfo;
+import com.jfinal.render.Render;
+import com.jfinal.render.RenderFactory;
+import com.plus.ext.annotation.CacheBind;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CacheBindInterceptor.
+ * 读取方法上的 &#64;CacheBind 注解，将方法结果缓存到 JRedis 指定的 cache 中。
+ * 业务层方法缓存返回值，Action 缓存 request 中的 attribute 及 render(与 JFinal 的 CacheInterceptor 一致)。
+ * 同一进程内对同一个 key 的并发未命中会被合并，只有一个线程执行方法并回填缓存。
+ * Redis 不可用时直接执行方法，不影响业务。
+ * <pre>
+ * 例如：
+ * Enhancer.enhance(UserService.class, JCacheBindInterceptor.class);
+ * 或在 Controller/方法上 &#64;Before(JCacheBindInterceptor.class)
+ * </pre>
+ */
+public class JCacheBindInterceptor implements Interceptor {
+
+    private static final Log log = Log.getLog(JCacheBindInterceptor.class);
+
+    private static final String RENDER_KEY = "_renderKey";
+    private static final String RENDER_VIEW_KEY = "_renderViewKey";
+    private static final Pattern KEY_PARAM = Pattern.compile("\\{([^}]+)\\}");
+
+    private static final JSingleFlight singleFlight = new JSingleFlight();
+
+    /**
+     * 缓存中代表 null 结果的占位对象
+     */
+    enum NullValue {
+        INSTANCE
+    }
+
+    public void intercept(final Invocation inv) {
+        final CacheBind cacheBind = inv.getMethod().getAnnotation(CacheBind.class);
+        if (cacheBind == null) {
+            inv.invoke();
+            return;
+        }
+
+        final JCache cache = StrKit.isBlank(cacheBind.name()) ? JRedis.use() : JRedis.use(cacheBind.name().trim());
+        if (cache == null)
+            throw new IllegalArgumentException("the cache not exists: " + cacheBind.name());
+        final String cacheKey = buildCacheKey(inv, cacheBind);
+
+        Object data = getQuietly(cache, cacheKey);
+        if (data != null) {
+            useCacheData(inv, data);
+            return;
+        }
+
+        final boolean[] invoked = {false};
+        data = singleFlight.execute(cache.getName() + ":" + cacheKey, new Callable<Object>() {
+            public Object call() {
+                // 等待期间可能已经被其他节点回填
+                Object cached = getQuietly(cache, cacheKey);
+                if (cached != null)
+                    return cached;
+                inv.invoke();
+                invoked[0] = true;
+                Object result = buildCacheData(inv);
+                if (result != null)
+                    setQuietly(cache, cacheKey, result, cacheBind);
+                return result;
+            }
+        });
+        if (!invoked[0]) {
+            // leader 的结果不能缓存时各自执行
+            if (data != null)
+                useCacheData(inv, copyOf(cache, cacheKey, data));
+            else
+                inv.invoke();
+        }
+    }
+
+    // --------- key
+
+    /**
+     * 通过继承并覆盖此方法可以自定义 key 的生成规则
+     */
+    protected String buildCacheKey(Invocation inv, CacheBind cacheBind) {
+        String template = cacheBind.key();
+        if (StrKit.isBlank(template))
+            return buildDefaultKey(inv);
+
+        Matcher matcher = KEY_PARAM.matcher(template);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find())
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(String.valueOf(resolve(inv, matcher.group(1).trim()))));
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    private String buildDefaultKey(Invocation inv) {
+        if (inv.isActionInvocation()) {
+            String queryString = inv.getController().getRequest().getQueryString();
+            return queryString == null ? inv.getActionKey() : inv.getActionKey() + "?" + queryString;
+        }
+        return inv.getMethod().getDeclaringClass().getName() + "." + inv.getMethodName()
+                + "(" + Arrays.deepToString(inv.getArgs()) + ")";
+    }
+
+    private Object resolve(Invocation inv, String expression) {
+        String[] parts = expression.split("\\.");
+        String head = parts[0];
+        boolean index = isIndex(head);
+        Object value;
+        if (inv.isActionInvocation()) {
+            Controller controller = inv.getController();
+            value = index ? controller.getPara(Integer.parseInt(head)) : controller.getPara(head);
+        } else {
+            if (!index)
+                throw new IllegalArgumentException("CacheBind key of " + inv.getMethod() + " must reference arguments by index, e.g. {0}: " + expression);
+            value = inv.getArg(Integer.parseInt(head));
+        }
+        for (int i = 1; i < parts.length && value != null; i++)
+            value = property(value, parts[i]);
+        return value;
+    }
+
+    private static boolean isIndex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i)))
+                return false;
+        }
+        return s.length() > 0;
+    }
+
+    private static Object property(Object bean, String name) {
+        if (bean instanceof Model)
+            return ((Model<?>) bean).get(name);
+        if (bean instanceof Record)
+            return ((Record) bean).get(name);
+        if (bean instanceof Map)
+            return ((Map<?, ?>) bean).get(name);
+        try {
+            return PropertyUtils.getProperty(bean, name);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("can not read property " + name + " of " + bean.getClass().getName(), e);
+        }
+    }
+
+    // --------- data
+
+    /**
+     * 返回 null 表示结果不能缓存：render 既不能转为 RenderInfo 也没有视图名称
+     * (如 renderText、redirect、renderFile)，缓存后命中时会错误地渲染默认视图
+     */
+    private Object buildCacheData(Invocation inv) {
+        if (!inv.isActionInvocation()) {
+            Object value = inv.getReturnValue();
+            return value != null ? value : NullValue.INSTANCE;
+        }
+
+        Controller controller = inv.getController();
+        HttpServletRequest request = controller.getRequest();
+        HashMap<String, Object> cacheData = new HashMap<String, Object>();
+        for (Enumeration<String> names = request.getAttributeNames(); names.hasMoreElements(); ) {
+            String name = names.nextElement();
+            Object value = request.getAttribute(name);
+            if (value instanceof Serializable)
+                cacheData.put(name, value);
+        }
+        Render render = controller.getRender();
+        if (render != null) {
+            try {
+                cacheData.put(RENDER_KEY, new RenderInfo(render));
+            } catch (IllegalArgumentException e) {
+                // RenderInfo 不支持的视图类型(如 Beetl)按视图名称交给 RenderFactory 重建
+                if (render.getView() == null)
+                    return null;
+                cacheData.put(RENDER_VIEW_KEY, render.getView());
+            }
+        }
+        return cacheData;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void useCacheData(Invocation inv, Object data) {
+        if (!inv.isActionInvocation()) {
+            inv.setReturnValue(data == NullValue.INSTANCE ? null : data);
+            return;
+        }
+
+        Controller controller = inv.getController();
+        HttpServletRequest request = controller.getRequest();
+        Map<String, Object> cacheData = (Map<String, Object>) data;
+        for (Map.Entry<String, Object> e : cacheData.entrySet())
+            request.setAttribute(e.getKey(), e.getValue());
+        request.removeAttribute(RENDER_KEY);
+        request.removeAttribute(RENDER_VIEW_KEY);
+
+        RenderInfo renderInfo = (RenderInfo) cacheData.get(RENDER_KEY);
+        String view = (String) cacheData.get(RENDER_VIEW_KEY);
+        if (renderInfo != null)
+            controller.render(renderInfo.createRender());
+        else if (view != null)
+            controller.render(RenderFactory.me().getRender(view));
+    }
+
+    // --------- redis
+
+    /**
+     * 连接失败或缓存数据无法反序列化(如类已变更)时按未命中处理
+     */
+    private static Object getQuietly(JCache cache, String key) {
+        try {
+            return cache.objects().get(key);
+        } catch (RuntimeException e) {
+            log.warn("CacheBind get fail, key: " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * 合并等待的线程各自得到 leader 结果的副本，与从缓存读取时一样互不影响；
+     * 无法通过序列化复制时退回共享同一个实例
+     */
+    private static Object copyOf(JCache cache, String key, Object data) {
+        try {
+            return cache.serializer.valueFromBytes(cache.serializer.valueToBytes(data));
+        } catch (RuntimeException e) {
+            log.warn("CacheBind copy fail, key: " + key, e);
+            return data;
+        }
+    }
+
+    private static void setQuietly(JCache cache, String key, Object data, CacheBind cacheBind) {
+        try {
+            if (data == NullValue.INSTANCE) {
+                if (cacheBind.cacheNull())
+                    cache.objects().setex(key, cacheBind.nullExpire(), data);
+            } else if (cacheBind.expire() > 0) {
+                cache.objects().setex(key, cacheBind.expire(), data);
+            } else {
+                cache.objects().set(key, data);
+            }
+        } catch (RuntimeException e) {
+            // 连接失败或结果无法序列化时不影响本次调用
+            log.warn("CacheBind set fail, key: " + key, e);
+        }
+    }
+}
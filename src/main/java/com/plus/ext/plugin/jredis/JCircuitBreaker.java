@@ -0,0 +1,340 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CircuitBreaker.
+ * JCache 的断路器，作用于从连接池借出连接：
+ * <ul>
+ * <li>关闭(CLOSED)：统计最近 windowSeconds 秒内的借出次数、失败次数(借出失败、命令执行中连接异常或超时)
+ * 及慢调用次数(借出等待或借出期间任一命令的耗时超过 slowCallMillis，每次借出最多计一次；
+ * BLPOP 等阻塞命令等待数据的时间不计入)，
+ * 次数达到 minimumCalls 且失败率或慢调用率达到阈值时打开</li>
+ * <li>打开(OPEN)：openMillis 内不再借出连接，直接抛出 JRedisCircuitOpenException，
+ * 读命令按 fallback 返回，请求线程不会阻塞在 getResource() 上</li>
+ * <li>半开(HALF_OPEN)：放行 halfOpenProbes 个探测调用，全部成功后关闭，任一失败重新打开</li>
+ * </ul>
+ * 每个 JRedisPlugin 使用各自的实例。命令耗时在连接的协议层记录，集群模式的连接池由 jedis 创建，只统计借出等待
+ * <pre>
+ * 例如：
+ * redisPlugin.setCircuitBreaker(new JCircuitBreaker()
+ *         .failureRate(0.5).slowCall(200, 0.8)
+ *         .openMillis(5000)
+ *         .fallback(JIFallback.NULL));
+ * </pre>
+ */
+public class JCircuitBreaker {
+
+    private static final Log log = Log.getLog(JCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private double failureRate = 0.5;
+    private double slowCallRate = 1.0;
+    private long slowCallNanos = Long.MAX_VALUE;
+    private int minimumCalls = 20;
+    private int windowSeconds = 10;
+    private long openMillis = 5000;
+    private int halfOpenProbes = 3;
+    private JIFallback fallback = JIFallback.THROW;
+
+    private String cacheName;
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private long halfOpenAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    /**
+     * 每秒一个桶，按 秒数 % windowSeconds 循环使用
+     */
+    private AtomicLongArray epochs;
+    private AtomicLongArray calls;
+    private AtomicLongArray failures;
+    private AtomicLongArray slowCalls;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public JCircuitBreaker() {
+        initWindow();
+    }
+
+    // --------- 配置
+
+    /**
+     * 失败率达到此值时打开，默认 0.5
+     */
+    public JCircuitBreaker failureRate(double failureRate) {
+        if (failureRate <= 0 || failureRate > 1)
+            throw new IllegalArgumentException("failureRate must be in (0, 1]");
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * 借出等待或命令耗时超过 slowCallMillis 的调用占比达到 slowCallRate 时打开，默认不统计慢调用
+     */
+    public JCircuitBreaker slowCall(long slowCallMillis, double slowCallRate) {
+        if (slowCallMillis <= 0 || slowCallRate <= 0 || slowCallRate > 1)
+            throw new IllegalArgumentException("slowCallMillis must be greater than 0 and slowCallRate must be in (0, 1]");
+        this.slowCallNanos = slowCallMillis * 1000000L;
+        this.slowCallRate = slowCallRate;
+        return this;
+    }
+
+    /**
+     * 统计窗口内至少有多少次调用才计算失败率，默认 20
+     */
+    public JCircuitBreaker minimumCalls(int minimumCalls) {
+        this.minimumCalls = Math.max(1, minimumCalls);
+        return this;
+    }
+
+    /**
+     * 统计窗口的秒数，默认 10
+     */
+    public JCircuitBreaker windowSeconds(int windowSeconds) {
+        if (windowSeconds <= 0)
+            throw new IllegalArgumentException("windowSeconds must be greater than 0");
+        this.windowSeconds = windowSeconds;
+        initWindow();
+        return this;
+    }
+
+    /**
+     * 打开后多久进入半开，默认 5000 毫秒
+     */
+    public JCircuitBreaker openMillis(long openMillis) {
+        if (openMillis <= 0)
+            throw new IllegalArgumentException("openMillis must be greater than 0");
+        this.openMillis = openMillis;
+        return this;
+    }
+
+    /**
+     * 半开时的探测调用数，默认 3
+     */
+    public JCircuitBreaker halfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        return this;
+    }
+
+    /**
+     * 打开时读命令的返回值，默认 JIFallback.THROW
+     */
+    public JCircuitBreaker fallback(JIFallback fallback) {
+        if (fallback == null)
+            throw new IllegalArgumentException("fallback can not be null");
+        this.fallback = fallback;
+        return this;
+    }
+
+    private void initWindow() {
+        epochs = new AtomicLongArray(windowSeconds);
+        calls = new AtomicLongArray(windowSeconds);
+        failures = new AtomicLongArray(windowSeconds);
+        slowCalls = new AtomicLongArray(windowSeconds);
+    }
+
+    void bind(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    // --------- 由 JRedisRouter 调用
+
+    /**
+     * 借出连接前调用，打开状态下抛出 JRedisCircuitOpenException
+     */
+    void acquire() {
+        State state = this.state;
+        if (state == State.CLOSED)
+            return;
+        if (!tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new JRedisCircuitOpenException("circuit breaker of redis " + cacheName + " is open");
+        }
+    }
+
+    private synchronized boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN) {
+            if (now - openedAt < openMillis)
+                return false;
+            transitionTo(State.HALF_OPEN, now);
+        }
+        if (state == State.HALF_OPEN) {
+            // 探测调用的结果可能没有回报(连接未经 JCache 归还)，超过 openMillis 后开始新一轮探测
+            if (probesStarted >= halfOpenProbes && now - halfOpenAt >= openMillis)
+                transitionTo(State.HALF_OPEN, now);
+            if (probesStarted >= halfOpenProbes)
+                return false;
+            probesStarted++;
+        }
+        return true;
+    }
+
+    /**
+     * 借出成功，nanos 为等待时间
+     *
+     * @param timedOnRelease 归还时会回报包括等待在内的调用耗时，此时不在借出时统计慢调用
+     */
+    void onBorrow(long nanos, boolean timedOnRelease) {
+        int bucket = bucket();
+        calls.incrementAndGet(bucket);
+        if (!timedOnRelease && nanos >= slowCallNanos) {
+            slowCalls.incrementAndGet(bucket);
+            onFailureEvent();
+        }
+    }
+
+    /**
+     * 借出失败，也计为一次调用
+     */
+    void onBorrowError() {
+        int bucket = bucket();
+        calls.incrementAndGet(bucket);
+        failures.incrementAndGet(bucket);
+        onFailureEvent();
+    }
+
+    /**
+     * 归还连接，broken 为 true 表示命令执行中连接异常或超时
+     *
+     * @param nanos 借出等待与各命令耗时中的最大值，无法取得时为 -1
+     */
+    void onRelease(boolean broken, long nanos) {
+        if (broken) {
+            failures.incrementAndGet(bucket());
+            onFailureEvent();
+            return;
+        }
+        if (nanos >= slowCallNanos) {
+            slowCalls.incrementAndGet(bucket());
+            onFailureEvent();
+            return;
+        }
+        if (state == State.HALF_OPEN)
+            onProbeSuccess();
+    }
+
+    private synchronized void onProbeSuccess() {
+        if (state == State.HALF_OPEN && ++probesSucceeded >= halfOpenProbes)
+            transitionTo(State.CLOSED, System.currentTimeMillis());
+    }
+
+    /**
+     * 只有失败及慢调用会提高比率，只在这些事件上检查是否需要打开
+     */
+    private void onFailureEvent() {
+        State state = this.state;
+        if (state == State.OPEN)
+            return;
+        if (state == State.HALF_OPEN) {
+            synchronized (this) {
+                if (this.state == State.HALF_OPEN)
+                    transitionTo(State.OPEN, System.currentTimeMillis());
+            }
+            return;
+        }
+        long[] totals = totals();
+        if (totals[0] < minimumCalls)
+            return;
+        if (totals[1] >= totals[0] * failureRate || totals[2] >= totals[0] * slowCallRate) {
+            synchronized (this) {
+                if (this.state == State.CLOSED) {
+                    log.warn("circuit breaker of redis " + cacheName + " opened, calls: " + totals[0]
+                            + ", failures: " + totals[1] + ", slow calls: " + totals[2]);
+                    transitionTo(State.OPEN, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    private void transitionTo(State next, long now) {
+        if (next == State.OPEN) {
+            openedAt = now;
+        } else if (next == State.HALF_OPEN) {
+            halfOpenAt = now;
+            probesStarted = 0;
+            probesSucceeded = 0;
+        } else {
+            for (int i = 0; i < windowSeconds; i++) {
+                calls.set(i, 0);
+                failures.set(i, 0);
+                slowCalls.set(i, 0);
+            }
+            log.info("circuit breaker of redis " + cacheName + " closed");
+        }
+        state = next;
+    }
+
+    private int bucket() {
+        long second = System.currentTimeMillis() / 1000;
+        int bucket = (int) (second % windowSeconds);
+        long epoch = epochs.get(bucket);
+        if (epoch != second && epochs.compareAndSet(bucket, epoch, second)) {
+            // 复用上一轮的桶，并发时可能少计几次，不影响比率
+            calls.set(bucket, 0);
+            failures.set(bucket, 0);
+            slowCalls.set(bucket, 0);
+        }
+        return bucket;
+    }
+
+    /**
+     * {调用次数, 失败次数, 慢调用次数}
+     */
+    private long[] totals() {
+        long oldest = System.currentTimeMillis() / 1000 - windowSeconds;
+        long[] totals = new long[3];
+        for (int i = 0; i < windowSeconds; i++) {
+            if (epochs.get(i) <= oldest)
+                continue;
+            totals[0] += calls.get(i);
+            totals[1] += failures.get(i);
+            totals[2] += slowCalls.get(i);
+        }
+        return totals;
+    }
+
+    Object fallback(String command, String key, JRedisCircuitOpenException e) {
+        return fallback.fallback(command, key, e);
+    }
+
+    // ---------
+
+    public State getState() {
+        State state = this.state;
+        // 到期未被调用触发时也报告为半开
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis)
+            return State.HALF_OPEN;
+        return state;
+    }
+
+    /**
+     * 打开状态下被拒绝的调用次数
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * 状态及统计窗口内的调用、失败、慢调用次数
+     */
+    public Map<String, Object> snapshot() {
+        long[] totals = totals();
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("state", getState().name());
+        result.put("calls", totals[0]);
+        result.put("failures", totals[1]);
+        result.put("slowCalls", totals[2]);
+        result.put("rejected", rejected.get());
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisSlotBasedConnectionHandler;
+import redis.clients.jedis.exceptions.JedisNoReachableClusterNodeException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClusterRouter.
+ * Redis Cluster 模式：按 CRC16(key) % 16384 计算 slot，路由到负责该 slot 的主节点。
+ * slot 分布由 jedis 的 JedisSlotBasedConnectionHandler 维护，命令遇到 MOVED 时立即刷新后重试一次，
+ * 单 key 命令遇到 ASK 时在目标节点上重试(见 JCache.execute)，另外按 refreshSeconds 定时刷新
+ */
+class JClusterRouter extends JRedisRouter {
+
+    private static final Log log = Log.getLog(JClusterRouter.class);
+    private static final int SLOTS = 16384;
+
+    private final SlotHandler handler;
+    private final ScheduledExecutorService refresher;
+    private volatile List<JedisPool> masters;
+
+    JClusterRouter(Set<HostAndPort> nodes, GenericObjectPoolConfig poolConfig, int timeout, String password, int refreshSeconds) {
+        this.handler = new SlotHandler(nodes, poolConfig, timeout, password);
+        this.masters = discoverMasters();
+        if (refreshSeconds > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "jredis-cluster-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        renew();
+                    } catch (Exception e) {
+                        log.warn("renew cluster slots fail", e);
+                    }
+                }
+            }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        } else {
+            refresher = null;
+        }
+    }
+
+    JedisPool poolOf(String key) {
+        return slotPool(JedisClusterCRC16.getSlot(key));
+    }
+
+    JedisPool poolOf(byte[] key) {
+        return slotPool(JedisClusterCRC16.getSlot(key));
+    }
+
+    int groupOf(byte[] key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    List<JedisPool> masters() {
+        return masters;
+    }
+
+    JedisPool nodePool(HostAndPort node) {
+        return handler.nodePool(node);
+    }
+
+    void renew() {
+        handler.renewSlotCache();
+        masters = discoverMasters();
+    }
+
+    void destroy() {
+        if (refresher != null)
+            refresher.shutdownNow();
+        super.destroy();
+    }
+
+    /**
+     * 连接池由 handler 创建，包括从节点的连接池
+     */
+    void destroyPools() {
+        handler.close();
+    }
+
+    private JedisPool slotPool(int slot) {
+        JedisPool pool = handler.slotPool(slot);
+        if (pool == null) {
+            renew();
+            pool = handler.slotPool(slot);
+            if (pool == null)
+                throw new JedisNoReachableClusterNodeException("no reachable node for slot " + slot);
+        }
+        return pool;
+    }
+
+    /**
+     * 按节点地址排序，保证 SCAN 游标在拓扑不变时可以延续
+     */
+    private List<JedisPool> discoverMasters() {
+        Set<JedisPool> slotPools = Collections.newSetFromMap(new IdentityHashMap<JedisPool, Boolean>());
+        for (int slot = 0; slot < SLOTS; slot++) {
+            JedisPool pool = handler.slotPool(slot);
+            if (pool != null)
+                slotPools.add(pool);
+        }
+        List<JedisPool> result = new ArrayList<JedisPool>();
+        for (Map.Entry<String, JedisPool> e : new TreeMap<String, JedisPool>(handler.getNodes()).entrySet()) {
+            if (slotPools.contains(e.getValue()))
+                result.add(e.getValue());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    JRedisNode nodeOf(String key, JRedisNode seed) {
+        JedisPool pool = poolOf(key);
+        for (Map.Entry<String, JedisPool> e : handler.getNodes().entrySet()) {
+            if (e.getValue() == pool) {
+                HostAndPort hostAndPort = HostAndPort.parseString(e.getKey());
+                return new JRedisNode(hostAndPort.getHost(), hostAndPort.getPort(), seed.getTimeout(),
+                        seed.getPassword(), seed.getDatabase(), seed.getClientName());
+            }
+        }
+        throw new JedisNoReachableClusterNodeException("no reachable node for key " + key);
+    }
+
+    Map<String, JedisPool> namedPools() {
+        return new TreeMap<String, JedisPool>(handler.getNodes());
+    }
+
+    public String toString() {
+        return "cluster" + handler.getNodes().keySet();
+    }
+
+    /**
+     * 暴露 jedis 内部维护的 slot -> 连接池映射
+     */
+    private static class SlotHandler extends JedisSlotBasedConnectionHandler {
+        SlotHandler(Set<HostAndPort> nodes, GenericObjectPoolConfig poolConfig, int timeout, String password) {
+            super(nodes, poolConfig, timeout, timeout, password);
+        }
+
+        JedisPool slotPool(int slot) {
+            return cache.getSlotPool(slot);
+        }
+
+        JedisPool nodePool(HostAndPort node) {
+            return cache.setupNodeIfNotExist(node);
+        }
+    }
+}
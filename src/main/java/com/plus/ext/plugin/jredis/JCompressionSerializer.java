@@ -0,0 +1,232 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+import com.jfinal.plugin.redis.serializer.ISerializer;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressionSerializer.
+ * 包装另一个 ISerializer，value 序列化后不小于 threshold 字节时以 Deflate 压缩，key 与 field 不变。
+ * 压缩后的 value 以 4 字节魔数及 4 字节原始长度开头，读取时只解压带有魔数的 value，
+ * 开启压缩前写入的 value 及小于 threshold 的 value 原样交给被包装的 ISerializer，可以直接读取。
+ * 压缩后没有变小的 value 不压缩。
+ * <p/>
+ * 只作用于经过 ISerializer 的 api(objects() 及 JCache 的对象方法)，String api 的 value 保持原样，
+ * 便于其他客户端读取。关闭压缩后无法读取已压缩的 value，请在数据过期前保持开启。
+ * Deflater/Inflater 占用 zlib 的堆外内存，空闲实例最多保留 2 倍 CPU 核数个，插件停止时全部释放
+ * <pre>
+ * 例如：
+ * redisPlugin.setCompression(16 * 1024);
+ * </pre>
+ */
+public class JCompressionSerializer implements ISerializer {
+
+    private static final Log log = Log.getLog(JCompressionSerializer.class);
+
+    /**
+     * 未压缩的序列化结果极少以此开头，万一误判，解压失败后仍按未压缩读取
+     */
+    private static final byte[] MAGIC = {0x00, 'J', 'Z', 0x01};
+    private static final int HEADER_LENGTH = MAGIC.length + 4;
+
+    /**
+     * 单个 value 解压后的上限，超过时视为未压缩的数据
+     */
+    private static final int MAX_LENGTH = 512 * 1024 * 1024;
+
+    private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final ISerializer serializer;
+    private final int threshold;
+    private final int level;
+    private final String cacheName;
+    private final JIMetricsRegistry metrics;
+
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(MAX_IDLE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(MAX_IDLE);
+    private volatile boolean closed = false;
+
+    public JCompressionSerializer(ISerializer serializer, int threshold) {
+        this(serializer, threshold, Deflater.BEST_SPEED, null, null);
+    }
+
+    /**
+     * @param threshold 序列化后达到此字节数时压缩
+     * @param level     Deflate 压缩级别 1-9，默认 1(最快)
+     * @param metrics   记录压缩率及耗时，可以为 null
+     */
+    public JCompressionSerializer(ISerializer serializer, int threshold, int level, String cacheName, JIMetricsRegistry metrics) {
+        if (serializer == null)
+            throw new IllegalArgumentException("serializer can not be null");
+        if (threshold <= 0)
+            throw new IllegalArgumentException("threshold must be greater than 0");
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("level must be between 1 and 9");
+        this.serializer = serializer;
+        this.threshold = threshold;
+        this.level = level;
+        this.cacheName = cacheName;
+        this.metrics = metrics;
+    }
+
+    public byte[] keyToBytes(String key) {
+        return serializer.keyToBytes(key);
+    }
+
+    public String keyFromBytes(byte[] bytes) {
+        return serializer.keyFromBytes(bytes);
+    }
+
+    public byte[] fieldToBytes(Object field) {
+        return serializer.fieldToBytes(field);
+    }
+
+    public Object fieldFromBytes(byte[] bytes) {
+        return serializer.fieldFromBytes(bytes);
+    }
+
+    public byte[] valueToBytes(Object value) {
+        byte[] raw = serializer.valueToBytes(value);
+        if (raw == null || raw.length < threshold)
+            return raw;
+        long start = System.nanoTime();
+        byte[] compressed = compress(raw);
+        if (metrics != null)
+            metrics.recordCompression(cacheName, false, raw.length, compressed != null ? compressed.length : raw.length,
+                    System.nanoTime() - start);
+        return compressed != null ? compressed : raw;
+    }
+
+    public Object valueFromBytes(byte[] bytes) {
+        if (!isCompressed(bytes))
+            return serializer.valueFromBytes(bytes);
+        long start = System.nanoTime();
+        byte[] raw = decompress(bytes);
+        if (raw == null)
+            return serializer.valueFromBytes(bytes);
+        if (metrics != null)
+            metrics.recordCompression(cacheName, true, raw.length, bytes.length, System.nanoTime() - start);
+        return serializer.valueFromBytes(raw);
+    }
+
+    /**
+     * 压缩后不小于原始数据时返回 null
+     */
+    private byte[] compress(byte[] raw) {
+        if (raw.length <= HEADER_LENGTH)
+            return null;
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+            deflater = new Deflater(level);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buf = new byte[raw.length];
+            System.arraycopy(MAGIC, 0, buf, 0, MAGIC.length);
+            writeInt(buf, MAGIC.length, raw.length);
+            int length = HEADER_LENGTH;
+            while (!deflater.finished()) {
+                if (length == buf.length)
+                    return null;
+                length += deflater.deflate(buf, length, buf.length - length);
+            }
+            return Arrays.copyOf(buf, length);
+        } finally {
+            deflater.reset();
+            if (closed || !deflaters.offer(deflater))
+                deflater.end();
+            else if (closed && deflaters.remove(deflater))
+                deflater.end();
+        }
+    }
+
+    /**
+     * 数据损坏或并非由本类压缩时返回 null
+     */
+    private byte[] decompress(byte[] bytes) {
+        int length = readInt(bytes, MAGIC.length);
+        if (length < 0 || length > MAX_LENGTH)
+            return null;
+        Inflater inflater = inflaters.poll();
+        if (inflater == null)
+            inflater = new Inflater();
+        inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        byte[] raw = new byte[length];
+        try {
+            int n = 0;
+            while (n < length) {
+                int read = inflater.inflate(raw, n, length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += read;
+            }
+            if (n != length || !inflater.finished()) {
+                log.warn("compressed value of " + cacheName + " is corrupted, read as uncompressed");
+                return null;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            log.warn("compressed value of " + cacheName + " is corrupted, read as uncompressed", e);
+            return null;
+        } finally {
+            inflater.reset();
+            if (closed || !inflaters.offer(inflater))
+                inflater.end();
+            else if (closed && inflaters.remove(inflater))
+                inflater.end();
+        }
+    }
+
+    /**
+     * 释放空闲的 Deflater/Inflater，由 JRedisPlugin.stop() 调用。之后仍可以读写，只是用完即释放、不再复用
+     */
+    public void close() {
+        closed = true;
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null)
+            deflater.end();
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null)
+            inflater.end();
+    }
+
+    static boolean isCompressed(byte[] bytes) {
+        if (bytes == null || bytes.length <= HEADER_LENGTH)
+            return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        return ((buf[offset] & 0xff) << 24) | ((buf[offset + 1] & 0xff) << 16)
+                | ((buf[offset + 2] & 0xff) << 8) | (buf[offset + 3] & 0xff);
+    }
+
+    public ISerializer getSerializer() {
+        return serializer;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,237 @@
+package com.plus.ext.plugin.jredis;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.jfinal.log.Log;
+import redis.clients.util.SafeEncoder;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HotKeys.
+ * 热点 key 探测：按 1/SAMPLE_RATE 的概率抽样记录 JCache 访问的 key，计数存放在 count-min sketch 中(固定内存，
+ * 估计值只会偏大)，一个窗口内估计访问频率达到阈值的 key 即为热点 key。每个窗口结束时 sketch 计数减半，
+ * 热点 key 在访问下降后逐渐退出。新出现的热点 key 记录 info 日志，也可以通过 JCache.getHotKeys() 或指标查看。
+ * <p/>
+ * 开启本地提升(promoteMillis 大于 0)时，热点 key 的 get(String) 结果在本地缓存 promoteMillis 毫秒，
+ * 热点期间大部分读取不再访问 Redis。通过本进程 JCache 写入时立即清除本地副本，
+ * 其他进程写入后最多读到 promoteMillis 毫秒的旧值，请保持较短的时间
+ * <pre>
+ * 例如：
+ * redisPlugin.setHotKeys(1000, 500);
+ * Map&lt;String, Long&gt; hot = JRedis.use().getHotKeys().getHotKeys();
+ * </pre>
+ */
+public class JHotKeys {
+
+    private static final Log log = Log.getLog(JHotKeys.class);
+
+    static final int SAMPLE_RATE = 8;
+    static final int WINDOW_SECONDS = 5;
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 14;
+
+    /**
+     * 同时跟踪的热点 key 上限，超过后新出现的热点 key 不再记录
+     */
+    private static final int MAX_HOT_KEYS = 1000;
+
+    private final String cacheName;
+    private final long threshold;
+    private final long promoteMillis;
+    private final AtomicIntegerArray sketch = new AtomicIntegerArray(DEPTH * WIDTH);
+    private final ConcurrentMap<String, Long> candidates = new ConcurrentHashMap<String, Long>();
+    private final Cache<String, Object> promoted;
+
+    /**
+     * 每次清除本地副本时递增，防止把清除前读到的旧值回填
+     */
+    private final AtomicLong stamp = new AtomicLong();
+
+    private volatile Map<String, Long> hotKeys = Collections.emptyMap();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param threshold     每秒访问次数达到此值的 key 视为热点 key
+     * @param promoteMillis 热点 key 在本地缓存的毫秒数，0 表示只探测不缓存
+     */
+    JHotKeys(String cacheName, long threshold, long promoteMillis) {
+        this.cacheName = cacheName;
+        this.threshold = threshold;
+        this.promoteMillis = promoteMillis;
+        this.promoted = promoteMillis <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(MAX_HOT_KEYS)
+                .expireAfterWrite(promoteMillis, TimeUnit.MILLISECONDS)
+                .<String, Object>build();
+    }
+
+    /**
+     * 在命令路径上调用，未被抽中时只有一次随机数开销
+     */
+    void record(String key) {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0)
+            record(key.hashCode(), key, null);
+    }
+
+    /**
+     * objects() 等二进制 key，被判定为热点时才转为字符串
+     */
+    void record(byte[] key) {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0)
+            record(Arrays.hashCode(key), null, key);
+    }
+
+    private void record(int h, String key, byte[] keyBytes) {
+        int h1 = mix(h);
+        int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int n = sketch.incrementAndGet(i * WIDTH + ((h1 + i * h2) & (WIDTH - 1)));
+            if (n < min)
+                min = n;
+        }
+        // 每个窗口减半，稳定访问时计数收敛到一个窗口访问次数的 2 倍
+        long rate = (long) min * SAMPLE_RATE / (2 * WINDOW_SECONDS);
+        if (rate < threshold)
+            return;
+        if (key == null)
+            key = SafeEncoder.encode(keyBytes);
+        if (candidates.size() < MAX_HOT_KEYS || candidates.containsKey(key))
+            candidates.put(key, rate);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * 窗口结束：本窗口的候选成为当前热点 key，sketch 计数减半
+     */
+    private void rotate() {
+        Map<String, Long> current = new HashMap<String, Long>(candidates);
+        candidates.clear();
+        for (int i = 0; i < sketch.length(); i++) {
+            int n = sketch.get(i);
+            if (n > 0)
+                sketch.addAndGet(i, -(n - n / 2));
+        }
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(current.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        Map<String, Long> sorted = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> e : entries) {
+            sorted.put(e.getKey(), e.getValue());
+            if (!hotKeys.containsKey(e.getKey()))
+                log.info("hot key detected in " + cacheName + ": " + e.getKey() + " ~" + e.getValue() + "/s");
+        }
+        hotKeys = Collections.unmodifiableMap(sorted);
+        if (promoted != null) {
+            for (String key : promoted.asMap().keySet()) {
+                if (!sorted.containsKey(key))
+                    promoted.invalidate(key);
+            }
+        }
+    }
+
+    // --------- 本地提升
+
+    boolean isPromoting(String key) {
+        return promoted != null && hotKeys.containsKey(key);
+    }
+
+    Object getPromoted(String key) {
+        return promoted.getIfPresent(key);
+    }
+
+    long stamp() {
+        return stamp.get();
+    }
+
+    void promote(String key, Object value, long readStamp) {
+        if (value == null)
+            return;
+        promoted.put(key, value);
+        // 读取期间发生过写入时放弃回填
+        if (stamp.get() != readStamp)
+            promoted.invalidate(key);
+    }
+
+    void evict(String... keys) {
+        if (promoted == null)
+            return;
+        stamp.incrementAndGet();
+        for (String key : keys)
+            promoted.invalidate(key);
+    }
+
+    // ---------
+
+    synchronized void start() {
+        if (scheduler != null)
+            return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jredis-hotkeys-" + cacheName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    rotate();
+                } catch (Exception e) {
+                    log.warn("rotate hot keys of " + cacheName + " fail", e);
+                }
+            }
+        }, WINDOW_SECONDS, WINDOW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (promoted != null)
+            promoted.invalidateAll();
+    }
+
+    /**
+     * 最近一个窗口的热点 key 及估计的每秒访问次数，按访问次数从高到低排列
+     */
+    public Map<String, Long> getHotKeys() {
+        return hotKeys;
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    public long getPromoteMillis() {
+        return promoteMillis;
+    }
+
+    /**
+     * 本地提升的 key 数量
+     */
+    public long getPromotedSize() {
+        return promoted != null ? promoted.size() : 0;
+    }
+}
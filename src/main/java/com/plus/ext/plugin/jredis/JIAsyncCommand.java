@@ -0,0 +1,24 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * AsyncCommand.
+ * JAsyncCache 中没有提供的命令，在 key 所在节点的自动 pipeline 中发送
+ * <pre>
+ * 例如：
+ * CompletableFuture&lt;Long&gt; future = JRedis.use().async().execute("uv:" + day, new JIAsyncCommand&lt;Long&gt;() {
+ *     public Response&lt;Long&gt; send(Pipeline pipeline) {
+ *         return pipeline.pfcount("uv:" + day);
+ *     }
+ * });
+ * </pre>
+ */
+public interface JIAsyncCommand<T> {
+
+    /**
+     * 只允许发送一条命令，在 flush 线程中调用
+     */
+    Response<T> send(Pipeline pipeline);
+}
@@ -0,0 +1,41 @@
+package com.plus.ext.plugin.jredis;
+
+/**
+ * Fallback.
+ * 断路器打开时读命令(get、hget、hgetAll 及 objects() 的 get、hget、fetch)的返回值，
+ * 其他命令直接抛出 JRedisCircuitOpenException。例如从进程内的缓存返回旧值：
+ * <pre>
+ * breaker.fallback(new JIFallback() {
+ *     public Object fallback(String command, String key, JRedisCircuitOpenException e) {
+ *         return localCache.getIfPresent(key);
+ *     }
+ * });
+ * </pre>
+ */
+public interface JIFallback {
+
+    /**
+     * 直接抛出 JRedisCircuitOpenException，默认值
+     */
+    JIFallback THROW = new JIFallback() {
+        public Object fallback(String command, String key, JRedisCircuitOpenException e) {
+            throw e;
+        }
+    };
+
+    /**
+     * 按缓存未命中处理，返回 null
+     */
+    JIFallback NULL = new JIFallback() {
+        public Object fallback(String command, String key, JRedisCircuitOpenException e) {
+            return null;
+        }
+    };
+
+    /**
+     * @param command 命令名称，如 GET、HGET
+     * @param key     命令的 key，对象 api 中为 keyNamingPolicy 命名后的 key
+     * @return 返回值类型需要与命令的返回值相同
+     */
+    Object fallback(String command, String key, JRedisCircuitOpenException e);
+}
@@ -0,0 +1,15 @@
+package com.plus.ext.plugin.jredis;
+
+/**
+ * IMessageListener.
+ * JCache.subscribe(...) 的消息回调，在订阅线程中调用，不要在回调中执行耗时操作
+ */
+public interface JIMessageListener {
+
+    void onMessage(String channel, String message);
+
+    /**
+     * 订阅成功时调用，包括断线重连后的重新订阅，断线期间的消息已经丢失，可在此清理依赖消息维护的本地状态
+     */
+    void onSubscribe();
+}
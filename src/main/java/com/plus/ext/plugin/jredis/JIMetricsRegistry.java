@@ -0,0 +1,38 @@
+package com.plus.ext.plugin.jredis;
+
+/**
+ * IMetricsRegistry.
+ * JRedis 的指标出口，通过 JRedisPlugin.setMetricsRegistry(...) 配置，默认使用 JMetricsRegistry.me。
+ * 实现此接口可以把指标桥接到其他监控系统，所有方法都在命令路径上同步调用，实现必须线程安全且足够轻量
+ */
+public interface JIMetricsRegistry {
+
+    /**
+     * JRedisPlugin 启动后注册 cache，可通过 JCache.getPoolStats() 读取连接池的 active/idle/waiters
+     */
+    void register(JCache cache);
+
+    void unregister(JCache cache);
+
+    /**
+     * 从连接池借出连接的等待时间，error 为 true 表示借出失败(连接池耗尽超时或无法建立连接)
+     */
+    void recordBorrow(String cacheName, long nanos, boolean error);
+
+    /**
+     * 连接池耗尽，等待空闲连接超时，同时也会记录一次失败的 recordBorrow
+     */
+    void recordPoolExhausted(String cacheName);
+
+    /**
+     * 单条 Redis 命令从发出到读取响应的耗时，pipeline 中的命令包含排队时间，
+     * error 为 true 表示服务端返回错误或连接异常
+     */
+    void recordCommand(String cacheName, String command, long nanos, boolean error);
+
+    /**
+     * value 压缩(decompress 为 false)或解压一次，rawBytes 为原始大小，storedBytes 为写入 Redis 的大小，
+     * 压缩后没有变小而原样写入时两者相等
+     */
+    void recordCompression(String cacheName, boolean decompress, int rawBytes, int storedBytes, long nanos);
+}
@@ -0,0 +1,12 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.Pipeline;
+
+/**
+ * IPipelineCallback.
+ * 将多个 redis 命令放入同一个 Pipeline 中，一次性发送并一次性读取结果，
+ * 每个命令返回的 Response 在 JCache.pipelined(...) 返回后即可通过 get() 取得类型化结果
+ */
+public interface JIPipelineCallback {
+    void call(Pipeline pipeline);
+}
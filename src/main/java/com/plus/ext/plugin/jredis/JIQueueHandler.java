@@ -0,0 +1,11 @@
+package com.plus.ext.plugin.jredis;
+
+import java.util.List;
+
+/**
+ * IQueueHandler.
+ * 处理 JQueue 中取出的一批消息，正常返回即确认整批消息，抛出异常时整批按消费者的配置重新入队或进入死信队列
+ */
+public interface JIQueueHandler {
+    void handle(List<String> messages) throws Exception;
+}
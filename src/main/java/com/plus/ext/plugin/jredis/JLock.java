@@ -0,0 +1,127 @@
+package com.plus.ext.plugin.jredis;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Lock.
+ * 基于 Redis 的可重入分布式锁，name 即 Redis 中的 key，集群及分片模式下按 key 路由。
+ * 不指定租期时默认租期 30 秒并由后台线程自动续租，持有者进程退出后锁在租期内自动释放；
+ * 指定租期时到期即释放，不再续租。等待中的线程通过订阅解锁消息被唤醒，不轮询 Redis
+ * <pre>
+ * 例如：
+ * JLock lock = JRedis.use().getLock("lock:order:" + orderId);
+ * if (lock.tryLock(3, TimeUnit.SECONDS)) {
+ *     try {
+ *         ...
+ *     } finally {
+ *         lock.unlock();
+ *     }
+ * }
+ * </pre>
+ * 锁在解锁前因租期到期被其他客户端取得时，unlock 抛出 IllegalMonitorStateException，
+ * 说明临界区没有受到保护，指定租期时请保证租期足够长
+ */
+public class JLock implements Lock {
+
+    private final JLockSupport support;
+    private final String name;
+
+    JLock(JLockSupport support, String name) {
+        if (name == null)
+            throw new IllegalArgumentException("name can not be null");
+        this.support = support;
+        this.name = name;
+    }
+
+    /**
+     * 一直等待直到取得锁，等待期间不响应中断
+     */
+    public void lock() {
+        support.acquireUninterruptibly(name, -1, -1);
+    }
+
+    /**
+     * 取得锁并指定租期，到期后自动释放
+     */
+    public void lock(long leaseTime, TimeUnit unit) {
+        support.acquireUninterruptibly(name, -1, unit.toMillis(leaseTime));
+    }
+
+    public void lockInterruptibly() throws InterruptedException {
+        support.acquireInterruptibly(name, -1, -1);
+    }
+
+    public void lockInterruptibly(long leaseTime, TimeUnit unit) throws InterruptedException {
+        support.acquireInterruptibly(name, -1, unit.toMillis(leaseTime));
+    }
+
+    /**
+     * 只尝试一次，不等待
+     */
+    public boolean tryLock() {
+        return support.acquireUninterruptibly(name, 0, -1);
+    }
+
+    /**
+     * 最多等待 time，超时返回 false
+     */
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return support.acquireInterruptibly(name, unit.toMillis(time), -1);
+    }
+
+    /**
+     * 最多等待 waitTime，取得后租期为 leaseTime
+     */
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        return support.acquireInterruptibly(name, unit.toMillis(waitTime), unit.toMillis(leaseTime));
+    }
+
+    /**
+     * 重入时只减少持有次数，最后一次解锁时释放 Redis 中的锁并唤醒等待者
+     */
+    public void unlock() {
+        support.release(name);
+    }
+
+    /**
+     * 不论持有者是谁直接释放，用于运维清理
+     *
+     * @return 锁存在并被删除时返回 true
+     */
+    public boolean forceUnlock() {
+        return support.forceRelease(name);
+    }
+
+    /**
+     * 是否被任意客户端持有
+     */
+    public boolean isLocked() {
+        return support.isLocked(name);
+    }
+
+    public boolean isHeldByCurrentThread() {
+        return support.getHoldCount(name) > 0;
+    }
+
+    /**
+     * 当前线程的重入次数，未持有时为 0
+     */
+    public int getHoldCount() {
+        return support.getHoldCount(name);
+    }
+
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("JLock does not support condition");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "JLock[" + name + "]";
+    }
+}
@@ -0,0 +1,350 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockSupport.
+ * JLock 的实现，每个 JCache 一个：
+ * <ul>
+ * <li>加锁为 SET key token NX PX lease，失败时同时返回持有者剩余的租期；解锁、续租先比较 token 再删除/延期，均为 Lua 脚本</li>
+ * <li>重入次数只记录在本地，同一线程重入不访问 Redis</li>
+ * <li>未指定租期时由 watchdog 每 lease/3 续租一次，进程退出后锁在 lease 内自动过期</li>
+ * <li>解锁时在频道上发布 key，等待者订阅该频道被唤醒后再竞争，最长只等待持有者的剩余租期，不需要轮询；
+ * 同一进程内的等待者按到达顺序排队，每把锁只有队首一个线程访问 Redis</li>
+ * </ul>
+ */
+class JLockSupport {
+
+    static final String CHANNEL_PREFIX = "jlock:release:";
+    static final long DEFAULT_LEASE_MILLIS = 30000;
+
+    private static final Log log = Log.getLog(JLockSupport.class);
+
+    /**
+     * 加锁成功返回 nil，否则返回持有者剩余的租期(毫秒)
+     */
+    private static final JScript ACQUIRE_SCRIPT = JScript.of(
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return nil end " +
+            "return redis.call('pttl', KEYS[1])");
+    private static final JScript RELEASE_SCRIPT = JScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "redis.call('del', KEYS[1]) redis.call('publish', ARGV[2], KEYS[1]) return 1 end " +
+            "return 0");
+    private static final JScript RENEW_SCRIPT = JScript.of(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end " +
+            "return 0");
+    private static final JScript FORCE_RELEASE_SCRIPT = JScript.of(
+            "local n = redis.call('del', KEYS[1]) redis.call('publish', ARGV[1], KEYS[1]) return n");
+
+    /**
+     * 持有者没有设置过期时间(pttl 为 -1)时，等待多久后重新尝试
+     */
+    private static final long NO_TTL_RETRY_MILLIS = 1000;
+
+    private final JCache cache;
+    private final String channel;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+    private final ConcurrentMap<String, Gate> gates = new ConcurrentHashMap<String, Gate>();
+
+    private volatile boolean running = true;
+    private JSubscription subscription;
+    private ScheduledExecutorService watchdog;
+
+    JLockSupport(JCache cache) {
+        this.cache = cache;
+        this.channel = CHANNEL_PREFIX + cache.getName();
+    }
+
+    boolean acquireInterruptibly(String key, long waitMillis, long leaseMillis) throws InterruptedException {
+        return acquire(key, waitMillis, leaseMillis, true);
+    }
+
+    /**
+     * 等待期间忽略中断，返回前恢复线程的中断状态
+     */
+    boolean acquireUninterruptibly(String key, long waitMillis, long leaseMillis) {
+        try {
+            return acquire(key, waitMillis, leaseMillis, false);
+        } catch (InterruptedException e) {
+            // 不可中断模式下不会抛出
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param waitMillis  最长等待时间，小于 0 表示一直等待，0 表示只尝试一次
+     * @param leaseMillis 租期，小于等于 0 表示使用默认租期并由 watchdog 续租
+     */
+    private boolean acquire(String key, long waitMillis, long leaseMillis, boolean interruptible) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        Lease held = leases.get(key);
+        if (held != null && held.owner == current) {
+            held.holds++;
+            return true;
+        }
+
+        long deadline = waitMillis < 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        String token = instanceId + ":" + current.getId() + ":" + sequence.incrementAndGet();
+        long lease = leaseMillis > 0 ? leaseMillis : DEFAULT_LEASE_MILLIS;
+
+        // 本地没有等待者时直接尝试，有等待者时排到队尾，避免插队
+        if (!gates.containsKey(key)) {
+            if (tryAcquire(key, token, lease) == null) {
+                granted(key, token, current, leaseMillis <= 0);
+                return true;
+            }
+            if (waitMillis == 0)
+                return false;
+        }
+
+        boolean interrupted = false;
+        Gate gate = obtainGate(key);
+        try {
+            try {
+                if (!gate.enter(deadline, waitMillis < 0, interruptible))
+                    return false;
+            } catch (InterruptedException e) {
+                if (interruptible)
+                    throw e;
+                interrupted = true;
+                return false;
+            }
+            try {
+                subscribe();
+                for (; ; ) {
+                    gate.signal.drainPermits();
+                    Long ttl = tryAcquire(key, token, lease);
+                    if (ttl == null) {
+                        granted(key, token, current, leaseMillis <= 0);
+                        return true;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        return false;
+                    long waitNanos = TimeUnit.MILLISECONDS.toNanos(ttl > 0 ? ttl : NO_TTL_RETRY_MILLIS);
+                    try {
+                        gate.signal.tryAcquire(Math.min(waitNanos, remaining), TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        if (interruptible)
+                            throw e;
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                gate.lock.unlock();
+            }
+        } finally {
+            releaseGate(key, gate);
+            if (interrupted)
+                current.interrupt();
+        }
+    }
+
+    void release(String key) {
+        Lease lease = leases.get(key);
+        if (lease == null || lease.owner != Thread.currentThread())
+            throw new IllegalMonitorStateException("current thread does not hold lock " + key);
+        if (--lease.holds > 0)
+            return;
+        leases.remove(key, lease);
+        lease.cancelRenewal();
+        Object released = eval(RELEASE_SCRIPT, key, lease.token, channel);
+        wakeUp(key);
+        if (!Long.valueOf(1).equals(released))
+            throw new IllegalMonitorStateException("lock " + key + " of " + cache.getName() + " expired before unlock");
+    }
+
+    /**
+     * 不比较 token 直接删除，用于清理异常退出后遗留的锁
+     */
+    boolean forceRelease(String key) {
+        Lease lease = leases.remove(key);
+        if (lease != null)
+            lease.cancelRenewal();
+        Object deleted = eval(FORCE_RELEASE_SCRIPT, key, channel);
+        wakeUp(key);
+        return Long.valueOf(1).equals(deleted);
+    }
+
+    boolean isLocked(String key) {
+        return cache.exists(key);
+    }
+
+    int getHoldCount(String key) {
+        Lease lease = leases.get(key);
+        return lease != null && lease.owner == Thread.currentThread() ? lease.holds : 0;
+    }
+
+    private Long tryAcquire(String key, String token, long leaseMillis) {
+        return (Long) eval(ACQUIRE_SCRIPT, key, token, leaseMillis);
+    }
+
+    private Object eval(JScript script, String key, Object... args) {
+        return cache.script(script).key(key).args(args).execute();
+    }
+
+    private void granted(final String key, final String token, Thread owner, boolean renew) {
+        final Lease lease = new Lease(token, owner);
+        leases.put(key, lease);
+        if (!renew)
+            return;
+        long period = DEFAULT_LEASE_MILLIS / 3;
+        lease.renewal = watchdog().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    Object renewed = eval(RENEW_SCRIPT, key, token, DEFAULT_LEASE_MILLIS);
+                    if (!Long.valueOf(1).equals(renewed)) {
+                        log.warn("lock " + key + " of " + cache.getName() + " was lost before unlock");
+                        lease.cancelRenewal();
+                    }
+                } catch (Exception e) {
+                    // 下一周期继续尝试，租期内恢复即可
+                    log.warn("renew lock " + key + " of " + cache.getName() + " fail", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService watchdog() {
+        if (watchdog == null) {
+            watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "jredis-lock-watchdog-" + cache.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return watchdog;
+    }
+
+    // ---------
+
+    private Gate obtainGate(String key) {
+        for (; ; ) {
+            Gate gate = gates.get(key);
+            if (gate == null) {
+                gate = new Gate();
+                Gate prev = gates.putIfAbsent(key, gate);
+                if (prev != null)
+                    gate = prev;
+            }
+            if (gate.retain())
+                return gate;
+            // 已被最后一个使用者废弃，等待其移除后重建
+            gates.remove(key, gate);
+        }
+    }
+
+    private void releaseGate(String key, Gate gate) {
+        if (gate.release())
+            gates.remove(key, gate);
+    }
+
+    private void wakeUp(String key) {
+        Gate gate = gates.get(key);
+        if (gate != null)
+            gate.signal.release();
+    }
+
+    private void wakeUpAll() {
+        for (Gate gate : gates.values())
+            gate.signal.release();
+    }
+
+    private synchronized void subscribe() {
+        if (subscription != null || !running)
+            return;
+        subscription = cache.subscribe(new JIMessageListener() {
+            public void onMessage(String channel, String message) {
+                wakeUp(message);
+            }
+
+            public void onSubscribe() {
+                // (重新)订阅成功之前可能漏掉了解锁消息，断线期间等待者最长等待到持有者的租期结束
+                wakeUpAll();
+            }
+        }, channel);
+    }
+
+    /**
+     * 停止订阅及续租，已持有的锁在租期结束后由 Redis 自动释放
+     */
+    synchronized void stop() {
+        running = false;
+        if (subscription != null)
+            subscription.unsubscribe();
+        if (watchdog != null)
+            watchdog.shutdownNow();
+        leases.clear();
+        wakeUpAll();
+    }
+
+    // ---------
+
+    /**
+     * 本进程持有的一把锁，holds 只会被持有者线程修改
+     */
+    private static class Lease {
+        final String token;
+        final Thread owner;
+        int holds = 1;
+        volatile ScheduledFuture<?> renewal;
+
+        Lease(String token, Thread owner) {
+            this.token = token;
+            this.owner = owner;
+        }
+
+        void cancelRenewal() {
+            ScheduledFuture<?> renewal = this.renewal;
+            if (renewal != null)
+                renewal.cancel(false);
+        }
+    }
+
+    /**
+     * 同一进程内等待同一把锁的线程在公平锁上排队，队首线程在 signal 上等待解锁消息
+     */
+    private static class Gate {
+        final ReentrantLock lock = new ReentrantLock(true);
+        final Semaphore signal = new Semaphore(0);
+        /**
+         * 使用者数量，降为 0 后置为 -1 表示已废弃
+         */
+        private final AtomicInteger users = new AtomicInteger();
+
+        boolean enter(long deadline, boolean forever, boolean interruptible) throws InterruptedException {
+            if (forever) {
+                if (interruptible)
+                    lock.lockInterruptibly();
+                else
+                    lock.lock();
+                return true;
+            }
+            return lock.tryLock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        boolean retain() {
+            for (; ; ) {
+                int n = users.get();
+                if (n < 0)
+                    return false;
+                if (users.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        boolean release() {
+            return users.decrementAndGet() == 0 && users.compareAndSet(0, -1);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.plus.ext.plugin.jredis;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * MeteredJedisPool.
+ * 连接在协议层记录每条命令的耗时：发出命令时记下命令名及时间，读取到对应响应时上报，
+ * 因此 JCache、JObjectCache、pipeline 及 Lua 脚本中的命令都会被统计，不需要逐个方法埋点。
+ * 同时记录每次借出期间最长的命令耗时，供断路器统计慢调用(见 startCall/endCall)。
+ * BLPOP、BRPOP、BRPOPLPUSH 的耗时主要是等待数据的时间，不计入命令耗时及慢调用。
+ * 连接的创建、校验及销毁与 jedis 的 JedisFactory 保持一致
+ */
+class JMeteredJedisPool extends JedisPool {
+
+    /**
+     * @param metrics 为 null 时只记录供断路器使用的耗时
+     */
+    JMeteredJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, int timeout, String password,
+                      int database, String clientName, String cacheName, JIMetricsRegistry metrics) {
+        super(poolConfig, host, port, timeout, password, database, clientName);
+        // 构造后尚未创建任何连接，替换为记录耗时的连接工厂
+        initPool(poolConfig, new Factory(host, port, timeout, password, database, clientName, cacheName, metrics));
+    }
+
+    /**
+     * 借出后开始记录本次调用的耗时，初始为借出等待的时间
+     *
+     * @return 不是本连接池的连接时返回 false
+     */
+    static boolean startCall(Jedis jedis, long borrowNanos) {
+        Client client = jedis.getClient();
+        if (!(client instanceof MeteredClient))
+            return false;
+        ((MeteredClient) client).slowestNanos = borrowNanos;
+        return true;
+    }
+
+    /**
+     * 归还前取得本次调用的耗时：借出等待与各命令耗时中的最大值。不是本连接池的连接时返回 -1
+     */
+    static long endCall(Jedis jedis) {
+        Client client = jedis.getClient();
+        if (!(client instanceof MeteredClient))
+            return -1;
+        MeteredClient metered = (MeteredClient) client;
+        long nanos = metered.slowestNanos;
+        metered.slowestNanos = 0;
+        return nanos;
+    }
+
+    private static class Factory implements PooledObjectFactory<Jedis> {
+        private final String host;
+        private final int port;
+        private final int timeout;
+        private final String password;
+        private final int database;
+        private final String clientName;
+        private final String cacheName;
+        private final JIMetricsRegistry metrics;
+
+        Factory(String host, int port, int timeout, String password, int database, String clientName,
+                String cacheName, JIMetricsRegistry metrics) {
+            this.host = host;
+            this.port = port;
+            this.timeout = timeout;
+            this.password = password;
+            this.database = database;
+            this.clientName = clientName;
+            this.cacheName = cacheName;
+            this.metrics = metrics;
+        }
+
+        public PooledObject<Jedis> makeObject() throws Exception {
+            Jedis jedis = new MeteredJedis(host, port, timeout, cacheName, metrics);
+            try {
+                jedis.connect();
+                if (password != null)
+                    jedis.auth(password);
+                if (database != 0)
+                    jedis.select(database);
+                if (clientName != null)
+                    jedis.clientSetname(clientName);
+            } catch (JedisException e) {
+                jedis.close();
+                throw e;
+            }
+            return new DefaultPooledObject<Jedis>(jedis);
+        }
+
+        public void destroyObject(PooledObject<Jedis> pooledJedis) throws Exception {
+            Jedis jedis = pooledJedis.getObject();
+            if (jedis.isConnected()) {
+                try {
+                    try {
+                        jedis.quit();
+                    } catch (Exception e) {
+                    }
+                    jedis.disconnect();
+                } catch (Exception e) {
+                }
+            }
+        }
+
+        public boolean validateObject(PooledObject<Jedis> pooledJedis) {
+            Jedis jedis = pooledJedis.getObject();
+            try {
+                return jedis.isConnected() && "PONG".equals(jedis.ping());
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        public void activateObject(PooledObject<Jedis> pooledJedis) throws Exception {
+            Jedis jedis = pooledJedis.getObject();
+            if (jedis.getDB() != database)
+                jedis.select(database);
+        }
+
+        public void passivateObject(PooledObject<Jedis> pooledJedis) throws Exception {
+        }
+    }
+
+    private static class MeteredJedis extends Jedis {
+        MeteredJedis(String host, int port, int timeout, String cacheName, JIMetricsRegistry metrics) {
+            super(host, port, timeout, timeout);
+            this.client = new MeteredClient(host, port, cacheName, metrics);
+            this.client.setConnectionTimeout(timeout);
+            this.client.setSoTimeout(timeout);
+        }
+    }
+
+    /**
+     * 按发出顺序排队等待响应的命令，同一连接只会被一个线程使用
+     */
+    private static class MeteredClient extends Client {
+        private final String cacheName;
+        private final JIMetricsRegistry metrics;
+
+        /**
+         * 本次借出期间最长的耗时，由 startCall/endCall 读写
+         */
+        private long slowestNanos;
+
+        private Protocol.Command[] commands = new Protocol.Command[16];
+        private long[] starts = new long[16];
+        private int head = 0;
+        private int size = 0;
+
+        MeteredClient(String host, int port, String cacheName, JIMetricsRegistry metrics) {
+            super(host, port);
+            this.cacheName = cacheName;
+            this.metrics = metrics;
+        }
+
+        @Override
+        protected Connection sendCommand(Protocol.Command cmd, byte[]... args) {
+            push(cmd, System.nanoTime());
+            try {
+                return super.sendCommand(cmd, args);
+            } catch (JedisConnectionException e) {
+                failAll();
+                throw e;
+            }
+        }
+
+        @Override
+        protected Object readProtocolWithCheckingBroken() {
+            try {
+                Object reply = super.readProtocolWithCheckingBroken();
+                complete(false);
+                return reply;
+            } catch (JedisDataException e) {
+                complete(true);
+                throw e;
+            } catch (JedisConnectionException e) {
+                failAll();
+                throw e;
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            size = 0;
+            super.disconnect();
+        }
+
+        private void push(Protocol.Command cmd, long start) {
+            if (size == commands.length) {
+                Protocol.Command[] newCommands = new Protocol.Command[size * 2];
+                long[] newStarts = new long[size * 2];
+                for (int i = 0; i < size; i++) {
+                    newCommands[i] = commands[(head + i) % commands.length];
+                    newStarts[i] = starts[(head + i) % starts.length];
+                }
+                commands = newCommands;
+                starts = newStarts;
+                head = 0;
+            }
+            int tail = (head + size) % commands.length;
+            commands[tail] = cmd;
+            starts[tail] = start;
+            size++;
+        }
+
+        /**
+         * 订阅模式下收到的消息没有对应的命令，直接忽略；阻塞命令只出队，不记录耗时
+         */
+        private void complete(boolean error) {
+            if (size == 0)
+                return;
+            Protocol.Command cmd = commands[head];
+            long start = starts[head];
+            commands[head] = null;
+            head = (head + 1) % commands.length;
+            size--;
+            if (isBlocking(cmd))
+                return;
+            long nanos = System.nanoTime() - start;
+            if (nanos > slowestNanos)
+                slowestNanos = nanos;
+            if (metrics != null)
+                metrics.recordCommand(cacheName, cmd.name(), nanos, error);
+        }
+
+        private void failAll() {
+            while (size > 0)
+                complete(true);
+        }
+
+        private static boolean isBlocking(Protocol.Command cmd) {
+            return cmd == Protocol.Command.BLPOP || cmd == Protocol.Command.BRPOP || cmd == Protocol.Command.BRPOPLPUSH;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.plus.ext.plugin.jredis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MetricsRegistry.
+ * 默认的进程内指标：按 cache 名称分别记录每种命令的耗时直方图及错误数、借出连接的等待时间及失败数，
+ * 通过 snapshot() 输出，可配合 RedisMetricsHandler 以 JSON 形式查看
+ */
+public class JMetricsRegistry implements JIMetricsRegistry {
+
+    public static final JMetricsRegistry me = new JMetricsRegistry();
+
+    private final ConcurrentHashMap<String, CacheMetrics> caches = new ConcurrentHashMap<String, CacheMetrics>();
+
+    private static class CacheMetrics {
+        volatile JCache cache;
+        final JLatencyHistogram borrow = new JLatencyHistogram();
+        final AtomicLong borrowErrors = new AtomicLong();
+        final AtomicLong poolExhausted = new AtomicLong();
+        final ConcurrentHashMap<String, JLatencyHistogram> commands = new ConcurrentHashMap<String, JLatencyHistogram>();
+        final ConcurrentHashMap<String, AtomicLong> commandErrors = new ConcurrentHashMap<String, AtomicLong>();
+        final JLatencyHistogram compress = new JLatencyHistogram();
+        final JLatencyHistogram decompress = new JLatencyHistogram();
+        final AtomicLong compressedRawBytes = new AtomicLong();
+        final AtomicLong compressedStoredBytes = new AtomicLong();
+    }
+
+    public void register(JCache cache) {
+        metricsOf(cache.getName()).cache = cache;
+    }
+
+    public void unregister(JCache cache) {
+        caches.remove(cache.getName());
+    }
+
+    public void recordBorrow(String cacheName, long nanos, boolean error) {
+        CacheMetrics metrics = metricsOf(cacheName);
+        metrics.borrow.recordNanos(nanos);
+        if (error)
+            metrics.borrowErrors.incrementAndGet();
+    }
+
+    public void recordPoolExhausted(String cacheName) {
+        metricsOf(cacheName).poolExhausted.incrementAndGet();
+    }
+
+    public void recordCommand(String cacheName, String command, long nanos, boolean error) {
+        CacheMetrics metrics = metricsOf(cacheName);
+        JLatencyHistogram histogram = metrics.commands.get(command);
+        if (histogram == null) {
+            JLatencyHistogram created = new JLatencyHistogram();
+            histogram = metrics.commands.putIfAbsent(command, created);
+            if (histogram == null)
+                histogram = created;
+        }
+        histogram.recordNanos(nanos);
+        if (error) {
+            AtomicLong errors = metrics.commandErrors.get(command);
+            if (errors == null) {
+                AtomicLong created = new AtomicLong();
+                errors = metrics.commandErrors.putIfAbsent(command, created);
+                if (errors == null)
+                    errors = created;
+            }
+            errors.incrementAndGet();
+        }
+    }
+
+    public void recordCompression(String cacheName, boolean decompress, int rawBytes, int storedBytes, long nanos) {
+        CacheMetrics metrics = metricsOf(cacheName);
+        if (decompress) {
+            metrics.decompress.recordNanos(nanos);
+            return;
+        }
+        metrics.compress.recordNanos(nanos);
+        metrics.compressedRawBytes.addAndGet(rawBytes);
+        metrics.compressedStoredBytes.addAndGet(storedBytes);
+    }
+
+    private CacheMetrics metricsOf(String cacheName) {
+        CacheMetrics metrics = caches.get(cacheName);
+        if (metrics == null) {
+            CacheMetrics created = new CacheMetrics();
+            metrics = caches.putIfAbsent(cacheName, created);
+            if (metrics == null)
+                metrics = created;
+        }
+        return metrics;
+    }
+
+    /**
+     * 全部 cache 的指标，耗时单位为微秒
+     * <pre>
+     * {"main": {"pools": {"primary": {"active": 2, "idle": 6, "waiters": 0}},
+     *           "hotKeys": {"item:9527": 3200},
+     *           "circuit": {"state": "CLOSED", "calls": 1024, "failures": 0, "slowCalls": 0, "rejected": 0},
+     *           "borrow": {"count": 1024, "errors": 0, "exhausted": 0, "p99": 35, ...},
+     *           "commands": {"GET": {"count": 980, "errors": 0, "p50": 120, "p99": 410, ...}},
+     *           "compression": {"rawBytes": 5242880, "storedBytes": 917504, "ratio": 0.175,
+     *                           "compress": {"count": 40, "p99": 900, ...}, "decompress": {...}}}}
+     * </pre>
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<String, Object>();
+        for (Map.Entry<String, CacheMetrics> e : caches.entrySet()) {
+            CacheMetrics metrics = e.getValue();
+            Map<String, Object> cache = new LinkedHashMap<String, Object>();
+            if (metrics.cache != null) {
+                cache.put("pools", metrics.cache.getPoolStats());
+                if (metrics.cache.getCircuitBreaker() != null)
+                    cache.put("circuit", metrics.cache.getCircuitBreaker().snapshot());
+                if (metrics.cache.getHotKeys() != null)
+                    cache.put("hotKeys", metrics.cache.getHotKeys().getHotKeys());
+            }
+
+            Map<String, Object> borrow = metrics.borrow.snapshot();
+            borrow.put("errors", metrics.borrowErrors.get());
+            borrow.put("exhausted", metrics.poolExhausted.get());
+            cache.put("borrow", borrow);
+
+            Map<String, Object> commands = new TreeMap<String, Object>();
+            for (Map.Entry<String, JLatencyHistogram> c : metrics.commands.entrySet()) {
+                Map<String, Object> command = c.getValue().snapshot();
+                AtomicLong errors = metrics.commandErrors.get(c.getKey());
+                command.put("errors", errors != null ? errors.get() : 0L);
+                commands.put(c.getKey(), command);
+            }
+            cache.put("commands", commands);
+
+            if (metrics.compress.getCount() > 0 || metrics.decompress.getCount() > 0) {
+                Map<String, Object> compression = new LinkedHashMap<String, Object>();
+                long raw = metrics.compressedRawBytes.get();
+                long stored = metrics.compressedStoredBytes.get();
+                compression.put("rawBytes", raw);
+                compression.put("storedBytes", stored);
+                compression.put("ratio", raw > 0 ? Math.round(stored * 1000.0 / raw) / 1000.0 : 1.0);
+                compression.put("compress", metrics.compress.snapshot());
+                compression.put("decompress", metrics.decompress.snapshot());
+                cache.put("compression", compression);
+            }
+            result.put(e.getKey(), cache);
+        }
+        return result;
+    }
+
+    /**
+     * 清空已记录的耗时及错误数，已注册的 cache 保留
+     */
+    public void reset() {
+        for (CacheMetrics metrics : caches.values()) {
+            metrics.borrow.reset();
+            metrics.borrowErrors.set(0);
+            metrics.poolExhausted.set(0);
+            metrics.commands.clear();
+            metrics.commandErrors.clear();
+            metrics.compress.reset();
+            metrics.decompress.reset();
+            metrics.compressedRawBytes.set(0);
+            metrics.compressedStoredBytes.set(0);
+        }
+    }
+}
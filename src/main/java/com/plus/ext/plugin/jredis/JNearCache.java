@@ -0,0 +1,256 @@
+package com.plus.ext.plugin.jredis;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.jfinal.log.Log;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NearCache.
+ * JCache 前的进程内一级缓存(L1)，按容量和写入后存活时间淘汰(Guava 分段 LRU)。
+ * 通过 JCache 写入时先清除本地副本，再在 Redis 频道上发布失效消息，
+ * 每个节点订阅该频道并清除自己的本地副本。
+ * <p/>
+ * 订阅使用连接池之外的独立连接，断线重连后会清空本地缓存，避免遗漏失效消息。
+ * 通过 pipelined(...)、JRedis.call(...) 自行获取 jedis 或其他客户端直接写 Redis 时不会触发失效，
+ * 此时只能依赖 expireSeconds 到期。
+ */
+public class JNearCache {
+
+    static final String CHANNEL_PREFIX = "jcache:near:invalidate:";
+
+    private static final Log log = Log.getLog(JNearCache.class);
+
+    private final String cacheName;
+    private final String channel;
+    private final String[] keyPrefixes;
+    private final Cache<String, Object> local;
+
+    /**
+     * 每次失效时递增，读穿透回填前后比较，防止把失效前读到的旧值回填进本地缓存
+     */
+    private final AtomicLong stamp = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    private volatile boolean running = false;
+    private volatile JedisPubSub pubSub;
+    private Thread subscriber;
+
+    JNearCache(String cacheName, long maximumSize, int expireSeconds, String... keyPrefixes) {
+        this.cacheName = cacheName;
+        this.channel = CHANNEL_PREFIX + cacheName;
+        this.keyPrefixes = keyPrefixes;
+        this.local = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 是否对该 key 启用本地缓存，未指定 keyPrefixes 时对所有 key 启用
+     */
+    public boolean accept(String key) {
+        if (key == null)
+            return false;
+        if (keyPrefixes == null || keyPrefixes.length == 0)
+            return true;
+        for (String prefix : keyPrefixes) {
+            if (key.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    long stamp() {
+        return stamp.get();
+    }
+
+    Object get(String key) {
+        Object value = local.getIfPresent(key);
+        if (value == null || value instanceof Map) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return value;
+    }
+
+    void put(String key, Object value, long readStamp) {
+        if (value == null)
+            return;
+        local.put(key, value);
+        if (stamp.get() != readStamp)
+            local.invalidate(key);
+    }
+
+    Object hget(String key, String field) {
+        Object fields = local.getIfPresent(key);
+        Object value = (fields instanceof Map) ? ((Map) fields).get(field) : null;
+        if (value == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    void hput(String key, String field, Object value, long readStamp) {
+        if (value == null)
+            return;
+        Object fields = local.getIfPresent(key);
+        if (fields == null) {
+            fields = new ConcurrentHashMap<String, Object>();
+            Object prev = local.asMap().putIfAbsent(key, fields);
+            if (prev != null)
+                fields = prev;
+        }
+        if (!(fields instanceof ConcurrentMap))
+            return;
+        ((ConcurrentMap<String, Object>) fields).put(field, value);
+        if (stamp.get() != readStamp)
+            local.invalidate(key);
+    }
+
+    /**
+     * 清除本地副本并通知其他节点，必须在写命令执行成功之后调用
+     */
+    void invalidate(Jedis jedis, String... keys) {
+        int accepted = 0;
+        for (String key : keys) {
+            if (accept(key))
+                accepted++;
+        }
+        if (accepted == 0)
+            return;
+
+        evict(keys);
+        if (accepted == 1) {
+            for (String key : keys) {
+                if (accept(key))
+                    jedis.publish(channel, key);
+            }
+            return;
+        }
+        Pipeline pipeline = jedis.pipelined();
+        for (String key : keys) {
+            if (accept(key))
+                pipeline.publish(channel, key);
+        }
+        pipeline.sync();
+    }
+
+    void evict(String... keys) {
+        stamp.incrementAndGet();
+        int removed = 0;
+        for (String key : keys) {
+            if (local.asMap().remove(key) != null)
+                removed++;
+        }
+        invalidationCount.addAndGet(removed);
+    }
+
+    void evictAll() {
+        stamp.incrementAndGet();
+        local.invalidateAll();
+    }
+
+    // ---------
+
+    synchronized void start(final JRedisNode node) {
+        if (running)
+            return;
+        running = true;
+        subscriber = new Thread(new Runnable() {
+            public void run() {
+                subscribe(node);
+            }
+        }, "jcache-near-cache-" + cacheName);
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    private void subscribe(JRedisNode node) {
+        while (running) {
+            Jedis jedis = null;
+            try {
+                jedis = node.connect(0);
+                pubSub = new JedisPubSub() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        // (重新)订阅成功之前可能漏掉了失效消息
+                        evictAll();
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        evict(message);
+                    }
+                };
+                jedis.subscribe(pubSub, channel);
+            } catch (Exception e) {
+                if (running) {
+                    log.warn("near cache subscriber of " + cacheName + " disconnected, retry in 1s", e);
+                    evictAll();
+                    sleepQuietly(1000);
+                }
+            } finally {
+                if (jedis != null)
+                    jedis.close();
+            }
+        }
+    }
+
+    synchronized void stop() {
+        running = false;
+        JedisPubSub p = pubSub;
+        if (p != null && p.isSubscribed())
+            p.unsubscribe();
+        if (subscriber != null)
+            subscriber.interrupt();
+        local.invalidateAll();
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public long size() {
+        return local.size();
+    }
+
+    /**
+     * 命中、未命中、容量/过期淘汰、因失效而清除的条目数及当前条目数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("hitCount", hitCount.get());
+        stats.put("missCount", missCount.get());
+        stats.put("evictionCount", local.stats().evictionCount());
+        stats.put("invalidationCount", invalidationCount.get());
+        stats.put("size", local.size());
+        return stats;
+    }
+}
@@ -0,0 +1,907 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ObjectCache.
+ * JCache 的对象 api，与 JFinal 原生 Redis Cache 的 api 保持一致：
+ * key 经过 JRedisPlugin 配置的 IKeyNamingPolicy 命名，value 及 hash field 经过配置的
+ * ISerializer(默认 FstSerializer) 序列化，无需再使用 SerializableKit 手工序列化。
+ * 通过 JCache.objects() 获取，与所属 JCache 共用连接池及线程内共享的 jedis。
+ * 集群及分片模式下按命名后的 key 路由，del/mset/mget 按节点分组并行执行。
+ * <p/>
+ * 注意：对象 api 与字符串 api 存储格式不同，同一个 key 请始终使用同一种 api 读写
+ */
+public class JObjectCache {
+
+    /**
+     * fetch 写入的 value 前的头部：8 字节逻辑过期时间(毫秒) + 4 字节上次加载耗时(毫秒)
+     */
+    private static final int FETCH_HEADER_LENGTH = 12;
+
+    /**
+     * XFetch 的 beta，越大越早刷新
+     */
+    private static final double FETCH_BETA = 1.0;
+
+    /**
+     * fetch 写入时逻辑过期时间的随机范围
+     */
+    private static final double FETCH_JITTER = 0.1;
+
+    private final JCache cache;
+
+    JObjectCache(JCache cache) {
+        this.cache = cache;
+    }
+
+    public JCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 存放 key value 对到 redis
+     * 如果 key 已经持有其他值， SET 就覆写旧值，无视类型。
+     */
+    public String set(Object key, Object value) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.set(keyBytes, cache.valueToBytes(value));
+                cache.invalidate(jedis, keyBytes);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 存放 key value 对到 redis，并将 key 的生存时间设为 seconds (以秒为单位)。
+     */
+    public String setex(Object key, int seconds, Object value) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.setex(keyBytes, seconds, cache.valueToBytes(value));
+                cache.invalidate(jedis, keyBytes);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 批量写入并设置过期时间，每个 key 的过期时间在 [seconds * (1 - jitter), seconds] 之间随机，
+     * 避免同一批写入的 key 同时过期。集群及分片模式下按节点分组并行写入
+     *
+     * @param jitter 0 到 1 之间，0 表示不随机
+     */
+    public String msetex(Map<?, ?> keysValues, int seconds, double jitter) {
+        if (keysValues.isEmpty())
+            return "OK";
+        byte[][] kv = new byte[keysValues.size() * 2][];
+        byte[][] keysBytes = new byte[keysValues.size()][];
+        int[] ttls = new int[keysValues.size()];
+        int i = 0;
+        for (Map.Entry<?, ?> e : keysValues.entrySet()) {
+            keysBytes[i] = cache.keyToBytes(e.getKey());
+            kv[i * 2] = keysBytes[i];
+            kv[i * 2 + 1] = cache.valueToBytes(e.getValue());
+            ttls[i] = JCache.jitter(seconds, jitter);
+            i++;
+        }
+        String result = cache.msetex(kv, ttls);
+        cache.invalidate(keysBytes);
+        return result;
+    }
+
+    /**
+     * 返回 key 所关联的 value 值
+     * 如果 key 不存在那么返回特殊值 nil 。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        try {
+            return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<T>() {
+                public T call(Jedis jedis) {
+                    return (T) cache.valueFromBytes(jedis.get(keyBytes));
+                }
+            });
+        } catch (JRedisCircuitOpenException e) {
+            return cache.fallback("GET", SafeEncoder.encode(keyBytes), e);
+        }
+    }
+
+    /**
+     * 删除给定的一个或多个 key
+     * 不存在的 key 会被忽略。
+     */
+    public Long del(Object... keys) {
+        byte[][] keysBytes = cache.keysToBytesArray(keys);
+        if (!cache.isSingleNode()) {
+            Long result = cache.router.del(keysBytes);
+            cache.invalidate(keysBytes);
+            return result;
+        }
+        Jedis jedis = cache.getJedis();
+        try {
+            Long result = jedis.del(keysBytes);
+            cache.invalidate(jedis, keysBytes);
+            return result;
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    /**
+     * 检查给定 key 是否存在。
+     */
+    public boolean exists(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.exists(keyBytes);
+            }
+        });
+    }
+
+    /**
+     * 为给定 key 设置生存时间，当 key 过期时(生存时间为 0 )，它会被自动删除。
+     */
+    public Long expire(Object key, int seconds) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.expire(keyBytes, seconds);
+                cache.invalidate(jedis, keyBytes);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 以秒为单位，返回给定 key 的剩余生存时间(TTL, time to live)。
+     */
+    public Long ttl(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.ttl(keyBytes);
+            }
+        });
+    }
+
+    /**
+     * 同时设置一个或多个 key-value 对。
+     * <pre>
+     * 例子：
+     * cache.objects().mset("k1", user1, "k2", user2);
+     * List&lt;User&gt; list = cache.objects().mget("k1", "k2");
+     * </pre>
+     */
+    public String mset(Object... keysValues) {
+        if (keysValues.length % 2 != 0)
+            throw new IllegalArgumentException("wrong number of arguments for met, keysValues length can not be odd");
+        byte[][] kv = new byte[keysValues.length][];
+        byte[][] keysBytes = new byte[keysValues.length / 2][];
+        for (int i = 0; i < keysValues.length; i++) {
+            if (i % 2 == 0)
+                kv[i] = keysBytes[i / 2] = cache.keyToBytes(keysValues[i]);
+            else
+                kv[i] = cache.valueToBytes(keysValues[i]);
+        }
+        if (!cache.isSingleNode()) {
+            String result = cache.router.mset(kv);
+            cache.invalidate(keysBytes);
+            return result;
+        }
+        Jedis jedis = cache.getJedis();
+        try {
+            String result = jedis.mset(kv);
+            cache.invalidate(jedis, keysBytes);
+            return result;
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    /**
+     * 返回所有(一个或多个)给定 key 的值。
+     * 如果给定的 key 里面，有某个 key 不存在，那么这个 key 返回特殊值 nil 。
+     */
+    public <T> List<T> mget(Object... keys) {
+        byte[][] keysBytes = cache.keysToBytesArray(keys);
+        if (!cache.isSingleNode())
+            return cache.valueListFromBytesList(cache.router.mget(keysBytes));
+        Jedis jedis = cache.getReadJedis();
+        try {
+            return cache.valueListFromBytesList(jedis.mget(keysBytes));
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    /**
+     * 将给定 key 的值设为 value ，并返回 key 的旧值(old value)。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getSet(Object key, Object value) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<T>() {
+            public T call(Jedis jedis) {
+                byte[] old = jedis.getSet(keyBytes, cache.valueToBytes(value));
+                cache.invalidate(jedis, keyBytes);
+                return (T) cache.valueFromBytes(old);
+            }
+        });
+    }
+
+    // --------- hash
+
+    /**
+     * 将哈希表 key 中的域 field 的值设为 value 。
+     */
+    public Long hset(Object key, Object field, Object value) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Long result = jedis.hset(keyBytes, cache.fieldToBytes(field), cache.valueToBytes(value));
+                cache.invalidate(jedis, keyBytes);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 同时将多个 field-value (域-值)对设置到哈希表 key 中。
+     */
+    public String hmset(Object key, Map<?, ?> hash) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                Map<byte[], byte[]> para = new HashMap<byte[], byte[]>();
+                for (Map.Entry<?, ?> e : hash.entrySet())
+                    para.put(cache.fieldToBytes(e.getKey()), cache.valueToBytes(e.getValue()));
+                String result = jedis.hmset(keyBytes, para);
+                cache.invalidate(jedis, keyBytes);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 返回哈希表 key 中给定域 field 的值。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T hget(Object key, Object field) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        try {
+            return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<T>() {
+                public T call(Jedis jedis) {
+                    return (T) cache.valueFromBytes(jedis.hget(keyBytes, cache.fieldToBytes(field)));
+                }
+            });
+        } catch (JRedisCircuitOpenException e) {
+            return cache.fallback("HGET", SafeEncoder.encode(keyBytes), e);
+        }
+    }
+
+    /**
+     * 返回哈希表 key 中，一个或多个给定域的值。
+     */
+    public <T> List<T> hmget(Object key, Object... fields) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<List<T>>() {
+            public List<T> call(Jedis jedis) {
+                byte[][] fieldsBytes = new byte[fields.length][];
+                for (int i = 0; i < fields.length; i++)
+                    fieldsBytes[i] = cache.fieldToBytes(fields[i]);
+                return cache.valueListFromBytesList(jedis.hmget(keyBytes, fieldsBytes));
+            }
+        });
+    }
+
+    /**
+     * 删除哈希表 key 中的一个或多个指定域，不存在的域将被忽略。
+     */
+    public Long hdel(Object key, Object... fields) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                byte[][] fieldsBytes = new byte[fields.length][];
+                for (int i = 0; i < fields.length; i++)
+                    fieldsBytes[i] = cache.fieldToBytes(fields[i]);
+                Long result = jedis.hdel(keyBytes, fieldsBytes);
+                cache.invalidate(jedis, keyBytes);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 查看哈希表 key 中，给定域 field 是否存在。
+     */
+    public boolean hexists(Object key, Object field) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.hexists(keyBytes, cache.fieldToBytes(field));
+            }
+        });
+    }
+
+    /**
+     * 返回哈希表 key 中，所有的域和值。
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> Map<K, V> hgetAll(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Map<K, V>>() {
+            public Map<K, V> call(Jedis jedis) {
+                Map<byte[], byte[]> data = jedis.hgetAll(keyBytes);
+                Map<K, V> result = new HashMap<K, V>();
+                for (Map.Entry<byte[], byte[]> e : data.entrySet())
+                    result.put((K) cache.fieldFromBytes(e.getKey()), (V) cache.valueFromBytes(e.getValue()));
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 返回哈希表 key 中所有域的值。
+     */
+    public <T> List<T> hvals(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<List<T>>() {
+            public List<T> call(Jedis jedis) {
+                return cache.valueListFromBytesList(jedis.hvals(keyBytes));
+            }
+        });
+    }
+
+    /**
+     * 返回哈希表 key 中的所有域。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Set<T> hkeys(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Set<T>>() {
+            public Set<T> call(Jedis jedis) {
+                Set<byte[]> fieldSet = jedis.hkeys(keyBytes);
+                Set<T> result = new HashSet<T>();
+                for (byte[] field : fieldSet)
+                    result.add((T) cache.fieldFromBytes(field));
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 返回哈希表 key 中域的数量。
+     */
+    public Long hlen(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.hlen(keyBytes);
+            }
+        });
+    }
+
+    // --------- list
+
+    /**
+     * 返回列表 key 中，下标为 index 的元素。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T lindex(Object key, long index) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<T>() {
+            public T call(Jedis jedis) {
+                return (T) cache.valueFromBytes(jedis.lindex(keyBytes, index));
+            }
+        });
+    }
+
+    /**
+     * 返回列表 key 的长度。
+     */
+    public Long llen(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.llen(keyBytes);
+            }
+        });
+    }
+
+    /**
+     * 移除并返回列表 key 的头元素。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T lpop(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<T>() {
+            public T call(Jedis jedis) {
+                return (T) cache.valueFromBytes(jedis.lpop(keyBytes));
+            }
+        });
+    }
+
+    /**
+     * 将一个或多个值 value 插入到列表 key 的表头
+     */
+    public Long lpush(Object key, Object... values) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.lpush(keyBytes, cache.valuesToBytesArray(values));
+            }
+        });
+    }
+
+    /**
+     * 将列表 key 下标为 index 的元素的值设置为 value 。
+     */
+    public String lset(Object key, long index, Object value) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.lset(keyBytes, index, cache.valueToBytes(value));
+            }
+        });
+    }
+
+    /**
+     * 根据参数 count 的值，移除列表中与参数 value 相等的元素。
+     */
+    public Long lrem(Object key, long count, Object value) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.lrem(keyBytes, count, cache.valueToBytes(value));
+            }
+        });
+    }
+
+    /**
+     * 返回列表 key 中指定区间内的元素，区间以偏移量 start 和 end 指定。
+     */
+    public <T> List<T> lrange(Object key, long start, long end) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<List<T>>() {
+            public List<T> call(Jedis jedis) {
+                return cache.valueListFromBytesList(jedis.lrange(keyBytes, start, end));
+            }
+        });
+    }
+
+    /**
+     * 对一个列表进行修剪(trim)，让列表只保留指定区间内的元素。
+     */
+    public String ltrim(Object key, long start, long end) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                return jedis.ltrim(keyBytes, start, end);
+            }
+        });
+    }
+
+    /**
+     * 移除并返回列表 key 的尾元素。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T rpop(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<T>() {
+            public T call(Jedis jedis) {
+                return (T) cache.valueFromBytes(jedis.rpop(keyBytes));
+            }
+        });
+    }
+
+    /**
+     * 将列表 srcKey 中的最后一个元素(尾元素)弹出，并插入到列表 dstKey 的头部，并返回该元素。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T rpoplpush(Object srcKey, Object dstKey) {
+        byte[] srcKeyBytes = cache.keyToBytes(srcKey);
+        byte[] dstKeyBytes = cache.keyToBytes(dstKey);
+        Jedis jedis = cache.getJedis(srcKeyBytes, dstKeyBytes);
+        try {
+            return (T) cache.valueFromBytes(jedis.rpoplpush(srcKeyBytes, dstKeyBytes));
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    /**
+     * 将一个或多个值 value 插入到列表 key 的表尾(最右边)。
+     */
+    public Long rpush(Object key, Object... values) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.rpush(keyBytes, cache.valuesToBytesArray(values));
+            }
+        });
+    }
+
+    // --------- set
+
+    /**
+     * 将一个或多个 member 元素加入到集合 key 当中，已经存在于集合的 member 元素将被忽略。
+     */
+    public Long sadd(Object key, Object... members) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.sadd(keyBytes, cache.valuesToBytesArray(members));
+            }
+        });
+    }
+
+    /**
+     * 返回集合 key 的基数(集合中元素的数量)。
+     */
+    public Long scard(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.scard(keyBytes);
+            }
+        });
+    }
+
+    /**
+     * 移除并返回集合中的一个随机元素。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T spop(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<T>() {
+            public T call(Jedis jedis) {
+                return (T) cache.valueFromBytes(jedis.spop(keyBytes));
+            }
+        });
+    }
+
+    /**
+     * 返回集合 key 中的所有成员。
+     */
+    public Set<Object> smembers(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Set<Object>>() {
+            public Set<Object> call(Jedis jedis) {
+                Set<Object> result = new HashSet<Object>();
+                cache.valueSetFromBytesSet(jedis.smembers(keyBytes), result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 判断 member 元素是否集合 key 的成员。
+     */
+    public boolean sismember(Object key, Object member) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Boolean>() {
+            public Boolean call(Jedis jedis) {
+                return jedis.sismember(keyBytes, cache.valueToBytes(member));
+            }
+        });
+    }
+
+    /**
+     * 移除集合 key 中的一个或多个 member 元素，不存在的 member 元素会被忽略。
+     */
+    public Long srem(Object key, Object... members) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.srem(keyBytes, cache.valuesToBytesArray(members));
+            }
+        });
+    }
+
+    /**
+     * 返回一个集合的全部成员，该集合是所有给定集合的交集。
+     */
+    public Set<Object> sinter(Object... keys) {
+        byte[][] keysBytes = cache.keysToBytesArray(keys);
+        Jedis jedis = cache.getReadJedis(keysBytes);
+        try {
+            Set<Object> result = new HashSet<Object>();
+            cache.valueSetFromBytesSet(jedis.sinter(keysBytes), result);
+            return result;
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    /**
+     * 返回一个集合的全部成员，该集合是所有给定集合的并集。
+     */
+    public Set<Object> sunion(Object... keys) {
+        byte[][] keysBytes = cache.keysToBytesArray(keys);
+        Jedis jedis = cache.getReadJedis(keysBytes);
+        try {
+            Set<Object> result = new HashSet<Object>();
+            cache.valueSetFromBytesSet(jedis.sunion(keysBytes), result);
+            return result;
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    /**
+     * 返回一个集合的全部成员，该集合是所有给定集合之间的差集。
+     */
+    public Set<Object> sdiff(Object... keys) {
+        byte[][] keysBytes = cache.keysToBytesArray(keys);
+        Jedis jedis = cache.getReadJedis(keysBytes);
+        try {
+            Set<Object> result = new HashSet<Object>();
+            cache.valueSetFromBytesSet(jedis.sdiff(keysBytes), result);
+            return result;
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    // --------- sorted set
+
+    /**
+     * 将一个 member 元素及其 score 值加入到有序集 key 当中。
+     */
+    public Long zadd(Object key, double score, Object member) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zadd(keyBytes, score, cache.valueToBytes(member));
+            }
+        });
+    }
+
+    public Long zadd(Object key, Map<?, Double> scoreMembers) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                Map<byte[], Double> para = new HashMap<byte[], Double>();
+                for (Map.Entry<?, Double> e : scoreMembers.entrySet())
+                    para.put(cache.valueToBytes(e.getKey()), e.getValue());
+                return jedis.zadd(keyBytes, para);
+            }
+        });
+    }
+
+    /**
+     * 返回有序集 key 的基数。
+     */
+    public Long zcard(Object key) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zcard(keyBytes);
+            }
+        });
+    }
+
+    /**
+     * 为有序集 key 的成员 member 的 score 值加上增量 increment 。
+     */
+    public Double zincrby(Object key, double score, Object member) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Double>() {
+            public Double call(Jedis jedis) {
+                return jedis.zincrby(keyBytes, score, cache.valueToBytes(member));
+            }
+        });
+    }
+
+    /**
+     * 返回有序集 key 中，指定区间内的成员，成员的位置按 score 值递增(从小到大)来排序。
+     */
+    public Set<Object> zrange(Object key, long start, long end) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Set<Object>>() {
+            public Set<Object> call(Jedis jedis) {
+                Set<Object> result = new LinkedHashSet<Object>();
+                cache.valueSetFromBytesSet(jedis.zrange(keyBytes, start, end), result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 返回有序集 key 中，指定区间内的成员，成员的位置按 score 值递减(从大到小)来排列。
+     */
+    public Set<Object> zrevrange(Object key, long start, long end) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Set<Object>>() {
+            public Set<Object> call(Jedis jedis) {
+                Set<Object> result = new LinkedHashSet<Object>();
+                cache.valueSetFromBytesSet(jedis.zrevrange(keyBytes, start, end), result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 返回有序集 key 中，所有 score 值介于 min 和 max 之间(包括等于 min 或 max )的成员。
+     */
+    public Set<Object> zrangeByScore(Object key, double min, double max) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Set<Object>>() {
+            public Set<Object> call(Jedis jedis) {
+                Set<Object> result = new LinkedHashSet<Object>();
+                cache.valueSetFromBytesSet(jedis.zrangeByScore(keyBytes, min, max), result);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 返回有序集 key 中成员 member 的排名，按 score 值递增(从小到大)顺序排列，排名以 0 为底。
+     */
+    public Long zrank(Object key, Object member) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zrank(keyBytes, cache.valueToBytes(member));
+            }
+        });
+    }
+
+    /**
+     * 移除有序集 key 中的一个或多个成员，不存在的成员将被忽略。
+     */
+    public Long zrem(Object key, Object... members) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.execute(keyBytes, new JRedisRouter.NodeCallback<Long>() {
+            public Long call(Jedis jedis) {
+                return jedis.zrem(keyBytes, cache.valuesToBytesArray(members));
+            }
+        });
+    }
+
+    /**
+     * 返回有序集 key 中，成员 member 的 score 值。
+     */
+    public Double zscore(Object key, Object member) {
+        byte[] keyBytes = cache.keyToBytes(key);
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<Double>() {
+            public Double call(Jedis jedis) {
+                return jedis.zscore(keyBytes, cache.valueToBytes(member));
+            }
+        });
+    }
+
+    // --------- get-or-compute
+
+    /**
+     * 读取 key，缺失时调用 loader 计算并写入，过期后最多再提供 seconds / 2 秒的旧值
+     *
+     * @see #fetch(Object, int, int, Callable)
+     */
+    public <T> T fetch(Object key, int seconds, Callable<T> loader) {
+        return fetch(key, seconds, Math.max(1, seconds / 2), loader);
+    }
+
+    /**
+     * 读取 key，防止缓存同时过期时大量请求回源：
+     * <ul>
+     * <li>缺失时同一进程内只有一个线程调用 loader，其余线程等待其结果</li>
+     * <li>按 XFetch 算法在过期前随机提前刷新：上次加载越慢、越接近过期，提前刷新的概率越大</li>
+     * <li>到达逻辑过期时间后的 staleSeconds 秒内仍返回旧值，同时在后台刷新(stale-while-revalidate)</li>
+     * <li>每次写入的过期时间在 [seconds * 0.9, seconds] 之间随机</li>
+     * </ul>
+     * loader 返回 null 时同样缓存。fetch 写入的 value 带有头部，请只通过 fetch 读取这些 key
+     * <pre>
+     * 例子：
+     * User user = cache.objects().fetch("user:" + id, 600, new Callable&lt;User&gt;() {
+     *     public User call() {
+     *         return User.dao.findById(id);
+     *     }
+     * });
+     * </pre>
+     *
+     * @param seconds      逻辑过期时间
+     * @param staleSeconds 逻辑过期后仍可返回旧值的时间，0 表示过期后同步加载
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T fetch(Object key, final int seconds, final int staleSeconds, final Callable<T> loader) {
+        if (seconds <= 0 || staleSeconds < 0)
+            throw new IllegalArgumentException("seconds must be greater than 0 and staleSeconds can not be less than 0");
+        final byte[] keyBytes = cache.keyToBytes(key);
+        final String flightKey = SafeEncoder.encode(keyBytes);
+        byte[] data;
+        try {
+            data = getRaw(keyBytes);
+        } catch (JRedisCircuitOpenException e) {
+            return cache.fallback("GET", flightKey, e);
+        }
+        if (isFetchEntry(data)) {
+            if (shouldRefresh(data)) {
+                cache.refresher().refresh(flightKey, new Callable<T>() {
+                    public T call() throws Exception {
+                        return compute(keyBytes, seconds, staleSeconds, loader);
+                    }
+                });
+            }
+            return (T) fetchValue(data);
+        }
+        return cache.refresher().load(flightKey, new Callable<T>() {
+            public T call() throws Exception {
+                // 等待期间可能已经被其他进程写入
+                byte[] cached = getRaw(keyBytes);
+                if (isFetchEntry(cached))
+                    return (T) fetchValue(cached);
+                return compute(keyBytes, seconds, staleSeconds, loader);
+            }
+        });
+    }
+
+    private byte[] getRaw(byte[] keyBytes) {
+        return cache.executeRead(keyBytes, new JRedisRouter.NodeCallback<byte[]>() {
+            public byte[] call(Jedis jedis) {
+                return jedis.get(keyBytes);
+            }
+        });
+    }
+
+    private <T> T compute(byte[] keyBytes, int seconds, int staleSeconds, Callable<T> loader) throws Exception {
+        long start = System.currentTimeMillis();
+        T value = loader.call();
+        long now = System.currentTimeMillis();
+        int ttl = JCache.jitter(seconds, FETCH_JITTER);
+        byte[] payload = value == null ? new byte[0] : cache.valueToBytes(value);
+        byte[] data = new byte[FETCH_HEADER_LENGTH + payload.length];
+        ByteBuffer.wrap(data)
+                .putLong(now + ttl * 1000L)
+                .putInt((int) Math.min(Integer.MAX_VALUE, now - start))
+                .put(payload);
+
+        cache.execute(keyBytes, new JRedisRouter.NodeCallback<String>() {
+            public String call(Jedis jedis) {
+                String result = jedis.setex(keyBytes, ttl + staleSeconds, data);
+                cache.invalidate(jedis, keyBytes);
+                return result;
+            }
+        });
+        return value;
+    }
+
+    private static boolean isFetchEntry(byte[] data) {
+        return data != null && data.length >= FETCH_HEADER_LENGTH;
+    }
+
+    /**
+     * XFetch：now - delta * beta * ln(rand) >= expiry 时刷新，ln(rand) 小于等于 0
+     */
+    private static boolean shouldRefresh(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long expiry = buffer.getLong();
+        int delta = buffer.getInt();
+        double rand = 1 - ThreadLocalRandom.current().nextDouble();
+        return System.currentTimeMillis() - delta * FETCH_BETA * Math.log(rand) >= expiry;
+    }
+
+    private Object fetchValue(byte[] data) {
+        if (data.length == FETCH_HEADER_LENGTH)
+            return null;
+        return cache.valueFromBytes(Arrays.copyOfRange(data, FETCH_HEADER_LENGTH, data.length));
+    }
+}
@@ -0,0 +1,129 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.List;
+
+/**
+ * Queue.
+ * 基于 list 的可靠队列：生产者 LPUSH，消费者以 BRPOPLPUSH 把消息原子地移入自己的处理中列表，
+ * 处理成功后才从处理中列表删除(确认)。消费者进程退出后，其处理中的消息由其他消费者在心跳超时后移回队列，
+ * 消息至少被处理一次，处理逻辑需要幂等。
+ * <p/>
+ * 队列本身就是名为 name 的 list，与原有 lpush/brpop 的生产者兼容。处理中列表、死信队列等为 name + ":..." 的 key，
+ * 集群及分片模式下 name 中必须含有 {tag}，使这些 key 位于同一节点
+ * <pre>
+ * 例如：
+ * JQueue queue = JRedis.use().queue("{mail}");
+ * queue.push(JSON.toJSONString(mail));
+ *
+ * JQueueConsumer consumer = queue.consumer(new JIQueueHandler() {
+ *     public void handle(List&lt;String&gt; messages) throws Exception {
+ *         ...
+ *     }
+ * }).threads(4).batchSize(20).start();
+ * </pre>
+ */
+public class JQueue {
+
+    private final JCache cache;
+    private final String name;
+
+    JQueue(JCache cache, String name) {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("queue name can not be empty");
+        if (!cache.isSingleNode() && !hasHashTag(name))
+            throw new IllegalArgumentException("queue name must contain a {tag} in cluster or sharded mode: " + name);
+        this.cache = cache;
+        this.name = name;
+    }
+
+    /**
+     * 放入队尾
+     */
+    public Long push(String... messages) {
+        return cache.lpush(name, messages);
+    }
+
+    public Long push(List<String> messages) {
+        return push(messages.toArray(new String[messages.size()]));
+    }
+
+    /**
+     * 等待处理的消息数，不包括处理中的消息
+     */
+    public Long size() {
+        return cache.llen(name);
+    }
+
+    /**
+     * 处理失败后进入死信队列的消息数
+     */
+    public Long deadLetterSize() {
+        return cache.llen(deadLetterKey());
+    }
+
+    /**
+     * 死信队列中最早的 count 条消息
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> peekDeadLetters(int count) {
+        return cache.lrange(deadLetterKey(), -count, -1);
+    }
+
+    /**
+     * 把死信队列中的全部消息移回队列，按进入死信队列的先后顺序排在队首
+     *
+     * @return 移回的消息数
+     */
+    public Long requeueDeadLetters() {
+        return cache.script(JQueueConsumer.MOVE_ALL_SCRIPT).keys(deadLetterKey(), name).execute();
+    }
+
+    /**
+     * 创建消费者，配置后调用 start() 启动
+     */
+    public JQueueConsumer consumer(JIQueueHandler handler) {
+        return new JQueueConsumer(this, handler);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    JCache cache() {
+        return cache;
+    }
+
+    String processingKey(String consumerId) {
+        return name + ":processing:" + consumerId;
+    }
+
+    String consumersKey() {
+        return name + ":consumers";
+    }
+
+    String deadLetterKey() {
+        return name + ":dead";
+    }
+
+    /**
+     * 新的阻塞连接，不占用连接池
+     */
+    Jedis connect() {
+        return cache.router.nodeOf(name, cache.node).connect(0);
+    }
+
+    static boolean hasHashTag(String name) {
+        int s = name.indexOf('{');
+        if (s < 0)
+            return false;
+        int e = name.indexOf('}', s + 1);
+        return e > s + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "JQueue[" + name + "]";
+    }
+}
@@ -0,0 +1,373 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * QueueConsumer.
+ * JQueue 的消费者：
+ * <ul>
+ * <li>一个拉取线程使用连接池之外的独立连接执行 BRPOPLPUSH，阻塞等待不占用连接池中的连接</li>
+ * <li>取到第一条消息后以 pipeline 再非阻塞地取最多 batchSize - 1 条，整批交给工作线程池处理</li>
+ * <li>已取出未确认的消息数达到 maxInFlight 时拉取线程暂停，不会把消息堆积在本地(背压)</li>
+ * <li>定时写入心跳，并把心跳超时的消费者处理中的消息移回队列</li>
+ * <li>stop() 时等待处理中的批次完成，未处理的消息移回队列</li>
+ * </ul>
+ */
+public class JQueueConsumer {
+
+    private static final Log log = Log.getLog(JQueueConsumer.class);
+
+    /**
+     * 确认：从处理中列表删除，KEYS[1] 为处理中列表
+     */
+    static final JScript ACK_SCRIPT = JScript.of(
+            "for i = 1, #ARGV do redis.call('lrem', KEYS[1], 1, ARGV[i]) end return #ARGV");
+
+    /**
+     * 从处理中列表移到 KEYS[2] 的队尾(重新入队或进入死信队列)
+     */
+    static final JScript MOVE_SCRIPT = JScript.of(
+            "for i = 1, #ARGV do " +
+            "if redis.call('lrem', KEYS[1], 1, ARGV[i]) > 0 then redis.call('lpush', KEYS[2], ARGV[i]) end " +
+            "end return #ARGV");
+
+    /**
+     * 把 KEYS[1] 中的全部消息移到 KEYS[2] 的队首，最早的消息最先被取出
+     */
+    static final JScript MOVE_ALL_SCRIPT = JScript.of(
+            "local n = 0 local m = redis.call('lpop', KEYS[1]) " +
+            "while m do redis.call('rpush', KEYS[2], m) n = n + 1 m = redis.call('lpop', KEYS[1]) end " +
+            "return n");
+
+    private final JQueue queue;
+    private final JIQueueHandler handler;
+    private final String consumerId = UUID.randomUUID().toString();
+    private final String processingKey;
+
+    private int threads = 1;
+    private int batchSize = 1;
+    private int maxInFlight = 0;
+    private int blockSeconds = 1;
+    private int heartbeatSeconds = 5;
+    private int consumerTimeoutSeconds = 60;
+    private boolean requeueOnFailure = false;
+
+    private volatile boolean running = false;
+    private Semaphore inFlight;
+    private ThreadPoolExecutor workers;
+    private ScheduledExecutorService heartbeat;
+    private Thread fetcher;
+    private volatile Jedis connection;
+    private final AtomicInteger processing = new AtomicInteger();
+
+    JQueueConsumer(JQueue queue, JIQueueHandler handler) {
+        if (handler == null)
+            throw new IllegalArgumentException("handler can not be null");
+        this.queue = queue;
+        this.handler = handler;
+        this.processingKey = queue.processingKey(consumerId);
+    }
+
+    /**
+     * 工作线程数，默认 1
+     */
+    public JQueueConsumer threads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * 每批最多的消息数，默认 1
+     */
+    public JQueueConsumer batchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * 已取出未确认的消息上限，默认 threads * batchSize * 2
+     */
+    public JQueueConsumer maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * 处理失败时重新放入队列，默认进入死信队列(JQueue.requeueDeadLetters() 可移回)
+     */
+    public JQueueConsumer requeueOnFailure(boolean requeueOnFailure) {
+        this.requeueOnFailure = requeueOnFailure;
+        return this;
+    }
+
+    /**
+     * 心跳间隔及超时时间，超时的消费者处理中的消息被移回队列。超时时间应大于一批消息的最长处理时间
+     */
+    public JQueueConsumer heartbeat(int heartbeatSeconds, int consumerTimeoutSeconds) {
+        if (heartbeatSeconds <= 0 || consumerTimeoutSeconds <= heartbeatSeconds)
+            throw new IllegalArgumentException("consumerTimeoutSeconds must be greater than heartbeatSeconds");
+        this.heartbeatSeconds = heartbeatSeconds;
+        this.consumerTimeoutSeconds = consumerTimeoutSeconds;
+        return this;
+    }
+
+    public synchronized JQueueConsumer start() {
+        if (running)
+            return this;
+        running = true;
+        inFlight = new Semaphore(maxInFlight > 0 ? Math.max(maxInFlight, batchSize) : threads * batchSize * 2);
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory("jqueue-worker-" + queue.getName()));
+        heartbeat = Executors.newSingleThreadScheduledExecutor(threadFactory("jqueue-heartbeat-" + queue.getName()));
+        beat();
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    beat();
+                    recover();
+                } catch (Exception e) {
+                    log.warn("heartbeat of queue " + queue.getName() + " fail", e);
+                }
+            }
+        }, 0, heartbeatSeconds, TimeUnit.SECONDS);
+        fetcher = threadFactory("jqueue-fetcher-" + queue.getName()).newThread(new Runnable() {
+            public void run() {
+                fetchLoop();
+            }
+        });
+        fetcher.start();
+        queue.cache().addQueueConsumer(this);
+        return this;
+    }
+
+    /**
+     * 停止拉取，最多等待 timeout 让已取出的批次处理完成，其余消息移回队列
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+        }
+        queue.cache().removeQueueConsumer(this);
+        try {
+            fetcher.join(TimeUnit.SECONDS.toMillis(blockSeconds) + 1000);
+            if (fetcher.isAlive())
+                closeConnection();
+            workers.shutdown();
+            if (!workers.awaitTermination(timeout, unit))
+                log.warn("queue " + queue.getName() + " consumer stopped with " + processing.get() + " batches unfinished");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            heartbeat.shutdownNow();
+            try {
+                queue.cache().script(MOVE_ALL_SCRIPT).keys(processingKey, queue.getName()).execute();
+                queue.cache().zrem(queue.consumersKey(), consumerId);
+            } catch (Exception e) {
+                // 心跳超时后由其他消费者移回
+                log.warn("requeue processing messages of queue " + queue.getName() + " fail", e);
+            }
+        }
+    }
+
+    public void stop() {
+        stop(30, TimeUnit.SECONDS);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // ---------
+
+    private void fetchLoop() {
+        while (running) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                break;
+            }
+            List<String> batch = null;
+            try {
+                batch = fetch();
+            } catch (JedisRedirectionException e) {
+                // 集群中队列所在的 slot 已迁移
+                queue.cache().router.renew();
+                closeConnection();
+            } catch (RuntimeException e) {
+                if (running) {
+                    log.warn("fetch queue " + queue.getName() + " fail, retry in 1s", e);
+                    closeConnection();
+                    sleepQuietly(1000);
+                }
+            }
+            if (batch == null || batch.isEmpty()) {
+                inFlight.release();
+                continue;
+            }
+            dispatch(batch);
+        }
+        closeConnection();
+    }
+
+    /**
+     * 已持有一个许可，额外取得的许可数决定本批最多再取多少条。
+     * 返回的批次持有 batch.size() 个许可；抛出异常时只归还额外取得的许可，调用者持有的一个许可由调用者归还，
+     * 已移入处理中列表的消息在 stop 或心跳超时后移回队列
+     */
+    private List<String> fetch() {
+        Jedis jedis = connection();
+        String first = jedis.brpoplpush(queue.getName(), processingKey, blockSeconds);
+        if (first == null)
+            return null;
+        List<String> batch = new ArrayList<String>(batchSize);
+        batch.add(first);
+        int more = 0;
+        while (more < batchSize - 1 && inFlight.tryAcquire())
+            more++;
+        if (more > 0) {
+            boolean fetched = false;
+            try {
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<String>> responses = new ArrayList<Response<String>>(more);
+                for (int i = 0; i < more; i++)
+                    responses.add(pipeline.rpoplpush(queue.getName(), processingKey));
+                pipeline.sync();
+                for (Response<String> response : responses) {
+                    String message = response.get();
+                    if (message != null)
+                        batch.add(message);
+                }
+                fetched = true;
+            } finally {
+                inFlight.release(fetched ? 1 + more - batch.size() : more);
+            }
+        }
+        return batch;
+    }
+
+    private void dispatch(final List<String> batch) {
+        processing.incrementAndGet();
+        try {
+            workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        process(batch);
+                    } finally {
+                        processing.decrementAndGet();
+                        inFlight.release(batch.size());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 正在停止，消息留在处理中列表，stop 时移回队列
+            processing.decrementAndGet();
+            inFlight.release(batch.size());
+        }
+    }
+
+    private void process(List<String> batch) {
+        String[] messages = batch.toArray(new String[batch.size()]);
+        boolean success = false;
+        try {
+            handler.handle(batch);
+            success = true;
+        } catch (Throwable e) {
+            log.error("handle " + batch.size() + " messages of queue " + queue.getName() + " fail", e);
+        }
+        try {
+            if (success) {
+                queue.cache().script(ACK_SCRIPT).key(processingKey).args((Object[]) messages).execute();
+            } else {
+                String target = requeueOnFailure ? queue.getName() : queue.deadLetterKey();
+                queue.cache().script(MOVE_SCRIPT).keys(processingKey, target).args((Object[]) messages).execute();
+            }
+        } catch (Exception e) {
+            // 消息仍在处理中列表，stop 或心跳超时后移回队列，可能被重复处理
+            log.warn((success ? "ack" : "nack") + " messages of queue " + queue.getName() + " fail", e);
+        }
+    }
+
+    private void beat() {
+        queue.cache().zadd(queue.consumersKey(), System.currentTimeMillis(), consumerId);
+    }
+
+    /**
+     * 把心跳超时的消费者处理中的消息移回队列，多个消费者同时执行时只会移动一次
+     */
+    private void recover() {
+        long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(consumerTimeoutSeconds);
+        @SuppressWarnings("unchecked")
+        Set<String> dead = queue.cache().zrangeByScore(queue.consumersKey(), 0, deadline);
+        for (String id : dead) {
+            if (id.equals(consumerId))
+                continue;
+            Long moved = queue.cache().script(MOVE_ALL_SCRIPT).keys(queue.processingKey(id), queue.getName()).execute();
+            queue.cache().zrem(queue.consumersKey(), id);
+            if (moved > 0)
+                log.warn("requeued " + moved + " messages of dead consumer " + id + " on queue " + queue.getName());
+        }
+    }
+
+    private Jedis connection() {
+        Jedis jedis = connection;
+        if (jedis == null) {
+            jedis = queue.connect();
+            connection = jedis;
+        }
+        return jedis;
+    }
+
+    private void closeConnection() {
+        Jedis jedis = connection;
+        connection = null;
+        if (jedis != null) {
+            try {
+                jedis.close();
+            } catch (JedisConnectionException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + n.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getConsumerId() {
+        return consumerId;
+    }
+
+    public JQueue getQueue() {
+        return queue;
+    }
+}
@@ -0,0 +1,63 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.core.Controller;
+import com.jfinal.kit.StrKit;
+import com.plus.ext.annotation.RateLimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * RateLimitInterceptor.
+ * 读取 action 或 Controller 上的 &#64;RateLimit 注解，按注解的维度限流，每个 action 使用独立的令牌桶，
+ * 超出限额时设置 Retry-After 并返回 429。只对 action 生效
+ * <pre>
+ * 例如：
+ * me.add(new JRateLimitInterceptor());
+ * 或在 Controller/方法上 &#64;Before(JRateLimitInterceptor.class)
+ * </pre>
+ */
+public class JRateLimitInterceptor implements Interceptor {
+
+    private static final ConcurrentMap<String, JRateLimiter> limiters = new ConcurrentHashMap<String, JRateLimiter>();
+
+    public void intercept(Invocation inv) {
+        if (!inv.isActionInvocation()) {
+            inv.invoke();
+            return;
+        }
+        RateLimit rateLimit = inv.getMethod().getAnnotation(RateLimit.class);
+        if (rateLimit == null)
+            rateLimit = inv.getController().getClass().getAnnotation(RateLimit.class);
+        if (rateLimit == null) {
+            inv.invoke();
+            return;
+        }
+
+        Controller controller = inv.getController();
+        String key = rateLimit.key().resolve(controller.getRequest(), rateLimit.userAttr());
+        long retryAfter = limiter(inv.getActionKey(), rateLimit).acquire(key);
+        if (retryAfter > 0) {
+            controller.getResponse().setHeader("Retry-After", String.valueOf((retryAfter + 999) / 1000));
+            controller.renderError(429);
+            return;
+        }
+        inv.invoke();
+    }
+
+    private static JRateLimiter limiter(String actionKey, RateLimit rateLimit) {
+        JRateLimiter limiter = limiters.get(actionKey);
+        if (limiter != null)
+            return limiter;
+        JCache cache = StrKit.isBlank(rateLimit.name()) ? JRedis.use() : JRedis.use(rateLimit.name().trim());
+        if (cache == null)
+            throw new IllegalArgumentException("the cache not exists: " + rateLimit.name());
+        long capacity = rateLimit.capacity() > 0 ? rateLimit.capacity() : (long) Math.ceil(rateLimit.permitsPerSecond());
+        limiter = new JRateLimiter(cache, "action:" + actionKey, rateLimit.permitsPerSecond(), capacity,
+                rateLimit.prefetchMillis());
+        JRateLimiter prev = limiters.putIfAbsent(actionKey, limiter);
+        return prev != null ? prev : limiter;
+    }
+}
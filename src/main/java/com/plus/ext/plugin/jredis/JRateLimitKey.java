@@ -0,0 +1,54 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.kit.StrKit;
+import com.plus.ext.kit.ServletKit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * RateLimitKey.
+ * 限流的维度，决定哪些请求共用同一个令牌桶
+ */
+public enum JRateLimitKey {
+
+    /**
+     * 按客户端 IP，优先取 X-Real-IP、X-Forwarded-For
+     */
+    IP {
+        public String resolve(HttpServletRequest request, String userAttr) {
+            return ServletKit.getIp(request);
+        }
+    },
+
+    /**
+     * 按登录用户，依次从 request、session 中取 userAttr 属性，未登录时按 IP
+     */
+    USER {
+        public String resolve(HttpServletRequest request, String userAttr) {
+            Object user = request.getAttribute(userAttr);
+            if (user == null) {
+                HttpSession session = request.getSession(false);
+                if (session != null)
+                    user = session.getAttribute(userAttr);
+            }
+            if (user == null || StrKit.isBlank(user.toString()))
+                return "ip:" + ServletKit.getIp(request);
+            return "user:" + user;
+        }
+    },
+
+    /**
+     * 整个 action(或 url)共用一个令牌桶，限制总量
+     */
+    ACTION {
+        public String resolve(HttpServletRequest request, String userAttr) {
+            return "*";
+        }
+    };
+
+    /**
+     * 请求对应的令牌桶 key
+     */
+    public abstract String resolve(HttpServletRequest request, String userAttr);
+}
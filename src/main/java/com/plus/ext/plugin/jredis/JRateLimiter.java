@@ -0,0 +1,200 @@
+package com.plus.ext.plugin.jredis;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.jfinal.log.Log;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RateLimiter.
+ * 基于 Redis 的分布式令牌桶，每个 key 一个桶，容量为 capacity，每秒补充 permitsPerSecond 个令牌。
+ * 补充与扣减在同一个 Lua 脚本中完成，以 Redis 服务端时间计算，多个应用节点之间没有时钟偏差问题(需要 Redis 3.2+)。
+ * <p/>
+ * 本地预取：每次从 Redis 取走一批令牌(默认约 100 毫秒的配额)在本地消耗，批内的请求不访问 Redis；
+ * 被拒绝后在建议的等待时间内直接拒绝，也不访问 Redis。预取的令牌在 prefetchMillis 后作废，
+ * 因此任一时刻超出限额的请求不会多于 节点数 × 一批的数量。prefetchMillis 设为 0 时每个请求都访问 Redis。
+ * <p/>
+ * Redis 不可用时放行并记录日志，不影响业务
+ * <pre>
+ * 例如：
+ * JRateLimiter limiter = new JRateLimiter(JRedis.use(), "sms", 5, 20);
+ * if (!limiter.tryAcquire(phone))
+ *     renderError(429);
+ * </pre>
+ */
+public class JRateLimiter {
+
+    private static final Log log = Log.getLog(JRateLimiter.class);
+
+    static final String KEY_PREFIX = "ratelimit:";
+
+    /**
+     * 返回 {取得的令牌数, 没有令牌时建议等待的毫秒数}
+     */
+    static final JScript TOKEN_BUCKET_SCRIPT = JScript.of(
+            "redis.replicate_commands() " +
+            "local t = redis.call('TIME') " +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) " +
+            "local capacity = tonumber(ARGV[1]) " +
+            "local rate = tonumber(ARGV[2]) " +
+            "local requested = tonumber(ARGV[3]) " +
+            "local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts') " +
+            "local tokens = tonumber(state[1]) or capacity " +
+            "local ts = tonumber(state[2]) or now " +
+            "if now > ts then tokens = math.min(capacity, tokens + (now - ts) * rate / 1000) ts = now end " +
+            "local granted = math.min(requested, math.floor(tokens)) " +
+            "tokens = tokens - granted " +
+            "redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(ts)) " +
+            "redis.call('PEXPIRE', KEYS[1], math.ceil(capacity * 1000 / rate) + 1000) " +
+            "if granted > 0 then return {granted, 0} end " +
+            "return {0, math.ceil((1 - tokens) * 1000 / rate)}");
+
+    private static final long DEFAULT_PREFETCH_MILLIS = 100;
+    private static final long MAX_LOCAL_BUCKETS = 100000;
+
+    private final JCache cache;
+    private final String name;
+    private final double permitsPerSecond;
+    private final long capacity;
+    private final long prefetchMillis;
+    private final long batch;
+    private final Cache<String, LocalBucket> local;
+
+    /**
+     * @param name             限流器名称，作为 Redis key 的一部分
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param capacity         桶容量，即允许的突发请求数
+     */
+    public JRateLimiter(JCache cache, String name, double permitsPerSecond, long capacity) {
+        this(cache, name, permitsPerSecond, capacity, DEFAULT_PREFETCH_MILLIS);
+    }
+
+    /**
+     * @param prefetchMillis 每次预取这段时间内补充的令牌(至少 1 个)，同时也是预取令牌在本地的有效期，0 表示不预取
+     */
+    public JRateLimiter(JCache cache, String name, double permitsPerSecond, long capacity, long prefetchMillis) {
+        if (cache == null)
+            throw new IllegalArgumentException("cache can not be null");
+        if (permitsPerSecond <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("permitsPerSecond and capacity must be greater than 0");
+        this.cache = cache;
+        this.name = name;
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity;
+        this.prefetchMillis = Math.max(0, prefetchMillis);
+        this.batch = Math.max(1, Math.min(capacity, (long) (permitsPerSecond * this.prefetchMillis / 1000)));
+        this.local = CacheBuilder.newBuilder()
+                .maximumSize(MAX_LOCAL_BUCKETS)
+                .expireAfterAccess(Math.max(1000, this.prefetchMillis * 10), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 取得一个令牌，不等待
+     */
+    public boolean tryAcquire(String key) {
+        return acquire(key) == 0;
+    }
+
+    /**
+     * 取得一个令牌，不等待
+     *
+     * @return 0 表示取得，否则为建议的等待毫秒数，可用于 Retry-After
+     */
+    public long acquire(String key) {
+        LocalBucket bucket = bucket(key);
+        if (bucket.take())
+            return 0;
+        synchronized (bucket) {
+            // 等待期间其他线程可能已经取回一批
+            if (bucket.take())
+                return 0;
+            long retryAfter = bucket.retryAfter();
+            if (retryAfter > 0)
+                return retryAfter;
+            return fetch(key, bucket);
+        }
+    }
+
+    private long fetch(String key, LocalBucket bucket) {
+        List<Long> result;
+        try {
+            result = cache.script(TOKEN_BUCKET_SCRIPT)
+                    .key(KEY_PREFIX + name + ":" + key)
+                    .args(capacity, permitsPerSecond, batch)
+                    .execute();
+        } catch (JedisException e) {
+            log.warn("rate limiter " + name + " fail, permit " + key, e);
+            return 0;
+        }
+        long granted = result.get(0);
+        if (granted > 0) {
+            bucket.refill(granted - 1, prefetchMillis);
+            return 0;
+        }
+        long retryAfter = Math.max(1, result.get(1));
+        bucket.deny(retryAfter);
+        return retryAfter;
+    }
+
+    private LocalBucket bucket(String key) {
+        try {
+            return local.get(key, new Callable<LocalBucket>() {
+                public LocalBucket call() {
+                    return new LocalBucket();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 本节点预取的令牌。取回一批时持有 bucket 锁访问 Redis，同一 key 上的其他线程等待这一批令牌，
+     * 不会同时发出多个请求
+     */
+    private static class LocalBucket {
+        private long tokens = 0;
+        private volatile long expiresAt = 0;
+        private volatile long deniedUntil = 0;
+
+        synchronized boolean take() {
+            if (tokens > 0 && System.currentTimeMillis() < expiresAt) {
+                tokens--;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void refill(long tokens, long validMillis) {
+            this.tokens = tokens;
+            this.expiresAt = System.currentTimeMillis() + validMillis;
+            this.deniedUntil = 0;
+        }
+
+        void deny(long retryAfterMillis) {
+            deniedUntil = System.currentTimeMillis() + retryAfterMillis;
+        }
+
+        long retryAfter() {
+            return Math.max(0, deniedUntil - System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.plus.ext.plugin.jredis;
+
+/**
+ * ReadBalance.
+ * 配置了从节点时只读命令在从节点之间的负载均衡策略
+ */
+public enum JReadBalance {
+
+    /**
+     * 依次轮流使用每个从节点
+     */
+    ROUND_ROBIN,
+
+    /**
+     * 使用当前借出连接最少(正在执行命令最少)的从节点，从节点性能或网络延迟不一致时更均衡
+     */
+    LEAST_OUTSTANDING
+}
@@ -35,6 +35,8 @@ package com.plus.ext.plugin.jredis;
 import com.jfinal.kit.StrKit;
 import redis.clients.jedis.Jedis;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -89,16 +91,30 @@ public class JRedis {
         return cacheMap.get(cacheName);
     }
 
+    /**
+     * 返回所有开启了近端缓存的 cache 的命中、未命中、淘汰及失效计数，key 为 cacheName
+     */
+    public static Map<String, Map<String, Long>> getNearCacheStats() {
+        Map<String, Map<String, Long>> result = new LinkedHashMap<String, Map<String, Long>>();
+        for (JCache cache : cacheMap.values()) {
+            if (cache.nearCache != null)
+                result.put(cache.getName(), cache.nearCache.getStats());
+        }
+        return result;
+    }
+
     public static Object call(JICallback callback) {
         return call(callback, null);
     }
 
     public static Object call(JICallback callback, String cacheName) {
         JCache cache = (cacheName != null ? use(cacheName) : use());
+        if (!cache.isSingleNode())      // 集群及分片模式下每个命令按 key 选择连接
+            return callback.call(cache);
         Jedis jedis = cache.getThreadLocalJedis();
         boolean notThreadLocalJedis = (jedis == null);
         if (notThreadLocalJedis) {
-            jedis = cache.jedisPool.getResource();
+            jedis = cache.getJedis();
             cache.setThreadLocalJedis(jedis);
         }
         try {
@@ -106,7 +122,7 @@ public class JRedis {
         } finally {
             if (notThreadLocalJedis) {
                 cache.removeThreadLocalJedis();
-                jedis.close();
+                cache.close(jedis);
             }
         }
     }
@@ -0,0 +1,16 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * 断路器打开期间不再从连接池借出连接，直接抛出此异常。
+ * 继承 JedisConnectionException，原有按连接异常处理的代码(重试、降级放行等)无需修改
+ */
+public class JRedisCircuitOpenException extends JedisConnectionException {
+
+    private static final long serialVersionUID = 1L;
+
+    public JRedisCircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -1,8 +1,7 @@
 package com.plus.ext.plugin.jredis;
 
+import com.jfinal.log.Log;
 import org.apache.commons.lang3.StringUtils;
-import redis.clients.jedis.ScanParams;
-import redis.clients.jedis.ScanResult;
 
 /**
  * Redis 扩展
@@ -10,52 +9,58 @@ import redis.clients.jedis.ScanResult;
 public enum JRedisExt {
     ice;
 
+    private static final Log log = Log.getLog(JRedisExt.class);
+
     /**
-     * clean 清空一个Redis SCAN结果集
+     * clean 清空主缓存中一个Redis SCAN结果集
      *
-     * @param count   要clean的数量,为0时为不限制数量
+     * @param count   每次SCAN的数量提示,为0时使用默认值
      * @param pattern 正则表达式,例如: USER:1:*
      * @return
      */
     public Boolean clean(Integer count, String pattern) {
-        String cursor = "0";
-        Boolean bool = false;
+        return clean(JRedis.use(), count, pattern);
+    }
+
+    /**
+     * clean 清空指定缓存中一个Redis SCAN结果集
+     *
+     * @param cacheName JRedis中的cacheName
+     * @param count     每次SCAN的数量提示,为0时使用默认值
+     * @param pattern   正则表达式,例如: USER:1:*
+     * @return
+     */
+    public Boolean clean(String cacheName, Integer count, String pattern) {
+        return clean(JRedis.use(cacheName), count, pattern);
+    }
+
+    private Boolean clean(JCache cache, Integer count, String pattern) {
+        if (StringUtils.isBlank(pattern) || "*".equals(pattern.trim()))    //不允许扫描全库
+            return false;
         try {
-            if (pattern != "*") {   //不允许扫描全库
-                ScanParams scanParams;
-                if (count > 0) {
-                    if (StringUtils.isNotBlank(pattern)) {
-                        scanParams = new ScanParams().count(count).match(pattern);
-                    } else {
-                        scanParams = new ScanParams().count(count);
-                    }
-                } else {
-                    if (StringUtils.isNotBlank(pattern)) {
-                        scanParams = new ScanParams().match(pattern);
-                    } else {
-                        scanParams = new ScanParams();
-                    }
-                }
-                while (true) {
-                    ScanResult<String> sr = JRedis.use().scan(cursor, scanParams);
-                    String[] keys = new String[sr.getResult().size()];
-                    for (int i = 0; i < sr.getResult().size(); i++) {
-                        keys[i] = sr.getResult().get(i);
-                    }
-                    JRedis.use().del(keys);     //删除多个key,不存在的key会被忽略
-                    cursor = sr.getStringCursor();
-                    if (cursor.equals("0")) {
-                        bool = true;
-                        break;
-                    }
-                }
-            }
+            JBulkDeleter deleter = deleter(cache).match(pattern);
+            if (count != null && count > 0)
+                deleter.scanCount(count);
+            deleter.execute();
+            return true;
         } catch (Exception e) {
-            bool = false;
-        } finally {
-            return bool;
+            log.error("clean " + pattern + " fail", e);
+            return false;
         }
     }
 
+    /**
+     * 返回指定缓存的批量删除器,可配置限速、并发及进度回调,并返回扫描及删除数量
+     * <pre>
+     * 例如:
+     * JRedisExt.ice.deleter("session").match("SESSION:*").keysPerSecond(20000).execute();
+     * </pre>
+     */
+    public JBulkDeleter deleter(String cacheName) {
+        return deleter(JRedis.use(cacheName));
+    }
 
+    public JBulkDeleter deleter(JCache cache) {
+        return new JBulkDeleter(cache);
+    }
 }
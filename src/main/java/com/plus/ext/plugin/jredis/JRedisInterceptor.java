@@ -38,19 +38,19 @@ public class JRedisInterceptor implements Interceptor {
     public void intercept(Invocation inv) {
         JCache cache = getCache();
         Jedis jedis = cache.getThreadLocalJedis();
-        if (jedis != null) {
+        if (jedis != null || !cache.isSingleNode()) {
             inv.invoke();
             return ;
         }
 
         try {
-            jedis = cache.jedisPool.getResource();
+            jedis = cache.getJedis();
             cache.setThreadLocalJedis(jedis);
             inv.invoke();
         }
         finally {
             cache.removeThreadLocalJedis();
-            jedis.close();
+            cache.close(jedis);
         }
     }
 }
@@ -0,0 +1,82 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+
+/**
+ * RedisNode.
+ * 保存一个 Redis 服务端的连接信息，用于在连接池之外创建独立的 Jedis 连接，
+ * 例如订阅(SUBSCRIBE)、阻塞命令等需要长期占用连接的场景
+ */
+public class JRedisNode {
+
+    private final String host;
+    private final int port;
+    private final int timeout;
+    private final String password;
+    private final int database;
+    private final String clientName;
+
+    public JRedisNode(String host, int port) {
+        this(host, port, Protocol.DEFAULT_TIMEOUT, null, Protocol.DEFAULT_DATABASE, null);
+    }
+
+    public JRedisNode(String host, int port, int timeout, String password, int database, String clientName) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.password = password;
+        this.database = database;
+        this.clientName = clientName;
+    }
+
+    /**
+     * 创建一个新的连接，调用者负责关闭
+     *
+     * @param soTimeout 读超时(毫秒)，0 表示不超时，用于订阅及阻塞命令
+     */
+    public Jedis connect(int soTimeout) {
+        Jedis jedis = new Jedis(host, port, timeout, soTimeout);
+        try {
+            if (password != null)
+                jedis.auth(password);
+            if (database != Protocol.DEFAULT_DATABASE)
+                jedis.select(database);
+            if (clientName != null)
+                jedis.clientSetname(clientName);
+        } catch (RuntimeException e) {
+            jedis.close();
+            throw e;
+        }
+        return jedis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getDatabase() {
+        return database;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port + "/" + database;
+    }
+}
@@ -21,15 +21,25 @@ import com.jfinal.plugin.IPlugin;
 import com.jfinal.plugin.redis.IKeyNamingPolicy;
 import com.jfinal.plugin.redis.serializer.FstSerializer;
 import com.jfinal.plugin.redis.serializer.ISerializer;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Protocol;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
 /**
  * RedisPlugin.
  * RedisPlugin 支持多个 Redis 服务端，只需要创建多个 RedisPlugin 对象
  * 对应这多个不同的 Redis 服务端即可。也支持多个 RedisPlugin 对象对应同一
  * Redis 服务的不同 database，具体例子见 jfinal 手册
+ * <p/>
+ * 通过 setCluster(...) 使用 Redis Cluster，通过 setSharded(...) 在多个独立节点间做客户端一致性哈希分片，
+ * 两种模式下 JCache 的 api 不变，多 key 命令按节点分组并行执行
  */
 public class JRedisPlugin implements IPlugin {
 
@@ -46,6 +56,29 @@ public class JRedisPlugin implements IPlugin {
     private IKeyNamingPolicy keyNamingPolicy = null;
     private JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
 
+    private String[] clusterNodes = null;
+    private int clusterRefreshSeconds = 10;
+    private String[] shardNodes = null;
+    private String[] replicaNodes = null;
+    private JReadBalance readBalance = JReadBalance.ROUND_ROBIN;
+
+    private JIMetricsRegistry metricsRegistry = null;
+
+    private long nearCacheMaximumSize = 0;
+    private int nearCacheExpireSeconds = 0;
+    private String[] nearCacheKeyPrefixes = null;
+
+    private int compressionThreshold = 0;
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    private long hotKeyThreshold = 0;
+    private long hotKeyPromoteMillis = 0;
+
+    private int asyncThreads = 0;
+    private int asyncMaxPending = 0;
+
+    private JCircuitBreaker circuitBreaker = null;
+
     public JRedisPlugin(String cacheName, String host) {
         if (StrKit.isBlank(cacheName))
             throw new IllegalArgumentException("cacheName can not be blank.");
@@ -93,6 +126,58 @@ public class JRedisPlugin implements IPlugin {
     }
 
     public boolean start() {
+        if (serializer == null)
+            serializer = FstSerializer.me;
+        if (keyNamingPolicy == null)
+            keyNamingPolicy = IKeyNamingPolicy.defaultKeyNamingPolicy;
+
+        JRedisNode node = new JRedisNode(host,
+                port != null ? port : Protocol.DEFAULT_PORT,
+                timeout != null ? timeout : Protocol.DEFAULT_TIMEOUT,
+                password,
+                database != null ? database : Protocol.DEFAULT_DATABASE,
+                clientName);
+        if (replicaNodes != null && (clusterNodes != null || shardNodes != null))
+            throw new IllegalStateException("replicas are only supported in single node mode.");
+        JRedisRouter router;
+        if (clusterNodes != null)
+            router = buildClusterRouter(node);
+        else if (shardNodes != null)
+            router = buildShardedRouter(node);
+        else if (replicaNodes != null)
+            router = JRedisRouter.single(buildJedisPool(node), buildReplicaPools(node), readBalance);
+        else
+            router = JRedisRouter.single(buildJedisPool(node));
+        if (metricsRegistry != null)
+            router.setMetrics(cacheName, metricsRegistry);
+        if (circuitBreaker != null) {
+            circuitBreaker.bind(cacheName);
+            router.setCircuitBreaker(circuitBreaker);
+        }
+
+        ISerializer valueSerializer = serializer;
+        if (compressionThreshold > 0)
+            valueSerializer = new JCompressionSerializer(serializer, compressionThreshold, compressionLevel, cacheName, metricsRegistry);
+        JCache cache = new JCache(cacheName, router, valueSerializer, keyNamingPolicy);
+        cache.node = node;
+        cache.async().configure(asyncThreads, asyncMaxPending);
+        if (metricsRegistry != null)
+            metricsRegistry.register(cache);
+        if (nearCacheMaximumSize > 0) {
+            cache.nearCache = new JNearCache(cacheName, nearCacheMaximumSize, nearCacheExpireSeconds, nearCacheKeyPrefixes);
+            cache.nearCache.start(cache.node);
+        }
+        if (hotKeyThreshold > 0) {
+            cache.hotKeys = new JHotKeys(cacheName, hotKeyThreshold, hotKeyPromoteMillis);
+            cache.hotKeys.start();
+        }
+        JRedis.addCache(cache);
+        return true;
+    }
+
+    private JedisPool buildJedisPool(JRedisNode node) {
+        if (metricsRegistry != null || circuitBreaker != null)
+            return newJedisPool(node);
         JedisPool jedisPool;
         if (port != null && timeout != null && password != null && database != null && clientName != null)
             jedisPool = new JedisPool(jedisPoolConfig, host, port, timeout, password, database, clientName);
@@ -106,22 +191,74 @@ public class JRedisPlugin implements IPlugin {
             jedisPool = new JedisPool(jedisPoolConfig, host, port);
         else
             jedisPool = new JedisPool(jedisPoolConfig, host);
+        return jedisPool;
+    }
 
-        if (serializer == null)
-            serializer = FstSerializer.me;
-        if (keyNamingPolicy == null)
-            keyNamingPolicy = IKeyNamingPolicy.defaultKeyNamingPolicy;
+    private List<JedisPool> buildReplicaPools(JRedisNode node) {
+        List<JedisPool> replicas = new ArrayList<JedisPool>();
+        for (String replicaNode : replicaNodes) {
+            HostAndPort hostAndPort = HostAndPort.parseString(replicaNode.trim());
+            replicas.add(newJedisPool(new JRedisNode(hostAndPort.getHost(), hostAndPort.getPort(), node.getTimeout(),
+                    node.getPassword(), node.getDatabase(), node.getClientName())));
+        }
+        return replicas;
+    }
 
-        JCache cache = new JCache(cacheName, jedisPool, serializer, keyNamingPolicy);
-        JRedis.addCache(cache);
-        return true;
+    /**
+     * 开启指标或断路器时使用在协议层记录命令耗时的连接池
+     */
+    private JedisPool newJedisPool(JRedisNode node) {
+        if (metricsRegistry != null || circuitBreaker != null)
+            return new JMeteredJedisPool(jedisPoolConfig, node.getHost(), node.getPort(), node.getTimeout(),
+                    node.getPassword(), node.getDatabase(), node.getClientName(), cacheName, metricsRegistry);
+        return new JedisPool(jedisPoolConfig, node.getHost(), node.getPort(), node.getTimeout(),
+                node.getPassword(), node.getDatabase(), node.getClientName());
+    }
+
+    private JRedisRouter buildClusterRouter(JRedisNode node) {
+        if (node.getDatabase() != Protocol.DEFAULT_DATABASE)
+            throw new IllegalArgumentException("Redis Cluster only supports database 0.");
+        Set<HostAndPort> nodes = new LinkedHashSet<HostAndPort>();
+        nodes.add(new HostAndPort(node.getHost(), node.getPort()));
+        for (String clusterNode : clusterNodes)
+            nodes.add(HostAndPort.parseString(clusterNode.trim()));
+        return new JClusterRouter(nodes, jedisPoolConfig, node.getTimeout(), password, clusterRefreshSeconds);
+    }
+
+    private JRedisRouter buildShardedRouter(JRedisNode node) {
+        // 近端缓存的失效消息只在一个节点上发布订阅，无法覆盖其他分片上的写入
+        if (nearCacheMaximumSize > 0)
+            throw new IllegalStateException("near cache is not supported in sharded mode.");
+        List<JRedisNode> nodes = new ArrayList<JRedisNode>();
+        nodes.add(node);
+        for (String shardNode : shardNodes) {
+            HostAndPort hostAndPort = HostAndPort.parseString(shardNode.trim());
+            nodes.add(new JRedisNode(hostAndPort.getHost(), hostAndPort.getPort(), node.getTimeout(),
+                    node.getPassword(), node.getDatabase(), node.getClientName()));
+        }
+        List<JedisPool> pools = new ArrayList<JedisPool>(nodes.size());
+        for (JRedisNode shard : nodes)
+            pools.add(newJedisPool(shard));
+        return new JShardedRouter(pools, nodes);
     }
 
     public boolean stop() {
         JCache cache = JRedis.removeCache(cacheName);
         if (cache == JRedis.mainCache)
             JRedis.mainCache = null;
-        cache.jedisPool.destroy();
+        if (cache.nearCache != null)
+            cache.nearCache.stop();
+        if (cache.hotKeys != null)
+            cache.hotKeys.stop();
+        cache.stopQueues();
+        cache.stopAsync();
+        cache.stopRefresher();
+        cache.stopLocks();
+        if (cache.serializer instanceof JCompressionSerializer)
+            ((JCompressionSerializer) cache.serializer).close();
+        if (metricsRegistry != null)
+            metricsRegistry.unregister(cache);
+        cache.router.destroy();
         return true;
     }
 
@@ -147,6 +284,187 @@ public class JRedisPlugin implements IPlugin {
         this.keyNamingPolicy = keyNamingPolicy;
     }
 
+    /**
+     * 使用 Redis Cluster，构造方法中的 host:port 与这里的节点都作为发现集群拓扑的种子节点，
+     * 集群模式只支持 database 0
+     * <pre>
+     * 例如：
+     * JRedisPlugin redisPlugin = new JRedisPlugin("cache", "10.0.0.1", 7000);
+     * redisPlugin.setCluster("10.0.0.2:7000", "10.0.0.3:7000");
+     * </pre>
+     *
+     * @param hostAndPorts 其他种子节点，格式为 host:port
+     */
+    public void setCluster(String... hostAndPorts) {
+        if (shardNodes != null)
+            throw new IllegalStateException("cluster and sharded mode can not be used together.");
+        this.clusterNodes = hostAndPorts;
+    }
+
+    /**
+     * 集群模式下定时刷新 slot 分布的间隔，默认 10 秒，小于等于 0 时只在多 key 命令遇到 MOVED/ASK 时刷新
+     */
+    public void setClusterRefreshSeconds(int clusterRefreshSeconds) {
+        this.clusterRefreshSeconds = clusterRefreshSeconds;
+    }
+
+    /**
+     * 在多个独立的 Redis 节点之间按 key 做一致性哈希分片，构造方法中的节点为第一个分片，
+     * 所有分片使用相同的 timeout、password、database 及 clientName。
+     * 多 key 命令(rename、sinter 等)要求全部 key 位于同一分片，可以使用 {tag} 让相关 key 落在一起
+     * <pre>
+     * 例如：
+     * JRedisPlugin redisPlugin = new JRedisPlugin("cache", "10.0.0.1", 6379);
+     * redisPlugin.setSharded("10.0.0.2:6379", "10.0.0.3:6379");
+     * </pre>
+     *
+     * @param hostAndPorts 其他分片节点，格式为 host:port
+     */
+    public void setSharded(String... hostAndPorts) {
+        if (clusterNodes != null)
+            throw new IllegalStateException("cluster and sharded mode can not be used together.");
+        if (hostAndPorts.length == 0)
+            throw new IllegalArgumentException("hostAndPorts can not be empty.");
+        this.shardNodes = hostAndPorts;
+    }
+
+    /**
+     * 开启指标：每种命令的耗时直方图及错误数、借出连接的等待时间及失败数，按 cacheName 区分，
+     * 连接池的 active/idle 数量通过 JCache.getPoolStats() 读取。
+     * 集群模式下连接池由 jedis 创建，只记录借出连接的指标
+     * <pre>
+     * 例如：
+     * redisPlugin.setMetricsRegistry(JMetricsRegistry.me);
+     * me.add(new RedisMetricsHandler("/admin/redis/metrics"));
+     * </pre>
+     */
+    public void setMetricsRegistry(JIMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * 配置从节点，只读命令(get、mget、hgetAll、smembers、zrange、scan 等)轮流由从节点处理，写命令仍由主节点处理。
+     * 从节点使用与主节点相同的 timeout、password、database 及 clientName，仅支持单机模式。
+     * 需要读到刚写入的数据时使用 JCache.primary() 或 JCache.readFromPrimary(...)
+     * <pre>
+     * 例如：
+     * redisPlugin.setReplicas("10.0.0.2:6379", "10.0.0.3:6379");
+     * </pre>
+     *
+     * @param hostAndPorts 从节点，格式为 host:port
+     */
+    public void setReplicas(String... hostAndPorts) {
+        setReplicas(JReadBalance.ROUND_ROBIN, hostAndPorts);
+    }
+
+    /**
+     * 配置从节点并指定从节点之间的负载均衡策略
+     */
+    public void setReplicas(JReadBalance readBalance, String... hostAndPorts) {
+        if (readBalance == null)
+            throw new IllegalArgumentException("readBalance can not be null.");
+        if (hostAndPorts.length == 0)
+            throw new IllegalArgumentException("hostAndPorts can not be empty.");
+        this.readBalance = readBalance;
+        this.replicaNodes = hostAndPorts;
+    }
+
+    /**
+     * 开启近端缓存：在本进程内缓存 get/hget 的结果，通过 JCache 或 objects() 写入、修改过期时间时经由 Redis 频道
+     * 通知所有节点清除本地副本
+     * <pre>
+     * 例如：
+     * redisPlugin.setNearCache(10000, 60, "config:", "user:profile:");
+     * </pre>
+     *
+     * @param maximumSize   本地最多缓存的 key 数量
+     * @param expireSeconds 写入本地缓存后的最长存活时间，也是丢失失效消息时的最大脏读时间
+     * @param keyPrefixes   只缓存这些前缀的 key，不指定时缓存所有 key
+     */
+    public void setNearCache(long maximumSize, int expireSeconds, String... keyPrefixes) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("maximumSize must be greater than 0.");
+        if (expireSeconds <= 0)
+            throw new IllegalArgumentException("expireSeconds must be greater than 0.");
+        this.nearCacheMaximumSize = maximumSize;
+        this.nearCacheExpireSeconds = expireSeconds;
+        this.nearCacheKeyPrefixes = keyPrefixes;
+    }
+
+    /**
+     * 开启热点 key 探测：抽样统计每个 key 的访问频率，每秒访问达到 threshold 次的 key 记录日志，
+     * 并可通过 JCache.getHotKeys() 及指标查看
+     * <pre>
+     * 例如：
+     * redisPlugin.setHotKeys(1000, 500);
+     * </pre>
+     *
+     * @param threshold     每秒访问次数阈值
+     * @param promoteMillis 大于 0 时热点 key 的 get 结果在本地缓存的毫秒数，其他进程写入后最多读到这段时间的旧值
+     */
+    public void setHotKeys(long threshold, long promoteMillis) {
+        if (threshold <= 0)
+            throw new IllegalArgumentException("threshold must be greater than 0.");
+        if (promoteMillis < 0)
+            throw new IllegalArgumentException("promoteMillis can not be less than 0.");
+        this.hotKeyThreshold = threshold;
+        this.hotKeyPromoteMillis = promoteMillis;
+    }
+
+    /**
+     * 开启 value 压缩：经过 ISerializer 序列化后达到 threshold 字节的 value 以 Deflate 压缩后写入，
+     * 开启前写入的未压缩 value 仍可读取。开启指标时记录压缩率及压缩、解压耗时
+     * <pre>
+     * 例如：
+     * redisPlugin.setCompression(16 * 1024);
+     * </pre>
+     *
+     * @param threshold 达到此字节数时压缩
+     */
+    public void setCompression(int threshold) {
+        setCompression(threshold, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level Deflate 压缩级别 1-9，级别越高压缩率越高、耗时越长
+     */
+    public void setCompression(int threshold, int level) {
+        if (threshold <= 0)
+            throw new IllegalArgumentException("threshold must be greater than 0.");
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("level must be between 1 and 9.");
+        this.compressionThreshold = threshold;
+        this.compressionLevel = level;
+    }
+
+    /**
+     * 配置 JCache.async() 的线程池：每个节点同一时刻只有一个 flush 任务，线程数超过节点数没有意义。
+     * 默认线程数为 CPU 核数(至少 2)，未完成的命令最多 10000 条
+     *
+     * @param threads    执行 pipeline 的线程数
+     * @param maxPending 未完成的命令上限，超过时新命令直接失败
+     */
+    public void setAsync(int threads, int maxPending) {
+        if (threads <= 0 || maxPending <= 0)
+            throw new IllegalArgumentException("threads and maxPending must be greater than 0.");
+        this.asyncThreads = threads;
+        this.asyncMaxPending = maxPending;
+    }
+
+    /**
+     * 开启断路器：一段时间内借出连接失败、命令执行中连接异常或借出等待过长的比例过高时打开，
+     * 打开期间不再访问 Redis，直接抛出 JRedisCircuitOpenException，get/hget/hgetAll 等读命令按 fallback 返回
+     * <pre>
+     * 例如：
+     * redisPlugin.setCircuitBreaker(new JCircuitBreaker().slowCall(200, 0.8).fallback(JIFallback.NULL));
+     * </pre>
+     */
+    public void setCircuitBreaker(JCircuitBreaker circuitBreaker) {
+        if (circuitBreaker == null)
+            throw new IllegalArgumentException("circuitBreaker can not be null.");
+        this.circuitBreaker = circuitBreaker;
+    }
+
     // ---------
 
     public void setTestWhileIdle(boolean testWhileIdle) {
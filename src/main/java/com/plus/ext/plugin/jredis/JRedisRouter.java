@@ -0,0 +1,606 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisClusterCrossSlotException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RedisRouter.
+ * 决定 JCache 的每个 key 由哪个 Redis 节点处理：单机模式只有一个连接池，
+ * 集群模式按 slot 路由到负责的主节点，分片模式按一致性哈希路由到分片。
+ * 多 key 命令(mget/mset/del)按节点分组，各节点的命令放在同一个 pipeline 中并行执行。
+ */
+abstract class JRedisRouter {
+
+    private static final Log log = Log.getLog(JRedisRouter.class);
+
+    private volatile ExecutorService executor;
+
+    private String cacheName;
+    private JIMetricsRegistry metrics;
+    private volatile JCircuitBreaker breaker;
+
+    /**
+     * 返回 key 所在节点的连接池
+     */
+    abstract JedisPool poolOf(String key);
+
+    abstract JedisPool poolOf(byte[] key);
+
+    /**
+     * 同一节点内还需拆分为多条命令的分组，集群模式下不同 slot 的 key 不能放在同一条命令中
+     */
+    abstract int groupOf(byte[] key);
+
+    /**
+     * 全部主节点，顺序在两次拓扑变化之间保持不变
+     */
+    abstract List<JedisPool> masters();
+
+    /**
+     * 指定地址节点的连接池，用于集群模式下按 ASK 重定向到 slot 迁移的目标节点
+     */
+    JedisPool nodePool(HostAndPort node) {
+        throw new UnsupportedOperationException("redirection is not supported by " + this);
+    }
+
+    /**
+     * 拓扑变化(集群 MOVED/ASK)后刷新路由表
+     */
+    void renew() {
+    }
+
+    boolean isSingleNode() {
+        return false;
+    }
+
+    /**
+     * 单机模式下唯一的连接池，其他模式下不存在不带 key 的连接
+     */
+    JedisPool pool() {
+        throw new UnsupportedOperationException("command without key is not supported by " + this);
+    }
+
+    /**
+     * 开启指标后记录借出连接的等待时间及失败数
+     */
+    void setMetrics(String cacheName, JIMetricsRegistry metrics) {
+        this.cacheName = cacheName;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 开启断路器后，打开期间借出连接直接失败
+     */
+    void setCircuitBreaker(JCircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    JCircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    Jedis borrow(JedisPool pool) {
+        JIMetricsRegistry metrics = this.metrics;
+        JCircuitBreaker breaker = this.breaker;
+        if (metrics == null && breaker == null)
+            return pool.getResource();
+        if (breaker != null)
+            breaker.acquire();
+        long start = System.nanoTime();
+        try {
+            Jedis jedis = pool.getResource();
+            long nanos = System.nanoTime() - start;
+            if (metrics != null)
+                metrics.recordBorrow(cacheName, nanos, false);
+            if (breaker != null)
+                breaker.onBorrow(nanos, JMeteredJedisPool.startCall(jedis, nanos));
+            return jedis;
+        } catch (JedisException e) {
+            if (metrics != null) {
+                metrics.recordBorrow(cacheName, System.nanoTime() - start, true);
+                if (isPoolExhausted(e))
+                    metrics.recordPoolExhausted(cacheName);
+            }
+            if (breaker != null)
+                breaker.onBorrowError();
+            throw e;
+        }
+    }
+
+    /**
+     * 连接池耗尽(等待空闲连接超时)时 jedis 抛出以 NoSuchElementException 为原因的 JedisException，
+     * 无法建立连接时为 JedisConnectionException
+     */
+    static boolean isPoolExhausted(JedisException e) {
+        return !(e instanceof JedisConnectionException) && e.getCause() instanceof NoSuchElementException;
+    }
+
+    /**
+     * 归还 borrow 借出的连接，开启断路器时回报命令执行中是否发生连接异常及本次调用的耗时
+     */
+    void release(Jedis jedis) {
+        JCircuitBreaker breaker = this.breaker;
+        if (breaker != null)
+            breaker.onRelease(jedis.getClient().isBroken(), JMeteredJedisPool.endCall(jedis));
+        jedis.close();
+    }
+
+    /**
+     * 各连接池的名称，用于输出连接池状态
+     */
+    Map<String, JedisPool> namedPools() {
+        Map<String, JedisPool> result = new LinkedHashMap<String, JedisPool>();
+        List<JedisPool> masters = masters();
+        for (int i = 0; i < masters.size(); i++)
+            result.put("master-" + i, masters.get(i));
+        return result;
+    }
+
+    /**
+     * 接收 PUBLISH 消息需要订阅的节点：单机及集群模式下消息会传播到全部节点，订阅 seed 即可，
+     * 分片模式下各节点相互独立，需要订阅每个分片
+     */
+    List<JRedisNode> subscribeNodes(JRedisNode seed) {
+        return Collections.singletonList(seed);
+    }
+
+    /**
+     * key 所在节点的连接信息，用于在连接池之外创建阻塞命令使用的独立连接
+     */
+    JRedisNode nodeOf(String key, JRedisNode seed) {
+        return seed;
+    }
+
+    /**
+     * 只读命令的连接，默认与写命令相同，单机模式下配置了从节点时由从节点处理
+     */
+    Jedis readResource() {
+        return borrow(pool());
+    }
+
+    Jedis readResource(String key) {
+        return borrow(poolOf(key));
+    }
+
+    Jedis readResource(byte[] key) {
+        return borrow(poolOf(key));
+    }
+
+    Jedis readResource(String... keys) {
+        return borrow(poolOf(keys));
+    }
+
+    Jedis readResource(byte[]... keys) {
+        return borrow(poolOf(keys));
+    }
+
+    void destroy() {
+        ExecutorService executor = this.executor;
+        if (executor != null)
+            executor.shutdownNow();
+        destroyPools();
+    }
+
+    void destroyPools() {
+        for (JedisPool pool : masters())
+            pool.destroy();
+    }
+
+    /**
+     * 多 key 命令要求全部 key 由同一节点(集群模式下为同一 slot)处理，可以使用 {tag} 让相关 key 落在一起
+     */
+    JedisPool poolOf(String... keys) {
+        if (keys.length == 0)
+            throw new IllegalArgumentException("keys can not be empty");
+        byte[][] keysBytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++)
+            keysBytes[i] = SafeEncoder.encode(keys[i]);
+        return poolOf(keysBytes);
+    }
+
+    JedisPool poolOf(byte[]... keys) {
+        if (keys.length == 0)
+            throw new IllegalArgumentException("keys can not be empty");
+        JedisPool pool = poolOf(keys[0]);
+        int group = groupOf(keys[0]);
+        for (int i = 1; i < keys.length; i++) {
+            if (poolOf(keys[i]) != pool || groupOf(keys[i]) != group)
+                throw new JedisClusterCrossSlotException("keys must be in the same node, use {tag} in keys: " + SafeEncoder.encode(keys[i]));
+        }
+        return pool;
+    }
+
+    // --------- 多 key 命令
+
+    List<byte[]> mget(final byte[][] keys) {
+        final byte[][] result = new byte[keys.length][];
+        execute(keys, 1, new GroupCommand<List<byte[]>>() {
+            Response<List<byte[]>> send(Pipeline pipeline, int[] indices) {
+                return pipeline.mget(select(keys, indices));
+            }
+
+            void receive(int[] indices, List<byte[]> values) {
+                for (int i = 0; i < indices.length; i++)
+                    result[indices[i]] = values.get(i);
+            }
+        });
+        return Arrays.asList(result);
+    }
+
+    Long del(final byte[][] keys) {
+        final long[] deleted = {0};
+        execute(keys, 1, new GroupCommand<Long>() {
+            Response<Long> send(Pipeline pipeline, int[] indices) {
+                return pipeline.del(select(keys, indices));
+            }
+
+            void receive(int[] indices, Long count) {
+                deleted[0] += count;
+            }
+        });
+        return deleted[0];
+    }
+
+    String mset(final byte[][] keysValues) {
+        byte[][] keys = new byte[keysValues.length / 2][];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = keysValues[i * 2];
+        execute(keys, 1, new GroupCommand<String>() {
+            Response<String> send(Pipeline pipeline, int[] indices) {
+                byte[][] kv = new byte[indices.length * 2][];
+                for (int i = 0; i < indices.length; i++) {
+                    kv[i * 2] = keysValues[indices[i] * 2];
+                    kv[i * 2 + 1] = keysValues[indices[i] * 2 + 1];
+                }
+                return pipeline.mset(kv);
+            }
+
+            void receive(int[] indices, String reply) {
+            }
+        });
+        return "OK";
+    }
+
+    /**
+     * 每个分组一条 EVAL，分组内的 key 各自使用 ARGV 中的过期时间
+     */
+    static final JScript MSETEX_SCRIPT = JScript.of(
+            "for i = 1, #KEYS do redis.call('setex', KEYS[i], ARGV[i * 2 - 1], ARGV[i * 2]) end return #KEYS");
+
+    /**
+     * seconds[i] 为第 i 个 key 的过期时间
+     */
+    String msetex(final byte[][] keysValues, final int[] seconds) {
+        byte[][] keys = new byte[keysValues.length / 2][];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = keysValues[i * 2];
+        execute(keys, 1, new GroupCommand<Object>() {
+            Response<Object> send(Pipeline pipeline, int[] indices) {
+                List<byte[]> groupKeys = new ArrayList<byte[]>(indices.length);
+                List<byte[]> args = new ArrayList<byte[]>(indices.length * 2);
+                for (int index : indices) {
+                    groupKeys.add(keysValues[index * 2]);
+                    args.add(Protocol.toByteArray(seconds[index]));
+                    args.add(keysValues[index * 2 + 1]);
+                }
+                return pipeline.eval(MSETEX_SCRIPT.sourceBytes(), groupKeys, args);
+            }
+
+            void receive(int[] indices, Object reply) {
+            }
+        });
+        return "OK";
+    }
+
+    private static byte[][] select(byte[][] keys, int[] indices) {
+        byte[][] selected = new byte[indices.length][];
+        for (int i = 0; i < indices.length; i++)
+            selected[i] = keys[indices[i]];
+        return selected;
+    }
+
+    /**
+     * 对每个分组发送一条命令，receive 在调用线程中按节点顺序回调
+     */
+    static abstract class GroupCommand<R> {
+        abstract Response<R> send(Pipeline pipeline, int[] indices);
+
+        abstract void receive(int[] indices, R reply);
+    }
+
+    private <R> void execute(byte[][] keys, int redirections, GroupCommand<R> command) {
+        Map<JedisPool, Map<Integer, List<Integer>>> nodes = new LinkedHashMap<JedisPool, Map<Integer, List<Integer>>>();
+        for (int i = 0; i < keys.length; i++) {
+            JedisPool pool = poolOf(keys[i]);
+            Map<Integer, List<Integer>> groups = nodes.get(pool);
+            if (groups == null) {
+                groups = new LinkedHashMap<Integer, List<Integer>>();
+                nodes.put(pool, groups);
+            }
+            Integer group = groupOf(keys[i]);
+            List<Integer> indices = groups.get(group);
+            if (indices == null) {
+                indices = new ArrayList<Integer>();
+                groups.put(group, indices);
+            }
+            indices.add(i);
+        }
+
+        List<Future<List<R>>> futures = new ArrayList<Future<List<R>>>();
+        List<List<int[]>> indices = new ArrayList<List<int[]>>();
+        try {
+            // 第一个节点在调用线程中执行，只涉及一个节点时不切换线程
+            Callable<List<R>> first = null;
+            for (Map.Entry<JedisPool, Map<Integer, List<Integer>>> e : nodes.entrySet()) {
+                List<int[]> nodeIndices = new ArrayList<int[]>();
+                for (List<Integer> group : e.getValue().values())
+                    nodeIndices.add(toArray(group));
+                indices.add(nodeIndices);
+                Callable<List<R>> call = newCall(e.getKey(), nodeIndices, command);
+                if (first == null)
+                    first = call;
+                else
+                    futures.add(executor().submit(call));
+            }
+
+            List<List<R>> replies = new ArrayList<List<R>>();
+            if (first != null)
+                replies.add(first.call());
+            for (Future<List<R>> future : futures)
+                replies.add(future.get());
+
+            for (int n = 0; n < replies.size(); n++) {
+                for (int g = 0; g < replies.get(n).size(); g++)
+                    command.receive(indices.get(n).get(g), replies.get(n).get(g));
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JedisRedirectionException && redirections > 0) {
+                renew();
+                execute(keys, redirections - 1, command);
+                return;
+            }
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new JedisException(cause);
+        } catch (JedisRedirectionException e) {
+            if (redirections <= 0)
+                throw e;
+            renew();
+            execute(keys, redirections - 1, command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisException("interrupted", e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JedisException(e);
+        } finally {
+            for (Future<List<R>> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    private <R> Callable<List<R>> newCall(final JedisPool pool, final List<int[]> groups, final GroupCommand<R> command) {
+        return new Callable<List<R>>() {
+            public List<R> call() {
+                Jedis jedis = borrow(pool);
+                try {
+                    Pipeline pipeline = jedis.pipelined();
+                    List<Response<R>> responses = new ArrayList<Response<R>>(groups.size());
+                    for (int[] group : groups)
+                        responses.add(command.send(pipeline, group));
+                    pipeline.sync();
+                    List<R> replies = new ArrayList<R>(groups.size());
+                    for (Response<R> response : responses)
+                        replies.add(response.get());
+                    return replies;
+                } finally {
+                    release(jedis);
+                }
+            }
+        };
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    /**
+     * 在全部主节点上并行执行，按 masters() 的顺序返回结果
+     */
+    <R> List<R> broadcast(final NodeCallback<R> callback) {
+        List<JedisPool> masters = masters();
+        List<Future<R>> futures = new ArrayList<Future<R>>(masters.size());
+        try {
+            for (final JedisPool pool : masters) {
+                futures.add(executor().submit(new Callable<R>() {
+                    public R call() {
+                        Jedis jedis = borrow(pool);
+                        try {
+                            return callback.call(jedis);
+                        } finally {
+                            release(jedis);
+                        }
+                    }
+                }));
+            }
+            List<R> result = new ArrayList<R>(futures.size());
+            for (Future<R> future : futures)
+                result.add(future.get());
+            return result;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new JedisException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisException("interrupted", e);
+        } finally {
+            for (Future<R> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    interface NodeCallback<R> {
+        R call(Jedis jedis);
+    }
+
+    private ExecutorService executor() {
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "jredis-router-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    // ---------
+
+    static JRedisRouter single(JedisPool pool) {
+        return new Single(pool, Collections.<JedisPool>emptyList(), JReadBalance.ROUND_ROBIN);
+    }
+
+    static JRedisRouter single(JedisPool pool, List<JedisPool> replicas, JReadBalance balance) {
+        return new Single(pool, replicas, balance);
+    }
+
+    /**
+     * 单机模式，全部 key 使用同一个连接池，可以配置多个从节点处理只读命令
+     */
+    static class Single extends JRedisRouter {
+        private final JedisPool pool;
+        private final List<JedisPool> masters;
+        private final JedisPool[] replicas;
+        private final JReadBalance balance;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Single(JedisPool pool, List<JedisPool> replicas, JReadBalance balance) {
+            this.pool = pool;
+            this.masters = Collections.singletonList(pool);
+            this.replicas = replicas.toArray(new JedisPool[replicas.size()]);
+            this.balance = balance;
+        }
+
+        Jedis readResource() {
+            if (replicas.length == 0)
+                return borrow(pool);
+            JedisPool replica = balance == JReadBalance.LEAST_OUTSTANDING ? leastOutstanding() : roundRobin();
+            try {
+                return borrow(replica);
+            } catch (JedisConnectionException e) {
+                // 从节点不可用时由主节点处理，不影响读取
+                log.warn("replica not available, read from primary: " + e.getMessage());
+                return borrow(pool);
+            }
+        }
+
+        Jedis readResource(String key) {
+            return readResource();
+        }
+
+        Jedis readResource(byte[] key) {
+            return readResource();
+        }
+
+        Jedis readResource(String... keys) {
+            return readResource();
+        }
+
+        Jedis readResource(byte[]... keys) {
+            return readResource();
+        }
+
+        private JedisPool roundRobin() {
+            return replicas[(next.getAndIncrement() & Integer.MAX_VALUE) % replicas.length];
+        }
+
+        private JedisPool leastOutstanding() {
+            // 从轮询位置开始比较，借出数相同时不总是落在第一个从节点上
+            int start = next.getAndIncrement() & Integer.MAX_VALUE;
+            JedisPool best = null;
+            int bestActive = Integer.MAX_VALUE;
+            for (int i = 0; i < replicas.length; i++) {
+                JedisPool replica = replicas[(start + i) % replicas.length];
+                int active = replica.getNumActive();
+                if (active < bestActive) {
+                    best = replica;
+                    bestActive = active;
+                }
+            }
+            return best;
+        }
+
+        void destroyPools() {
+            super.destroyPools();
+            for (JedisPool replica : replicas)
+                replica.destroy();
+        }
+
+        Map<String, JedisPool> namedPools() {
+            Map<String, JedisPool> result = new LinkedHashMap<String, JedisPool>();
+            result.put("primary", pool);
+            for (int i = 0; i < replicas.length; i++)
+                result.put("replica-" + i, replicas[i]);
+            return result;
+        }
+
+        JedisPool poolOf(String key) {
+            return pool;
+        }
+
+        JedisPool poolOf(byte[] key) {
+            return pool;
+        }
+
+        int groupOf(byte[] key) {
+            return 0;
+        }
+
+        List<JedisPool> masters() {
+            return masters;
+        }
+
+        boolean isSingleNode() {
+            return true;
+        }
+
+        JedisPool pool() {
+            return pool;
+        }
+
+        public String toString() {
+            return replicas.length == 0 ? "single" : "single with " + replicas.length + " replicas(" + balance + ")";
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refresher.
+ * JObjectCache.fetch(...) 的后台刷新，每个 JCache 一个：
+ * <ul>
+ * <li>缓存未命中时同一进程内对同一个 key 只有一个线程执行加载，其余线程等待结果(JSingleFlight)</li>
+ * <li>提前刷新及过期后的刷新在后台线程中执行，调用者直接返回旧值；同一个 key 同时只有一个刷新任务</li>
+ * <li>刷新线程数及排队的任务数有上限，队列满时放弃本次刷新，由之后的读取再次触发</li>
+ * </ul>
+ */
+class JRefresher {
+
+    private static final Log log = Log.getLog(JRefresher.class);
+
+    private static final int MAX_THREADS = 4;
+    private static final int MAX_QUEUED = 1000;
+
+    private final String cacheName;
+    private final JSingleFlight singleFlight = new JSingleFlight();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private volatile ThreadPoolExecutor executor;
+    private volatile boolean running = true;
+
+    JRefresher(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    <T> T load(String key, Callable<T> loader) {
+        return singleFlight.execute(key, loader);
+    }
+
+    /**
+     * 提交后台刷新，同一个 key 已在刷新或已停止时忽略
+     */
+    void refresh(final String key, final Callable<?> task) {
+        if (!running || !refreshing.add(key))
+            return;
+        try {
+            executor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.call();
+                    } catch (Exception e) {
+                        // 保留旧值，过期前的下一次读取会再次尝试
+                        log.warn("refresh " + key + " of " + cacheName + " fail", e);
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    private ThreadPoolExecutor executor() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "jredis-refresh-" + cacheName + "-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new ThreadPoolExecutor.AbortPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 停止接收刷新任务，正在执行的刷新被中断
+     */
+    synchronized void stop() {
+        running = false;
+        if (executor != null)
+            executor.shutdownNow();
+        refreshing.clear();
+    }
+}
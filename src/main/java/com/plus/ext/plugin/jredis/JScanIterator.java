@@ -0,0 +1,61 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ScanIterator.
+ * 基于游标的惰性迭代器：只有当前页遍历完后才向 redis 请求下一页，
+ * 两次请求之间不占用连接，适合遍历千万级的 key 或大集合。
+ * SCAN 语义下遍历期间被修改的元素可能被重复返回或遗漏。
+ */
+abstract class JScanIterator<T> implements Iterator<T> {
+
+    private String cursor = ScanParams.SCAN_POINTER_START;
+    private List<T> page = null;
+    private int index = 0;
+    private boolean finished = false;
+
+    /**
+     * 以 cursor 请求下一页
+     */
+    protected abstract ScanResult<T> scan(String cursor);
+
+    @Override
+    public boolean hasNext() {
+        while (page == null || index >= page.size()) {
+            if (finished)
+                return false;
+            ScanResult<T> result = scan(cursor);
+            cursor = result.getStringCursor();
+            finished = ScanParams.SCAN_POINTER_START.equals(cursor);
+            page = result.getResult();
+            index = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return page.get(index++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    static <T> Stream<T> stream(Iterator<T> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false);
+    }
+}
@@ -0,0 +1,93 @@
+package com.plus.ext.plugin.jredis;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import redis.clients.util.SafeEncoder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Script.
+ * 一段 Lua 脚本及其 SHA1，SHA1 在本地计算一次。通过 JCache.script(...) 执行时优先 EVALSHA，
+ * 服务端返回 NOSCRIPT(重启、SCRIPT FLUSH、故障转移后)时自动改用 EVAL，EVAL 同时会把脚本缓存到服务端。
+ * 脚本对象不可变，可以作为常量在多个 cache 之间共用
+ * <pre>
+ * 例如：
+ * static final JScript INCR_IF_EXISTS = JScript.of(
+ *         "if redis.call('exists', KEYS[1]) == 1 then return redis.call('incrby', KEYS[1], ARGV[1]) end return nil");
+ * Long stock = JRedis.use().script(INCR_IF_EXISTS).key("stock:" + id).arg(-1).execute();
+ * </pre>
+ */
+public class JScript {
+
+    private final String source;
+    private final String sha1;
+    private final byte[] sourceBytes;
+    private final byte[] sha1Bytes;
+
+    /**
+     * 已确认缓存了本脚本的节点(host:port)，pipeline 中对这些节点直接发送 EVALSHA，见 JScriptScope
+     */
+    private final Set<String> loadedNodes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private JScript(String source) {
+        if (source == null || source.isEmpty())
+            throw new IllegalArgumentException("script source can not be empty");
+        this.source = source;
+        this.sha1 = Hashing.sha1().hashString(source, Charsets.UTF_8).toString();
+        this.sourceBytes = SafeEncoder.encode(source);
+        this.sha1Bytes = SafeEncoder.encode(sha1);
+    }
+
+    public static JScript of(String source) {
+        return new JScript(source);
+    }
+
+    /**
+     * 从 classpath 读取 UTF-8 编码的脚本，例如 "lua/stock.lua"
+     */
+    public static JScript classpath(String resource) {
+        try {
+            return new JScript(Resources.toString(Resources.getResource(resource), Charsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can not read script: " + resource, e);
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    byte[] sourceBytes() {
+        return sourceBytes;
+    }
+
+    byte[] sha1Bytes() {
+        return sha1Bytes;
+    }
+
+    boolean isLoaded(String node) {
+        return loadedNodes.contains(node);
+    }
+
+    void markLoaded(String node) {
+        loadedNodes.add(node);
+    }
+
+    void markUnloaded(String node) {
+        loadedNodes.remove(node);
+    }
+
+    @Override
+    public String toString() {
+        return "JScript[" + sha1 + "]";
+    }
+}
@@ -0,0 +1,141 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ScriptCall.
+ * 绑定脚本的 KEYS 与 ARGV 并在 JCache 上执行，由 JCache.script(...) 创建，只能使用一次。
+ * 参数按类型转换：String、Number、Boolean 转为字符串，byte[] 原样传递，其他对象经 cache 的 ISerializer 序列化。
+ * 集群及分片模式下按第一个 key 路由，全部 key 必须位于同一节点(可以使用 {tag})
+ * <pre>
+ * 例如：
+ * List&lt;String&gt; result = cache.script("reserve")
+ *         .keys("stock:{" + id + "}", "order:{" + id + "}")
+ *         .args(count, orderNo)
+ *         .execute();
+ * </pre>
+ */
+public class JScriptCall {
+
+    private final JCache cache;
+    private final JScript script;
+    private final List<byte[]> keys = new ArrayList<byte[]>();
+    private final List<byte[]> args = new ArrayList<byte[]>();
+
+    JScriptCall(JCache cache, JScript script) {
+        this.cache = cache;
+        this.script = script;
+    }
+
+    public JScriptCall key(String key) {
+        keys.add(SafeEncoder.encode(key));
+        return this;
+    }
+
+    public JScriptCall keys(String... keys) {
+        for (String key : keys)
+            key(key);
+        return this;
+    }
+
+    public JScriptCall arg(Object arg) {
+        args.add(argToBytes(arg));
+        return this;
+    }
+
+    public JScriptCall args(Object... args) {
+        for (Object arg : args)
+            arg(arg);
+        return this;
+    }
+
+    /**
+     * 执行脚本，bulk 回复转为 String，整数回复为 Long，多行回复为 List，nil 为 null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute() {
+        return (T) decode(executeRaw(), false);
+    }
+
+    /**
+     * 执行脚本，bulk 回复经 cache 的 ISerializer 反序列化为对象，用于返回 set/objects() 写入的值
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T executeForObject() {
+        return (T) decode(executeRaw(), true);
+    }
+
+    /**
+     * 执行脚本，bulk 回复为 byte[]
+     */
+    public Object executeRaw() {
+        byte[][] keyArray = keys.toArray(new byte[keys.size()][]);
+        Jedis jedis = keyArray.length == 0 ? cache.getJedis() : cache.getJedis(keyArray);
+        try {
+            Object reply;
+            try {
+                reply = jedis.evalsha(script.sha1Bytes(), keys, args);
+            } catch (JedisNoScriptException e) {
+                reply = jedis.eval(script.sourceBytes(), keys, args);
+            }
+            script.markLoaded(JScriptScope.nodeOf(jedis));
+            return reply;
+        } finally {
+            cache.close(jedis);
+        }
+    }
+
+    /**
+     * 在 pipeline 中执行，pipeline 需要由 key 所在节点的连接创建(例如 cache.pipelined(key, callback))。
+     * 节点已确认缓存脚本时发送 EVALSHA，否则发送 EVAL，见 JScriptScope。
+     * 节点重启或 SCRIPT FLUSH 后，下一个 pipeline 中的调用会得到 JedisNoScriptException，之后恢复为 EVAL。
+     * Response 中的 bulk 回复为 byte[]
+     */
+    public Response<Object> execute(Pipeline pipeline) {
+        return JScriptScope.send(pipeline, script, keys, args);
+    }
+
+    /**
+     * 用于路由的第一个 key，没有 key 时为 null
+     */
+    String firstKey() {
+        return keys.isEmpty() ? null : SafeEncoder.encode(keys.get(0));
+    }
+
+    /**
+     * 与 execute() 相同的方式转换 pipeline 中的回复
+     */
+    Object decode(Object reply) {
+        return decode(reply, false);
+    }
+
+    private byte[] argToBytes(Object arg) {
+        if (arg == null)
+            throw new IllegalArgumentException("script arg can not be null");
+        if (arg instanceof byte[])
+            return (byte[]) arg;
+        if (arg instanceof String || arg instanceof Number || arg instanceof Boolean)
+            return SafeEncoder.encode(arg.toString());
+        return cache.valueToBytes(arg);
+    }
+
+    private Object decode(Object reply, boolean deserialize) {
+        if (reply instanceof byte[])
+            return deserialize ? cache.valueFromBytes((byte[]) reply) : SafeEncoder.encode((byte[]) reply);
+        if (reply instanceof List) {
+            List<?> replies = (List<?>) reply;
+            List<Object> result = new ArrayList<Object>(replies.size());
+            for (Object r : replies)
+                result.add(decode(r, deserialize));
+            return result;
+        }
+        return reply;
+    }
+}
@@ -0,0 +1,96 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ScriptScope.
+ * pipeline 中无法在收到 NOSCRIPT 后重试，脚本的发送方式按节点决定：JScript 记录已确认缓存了脚本的节点，
+ * 未确认时发送 EVAL，同一 pipeline 中之后的调用及 pipeline 成功同步后该节点上的调用发送 EVALSHA。
+ * EVALSHA 返回 NOSCRIPT(重启、SCRIPT FLUSH、故障转移后)时清除该节点的记录，下一次重新发送 EVAL。
+ * 由 JCache.pipelined(...) 等创建 pipeline 的地方在当前线程中打开，不在范围内的 pipeline 总是发送 EVAL
+ */
+final class JScriptScope {
+
+    private static final ThreadLocal<JScriptScope> CURRENT = new ThreadLocal<JScriptScope>();
+
+    private final JScriptScope previous;
+    private final Pipeline pipeline;
+    private final String node;
+    private List<JScript> evaluated;
+    private List<JScript> shaScripts;
+    private List<Response<Object>> shaResponses;
+
+    private JScriptScope(JScriptScope previous, Pipeline pipeline, String node) {
+        this.previous = previous;
+        this.pipeline = pipeline;
+        this.node = node;
+    }
+
+    /**
+     * 在当前线程中开始记录 pipeline 中发送的脚本，必须在同一线程中调用 close
+     */
+    static JScriptScope open(Pipeline pipeline, Jedis jedis) {
+        JScriptScope scope = new JScriptScope(CURRENT.get(), pipeline, nodeOf(jedis));
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @param synced pipeline 是否已成功同步，只有同步后才能确认 EVAL 已缓存脚本
+     */
+    void close(boolean synced) {
+        if (previous != null)
+            CURRENT.set(previous);
+        else
+            CURRENT.remove();
+        if (!synced)
+            return;
+        if (evaluated != null) {
+            for (JScript script : evaluated)
+                script.markLoaded(node);
+        }
+        if (shaResponses != null) {
+            for (int i = 0; i < shaResponses.size(); i++) {
+                try {
+                    shaResponses.get(i).get();
+                } catch (JedisNoScriptException e) {
+                    shaScripts.get(i).markUnloaded(node);
+                } catch (RuntimeException ignored) {
+                    // 脚本自身的错误由调用者通过 Response 取得
+                }
+            }
+        }
+    }
+
+    static Response<Object> send(Pipeline pipeline, JScript script, List<byte[]> keys, List<byte[]> args) {
+        JScriptScope scope = CURRENT.get();
+        if (scope == null || scope.pipeline != pipeline)
+            return pipeline.eval(script.sourceBytes(), keys, args);
+        if (script.isLoaded(scope.node) || scope.evaluated != null && scope.evaluated.contains(script)) {
+            Response<Object> response = pipeline.evalsha(script.sha1Bytes(), keys, args);
+            if (scope.shaResponses == null) {
+                scope.shaScripts = new ArrayList<JScript>();
+                scope.shaResponses = new ArrayList<Response<Object>>();
+            }
+            scope.shaScripts.add(script);
+            scope.shaResponses.add(response);
+            return response;
+        }
+        if (scope.evaluated == null)
+            scope.evaluated = new ArrayList<JScript>();
+        scope.evaluated.add(script);
+        return pipeline.eval(script.sourceBytes(), keys, args);
+    }
+
+    static String nodeOf(Jedis jedis) {
+        Client client = jedis.getClient();
+        return client.getHost() + ":" + client.getPort();
+    }
+}
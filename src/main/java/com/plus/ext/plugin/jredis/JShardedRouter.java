@@ -0,0 +1,96 @@
+package com.plus.ext.plugin.jredis;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+
+import java.util.*;
+
+/**
+ * ShardedRouter.
+ * 客户端分片模式：以 MurmurHash 一致性哈希把 key 分布到多个独立的 Redis 节点，
+ * 每个节点 160 个虚拟节点，增删节点时只有相邻区间的 key 需要迁移。
+ * 与 Redis Cluster 一致，key 中含有 {tag} 时只对 tag 计算哈希，相关 key 可以落在同一节点上执行多 key 命令
+ */
+class JShardedRouter extends JRedisRouter {
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private final TreeMap<Long, JedisPool> ring = new TreeMap<Long, JedisPool>();
+    private final List<JedisPool> masters;
+    private final List<JRedisNode> nodes;
+
+    JShardedRouter(List<JedisPool> pools, List<JRedisNode> nodes) {
+        if (nodes.isEmpty() || nodes.size() != pools.size())
+            throw new IllegalArgumentException("nodes can not be empty and must match pools");
+        for (int i = 0; i < nodes.size(); i++) {
+            JRedisNode node = nodes.get(i);
+            JedisPool pool = pools.get(i);
+            // 以节点地址而不是下标计算虚拟节点，调整节点顺序不影响分布
+            String name = node.getHost() + ":" + node.getPort();
+            for (int n = 0; n < VIRTUAL_NODES; n++)
+                ring.put(Hashing.MURMUR_HASH.hash(name + "*" + n), pool);
+        }
+        this.masters = Collections.unmodifiableList(new ArrayList<JedisPool>(pools));
+        this.nodes = Collections.unmodifiableList(new ArrayList<JRedisNode>(nodes));
+    }
+
+    JedisPool poolOf(String key) {
+        return poolOf(SafeEncoder.encode(key));
+    }
+
+    JedisPool poolOf(byte[] key) {
+        SortedMap<Long, JedisPool> tail = ring.tailMap(Hashing.MURMUR_HASH.hash(hashTag(key)));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    int groupOf(byte[] key) {
+        return 0;
+    }
+
+    List<JedisPool> masters() {
+        return masters;
+    }
+
+    List<JRedisNode> nodes() {
+        return nodes;
+    }
+
+    JRedisNode nodeOf(String key, JRedisNode seed) {
+        return nodes.get(masters.indexOf(poolOf(key)));
+    }
+
+    List<JRedisNode> subscribeNodes(JRedisNode seed) {
+        return nodes;
+    }
+
+    Map<String, JedisPool> namedPools() {
+        Map<String, JedisPool> result = new LinkedHashMap<String, JedisPool>();
+        for (int i = 0; i < nodes.size(); i++)
+            result.put(nodes.get(i).getHost() + ":" + nodes.get(i).getPort(), masters.get(i));
+        return result;
+    }
+
+    /**
+     * 取第一个 { 与其后第一个 } 之间的非空内容，规则与 Redis Cluster 相同
+     */
+    static byte[] hashTag(byte[] key) {
+        for (int s = 0; s < key.length; s++) {
+            if (key[s] == '{') {
+                for (int e = s + 1; e < key.length; e++) {
+                    if (key[e] == '}') {
+                        if (e == s + 1)
+                            return key;
+                        return Arrays.copyOfRange(key, s + 1, e);
+                    }
+                }
+                return key;
+            }
+        }
+        return key;
+    }
+
+    public String toString() {
+        return "sharded" + nodes;
+    }
+}
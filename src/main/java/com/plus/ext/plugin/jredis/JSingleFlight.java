@@ -0,0 +1,58 @@
+package com.plus.ext.plugin.jredis;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * SingleFlight.
+ * 合并同一进程内对同一个 key 的并发加载：同一时刻只有第一个调用者(leader)执行加载，
+ * 其余调用者等待并共享 leader 的结果或异常，避免热点 key 失效时击穿到数据库
+ */
+public class JSingleFlight {
+
+    private final ConcurrentHashMap<String, FutureTask<Object>> calls = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+    /**
+     * 执行或加入对 key 的加载
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Callable<T> loader) {
+        FutureTask<Object> task = new FutureTask<Object>((Callable<Object>) loader);
+        FutureTask<Object> call = calls.putIfAbsent(key, task);
+        if (call == null) {
+            call = task;
+            try {
+                task.run();
+            } finally {
+                calls.remove(key, task);
+            }
+        }
+
+        try {
+            return (T) call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for key: " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 当前是否有对 key 的加载正在进行
+     */
+    public boolean inFlight(String key) {
+        return calls.containsKey(key);
+    }
+
+    public int size() {
+        return calls.size();
+    }
+}
@@ -0,0 +1,101 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.log.Log;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Subscription.
+ * JCache.subscribe(...) 返回的订阅，每个需要订阅的节点(分片模式下为每个分片)一个守护线程，
+ * 使用连接池之外的独立连接，断线后每秒重连一次，直到 unsubscribe()
+ */
+public class JSubscription {
+
+    private static final Log log = Log.getLog(JSubscription.class);
+
+    private final String cacheName;
+    private final JIMessageListener listener;
+    private final String[] channels;
+    private final List<JedisPubSub> pubSubs = new CopyOnWriteArrayList<JedisPubSub>();
+    private final List<Thread> subscribers = new ArrayList<Thread>();
+    private volatile boolean running = true;
+
+    JSubscription(String cacheName, List<JRedisNode> nodes, JIMessageListener listener, String... channels) {
+        if (channels.length == 0)
+            throw new IllegalArgumentException("channels can not be empty");
+        this.cacheName = cacheName;
+        this.listener = listener;
+        this.channels = channels;
+        for (int i = 0; i < nodes.size(); i++) {
+            final JRedisNode node = nodes.get(i);
+            Thread subscriber = new Thread(new Runnable() {
+                public void run() {
+                    subscribe(node);
+                }
+            }, "jredis-subscriber-" + cacheName + "-" + channels[0] + "-" + i);
+            subscriber.setDaemon(true);
+            subscribers.add(subscriber);
+        }
+        for (Thread subscriber : subscribers)
+            subscriber.start();
+    }
+
+    private void subscribe(JRedisNode node) {
+        while (running) {
+            Jedis jedis = null;
+            JedisPubSub pubSub = new JedisPubSub() {
+                @Override
+                public void onSubscribe(String channel, int subscribedChannels) {
+                    if (subscribedChannels == channels.length)
+                        listener.onSubscribe();
+                }
+
+                @Override
+                public void onMessage(String channel, String message) {
+                    listener.onMessage(channel, message);
+                }
+            };
+            try {
+                jedis = node.connect(0);
+                pubSubs.add(pubSub);
+                if (running)
+                    jedis.subscribe(pubSub, channels);
+            } catch (Exception e) {
+                if (running) {
+                    log.warn("subscriber of " + cacheName + " on " + node + " disconnected, retry in 1s", e);
+                    sleepQuietly(1000);
+                }
+            } finally {
+                pubSubs.remove(pubSub);
+                if (jedis != null)
+                    jedis.close();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void unsubscribe() {
+        running = false;
+        for (JedisPubSub pubSub : pubSubs) {
+            if (pubSub.isSubscribed())
+                pubSub.unsubscribe();
+        }
+        for (Thread subscriber : subscribers)
+            subscriber.interrupt();
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MongoBulkWriter 各批次 BulkWriteResult 的汇总，可在写入过程中由多个批次线程并发累加
+ */
+public class MongoBulkResult {
+
+    /**
+     * 最多保留的写入错误数，超过后只计数
+     */
+    private static final int MAX_ERRORS = 100;
+
+    private long batches;
+    private long inserted;
+    private long matched;
+    private long modified;
+    private long deleted;
+    private long upserted;
+    private long errorCount;
+    private final List<BulkWriteError> errors = new ArrayList<>();
+
+    /**
+     * @param offset 批次第一条写入的序号，用于把 BulkWriteError 的批次内下标换算为全局下标
+     */
+    synchronized void add(BulkWriteResult result, List<BulkWriteError> writeErrors, long offset) {
+        batches++;
+        if (result != null && result.wasAcknowledged()) {
+            inserted += result.getInsertedCount();
+            matched += result.getMatchedCount();
+            deleted += result.getDeletedCount();
+            if (result.isModifiedCountAvailable())
+                modified += result.getModifiedCount();
+            upserted += result.getUpserts().size();
+        }
+        if (writeErrors != null) {
+            errorCount += writeErrors.size();
+            for (BulkWriteError e : writeErrors) {
+                if (errors.size() >= MAX_ERRORS)
+                    break;
+                errors.add(new BulkWriteError(e.getCode(), e.getMessage(), e.getDetails(), (int) (offset + e.getIndex())));
+            }
+        }
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getInsertedCount() {
+        return inserted;
+    }
+
+    public synchronized long getMatchedCount() {
+        return matched;
+    }
+
+    /**
+     * 实际被修改的文档数，服务端不返回时不计入
+     */
+    public synchronized long getModifiedCount() {
+        return modified;
+    }
+
+    public synchronized long getDeletedCount() {
+        return deleted;
+    }
+
+    public synchronized long getUpsertedCount() {
+        return upserted;
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * 最早的 100 个写入错误，getIndex() 为该写入在 MongoBulkWriter 中的序号(从 0 开始)
+     */
+    public synchronized List<BulkWriteError> getErrors() {
+        return Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MongoBulkResult{batches=" + batches + ", inserted=" + inserted + ", matched=" + matched
+                + ", modified=" + modified + ", deleted=" + deleted + ", upserted=" + upserted
+                + ", errors=" + errorCount + "}";
+    }
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.log.Log;
+import com.jfinal.plugin.activerecord.Record;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 MongoCollection.bulkWrite 的批量写入：写入先放入当前批次，达到 batchSize 条或估计的 BSON 大小
+ * 达到 maxBatchBytes 时发送，调用者可以边读数据边写入，内存中最多保留 concurrency + 1 个批次。
+ * <ul>
+ * <li>有序(默认)：批次依次发送，遇到第一个写入错误即停止，之后的写入及 finish() 抛出该异常</li>
+ * <li>无序：最多 concurrency 个批次同时发送，写入错误(如重复 key)只记录在 MongoBulkResult 中，不影响其他写入</li>
+ * </ul>
+ * 非线程安全，同一个 writer 只能由一个线程写入
+ * <pre>
+ *     try (MongoBulkWriter writer = MongodbKit.bulkWriter("logs").ordered(false).concurrency(4)) {
+ *         for (Record record : records)
+ *             writer.insert(record);
+ *         MongoBulkResult result = writer.finish();
+ *     }
+ * </pre>
+ */
+public class MongoBulkWriter implements AutoCloseable {
+
+    private static final Log logger = Log.getLog(MongoBulkWriter.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * 远小于 48MB 的消息上限，驱动不必再拆分
+     */
+    private static final int DEFAULT_MAX_BATCH_BYTES = 8 * 1024 * 1024;
+
+    private final MongoCollection<Document> collection;
+    private boolean ordered = true;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private int concurrency = 1;
+
+    private List<WriteModel<Document>> batch = new ArrayList<>();
+    private long batchBytes;
+    private long written;
+    private boolean started;
+    private boolean finished;
+
+    private ExecutorService executor;
+    private Semaphore inFlight;
+    private final MongoBulkResult result = new MongoBulkResult();
+    private volatile RuntimeException failure;
+
+    MongoBulkWriter(MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    // --------- 配置，开始写入前调用
+
+    /**
+     * 是否有序写入，默认 true
+     */
+    public MongoBulkWriter ordered(boolean ordered) {
+        checkNotStarted();
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * 每批最多的写入数，默认 1000
+     */
+    public MongoBulkWriter batchSize(int batchSize) {
+        checkNotStarted();
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 每批估计的最大字节数，默认 8MB
+     */
+    public MongoBulkWriter maxBatchBytes(int maxBatchBytes) {
+        checkNotStarted();
+        if (maxBatchBytes <= 0)
+            throw new IllegalArgumentException("maxBatchBytes must be greater than 0");
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    /**
+     * 同时发送的批次数，默认 1(在调用线程中同步发送)，大于 1 时只能用于无序写入
+     */
+    public MongoBulkWriter concurrency(int concurrency) {
+        checkNotStarted();
+        if (concurrency <= 0)
+            throw new IllegalArgumentException("concurrency must be greater than 0");
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (started)
+            throw new IllegalStateException("bulk writer has already started");
+    }
+
+    // --------- 写入
+
+    public MongoBulkWriter insert(Document document) {
+        return add(new InsertOneModel<>(document), estimateSize(document));
+    }
+
+    /**
+     * 与 getCollection(name, Record.class).insertOne 一样，没有 _id 时由 Record 的 Codec 生成并写回 record，
+     * 加入批次时即可读取，不必等到批次发送
+     */
+    @SuppressWarnings("unchecked")
+    public MongoBulkWriter insert(Record record) {
+        ((CollectibleCodec<Record>) MongodbKit.CODEC_REGISTRY.get(Record.class)).generateIdIfAbsentFromDocument(record);
+        return insert(MongodbKit.toDocument(record));
+    }
+
+    /**
+     * 逐个写入 Document 或 Record，可以是边读边产生数据的 Iterable
+     */
+    public MongoBulkWriter insertAll(Iterable<?> documents) {
+        for (Object document : documents) {
+            if (document instanceof Record)
+                insert((Record) document);
+            else
+                insert((Document) document);
+        }
+        return this;
+    }
+
+    /**
+     * 以 document 替换 filter 匹配的第一个文档，upsert 为 true 时不存在则插入
+     */
+    public MongoBulkWriter replace(Bson filter, Document document, boolean upsert) {
+        return add(new ReplaceOneModel<>(filter, document, new UpdateOptions().upsert(upsert)),
+                estimateSize(filter) + estimateSize(document));
+    }
+
+    public MongoBulkWriter replace(Bson filter, Record record, boolean upsert) {
+        return replace(filter, MongodbKit.toDocument(record), upsert);
+    }
+
+    /**
+     * 更新 filter 匹配的第一个文档，update 为 $set 等操作符
+     */
+    public MongoBulkWriter update(Bson filter, Bson update, boolean upsert) {
+        return add(new UpdateOneModel<Document>(filter, update, new UpdateOptions().upsert(upsert)),
+                estimateSize(filter) + estimateSize(update));
+    }
+
+    public MongoBulkWriter updateMany(Bson filter, Bson update) {
+        return add(new UpdateManyModel<Document>(filter, update), estimateSize(filter) + estimateSize(update));
+    }
+
+    public MongoBulkWriter delete(Bson filter) {
+        return add(new DeleteOneModel<Document>(filter), estimateSize(filter));
+    }
+
+    public MongoBulkWriter deleteMany(Bson filter) {
+        return add(new DeleteManyModel<Document>(filter), estimateSize(filter));
+    }
+
+    /**
+     * 其他 WriteModel
+     */
+    public MongoBulkWriter add(WriteModel<Document> model) {
+        return add(model, 256);
+    }
+
+    private MongoBulkWriter add(WriteModel<Document> model, long bytes) {
+        checkWritable();
+        if (!started)
+            start();
+        if (!batch.isEmpty() && batchBytes + bytes > maxBatchBytes)
+            flush();
+        batch.add(model);
+        batchBytes += bytes;
+        if (batch.size() >= batchSize)
+            flush();
+        return this;
+    }
+
+    private void checkWritable() {
+        if (finished)
+            throw new IllegalStateException("bulk writer has finished");
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw failure;
+    }
+
+    private void start() {
+        if (concurrency > 1) {
+            if (ordered)
+                throw new IllegalStateException("ordered bulk write can not have more than 1 batch in flight");
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "mongo-bulk-" + collection.getNamespace().getCollectionName()
+                            + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            inFlight = new Semaphore(concurrency);
+        }
+        started = true;
+    }
+
+    /**
+     * 立即发送当前批次；并发发送时在有空闲的发送线程后返回
+     */
+    public void flush() {
+        checkWritable();
+        if (batch.isEmpty())
+            return;
+        final List<WriteModel<Document>> models = batch;
+        final long offset = written;
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        written += models.size();
+        if (executor == null) {
+            execute(models, offset);
+            checkWritable();
+            return;
+        }
+        inFlight.acquireUninterruptibly();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        execute(models, offset);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void execute(List<WriteModel<Document>> models, long offset) {
+        try {
+            BulkWriteResult r = collection.bulkWrite(models, new BulkWriteOptions().ordered(ordered));
+            result.add(r, null, offset);
+        } catch (MongoBulkWriteException e) {
+            result.add(e.getWriteResult(), e.getWriteErrors(), offset);
+            if (ordered || e.getWriteConcernError() != null)
+                failure = e;
+        } catch (RuntimeException e) {
+            logger.warn("bulk write to " + collection.getNamespace() + " fail", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * 发送剩余的写入并等待全部批次完成，返回汇总结果；有序写入出错或发送失败时抛出该异常
+     */
+    public MongoBulkResult finish() {
+        if (!finished) {
+            try {
+                if (failure == null)
+                    flush();
+            } finally {
+                finished = true;
+                if (executor != null) {
+                    inFlight.acquireUninterruptibly(concurrency);
+                    inFlight.release(concurrency);
+                    executor.shutdown();
+                }
+            }
+        }
+        RuntimeException failure = this.failure;
+        if (failure != null)
+            throw failure;
+        return result;
+    }
+
+    /**
+     * 到目前为止已完成批次的汇总结果
+     */
+    public MongoBulkResult getResult() {
+        return result;
+    }
+
+    @Override
+    public void close() {
+        finish();
+    }
+
+    // ---------
+
+    /**
+     * 估计值的 BSON 大小，只用于划分批次
+     */
+    @SuppressWarnings("unchecked")
+    static long estimateSize(Object value) {
+        if (value == null || value instanceof Boolean)
+            return 1;
+        if (value instanceof Integer)
+            return 4;
+        if (value instanceof Number || value instanceof Date)
+            return 8;
+        if (value instanceof ObjectId)
+            return 12;
+        if (value instanceof CharSequence)
+            return ((CharSequence) value).length() + 5;
+        if (value instanceof byte[])
+            return ((byte[]) value).length + 5;
+        if (value instanceof Map) {
+            long size = 5;
+            for (Map.Entry<Object, Object> e : ((Map<Object, Object>) value).entrySet())
+                size += String.valueOf(e.getKey()).length() + 2 + estimateSize(e.getValue());
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 5;
+            for (Object e : (Collection<Object>) value)
+                size += 4 + estimateSize(e);
+            return size;
+        }
+        return 64;
+    }
+}
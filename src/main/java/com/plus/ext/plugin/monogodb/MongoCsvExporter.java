@@ -0,0 +1,397 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.log.Log;
+import com.mongodb.BasicDBObject;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式导出 Mongodb 集合到 CSV 文件：边遍历游标边经缓冲写入文件通道，内存占用与集合大小无关。
+ * 只查询配置的列(projection)，值按 RFC 4180 加引号转义，行以 CRLF 结尾。
+ * <p/>
+ * threads 大于 1 时按 _id 把集合分为若干段并行导出，每段先写入同目录下的临时文件，
+ * 全部完成后按 _id 顺序拼接到目标文件，输出与单线程一致(按 _id 升序)。
+ * 只有没有过滤条件且 _id 全部为 ObjectId 时才分段，否则仍以单线程导出
+ * <pre>
+ *     long rows = new MongoCsvExporter("logs")
+ *             .column("_id", "编号")
+ *             .column("user_name", "用户名")
+ *             .column("create_time", "创建时间")
+ *             .filter(new BasicDBObject("level", "ERROR"))
+ *             .threads(4)
+ *             .progress(new MongoCsvExporter.ProgressListener() {
+ *                 public void onProgress(long exported, long total) {
+ *                     ...
+ *                 }
+ *             })
+ *             .export(Paths.get("/tmp/logs.csv"));
+ * </pre>
+ */
+public class MongoCsvExporter {
+
+    private static final Log logger = Log.getLog(MongoCsvExporter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    /**
+     * 每导出多少行回调一次进度
+     */
+    private static final long PROGRESS_INTERVAL = 10000;
+
+    /**
+     * 单元格值的格式化
+     */
+    public interface ValueFormatter {
+        String format(Object value);
+    }
+
+    /**
+     * 导出进度，并行导出时由各导出线程调用
+     *
+     * @see #progress(ProgressListener)
+     */
+    public interface ProgressListener {
+        /**
+         * @param exported 已导出的行数
+         * @param total    导出开始时统计的总行数
+         */
+        void onProgress(long exported, long total);
+    }
+
+    /**
+     * 默认格式：null 为空，Date 为 yyyy-MM-dd HH:mm:ss，其他为 toString()
+     */
+    public static final ValueFormatter DEFAULT_FORMATTER = new ValueFormatter() {
+        public String format(Object value) {
+            if (value == null)
+                return "";
+            if (value instanceof Date)
+                return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format((Date) value);
+            if (value instanceof ObjectId)
+                return ((ObjectId) value).toHexString();
+            return value.toString();
+        }
+    };
+
+    private final String collection;
+    private final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+    private final Map<String, ValueFormatter> formatters = new HashMap<>();
+    private BasicDBObject filter = new BasicDBObject();
+    private int threads = 1;
+    private int batchSize = 1000;
+    private Charset charset = StandardCharsets.UTF_8;
+    private ProgressListener progress;
+
+    public MongoCsvExporter(String collection) {
+        this.collection = collection;
+    }
+
+    /**
+     * 导出字段，表头与字段名相同
+     */
+    public MongoCsvExporter column(String field) {
+        return column(field, field, DEFAULT_FORMATTER);
+    }
+
+    /**
+     * 导出字段，支持 a.b 形式的嵌套字段，按添加顺序输出
+     */
+    public MongoCsvExporter column(String field, String header) {
+        return column(field, header, DEFAULT_FORMATTER);
+    }
+
+    public MongoCsvExporter column(String field, String header, ValueFormatter formatter) {
+        headers.put(field, header);
+        formatters.put(field, formatter != null ? formatter : DEFAULT_FORMATTER);
+        return this;
+    }
+
+    public MongoCsvExporter filter(BasicDBObject filter) {
+        this.filter = filter != null ? filter : new BasicDBObject();
+        return this;
+    }
+
+    /**
+     * 并行导出的线程数，默认 1。设置了 filter 或 _id 不全是 ObjectId 时不分段，以单线程导出
+     */
+    public MongoCsvExporter threads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be greater than 0");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * 游标每批读取的文档数，默认 1000
+     */
+    public MongoCsvExporter batchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 文件编码，默认 UTF-8
+     */
+    public MongoCsvExporter charset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    public MongoCsvExporter progress(ProgressListener progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * 导出到 file，已存在时覆盖
+     *
+     * @return 导出的行数，不含表头
+     */
+    public long export(Path file) throws IOException {
+        if (headers.isEmpty())
+            throw new IllegalStateException("no column to export");
+        MongoCollection<Document> coll = MongodbKit.getCollection(collection);
+        long total = filter.isEmpty() ? coll.count() : coll.count(filter);
+        AtomicLong exported = new AtomicLong();
+
+        List<Object> bounds = threads > 1 ? splitPoints(coll, total) : Collections.emptyList();
+        if (bounds.isEmpty()) {
+            try (Writer writer = open(file)) {
+                writeRow(writer, headers.values());
+                exportRange(coll, null, null, false, writer, exported, total);
+            }
+        } else {
+            exportParallel(coll, file, bounds, exported, total);
+        }
+        if (progress != null)
+            progress.onProgress(exported.get(), total);
+        return exported.get();
+    }
+
+    private void exportParallel(final MongoCollection<Document> coll, Path file, List<Object> bounds,
+                                final AtomicLong exported, final long total) throws IOException {
+        int parts = bounds.size() + 1;
+        final List<Path> partFiles = new ArrayList<>();
+        for (int i = 0; i < parts; i++)
+            partFiles.add(file.resolveSibling(file.getFileName() + ".part" + i));
+        final AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, parts), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mongo-export-" + collection + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                final Object from = i == 0 ? null : bounds.get(i - 1);
+                final Object to = i == parts - 1 ? null : bounds.get(i);
+                final Path partFile = partFiles.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        try (Writer writer = open(partFile)) {
+                            exportRange(coll, from, to, true, writer, exported, total);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                await(future);
+
+            try (FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Writer header = new BufferedWriter(Channels.newWriter(target, charset.newEncoder(), BUFFER_SIZE));
+                writeRow(header, headers.values());
+                header.flush();
+                for (Path partFile : partFiles) {
+                    try (FileChannel part = FileChannel.open(partFile, StandardOpenOption.READ)) {
+                        long position = 0, size = part.size();
+                        while (position < size)
+                            position += part.transferTo(position, size - position, target);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            for (Path partFile : partFiles)
+                Files.deleteIfExists(partFile);
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("export interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 导出 _id 在 [from, to) 之间的文档，from、to 为 null 表示不限
+     */
+    private void exportRange(MongoCollection<Document> coll, Object from, Object to, boolean sorted, Writer writer,
+                             AtomicLong exported, long total) throws IOException {
+        BasicDBObject query = filter;
+        if (from != null || to != null) {
+            BasicDBObject range = new BasicDBObject();
+            if (from != null)
+                range.append("$gte", from);
+            if (to != null)
+                range.append("$lt", to);
+            BasicDBObject idRange = new BasicDBObject(MongoKeyset.ID, range);
+            query = filter.isEmpty() ? idRange : new BasicDBObject("$and", Arrays.asList(filter, idRange));
+        }
+        BasicDBObject projection = new BasicDBObject();
+        for (String field : headers.keySet())
+            projection.append(field, 1);
+        if (!headers.containsKey(MongoKeyset.ID))
+            projection.append(MongoKeyset.ID, 0);
+
+        MongoCursor<Document> cursor = coll.find(query).projection(projection)
+                .sort(sorted ? new BasicDBObject(MongoKeyset.ID, 1) : null)
+                .batchSize(batchSize).iterator();
+        List<String> cells = new ArrayList<>(headers.size());
+        try {
+            while (cursor.hasNext()) {
+                Document doc = cursor.next();
+                cells.clear();
+                for (String field : headers.keySet())
+                    cells.add(formatters.get(field).format(MongoKeyset.valueOf(doc, field)));
+                writeRow(writer, cells);
+                long n = exported.incrementAndGet();
+                if (progress != null && n % PROGRESS_INTERVAL == 0)
+                    progress.onProgress(n, total);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 按 _id 顺序把集合分为 threads 段，返回各段的起点(第一段除外)，返回空 List 时以单线程导出。
+     * 通过 _id 索引上的 skip 定位，只取 _id。以下情况不分段：
+     * <ul>
+     * <li>有过滤条件：skip 要逐条检查条件，每个起点的定位都接近一次全表扫描</li>
+     * <li>_id 不全是 ObjectId：$gte/$lt 只匹配同一 BSON 类型的值，其他类型的 _id 不属于任何一段，会被漏掉。
+     * _id 索引先按类型排序，最小及最大的 _id 都是 ObjectId 时全部 _id 都是 ObjectId</li>
+     * </ul>
+     */
+    private List<Object> splitPoints(MongoCollection<Document> coll, long total) {
+        long step = total / threads;
+        if (step < batchSize || !filter.isEmpty())
+            return Collections.emptyList();
+        if (!(edgeId(coll, 1) instanceof ObjectId) || !(edgeId(coll, -1) instanceof ObjectId)) {
+            logger.debug("export " + collection + " in one range, not all _id are ObjectId");
+            return Collections.emptyList();
+        }
+        List<Object> bounds = new ArrayList<>();
+        for (int i = 1; i < threads; i++) {
+            Document doc = coll.find().projection(new BasicDBObject(MongoKeyset.ID, 1))
+                    .sort(new BasicDBObject(MongoKeyset.ID, 1))
+                    .skip((int) Math.min(Integer.MAX_VALUE, step * i)).limit(1).first();
+            if (doc == null)
+                break;
+            Object id = doc.get(MongoKeyset.ID);
+            if (bounds.isEmpty() || !bounds.get(bounds.size() - 1).equals(id))
+                bounds.add(id);
+        }
+        logger.debug("export " + collection + " in " + (bounds.size() + 1) + " ranges, total " + total);
+        return bounds;
+    }
+
+    /**
+     * 最小(direction 为 1)或最大的 _id
+     */
+    private static Object edgeId(MongoCollection<Document> coll, int direction) {
+        Document doc = coll.find().projection(new BasicDBObject(MongoKeyset.ID, 1))
+                .sort(new BasicDBObject(MongoKeyset.ID, direction)).limit(1).first();
+        return doc != null ? doc.get(MongoKeyset.ID) : null;
+    }
+
+    private Writer open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new BufferedWriter(Channels.newWriter(channel, charset.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+    private static void writeRow(Writer writer, Collection<String> cells) throws IOException {
+        boolean first = true;
+        for (String cell : cells) {
+            if (!first)
+                writer.write(',');
+            first = false;
+            writeCell(writer, cell);
+        }
+        writer.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * 含逗号、引号、换行或首尾空格时加引号，引号写为两个引号
+     */
+    static void writeCell(Writer writer, String cell) throws IOException {
+        if (cell == null || cell.isEmpty())
+            return;
+        boolean quote = cell.charAt(0) == ' ' || cell.charAt(cell.length() - 1) == ' ';
+        for (int i = 0; !quote && i < cell.length(); i++) {
+            char c = cell.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(cell);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < cell.length(); i++) {
+            char c = cell.charAt(i);
+            if (c == '"')
+                writer.write('"');
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
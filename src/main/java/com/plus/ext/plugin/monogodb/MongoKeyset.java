@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.mongodb.BasicDBObject;
+import org.bson.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * MongoKit 与 MongodbKit 游标分页的公共逻辑。
+ * token 记录上一页最后一条文档的排序字段值，下一页以这些值为起点查询，只扫描 pageSize + 1 条，
+ * 与页码无关；排序字段末尾总是补上 _id，保证顺序唯一。排序字段(及 _id)上应有对应的索引，且字段值不能为空
+ */
+final class MongoKeyset {
+
+    static final String ID = "_id";
+
+    private MongoKeyset() {
+    }
+
+    /**
+     * 规范化排序：值为 asc 时升序，其他降序，末尾补上与最后一个字段同向的 _id
+     */
+    static LinkedHashMap<String, Integer> sortOf(Map<String, Object> sort) {
+        LinkedHashMap<String, Integer> result = new LinkedHashMap<>();
+        int direction = 1;
+        if (sort != null) {
+            for (Map.Entry<String, Object> entry : sort.entrySet()) {
+                direction = "asc".equalsIgnoreCase(entry.getValue() + "") ? 1 : -1;
+                result.put(entry.getKey(), direction);
+            }
+        }
+        if (!result.containsKey(ID))
+            result.put(ID, direction);
+        return result;
+    }
+
+    static BasicDBObject toSortObject(LinkedHashMap<String, Integer> sort) {
+        return new BasicDBObject(sort);
+    }
+
+    /**
+     * 查询条件加上从 token 位置开始的条件：
+     * (f1 &gt; v1) or (f1 = v1 and f2 &gt; v2) or ... ，降序字段使用 &lt;
+     */
+    static BasicDBObject seek(BasicDBObject conditions, LinkedHashMap<String, Integer> sort, List<Object> after) {
+        if (after == null)
+            return conditions;
+        List<String> fields = new ArrayList<>(sort.keySet());
+        List<BasicDBObject> or = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            BasicDBObject branch = new BasicDBObject();
+            for (int j = 0; j < i; j++)
+                branch.append(fields.get(j), after.get(j));
+            String op = sort.get(fields.get(i)) > 0 ? "$gt" : "$lt";
+            branch.append(fields.get(i), new BasicDBObject(op, after.get(i)));
+            or.add(branch);
+        }
+        BasicDBObject position = or.size() == 1 ? or.get(0) : new BasicDBObject("$or", or);
+        if (conditions.isEmpty())
+            return position;
+        return new BasicDBObject("$and", Arrays.asList(conditions, position));
+    }
+
+    /**
+     * 文档中的字段值，支持 a.b 形式的嵌套字段
+     */
+    @SuppressWarnings("unchecked")
+    static Object valueOf(Map<String, Object> document, String field) {
+        Object value = document;
+        for (String name : field.split("\\.")) {
+            if (!(value instanceof Map))
+                return null;
+            value = ((Map<String, Object>) value).get(name);
+        }
+        return value;
+    }
+
+    static String encode(LinkedHashMap<String, Integer> sort, Map<String, Object> last, long totalRow) {
+        List<Object> values = new ArrayList<>();
+        for (String field : sort.keySet())
+            values.add(valueOf(last, field));
+        String json = new Document("s", new Document(new LinkedHashMap<String, Object>(sort)))
+                .append("v", values)
+                .append("t", totalRow)
+                .toJson();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析 token，返回 {排序字段值 List, 总行数 Long}；token 与当前排序(字段、顺序及方向)不一致时抛出 IllegalArgumentException
+     */
+    static Object[] decode(String token, LinkedHashMap<String, Integer> sort) {
+        Document document;
+        try {
+            document = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid pagination token: " + token, e);
+        }
+        Object fields = document.get("s");
+        Object values = document.get("v");
+        if (!(fields instanceof Document) || !(values instanceof List) || !matches((Document) fields, sort)
+                || ((List<?>) values).size() != sort.size())
+            throw new IllegalArgumentException("pagination token does not match the sort: " + sort);
+        Number totalRow = (Number) document.get("t");
+        return new Object[]{new ArrayList<Object>((List<?>) values), totalRow != null ? totalRow.longValue() : -1L};
+    }
+
+    private static boolean matches(Document fields, LinkedHashMap<String, Integer> sort) {
+        if (!new ArrayList<>(fields.keySet()).equals(new ArrayList<>(sort.keySet())))
+            return false;
+        for (Map.Entry<String, Integer> entry : sort.entrySet()) {
+            Object direction = fields.get(entry.getKey());
+            if (!(direction instanceof Number) || ((Number) direction).intValue() != entry.getValue())
+                return false;
+        }
+        return true;
+    }
+}
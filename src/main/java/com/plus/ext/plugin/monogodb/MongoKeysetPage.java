@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.plugin.activerecord.Record;
+
+import java.util.List;
+
+/**
+ * 游标(keyset)分页的一页结果
+ * <pre>
+ *     MongoKeysetPage page = MongodbKit.paginateAfter("logs", null, 50, filter, null, sort, true);
+ *     ...
+ *     page = MongodbKit.paginateAfter("logs", page.getNextToken(), 50, filter, null, sort, true);
+ * </pre>
+ */
+public class MongoKeysetPage {
+
+    private final List<Record> list;
+    private final int pageSize;
+    private final String nextToken;
+    private final long totalRow;
+
+    MongoKeysetPage(List<Record> list, int pageSize, String nextToken, long totalRow) {
+        this.list = list;
+        this.pageSize = pageSize;
+        this.nextToken = nextToken;
+        this.totalRow = totalRow;
+    }
+
+    public List<Record> getList() {
+        return list;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * 取下一页时传入的 token，最后一页为 null
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean isLastPage() {
+        return nextToken == null;
+    }
+
+    /**
+     * 总行数，未统计时为 -1；没有查询条件时为集合元数据中的估计值
+     */
+    public long getTotalRow() {
+        return totalRow;
+    }
+
+    /**
+     * 总页数，未统计总行数时为 -1
+     */
+    public long getTotalPage() {
+        if (totalRow < 0)
+            return -1;
+        return (totalRow + pageSize - 1) / pageSize;
+    }
+}
@@ -19,8 +19,12 @@ import com.jfinal.log.Log;
 import com.jfinal.plugin.activerecord.Page;
 import com.jfinal.plugin.activerecord.Record;
 import com.mongodb.*;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.UpdateOptions;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -34,6 +38,15 @@ public class MongoKit {
     private static MongoClient client;
     private static DB defaultDb;
 
+    /**
+     * 查询结果与 DBCollection 一样由 DBObjectCodec 解码，嵌套文档为 BasicDBObject、数组为 BasicDBList
+     */
+    private static final Function<DBObject, Record> TO_RECORD = new Function<DBObject, Record>() {
+        public Record apply(DBObject dbObject) {
+            return toRecord(dbObject);
+        }
+    };
+
     public static void init(MongoClient client, String database) {
         MongoKit.client = client;
         MongoKit.defaultDb = client.getDB(database);
@@ -97,16 +110,30 @@ public class MongoKit {
         }
     }
 
+    /**
+     * 批量插入，Record 由 MongoRecordCodec 直接编码，没有 _id 的 Record 插入后会写回生成的 _id
+     *
+     * @return 插入的条数
+     */
     public static int save(String collectionName, List<Record> records) {
-        List<DBObject> objs = new ArrayList<DBObject>();
-        for (Record record : records) {
-            objs.add(toDbObject(record));
-        }
-        return MongoKit.getCollection(collectionName).insert(objs).getN();
+        if (records.isEmpty())
+            return 0;
+        MongoKit.getRecordCollection(collectionName).insertMany(records);
+        return records.size();
     }
 
+    /**
+     * 没有 _id 时插入，否则按 _id 整体替换(不存在时插入)
+     */
     public static int save(String collectionName, Record record) {
-        return MongoKit.getCollection(collectionName).save(toDbObject(record)).getN();
+        Object id = record.get("_id");
+        if (id == null) {
+            MongoKit.getRecordCollection(collectionName).insertOne(record);
+            return 1;
+        }
+        MongoKit.getRecordCollection(collectionName).replaceOne(new BasicDBObject("_id", id), record,
+                new UpdateOptions().upsert(true));
+        return 1;
     }
 
     public static Record findOne(String collectionName, Map<String, Object> q) {
@@ -189,17 +216,11 @@ public class MongoKit {
 
 
     public static List<Record> list(String collection, Map<String, Object> filter, Map<String, Object> like, Map<String, Object> sort) {
-        DBCollection logs = MongoKit.getCollection(collection);
         BasicDBObject conditons = new BasicDBObject();
         buildFilter(filter, conditons);
         buildLike(like, conditons);
-        DBCursor dbCursor = logs.find(conditons);
-        sort(sort, dbCursor);
-        List<Record> records = new ArrayList<Record>();
-        while (dbCursor.hasNext()) {
-            records.add(toRecord(dbCursor.next()));
-        }
-        return records;
+        return MongoKit.getDBObjectCollection(collection).find(conditons).sort(sort(sort))
+                .map(TO_RECORD).into(new ArrayList<Record>());
     }
 
     public static List<Record> list(String collection) {
@@ -229,18 +250,13 @@ public class MongoKit {
 
     public static Page<Record> paginate(String collection, int pageNumber, int pageSize, Map<String, Object> filter,
                                         Map<String, Object> like, Map<String, Object> sort) {
-        DBCollection logs = MongoKit.getCollection(collection);
+        MongoCollection<DBObject> logs = MongoKit.getDBObjectCollection(collection);
         BasicDBObject conditons = new BasicDBObject();
         buildFilter(filter, conditons);
         buildLike(like, conditons);
-        DBCursor dbCursor = logs.find(conditons);
-        page(pageNumber, pageSize, dbCursor);
-        sort(sort, dbCursor);
-        List<Record> records = new ArrayList<Record>();
-        while (dbCursor.hasNext()) {
-            records.add(toRecord(dbCursor.next()));
-        }
-        int totalRow = dbCursor.count();
+        List<Record> records = logs.find(conditons).skip((pageNumber - 1) * pageSize).limit(pageSize)
+                .sort(sort(sort)).map(TO_RECORD).into(new ArrayList<Record>());
+        int totalRow = (int) logs.count(conditons);
         if (totalRow <= 0) {
             return new Page<Record>(new ArrayList<Record>(0), pageNumber, pageSize, 0, 0);
         }
@@ -252,21 +268,73 @@ public class MongoKit {
         return page;
     }
 
-    private static void page(int pageNumber, int pageSize, DBCursor dbCursor) {
-        dbCursor = dbCursor.skip((pageNumber - 1) * pageSize).limit(pageSize);
+    public static MongoKeysetPage paginateAfter(String collection, String token, int pageSize) {
+        return paginateAfter(collection, token, pageSize, null, null, null, false);
+    }
+
+    /**
+     * 游标分页：从 token 指向的位置向后取 pageSize 条，不使用 skip，深分页与第一页的耗时相同。
+     * token 为 null 时取第一页，之后传入上一页的 getNextToken()，filter、like、sort 必须与第一页相同。
+     * 排序末尾自动补上 _id，排序字段应有对应的索引
+     * <pre>
+     *     Map&lt;String, Object&gt; sort = new LinkedHashMap&lt;String, Object&gt;();
+     *     sort.put("create_time", "desc");
+     *     MongoKeysetPage page = MongoKit.paginateAfter("logs", null, 50, filter, null, sort, true);
+     *     page = MongoKit.paginateAfter("logs", page.getNextToken(), 50, filter, null, sort, true);
+     * </pre>
+     *
+     * @param token      上一页的 nextToken，第一页为 null
+     * @param countTotal 是否统计总行数，只在第一页统计并记录在 token 中；没有查询条件时使用集合元数据中的估计值
+     */
+    @SuppressWarnings("unchecked")
+    public static MongoKeysetPage paginateAfter(String collection, String token, int pageSize, Map<String, Object> filter,
+                                                Map<String, Object> like, Map<String, Object> sort, boolean countTotal) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize must be greater than 0");
+        MongoCollection<DBObject> logs = MongoKit.getDBObjectCollection(collection);
+        BasicDBObject conditons = new BasicDBObject();
+        buildFilter(filter, conditons);
+        buildLike(like, conditons);
+        LinkedHashMap<String, Integer> keysetSort = MongoKeyset.sortOf(sort);
+        List<Object> after = null;
+        long totalRow = -1;
+        if (token != null) {
+            Object[] position = MongoKeyset.decode(token, keysetSort);
+            after = (List<Object>) position[0];
+            totalRow = (Long) position[1];
+        } else if (countTotal) {
+            totalRow = conditons.isEmpty() ? logs.count() : logs.count(conditons);
+        }
+
+        MongoCursor<Record> cursor = logs.find(MongoKeyset.seek(conditons, keysetSort, after))
+                .sort(MongoKeyset.toSortObject(keysetSort)).limit(pageSize + 1).map(TO_RECORD).iterator();
+        List<Record> records = new ArrayList<Record>();
+        String nextToken = null;
+        try {
+            Record last = null;
+            while (records.size() < pageSize && cursor.hasNext()) {
+                last = cursor.next();
+                records.add(last);
+            }
+            if (cursor.hasNext())
+                nextToken = MongoKeyset.encode(keysetSort, last.getColumns(), totalRow);
+        } finally {
+            cursor.close();
+        }
+        return new MongoKeysetPage(records, pageSize, nextToken, totalRow);
     }
 
-    private static void sort(Map<String, Object> sort, DBCursor dbCursor) {
+    private static BasicDBObject sort(Map<String, Object> sort) {
+        BasicDBObject dbo = new BasicDBObject();
         if (sort != null) {
-            DBObject dbo = new BasicDBObject();
             Set<Entry<String, Object>> entrySet = sort.entrySet();
             for (Entry<String, Object> entry : entrySet) {
                 String key = entry.getKey();
                 Object val = entry.getValue();
                 dbo.put(key, "asc".equalsIgnoreCase(val + "") ? 1 : -1);
             }
-            dbCursor = dbCursor.sort(dbo);
         }
+        return dbo;
     }
 
     private static void buildLike(Map<String, Object> like, BasicDBObject conditons) {
@@ -294,7 +362,8 @@ public class MongoKit {
     @SuppressWarnings("unchecked")
     public static Record toRecord(DBObject dbObject) {
         Record record = new Record();
-        record.setColumns(dbObject.toMap());
+        // BasicDBObject 本身就是 Map，toMap() 会多复制一次
+        record.setColumns(dbObject instanceof Map ? (Map<String, Object>) dbObject : dbObject.toMap());
         return record;
     }
 
@@ -315,6 +384,19 @@ public class MongoKit {
         return defaultDb.getCollection(name);
     }
 
+    /**
+     * 以 Record 读写的集合，文档由 MongoRecordCodec 直接编解码，读取时嵌套文档为 Document、数组为 List。
+     * MongoKit 自身的查询方法以 DBObject 读取，嵌套文档仍为 BasicDBObject、数组为 BasicDBList
+     */
+    public static MongoCollection<Record> getRecordCollection(String name) {
+        return client.getDatabase(defaultDb.getName()).getCollection(name, Record.class)
+                .withCodecRegistry(MongodbKit.CODEC_REGISTRY);
+    }
+
+    private static MongoCollection<DBObject> getDBObjectCollection(String name) {
+        return client.getDatabase(defaultDb.getName()).getCollection(name, DBObject.class);
+    }
+
     public static DBCollection getDBCollection(String dbName, String collectionName) {
         return getDB(dbName).getCollection(collectionName);
     }
@@ -337,12 +419,4 @@ public class MongoKit {
         }
         return dbObject;
     }
-
-    private static BasicDBObject toDbObject(Record record) {
-        BasicDBObject object = new BasicDBObject();
-        for (Entry<String, Object> e : record.getColumns().entrySet()) {
-            object.append(e.getKey(), e.getValue());
-        }
-        return object;
-    }
 }
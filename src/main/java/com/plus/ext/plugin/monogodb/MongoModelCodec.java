@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.plugin.activerecord.Model;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Model 子类的 BSON Codec，由 MongoRecordCodecProvider 注册。解码使用 put 写入字段，不校验表结构，
+ * Model 子类需要有无参构造方法
+ */
+@SuppressWarnings("rawtypes")
+public class MongoModelCodec<M extends Model> extends MongoRowCodec<M> {
+
+    private final Class<M> clazz;
+
+    public MongoModelCodec(Class<M> clazz, CodecRegistry registry) {
+        super(registry);
+        this.clazz = clazz;
+    }
+
+    @Override
+    M newInstance() {
+        try {
+            return clazz.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new CodecConfigurationException("can not create " + clazz.getName() + ", a no-arg constructor is required: " + e);
+        }
+    }
+
+    @Override
+    void put(M row, String name, Object value) {
+        row.put(name, value);
+    }
+
+    @Override
+    Object get(M row, String name) {
+        return row.get(name);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Set<Map.Entry<String, Object>> entries(M row) {
+        return row._getAttrsEntrySet();
+    }
+
+    @Override
+    public Class<M> getEncoderClass() {
+        return clazz;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.plugin.activerecord.Record;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Record 的 BSON Codec，由 MongoRecordCodecProvider 注册
+ * <pre>
+ *     MongoCollection&lt;Record&gt; logs = MongodbKit.getCollection("logs", Record.class);
+ *     for (Record record : logs.find(filter))
+ *         ...
+ * </pre>
+ */
+public class MongoRecordCodec extends MongoRowCodec<Record> {
+
+    public MongoRecordCodec(CodecRegistry registry) {
+        super(registry);
+    }
+
+    @Override
+    Record newInstance() {
+        return new Record();
+    }
+
+    @Override
+    void put(Record row, String name, Object value) {
+        row.set(name, value);
+    }
+
+    @Override
+    Object get(Record row, String name) {
+        return row.get(name);
+    }
+
+    @Override
+    Set<Map.Entry<String, Object>> entries(Record row) {
+        return row.getColumns().entrySet();
+    }
+
+    @Override
+    public Class<Record> getEncoderClass() {
+        return Record.class;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形队列，多生产者、单消费者。每个槽位带一个序号：序号等于写入位置时可写，
+ * 等于写入位置 + 1 时可读，生产者只在 tail 上 CAS，队列满时 offer 立即返回 false
+ */
+final class MongoRingBuffer<E> {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂
+     */
+    MongoRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    boolean offer(E e) {
+        while (true) {
+            long t = tail.get();
+            int index = (int) t & mask;
+            long sequence = sequences.get(index);
+            if (sequence == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    buffer.lazySet(index, e);
+                    sequences.set(index, t + 1);
+                    return true;
+                }
+            } else if (sequence < t) {
+                // 槽位还是上一圈未取走的元素
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 只能由消费者线程调用，为空时返回 null
+     */
+    E poll() {
+        long h = head.get();
+        int index = (int) h & mask;
+        if (sequences.get(index) != h + 1)
+            return null;
+        E e = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.set(index, h + mask + 1);
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    /**
+     * 取出最多 max 个元素放入 list，返回取出的个数
+     */
+    int drainTo(List<? super E> list, int max) {
+        int count = 0;
+        E e;
+        while (count < max && (e = poll()) != null) {
+            list.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
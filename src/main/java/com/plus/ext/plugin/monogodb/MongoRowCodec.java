@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import org.bson.*;
+import org.bson.codecs.*;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Record 与 Model 共用的 Codec：解码时直接把字段写入行对象，编码时直接遍历行对象的字段，
+ * 不经过 Document/BasicDBObject 中转。嵌套文档解码为 Document，数组解码为 List，与 DocumentCodec 一致
+ */
+abstract class MongoRowCodec<T> implements CollectibleCodec<T> {
+
+    private static final String ID = "_id";
+    private static final BsonTypeClassMap BSON_TYPE_CLASS_MAP = new BsonTypeClassMap();
+
+    private final CodecRegistry registry;
+
+    MongoRowCodec(CodecRegistry registry) {
+        this.registry = registry;
+    }
+
+    abstract T newInstance();
+
+    abstract void put(T row, String name, Object value);
+
+    abstract Object get(T row, String name);
+
+    abstract Set<Map.Entry<String, Object>> entries(T row);
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        T row = newInstance();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            put(row, name, readValue(reader, decoderContext));
+        }
+        reader.readEndDocument();
+        return row;
+    }
+
+    private Object readValue(BsonReader reader, DecoderContext decoderContext) {
+        BsonType type = reader.getCurrentBsonType();
+        if (type == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        if (type == BsonType.ARRAY) {
+            List<Object> list = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+                list.add(readValue(reader, decoderContext));
+            reader.readEndArray();
+            return list;
+        }
+        return registry.get(BSON_TYPE_CLASS_MAP.get(type)).decode(reader, decoderContext);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T row, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        boolean idFirst = encoderContext.isEncodingCollectibleDocument() && documentHasId(row);
+        if (idFirst) {
+            writer.writeName(ID);
+            writeValue(writer, get(row, ID), encoderContext);
+        }
+        for (Map.Entry<String, Object> e : entries(row)) {
+            if (idFirst && ID.equals(e.getKey()))
+                continue;
+            writer.writeName(e.getKey());
+            writeValue(writer, e.getValue(), encoderContext);
+        }
+        writer.writeEndDocument();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void writeValue(BsonWriter writer, Object value, EncoderContext encoderContext) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof BsonValue) {
+            Codec codec = registry.get(value.getClass());
+            encoderContext.encodeWithChildContext(codec, writer, value);
+        } else if (value instanceof Map) {
+            writer.writeStartDocument();
+            for (Map.Entry<Object, Object> e : ((Map<Object, Object>) value).entrySet()) {
+                writer.writeName(String.valueOf(e.getKey()));
+                writeValue(writer, e.getValue(), encoderContext);
+            }
+            writer.writeEndDocument();
+        } else if (value instanceof Iterable) {
+            writer.writeStartArray();
+            for (Object e : (Iterable<Object>) value)
+                writeValue(writer, e, encoderContext);
+            writer.writeEndArray();
+        } else {
+            Codec codec = registry.get(value.getClass());
+            encoderContext.encodeWithChildContext(codec, writer, value);
+        }
+    }
+
+    @Override
+    public T generateIdIfAbsentFromDocument(T row) {
+        if (!documentHasId(row))
+            put(row, ID, new ObjectId());
+        return row;
+    }
+
+    @Override
+    public boolean documentHasId(T row) {
+        return get(row, ID) != null;
+    }
+
+    @Override
+    public BsonValue getDocumentId(T row) {
+        if (!documentHasId(row))
+            throw new IllegalStateException("The row does not contain an _id");
+        Object id = get(row, ID);
+        if (id instanceof BsonValue)
+            return (BsonValue) id;
+        BsonDocument holder = new BsonDocument();
+        BsonWriter writer = new BsonDocumentWriter(holder);
+        writer.writeStartDocument();
+        writer.writeName(ID);
+        writeValue(writer, id, EncoderContext.builder().build());
+        writer.writeEndDocument();
+        return holder.get(ID);
+    }
+}
@@ -0,0 +1,573 @@
+/**
+ * Copyright (c) 2009-2016, LarryKoo 老古 (gumutianqi@gmail.com)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.log.Log;
+import com.jfinal.plugin.activerecord.Record;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步写入(write-behind)：调用线程只把文档放入有界无锁队列，后台线程按 batchSize 条或 flushInterval
+ * 毫秒(以先到者为准)用无序 insertMany 批量写入，网络或服务端错误按退避时间重试 maxRetries 次，
+ * 仍失败的批次写入溢出文件(配置了 spillDir 时)或丢弃。编解码器无法编码的文档(如驱动 3.3 不支持的 BigDecimal)
+ * 不重试，计为失败，其余文档照常写入。适合日志这类允许延迟、少量丢失的数据。
+ * <ul>
+ * <li>BLOCK(默认)：队列满时调用线程等待，超过 blockTimeout 后丢弃</li>
+ * <li>DROP：队列满时直接丢弃</li>
+ * <li>SPILL：队列满时写入 spillDir 下的 &lt;集合名&gt;.jsonl，之后调用 replaySpill() 补写</li>
+ * </ul>
+ * 启动后登记在 MongodbKit 中，MongodbPlugin.stop() 时写完队列中剩余的文档
+ * <pre>
+ *     MongoWriteBehind logs = MongodbKit.writeBehind("logs").overflow(MongoWriteBehind.Overflow.SPILL)
+ *             .spillDir(Paths.get("/data/spill")).start();
+ *     logs.offer(document);
+ * </pre>
+ */
+public class MongoWriteBehind {
+
+    private static final Log logger = Log.getLog(MongoWriteBehind.class);
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BACKOFF = 200;
+    private static final long MAX_RETRY_BACKOFF = 10000;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int DUPLICATE_KEY = 11000;
+
+    /**
+     * stop() 超时并中断后台线程后再等待的毫秒数。驱动的 socket 读没有超时时，insertMany 不响应中断
+     */
+    private static final long ABANDON_WAIT = 2000;
+
+    public enum Overflow {
+        BLOCK, DROP, SPILL
+    }
+
+    private final MongoCollection<Document> collection;
+    private int capacity = DEFAULT_CAPACITY;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryBackoff = DEFAULT_RETRY_BACKOFF;
+    private Overflow overflow = Overflow.BLOCK;
+    private long blockTimeout;
+    private Path spillDir;
+
+    private MongoRingBuffer<Document> ring;
+    private Thread flusher;
+    private volatile boolean flusherParked;
+    private volatile boolean stopping;
+    private volatile long drainDeadline;
+    private final AtomicInteger producers = new AtomicInteger();
+
+    private final Object spillLock = new Object();
+    private BufferedWriter spillWriter;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    MongoWriteBehind(MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    // --------- 配置，start() 前调用
+
+    /**
+     * 队列容量，向上取整为 2 的幂，默认 65536
+     */
+    public MongoWriteBehind capacity(int capacity) {
+        checkNotStarted();
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * 每批最多写入的文档数，默认 500
+     */
+    public MongoWriteBehind batchSize(int batchSize) {
+        checkNotStarted();
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 文档在队列中最多等待的毫秒数，不足一批时到时间也会写入，默认 1000
+     */
+    public MongoWriteBehind flushInterval(long millis) {
+        checkNotStarted();
+        if (millis <= 0)
+            throw new IllegalArgumentException("flushInterval must be greater than 0");
+        this.flushInterval = millis;
+        return this;
+    }
+
+    /**
+     * 写入失败后的重试次数及首次重试前等待的毫秒数(之后每次加倍，最多 10 秒)，默认 3 次、200 毫秒
+     */
+    public MongoWriteBehind retry(int maxRetries, long backoffMillis) {
+        checkNotStarted();
+        if (maxRetries < 0 || backoffMillis < 0)
+            throw new IllegalArgumentException("maxRetries and backoffMillis must not be negative");
+        this.maxRetries = maxRetries;
+        this.retryBackoff = backoffMillis;
+        return this;
+    }
+
+    /**
+     * 队列满时的处理方式，默认 BLOCK
+     */
+    public MongoWriteBehind overflow(Overflow overflow) {
+        checkNotStarted();
+        this.overflow = overflow;
+        return this;
+    }
+
+    /**
+     * BLOCK 时最多等待的毫秒数，0(默认)为一直等待
+     */
+    public MongoWriteBehind blockTimeout(long millis) {
+        checkNotStarted();
+        this.blockTimeout = millis;
+        return this;
+    }
+
+    /**
+     * 溢出文件目录，SPILL 时必须配置；配置后重试仍失败的批次及停止后提交的文档也写入溢出文件
+     */
+    public MongoWriteBehind spillDir(Path spillDir) {
+        checkNotStarted();
+        this.spillDir = spillDir;
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (ring != null)
+            throw new IllegalStateException("write-behind has already started");
+    }
+
+    /**
+     * 启动后台写入线程
+     */
+    public synchronized MongoWriteBehind start() {
+        checkNotStarted();
+        if (overflow == Overflow.SPILL && spillDir == null)
+            throw new IllegalStateException("spillDir is required for the SPILL overflow policy");
+        ring = new MongoRingBuffer<>(capacity);
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                runFlusher();
+            }
+        }, "mongo-write-behind-" + getCollectionName());
+        flusher.setDaemon(true);
+        flusher.start();
+        MongodbKit.register(this);
+        return this;
+    }
+
+    // --------- 写入
+
+    /**
+     * 提交一个文档，返回 false 表示已丢弃(队列满或已停止，且未写入溢出文件)
+     */
+    public boolean offer(Document document) {
+        if (ring == null)
+            throw new IllegalStateException("write-behind has not started");
+        producers.incrementAndGet();
+        try {
+            if (stopping)
+                return reject(document);
+            if (ring.offer(document)) {
+                signal();
+                return true;
+            }
+            switch (overflow) {
+                case SPILL:
+                    return reject(document);
+                case DROP:
+                    dropped.incrementAndGet();
+                    return false;
+                default:
+                    return block(document);
+            }
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    public boolean offer(Record record) {
+        return offer(MongodbKit.toDocument(record));
+    }
+
+    private boolean block(Document document) {
+        long deadline = blockTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout) : 0;
+        do {
+            LockSupport.unpark(flusher);
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            if (stopping)
+                return reject(document);
+            if (ring.offer(document))
+                return true;
+        } while (deadline == 0 || System.nanoTime() < deadline);
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 队列中的文档达到一批且后台线程在等待时唤醒它
+     */
+    private void signal() {
+        if (flusherParked && ring.size() >= batchSize)
+            LockSupport.unpark(flusher);
+    }
+
+    private boolean reject(Document document) {
+        List<Document> documents = new ArrayList<>(1);
+        documents.add(document);
+        return spillOrDrop(documents);
+    }
+
+    // --------- 后台线程
+
+    private void runFlusher() {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        List<Document> batch = new ArrayList<>(batchSize);
+        long firstAt = 0;
+        while (true) {
+            try {
+                boolean draining = stopping;
+                ring.drainTo(batch, batchSize - batch.size());
+                long now = System.nanoTime();
+                if (!batch.isEmpty() && firstAt == 0)
+                    firstAt = now;
+                if (batch.size() >= batchSize || !batch.isEmpty() && (draining || now - firstAt >= intervalNanos)) {
+                    List<Document> documents = batch;
+                    batch = new ArrayList<>(batchSize);
+                    firstAt = 0;
+                    write(documents);
+                    continue;
+                }
+                // stopping 之后 producers 归零，说明不会再有文档进入队列
+                if (draining && batch.isEmpty() && producers.get() == 0 && ring.size() == 0)
+                    break;
+                flusherParked = true;
+                if (ring.size() < batchSize && !stopping)
+                    LockSupport.parkNanos(this, batch.isEmpty() ? intervalNanos : firstAt + intervalNanos - now);
+                flusherParked = false;
+            } catch (Exception e) {
+                // 后台线程退出后队列不再被消费，BLOCK 的调用线程会一直等待，因此记录后继续
+                flusherParked = false;
+                logger.error("write-behind " + getCollectionName() + " flush fail", e);
+            }
+        }
+    }
+
+    private void write(List<Document> batch) {
+        if (stopping && System.nanoTime() - drainDeadline > 0) {
+            spillOrDrop(batch);
+            return;
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                collection.insertMany(batch, new InsertManyOptions().ordered(false));
+                written.addAndGet(batch.size());
+                return;
+            } catch (MongoBulkWriteException e) {
+                // 单个文档的错误重试也不会成功；重试时的重复 key 是上一次已经写入的文档
+                int errors = 0;
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    if (attempt == 0 || error.getCode() != DUPLICATE_KEY)
+                        errors++;
+                }
+                written.addAndGet(batch.size() - errors);
+                failed.addAndGet(errors);
+                if (errors > 0)
+                    logger.warn(errors + " documents fail to write to " + collection.getNamespace() + ": "
+                            + e.getWriteErrors().get(0).getMessage());
+                return;
+            } catch (CodecConfigurationException e) {
+                // 重试也无法编码：去掉无法编码的文档，其余文档立即再写一次
+                List<Document> documents = encodable(batch);
+                if (documents.size() == batch.size()) {
+                    failed.addAndGet(batch.size());
+                    logger.warn("write " + batch.size() + " documents to " + collection.getNamespace() + " fail", e);
+                    return;
+                }
+                batch = documents;
+                if (batch.isEmpty())
+                    return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries || !backoff(attempt)) {
+                    logger.warn("write " + batch.size() + " documents to " + collection.getNamespace() + " fail", e);
+                    spillOrDrop(batch);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 用集合的编解码器逐个编码，无法编码的文档计为失败，返回其余文档
+     */
+    private List<Document> encodable(List<Document> batch) {
+        Codec<Document> codec = collection.getCodecRegistry().get(Document.class);
+        List<Document> documents = new ArrayList<>(batch.size());
+        CodecConfigurationException error = null;
+        for (Document document : batch) {
+            try {
+                codec.encode(new BsonDocumentWriter(new BsonDocument()), document, EncoderContext.builder().build());
+                documents.add(document);
+            } catch (CodecConfigurationException e) {
+                error = e;
+            }
+        }
+        int errors = batch.size() - documents.size();
+        if (errors > 0) {
+            failed.addAndGet(errors);
+            logger.warn(errors + " documents cannot be encoded for " + collection.getNamespace() + ": " + error.getMessage());
+        }
+        return documents;
+    }
+
+    /**
+     * 等待重试，停止时等待不超过 drainDeadline，返回 false 表示不再重试
+     */
+    private boolean backoff(int attempt) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(Math.min(retryBackoff << Math.min(attempt, 16), MAX_RETRY_BACKOFF));
+        if (stopping)
+            nanos = Math.min(nanos, drainDeadline - System.nanoTime());
+        if (nanos < 0 || Thread.currentThread().isInterrupted())
+            return false;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // --------- 溢出文件
+
+    /**
+     * 写入溢出文件，逐个编码为 JSON，无法编码的文档计为失败；返回是否全部写入
+     */
+    private boolean spillOrDrop(List<Document> documents) {
+        if (spillDir == null) {
+            dropped.addAndGet(documents.size());
+            return false;
+        }
+        Codec<Document> codec = collection.getCodecRegistry().get(Document.class);
+        List<String> lines = new ArrayList<>(documents.size());
+        CodecConfigurationException error = null;
+        for (Document document : documents) {
+            try {
+                lines.add(document.toJson(codec));
+            } catch (CodecConfigurationException e) {
+                error = e;
+            }
+        }
+        int errors = documents.size() - lines.size();
+        if (errors > 0) {
+            failed.addAndGet(errors);
+            logger.warn(errors + " documents cannot be encoded to spill to " + getSpillFile() + ": " + error.getMessage());
+        }
+        if (lines.isEmpty())
+            return false;
+        synchronized (spillLock) {
+            try {
+                if (spillWriter == null) {
+                    Files.createDirectories(spillDir);
+                    spillWriter = Files.newBufferedWriter(getSpillFile(), StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                for (String line : lines) {
+                    spillWriter.write(line);
+                    spillWriter.newLine();
+                }
+                spillWriter.flush();
+                spilled.addAndGet(lines.size());
+                return errors == 0;
+            } catch (IOException e) {
+                logger.error("spill " + lines.size() + " documents to " + getSpillFile() + " fail", e);
+                dropped.addAndGet(lines.size());
+                return false;
+            }
+        }
+    }
+
+    private void closeSpill() {
+        synchronized (spillLock) {
+            if (spillWriter != null) {
+                try {
+                    spillWriter.close();
+                } catch (IOException e) {
+                    logger.warn("close " + getSpillFile() + " fail", e);
+                }
+                spillWriter = null;
+            }
+        }
+    }
+
+    /**
+     * 溢出文件，每行一个 JSON 文档；未配置 spillDir 时为 null
+     */
+    public Path getSpillFile() {
+        return spillDir != null ? spillDir.resolve(getCollectionName() + ".jsonl") : null;
+    }
+
+    /**
+     * 在调用线程中把溢出文件中的文档按批写入集合，返回读取的文档数。
+     * 文件先改名再读取，期间新溢出的文档写入新文件；仍然失败的批次重新写入溢出文件
+     */
+    public long replaySpill() throws IOException {
+        Path spillFile = getSpillFile();
+        if (spillFile == null)
+            return 0;
+        Path replayFile;
+        synchronized (spillLock) {
+            if (!Files.exists(spillFile))
+                return 0;
+            closeSpill();
+            replayFile = spillFile.resolveSibling(spillFile.getFileName() + "." + System.currentTimeMillis() + ".replay");
+            Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            List<Document> batch = new ArrayList<>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                batch.add(Document.parse(line));
+                if (batch.size() >= batchSize) {
+                    write(batch);
+                    count += batch.size();
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                count += batch.size();
+            }
+        }
+        Files.delete(replayFile);
+        logger.info("replay " + count + " documents from " + spillFile);
+        return count;
+    }
+
+    // --------- 停止
+
+    /**
+     * 停止接收新文档并写完队列中剩余的文档，最多等待 timeout；超时后剩余的文档不再写入集合，
+     * 写入溢出文件或丢弃。返回是否在 timeout 内完成。
+     * 超时后后台线程仍阻塞在写入中时最多再等待 2 秒，之后放弃等待(守护线程)，
+     * 它在写入返回后会把剩余文档写入溢出文件或丢弃
+     */
+    public boolean stop(long timeout, TimeUnit unit) {
+        Thread flusher;
+        synchronized (this) {
+            if (ring == null || stopping)
+                return true;
+            drainDeadline = System.nanoTime() + unit.toNanos(timeout);
+            stopping = true;
+            flusher = this.flusher;
+        }
+        LockSupport.unpark(flusher);
+        boolean drained = true;
+        try {
+            flusher.join(Math.max(1, unit.toMillis(timeout)));
+            if (flusher.isAlive()) {
+                drained = false;
+                // 中断重试等待，剩余的文档直接溢出或丢弃
+                flusher.interrupt();
+                flusher.join(ABANDON_WAIT);
+                if (flusher.isAlive())
+                    logger.warn("write-behind " + getCollectionName() + " is still blocked in a write after stop timeout, "
+                            + "abandon it with " + getPending() + " documents pending");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        closeSpill();
+        MongodbKit.unregister(this);
+        logger.info("write-behind " + getCollectionName() + " stopped, written: " + written + ", failed: " + failed
+                + ", spilled: " + spilled + ", dropped: " + dropped);
+        return drained;
+    }
+
+    // --------- 统计
+
+    public String getCollectionName() {
+        return collection.getNamespace().getCollectionName();
+    }
+
+    /**
+     * 队列中等待写入的文档数
+     */
+    public int getPending() {
+        return ring != null ? ring.size() : 0;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * 服务端拒绝或无法编码的文档数，如重复 key、校验失败、驱动不支持的字段类型
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -26,22 +26,36 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
-import static sun.plugin.javascript.navig.JSType.Document;
-
 /**
  * MongodbKit for mongodb 3.0
  */
 public class MongodbKit {
     protected static Log logger = Log.getLog(MongoKit.class);
 
+    /**
+     * 驱动默认的 Codec 加上 Record/Model 的 Codec，MongodbPlugin 创建的 MongoClient 使用此注册表
+     */
+    public static final CodecRegistry CODEC_REGISTRY = CodecRegistries.fromRegistries(
+            MongoClient.getDefaultCodecRegistry(),
+            CodecRegistries.fromProviders(new MongoRecordCodecProvider()));
+
+    private static final Set<MongoWriteBehind> WRITE_BEHINDS =
+            Collections.newSetFromMap(new ConcurrentHashMap<MongoWriteBehind, Boolean>());
+
     private static MongoClient client;
     private static MongoDatabase defaultDb;
 
@@ -185,14 +199,9 @@ public class MongodbKit {
         BasicDBObject conditons = new BasicDBObject();
         buildFilter(filter, conditons);
         buildLike(like, conditons);
-        MongoCursor<Document> cursor = getCollection(collection).find(conditons)
-                .skip((pageNumber - 1) * pageSize).limit(pageSize).sort(sort(sort)).iterator();
-
-        List<Record> records = new ArrayList<>();
+        List<Record> records = getCollection(collection, Record.class).find(conditons)
+                .skip((pageNumber - 1) * pageSize).limit(pageSize).sort(sort(sort)).into(new ArrayList<Record>());
         Long totalRow = getCollection(collection).count(conditons);
-        while (cursor.hasNext()) {
-            records.add(toRecord(cursor.next()));
-        }
         if (totalRow <= 0) {
             return new Page<>(new ArrayList<Record>(0), pageNumber, pageSize, 0, 0);
         }
@@ -204,6 +213,57 @@ public class MongodbKit {
         return page;
     }
 
+    /**
+     * 游标分页：从 token 指向的位置向后取 pageSize 条，不使用 skip，深分页与第一页的耗时相同。
+     * token 为 null 时取第一页，之后传入上一页的 getNextToken()，filter、like、sort 必须与第一页相同。
+     * 排序末尾自动补上 _id，排序字段应有对应的索引
+     * <pre>
+     *     BasicDBObject sort = new BasicDBObject("create_time", "desc");
+     *     MongoKeysetPage page = MongodbKit.paginateAfter("logs", null, 50, filter, null, sort, true);
+     *     page = MongodbKit.paginateAfter("logs", page.getNextToken(), 50, filter, null, sort, true);
+     * </pre>
+     *
+     * @param token      上一页的 nextToken，第一页为 null
+     * @param countTotal 是否统计总行数，只在第一页统计并记录在 token 中；没有查询条件时使用集合元数据中的估计值
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static MongoKeysetPage paginateAfter(String collection, String token, int pageSize, BasicDBObject filter,
+                                                BasicDBObject like, BasicDBObject sort, boolean countTotal) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize must be greater than 0");
+        BasicDBObject conditons = new BasicDBObject();
+        buildFilter(filter, conditons);
+        buildLike(like, conditons);
+        LinkedHashMap<String, Integer> keysetSort = MongoKeyset.sortOf(sort);
+        List<Object> after = null;
+        long totalRow = -1;
+        if (token != null) {
+            Object[] position = MongoKeyset.decode(token, keysetSort);
+            after = (List<Object>) position[0];
+            totalRow = (Long) position[1];
+        } else if (countTotal) {
+            totalRow = conditons.isEmpty() ? getCollection(collection).count() : getCollection(collection).count(conditons);
+        }
+
+        MongoCursor<Record> cursor = getCollection(collection, Record.class).find(MongoKeyset.seek(conditons, keysetSort, after))
+                .sort(MongoKeyset.toSortObject(keysetSort)).limit(pageSize + 1).iterator();
+        List<Record> records = new ArrayList<>();
+        String nextToken = null;
+        try {
+            Record last = null;
+            while (records.size() < pageSize && cursor.hasNext()) {
+                last = cursor.next();
+                records.add(last);
+            }
+            if (cursor.hasNext())
+                nextToken = MongoKeyset.encode(keysetSort, last.getColumns(), totalRow);
+        } finally {
+            cursor.close();
+        }
+        return new MongoKeysetPage(records, pageSize, nextToken, totalRow);
+    }
+
     private static BasicDBObject sort(BasicDBObject sort) {
         BasicDBObject bson = new BasicDBObject();
         if (sort != null) {
@@ -244,9 +304,56 @@ public class MongodbKit {
         }
     }
 
+    /**
+     * 批量写入，写入完成后调用 finish() 或 close()
+     * <pre>
+     *     try (MongoBulkWriter writer = MongodbKit.bulkWriter("logs").ordered(false).concurrency(4)) {
+     *         writer.insertAll(records);
+     *     }
+     * </pre>
+     */
+    public static MongoBulkWriter bulkWriter(String collectionName) {
+        return new MongoBulkWriter(getCollection(collectionName));
+    }
+
+    /**
+     * 异步批量写入，配置后调用 start()，MongodbPlugin.stop() 时写完剩余的文档
+     * <pre>
+     *     MongoWriteBehind logs = MongodbKit.writeBehind("logs").batchSize(1000).start();
+     *     logs.offer(record);
+     * </pre>
+     */
+    public static MongoWriteBehind writeBehind(String collectionName) {
+        return new MongoWriteBehind(getCollection(collectionName));
+    }
+
+    static void register(MongoWriteBehind writeBehind) {
+        WRITE_BEHINDS.add(writeBehind);
+    }
+
+    static void unregister(MongoWriteBehind writeBehind) {
+        WRITE_BEHINDS.remove(writeBehind);
+    }
+
+    /**
+     * 停止所有已启动的 MongoWriteBehind，总共最多等待 timeout
+     */
+    public static void stopWriteBehinds(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (MongoWriteBehind writeBehind : new ArrayList<>(WRITE_BEHINDS)) {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            if (!writeBehind.stop(remaining, TimeUnit.NANOSECONDS))
+                logger.warn("write-behind " + writeBehind.getCollectionName() + " is not drained in time");
+        }
+    }
+
+    public static Document toDocument(Record record) {
+        return new Document(record.getColumns());
+    }
+
     public static Record toRecord(Document document) {
         Record record = new Record();
-        record.setColumns(new BasicDBObject(document).toMap());
+        record.setColumns(document);
         return record;
     }
 
@@ -267,6 +374,16 @@ public class MongodbKit {
         return defaultDb.getCollection(name);
     }
 
+    /**
+     * 以 Record 或 Model 子类读写的集合，文档由 MongoRecordCodec/MongoModelCodec 直接编解码
+     * <pre>
+     *     List&lt;Record&gt; logs = MongodbKit.getCollection("logs", Record.class).find(filter).into(new ArrayList&lt;Record&gt;());
+     * </pre>
+     */
+    public static <T> MongoCollection<T> getCollection(String name, Class<T> clazz) {
+        return defaultDb.getCollection(name, clazz).withCodecRegistry(CODEC_REGISTRY);
+    }
+
     public static MongoCollection<Document> getDBCollection(String dbName, String collectionName) {
         return getDB(dbName).getCollection(collectionName);
     }
@@ -15,16 +15,12 @@
  */
 package com.plus.ext.plugin.monogodb;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
-import com.mongodb.client.MongoCursor;
 import com.plus.kit.FileKit;
 import jodd.datetime.JDateTime;
 import lombok.extern.slf4j.Slf4j;
 import org.bson.Document;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
 
 /**
  * 基于Mongodb做的扩展工具
@@ -34,7 +30,19 @@ public enum MongodbKitExt {
     ice;
 
     /**
-     * 根据集合名称导出Mongodb文档数据到Csv文件
+     * 字段名包含 time 且值为毫秒数时转为日期
+     */
+    private static final MongoCsvExporter.ValueFormatter TIME_FORMATTER = new MongoCsvExporter.ValueFormatter() {
+        public String format(Object value) {
+            if (value instanceof Number)
+                return new JDateTime(((Number) value).longValue()).toString("YYYY-MM-DD hh:mm:ss");
+            return MongoCsvExporter.DEFAULT_FORMATTER.format(value);
+        }
+    };
+
+    /**
+     * 根据集合名称导出Mongodb文档数据到Csv文件，列为第一个文档的全部字段。
+     * 边读边写，不在内存中保存整个文件；需要指定列、表头或并行导出时请直接使用 MongoCsvExporter
      *
      * @param collection   集合
      * @param tempFilePath 临时文件路径
@@ -44,42 +52,18 @@ public enum MongodbKitExt {
     public Boolean exportMongodbDocument(String collection, String tempFilePath, String fileName) {
         Boolean bool = false;
         try {
-            List<String> listStr = new ArrayList<>();   //最终文件字符串
-            String headerLine;  //文件头
-            List<String> headerList = new ArrayList<>();
-            MongoCursor<Document> cursor = MongodbKit.getCollection(collection).find().iterator();
-
+            MongoCsvExporter exporter = new MongoCsvExporter(collection);
             //获取文件头
-            while (cursor.hasNext()) {
-                Document doc = cursor.next();
-                JSONObject json = JSON.parseObject(doc.toJson());
-                for (String key : json.keySet()) {
-                    headerList.add(key);
-                }
-                break;
-            }
-            headerLine = headerList.toString().replace("[", "").replace("]", "");
-            listStr.add(headerLine);
-            //获取文件头end
-
-            while (cursor.hasNext()) {
-                Document doc = cursor.next();
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < headerList.size(); i++) {
-                    Object value = doc.get(headerList.get(i));
-                    if (headerList.get(i).contains("time")) {
-                        value = new JDateTime(Long.parseLong(value.toString())).toString("YYYY-MM-DD hh:mm:ss");
-                    }
-                    if (i == headerList.size()) {
-                        sb.append((null != value) ? value.toString() : "");
-                    } else {
-                        sb.append((null != value) ? value.toString() : "").append(",");
-                    }
-                }
-                listStr.add(sb.toString());
+            Document first = MongodbKit.getCollection(collection).find().first();
+            if (first != null) {
+                for (String key : first.keySet())
+                    exporter.column(key, key, key.contains("time") ? TIME_FORMATTER : MongoCsvExporter.DEFAULT_FORMATTER);
+            } else {
+                exporter.column("_id");
             }
-            if (listStr.size() > 0) {
-                bool = FileKit.createFile(tempFilePath, fileName, listStr);
+            if (FileKit.createFolder(tempFilePath)) {
+                exporter.export(Paths.get(tempFilePath, fileName));
+                bool = true;
             }
         } catch (Exception e) {
             log.debug("exportMongodbDocument-fail", e);
@@ -19,11 +19,16 @@ import com.google.common.base.Throwables;
 import com.jfinal.log.Log;
 import com.jfinal.plugin.IPlugin;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
+
+import java.util.concurrent.TimeUnit;
 
 public class MongodbPlugin implements IPlugin {
 
     private static final String DEFAULT_HOST = "127.0.0.1";
     private static final int DEFAUL_PORT = 27017;
+    private static final long DEFAULT_DRAIN_TIMEOUT = 10000;
 
     protected final Log logger = Log.getLog(getClass());
 
@@ -31,6 +36,7 @@ public class MongodbPlugin implements IPlugin {
     private String host;
     private int port;
     private String database;
+    private long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
 
     public MongodbPlugin(String database) {
         this.host = DEFAULT_HOST;
@@ -48,7 +54,8 @@ public class MongodbPlugin implements IPlugin {
     public boolean start() {
 
         try {
-            client = new MongoClient(host, port);
+            client = new MongoClient(new ServerAddress(host, port),
+                    MongoClientOptions.builder().codecRegistry(MongodbKit.CODEC_REGISTRY).build());
         } catch (Throwable t) {
             logger.debug("can't connect mongodb, please check the host and port:" + host + "," + port);
             throw Throwables.propagate(t);
@@ -59,8 +66,17 @@ public class MongodbPlugin implements IPlugin {
         return true;
     }
 
+    /**
+     * 停止时等待 MongoWriteBehind 写完剩余文档的最长毫秒数，默认 10 秒
+     */
+    public MongodbPlugin setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = drainTimeout;
+        return this;
+    }
+
     @Override
     public boolean stop() {
+        MongodbKit.stopWriteBehinds(drainTimeout, TimeUnit.MILLISECONDS);
         if (client != null) {
             client.close();
         }
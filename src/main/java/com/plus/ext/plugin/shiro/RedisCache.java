@@ -0,0 +1,237 @@
+package com.plus.ext.plugin.shiro;
+
+import com.google.common.cache.CacheBuilder;
+import com.plus.ext.plugin.jredis.JBulkDeleter;
+import com.plus.ext.plugin.jredis.JCache;
+import com.plus.ext.plugin.jredis.JICallback;
+import com.plus.ext.plugin.jredis.JIPipelineCallback;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RedisCacheManager 创建的缓存，每个缓存项为一个 Redis key：keyPrefix + 缓存名 + ":" + key。
+ * keys() 返回的是 key 的字符串形式
+ */
+class RedisCache<K, V> implements Cache<K, V> {
+
+    private static final int SCAN_COUNT = 1000;
+
+    private final RedisCacheManager manager;
+    private final JCache cache;
+    private final String name;
+    private final String prefix;
+    private final int expireSeconds;
+
+    /**
+     * 本地副本，未开启时为 null
+     */
+    private final com.google.common.cache.Cache<String, Object> local;
+
+    /**
+     * 每次失效时递增，回填前后比较，防止把失效前读到的旧值回填进本地缓存
+     */
+    private final AtomicLong stamp = new AtomicLong();
+
+    RedisCache(RedisCacheManager manager, JCache cache, String name, String prefix, int expireSeconds,
+            long nearCacheMaximumSize, int nearCacheExpireSeconds) {
+        this.manager = manager;
+        this.cache = cache;
+        this.name = name;
+        this.prefix = prefix;
+        this.expireSeconds = expireSeconds;
+        this.local = nearCacheMaximumSize <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(nearCacheMaximumSize)
+                .expireAfterWrite(nearCacheExpireSeconds, TimeUnit.SECONDS)
+                .<String, Object> build();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(K key) throws CacheException {
+        if (key == null)
+            return null;
+        String k = manager.keyToString(key);
+        if (local == null)
+            return (V) read(k);
+
+        Object value = local.getIfPresent(k);
+        if (value != null)
+            return (V) value;
+        long readStamp = stamp.get();
+        value = read(k);
+        if (value != null) {
+            local.put(k, value);
+            if (stamp.get() != readStamp)
+                local.invalidate(k);
+        }
+        return (V) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V put(K key, V value) throws CacheException {
+        final String k = manager.keyToString(key);
+        final byte[] redisKey = redisKey(k);
+        final byte[] bytes = cache.getSerializer().valueToBytes(value);
+        final AtomicReference<Response<byte[]>> previous = new AtomicReference<Response<byte[]>>();
+        try {
+            cache.pipelined(prefix + k, new JIPipelineCallback() {
+                public void call(Pipeline pipeline) {
+                    previous.set(pipeline.get(redisKey));
+                    if (expireSeconds > 0)
+                        pipeline.setex(redisKey, expireSeconds, bytes);
+                    else
+                        pipeline.set(redisKey, bytes);
+                }
+            });
+        } catch (JedisException e) {
+            throw new CacheException(e);
+        }
+        invalidate(k);
+        return (V) deserialize(previous.get().get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(K key) throws CacheException {
+        final String k = manager.keyToString(key);
+        final byte[] redisKey = redisKey(k);
+        final AtomicReference<Response<byte[]>> previous = new AtomicReference<Response<byte[]>>();
+        try {
+            cache.pipelined(prefix + k, new JIPipelineCallback() {
+                public void call(Pipeline pipeline) {
+                    previous.set(pipeline.get(redisKey));
+                    pipeline.del(redisKey);
+                }
+            });
+        } catch (JedisException e) {
+            throw new CacheException(e);
+        }
+        invalidate(k);
+        return (V) deserialize(previous.get().get());
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        try {
+            new JBulkDeleter(cache).match(escape(prefix) + "*").execute();
+        } catch (JedisException e) {
+            throw new CacheException(e);
+        }
+        evictAll();
+        manager.publishInvalidation(name, null);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        Iterator<String> it = scan();
+        while (it.hasNext()) {
+            it.next();
+            size++;
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<K> keys() {
+        Set<K> keys = new HashSet<K>();
+        Iterator<String> it = scan();
+        while (it.hasNext())
+            keys.add((K) it.next().substring(prefix.length()));
+        return Collections.unmodifiableSet(keys);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Collection<V> values() {
+        List<V> values = new ArrayList<V>();
+        Iterator<String> it = scan();
+        while (it.hasNext()) {
+            Object value = read(it.next().substring(prefix.length()));
+            if (value != null)
+                values.add((V) value);
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    // ---------
+
+    void evict(String key) {
+        if (local == null)
+            return;
+        stamp.incrementAndGet();
+        local.invalidate(key);
+    }
+
+    void evictAll() {
+        if (local == null)
+            return;
+        stamp.incrementAndGet();
+        local.invalidateAll();
+    }
+
+    private void invalidate(String key) {
+        if (local == null)
+            return;
+        evict(key);
+        manager.publishInvalidation(name, key);
+    }
+
+    private Object read(String key) {
+        final byte[] redisKey = redisKey(key);
+        try {
+            byte[] bytes = cache.readFromPrimary(new JICallback() {
+                @SuppressWarnings("unchecked")
+                public <T> T call(JCache cache) {
+                    return (T) cache.get(redisKey);
+                }
+            });
+            return deserialize(bytes);
+        } catch (JedisException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    private Object deserialize(byte[] bytes) {
+        return bytes == null ? null : cache.getSerializer().valueFromBytes(bytes);
+    }
+
+    private byte[] redisKey(String key) {
+        return SafeEncoder.encode(prefix + key);
+    }
+
+    private Iterator<String> scan() {
+        return cache.scanIterator(new ScanParams().match(escape(prefix) + "*").count(SCAN_COUNT));
+    }
+
+    /**
+     * 转义 glob 中的特殊字符
+     */
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\')
+                sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "RedisCache[" + name + "]";
+    }
+}
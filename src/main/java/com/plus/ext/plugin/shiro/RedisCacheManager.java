@@ -0,0 +1,224 @@
+package com.plus.ext.plugin.shiro;
+
+import com.jfinal.log.Log;
+import com.plus.ext.plugin.jredis.JCache;
+import com.plus.ext.plugin.jredis.JIMessageListener;
+import com.plus.ext.plugin.jredis.JRedis;
+import com.plus.ext.plugin.jredis.JSubscription;
+import org.apache.shiro.cache.Cache;
+import org.apache.shiro.cache.CacheException;
+import org.apache.shiro.cache.CacheManager;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.util.Destroyable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 以 JRedis 存储 Shiro 缓存(认证、授权信息等)，值使用 JRedisPlugin 配置的 ISerializer 序列化，
+ * 多个节点共用，Realm 的查询结果只需加载一次。
+ * <p/>
+ * 名称以 nearCacheNames 结尾的缓存(默认为授权信息 authorizationCache)额外在本进程内缓存，
+ * 任一节点修改或清除时通过 Redis 频道通知所有节点清除本地副本。
+ * <pre>
+ * 例如(shiro.ini)：
+ * cacheManager = com.plus.ext.plugin.shiro.RedisCacheManager
+ * cacheManager.expireSeconds = 1800
+ * securityManager.cacheManager = $cacheManager
+ * </pre>
+ */
+public class RedisCacheManager implements CacheManager, Destroyable {
+
+    private static final Log log = Log.getLog(RedisCacheManager.class);
+
+    private static final char SEPARATOR = '\n';
+
+    /**
+     * JRedis 中的 cacheName，为空时使用主缓存
+     */
+    private String cacheName;
+
+    private String keyPrefix = "shiro:cache:";
+
+    /**
+     * Redis 中缓存项的过期时间(秒)，小于等于 0 表示不过期
+     */
+    private int expireSeconds = 1800;
+
+    private long nearCacheMaximumSize = 10000;
+
+    /**
+     * 本地副本的最长存活时间，也是丢失失效消息时的最大脏读时间
+     */
+    private int nearCacheExpireSeconds = 300;
+
+    private String[] nearCacheNames = { "authorizationCache" };
+
+    private final ConcurrentMap<String, RedisCache<?, ?>> caches = new ConcurrentHashMap<String, RedisCache<?, ?>>();
+    private volatile JCache cache;
+    private JSubscription subscription;
+
+    public RedisCacheManager() {
+    }
+
+    public RedisCacheManager(JCache cache) {
+        this.cache = cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <K, V> Cache<K, V> getCache(String name) throws CacheException {
+        RedisCache<?, ?> redisCache = caches.get(name);
+        if (redisCache == null) {
+            boolean near = isNearCache(name);
+            redisCache = new RedisCache<K, V>(this, jcache(), name, keyPrefix + name + ":", expireSeconds,
+                    near ? nearCacheMaximumSize : 0, nearCacheExpireSeconds);
+            RedisCache<?, ?> prev = caches.putIfAbsent(name, redisCache);
+            if (prev != null)
+                redisCache = prev;
+            else if (near)
+                subscribe();
+        }
+        return (Cache<K, V>) redisCache;
+    }
+
+    /**
+     * 缓存 key 在 Redis 中的字符串形式。PrincipalCollection(授权信息的 key)使用主身份的 toString()，
+     * 主身份为实体对象时请覆盖本方法返回用户 id 等稳定的值
+     */
+    protected String keyToString(Object key) {
+        if (key instanceof PrincipalCollection) {
+            Object primary = ((PrincipalCollection) key).getPrimaryPrincipal();
+            return primary != null ? primary.toString() : key.toString();
+        }
+        return key.toString();
+    }
+
+    private boolean isNearCache(String name) {
+        if (nearCacheMaximumSize <= 0 || nearCacheNames == null)
+            return false;
+        for (String suffix : nearCacheNames) {
+            if (name.endsWith(suffix))
+                return true;
+        }
+        return false;
+    }
+
+    private JCache jcache() {
+        JCache cache = this.cache;
+        if (cache == null) {
+            cache = cacheName == null || cacheName.trim().isEmpty() ? JRedis.use() : JRedis.use(cacheName.trim());
+            if (cache == null)
+                throw new CacheException("the cache not exists: " + cacheName + ", start JRedisPlugin before shiro");
+            this.cache = cache;
+        }
+        return cache;
+    }
+
+    // ---------
+
+    private String channel() {
+        return keyPrefix + "invalidate";
+    }
+
+    private synchronized void subscribe() {
+        if (subscription != null)
+            return;
+        subscription = jcache().subscribe(new JIMessageListener() {
+            public void onMessage(String channel, String message) {
+                int i = message.indexOf(SEPARATOR);
+                RedisCache<?, ?> redisCache = caches.get(i < 0 ? message : message.substring(0, i));
+                if (redisCache == null)
+                    return;
+                if (i < 0)
+                    redisCache.evictAll();
+                else
+                    redisCache.evict(message.substring(i + 1));
+            }
+
+            public void onSubscribe() {
+                // (重新)订阅成功之前可能漏掉了失效消息
+                for (RedisCache<?, ?> redisCache : caches.values())
+                    redisCache.evictAll();
+            }
+        }, channel());
+    }
+
+    /**
+     * 通知所有节点清除本地副本，key 为 null 时清除整个缓存
+     */
+    void publishInvalidation(String name, String key) {
+        try {
+            jcache().publish(channel(), key == null ? name : name + SEPARATOR + key);
+        } catch (RuntimeException e) {
+            log.warn("publish invalidation of shiro cache " + name + " fail", e);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
+        }
+        for (RedisCache<?, ?> redisCache : caches.values())
+            redisCache.evictAll();
+        caches.clear();
+    }
+
+    // ---------
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public void setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    public int getExpireSeconds() {
+        return expireSeconds;
+    }
+
+    public void setExpireSeconds(int expireSeconds) {
+        this.expireSeconds = expireSeconds;
+    }
+
+    public long getNearCacheMaximumSize() {
+        return nearCacheMaximumSize;
+    }
+
+    /**
+     * 每个缓存在本地最多保存的条目数，0 表示关闭本地缓存
+     */
+    public void setNearCacheMaximumSize(long nearCacheMaximumSize) {
+        this.nearCacheMaximumSize = nearCacheMaximumSize;
+    }
+
+    public int getNearCacheExpireSeconds() {
+        return nearCacheExpireSeconds;
+    }
+
+    public void setNearCacheExpireSeconds(int nearCacheExpireSeconds) {
+        this.nearCacheExpireSeconds = nearCacheExpireSeconds;
+    }
+
+    public String[] getNearCacheNames() {
+        return nearCacheNames;
+    }
+
+    /**
+     * 名称以这些后缀结尾的缓存开启本地缓存
+     */
+    public void setNearCacheNames(String... nearCacheNames) {
+        this.nearCacheNames = nearCacheNames;
+    }
+}
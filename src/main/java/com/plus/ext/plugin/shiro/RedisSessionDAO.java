@@ -0,0 +1,334 @@
+package com.plus.ext.plugin.shiro;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.jfinal.log.Log;
+import com.plus.ext.plugin.jredis.JCache;
+import com.plus.ext.plugin.jredis.JICallback;
+import com.plus.ext.plugin.jredis.JIPipelineCallback;
+import com.plus.ext.plugin.jredis.JRedis;
+import com.plus.ext.plugin.jredis.JScript;
+import com.plus.ext.plugin.jredis.JScriptCall;
+import org.apache.shiro.session.Session;
+import org.apache.shiro.session.UnknownSessionException;
+import org.apache.shiro.session.mgt.SimpleSession;
+import org.apache.shiro.session.mgt.eis.AbstractSessionDAO;
+import org.apache.shiro.util.Destroyable;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.util.SafeEncoder;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 以 JRedis 存储 Shiro 会话，多个节点共享会话，会话使用 JRedisPlugin 配置的 ISerializer 序列化。
+ * <p/>
+ * 每个会话为一个 hash：body 为除最后访问时间以外的会话内容，lastAccess 为最后访问时间，过期时间与会话超时时间一致。
+ * Shiro 在每个请求 touch 会话时都会调用 update，会话内容没有变化(只更新了最后访问时间)时不立即写入，
+ * 而是每 touchFlushMillis 批量更新一次 lastAccess 及过期时间；内容有变化时立即写入
+ * <pre>
+ * 例如(shiro.ini)：
+ * sessionDAO = com.plus.ext.plugin.shiro.RedisSessionDAO
+ * sessionManager = org.apache.shiro.web.session.mgt.DefaultWebSessionManager
+ * sessionManager.sessionDAO = $sessionDAO
+ * # 会话在 Redis 中按超时时间自动过期，不需要定时扫描
+ * sessionManager.sessionValidationSchedulerEnabled = false
+ * securityManager.sessionManager = $sessionManager
+ * </pre>
+ */
+public class RedisSessionDAO extends AbstractSessionDAO implements Destroyable {
+
+    private static final Log log = Log.getLog(RedisSessionDAO.class);
+
+    private static final byte[] BODY = SafeEncoder.encode("body");
+    private static final byte[] LAST_ACCESS = SafeEncoder.encode("lastAccess");
+    private static final int SCAN_COUNT = 1000;
+    private static final long MAX_TRACKED_SESSIONS = 200000;
+
+    /**
+     * 会话仍然存在时更新最后访问时间(只前进不后退)及过期时间
+     */
+    private static final JScript TOUCH_SCRIPT = JScript.of(
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end " +
+            "local last = tonumber(redis.call('hget', KEYS[1], 'lastAccess') or '0') " +
+            "if tonumber(ARGV[1]) > last then redis.call('hset', KEYS[1], 'lastAccess', ARGV[1]) end " +
+            "if tonumber(ARGV[2]) > 0 then redis.call('pexpire', KEYS[1], ARGV[2]) end " +
+            "return 1");
+
+    /**
+     * JRedis 中的 cacheName，为空时使用主缓存
+     */
+    private String cacheName;
+
+    private String keyPrefix = "shiro:session:";
+
+    /**
+     * 批量写入最后访问时间的间隔，0 表示每次 update 都立即写入
+     */
+    private long touchFlushMillis = 1000;
+
+    private volatile JCache cache;
+
+    /**
+     * 本节点最近一次读到或写入的会话内容摘要，用于判断 update 时内容是否变化
+     */
+    private final Cache<Serializable, HashCode> fingerprints = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TRACKED_SESSIONS)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+    private final ConcurrentMap<Serializable, Touch> touches = new ConcurrentHashMap<Serializable, Touch>();
+    private ScheduledExecutorService flusher;
+
+    public RedisSessionDAO() {
+    }
+
+    public RedisSessionDAO(JCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    protected Serializable doCreate(Session session) {
+        Serializable sessionId = generateSessionId(session);
+        assignSessionId(session, sessionId);
+        write(session);
+        return sessionId;
+    }
+
+    @Override
+    protected Session doReadSession(Serializable sessionId) {
+        final byte[] key = key(sessionId);
+        JCache cache = jcache();
+        // 会话写入后立即读取的情况很常见，从主节点读取
+        List<byte[]> values = cache.readFromPrimary(new JICallback() {
+            @SuppressWarnings("unchecked")
+            public <T> T call(JCache cache) {
+                return (T) cache.hmget(key, BODY, LAST_ACCESS);
+            }
+        });
+        byte[] body = values.get(0);
+        if (body == null)
+            return null;
+
+        Session session = (Session) cache.getSerializer().valueFromBytes(body);
+        if (session instanceof SimpleSession) {
+            long lastAccess = values.get(1) != null ? Long.parseLong(SafeEncoder.encode(values.get(1))) : 0;
+            Touch touch = touches.get(sessionId);
+            if (touch != null)
+                lastAccess = Math.max(lastAccess, touch.lastAccess);
+            if (lastAccess > 0)
+                ((SimpleSession) session).setLastAccessTime(new Date(lastAccess));
+            fingerprints.put(sessionId, fingerprint(body));
+        }
+        return session;
+    }
+
+    @Override
+    public void update(Session session) throws UnknownSessionException {
+        if (touchFlushMillis <= 0 || !(session instanceof SimpleSession)) {
+            write(session);
+            return;
+        }
+        Serializable sessionId = session.getId();
+        byte[] body = bodyOf((SimpleSession) session);
+        HashCode fingerprint = fingerprint(body);
+        if (fingerprint.equals(fingerprints.getIfPresent(sessionId))) {
+            // 只更新了最后访问时间
+            touches.put(sessionId, new Touch(session.getLastAccessTime().getTime(), session.getTimeout()));
+            scheduleFlush();
+            return;
+        }
+        write(sessionId, body, session.getLastAccessTime().getTime(), session.getTimeout());
+        fingerprints.put(sessionId, fingerprint);
+    }
+
+    @Override
+    public void delete(Session session) {
+        Serializable sessionId = session.getId();
+        touches.remove(sessionId);
+        fingerprints.invalidate(sessionId);
+        jcache().del(keyPrefix + sessionId);
+    }
+
+    /**
+     * 扫描全部会话，会话较多时开销较大
+     */
+    @Override
+    public Collection<Session> getActiveSessions() {
+        List<Session> sessions = new ArrayList<Session>();
+        Iterator<String> it = jcache().scanIterator(new ScanParams().match(keyPrefix + "*").count(SCAN_COUNT));
+        while (it.hasNext()) {
+            Session session = doReadSession(it.next().substring(keyPrefix.length()));
+            if (session != null)
+                sessions.add(session);
+        }
+        return Collections.unmodifiableList(sessions);
+    }
+
+    // ---------
+
+    private void write(Session session) {
+        Serializable sessionId = session.getId();
+        if (session instanceof SimpleSession) {
+            byte[] body = bodyOf((SimpleSession) session);
+            write(sessionId, body, session.getLastAccessTime().getTime(), session.getTimeout());
+            fingerprints.put(sessionId, fingerprint(body));
+        } else {
+            write(sessionId, jcache().getSerializer().valueToBytes(session), session.getLastAccessTime().getTime(), session.getTimeout());
+        }
+    }
+
+    private void write(Serializable sessionId, final byte[] body, long lastAccess, final long timeout) {
+        touches.remove(sessionId);
+        final byte[] key = key(sessionId);
+        final Map<byte[], byte[]> hash = new HashMap<byte[], byte[]>();
+        hash.put(BODY, body);
+        hash.put(LAST_ACCESS, SafeEncoder.encode(String.valueOf(lastAccess)));
+        jcache().pipelined(keyPrefix + sessionId, new JIPipelineCallback() {
+            public void call(Pipeline pipeline) {
+                pipeline.hmset(key, hash);
+                if (timeout > 0)
+                    pipeline.pexpire(key, timeout);
+                else
+                    pipeline.persist(key);
+            }
+        });
+    }
+
+    /**
+     * 去掉最后访问时间后的会话内容，内容不变时序列化结果不变
+     */
+    private byte[] bodyOf(SimpleSession session) {
+        SimpleSession body = new SimpleSession();
+        body.setId(session.getId());
+        body.setStartTimestamp(session.getStartTimestamp());
+        body.setLastAccessTime(session.getStartTimestamp());
+        body.setStopTimestamp(session.getStopTimestamp());
+        body.setTimeout(session.getTimeout());
+        body.setExpired(session.isExpired());
+        body.setHost(session.getHost());
+        body.setAttributes(session.getAttributes());
+        return jcache().getSerializer().valueToBytes(body);
+    }
+
+    private static HashCode fingerprint(byte[] body) {
+        return Hashing.murmur3_128().hashBytes(body);
+    }
+
+    private synchronized void scheduleFlush() {
+        if (flusher != null)
+            return;
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "shiro-session-touch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    log.warn("flush shiro session access time fail", e);
+                }
+            }
+        }, touchFlushMillis, touchFlushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 写入积累的最后访问时间，单机模式下合并为一个 pipeline
+     */
+    private void flush() {
+        if (touches.isEmpty())
+            return;
+        final Map<Serializable, Touch> batch = new HashMap<Serializable, Touch>();
+        for (Map.Entry<Serializable, Touch> e : touches.entrySet()) {
+            if (touches.remove(e.getKey(), e.getValue()))
+                batch.put(e.getKey(), e.getValue());
+        }
+        final JCache cache = jcache();
+        if (cache.isSingleNode()) {
+            cache.pipelined(new JIPipelineCallback() {
+                public void call(Pipeline pipeline) {
+                    for (Map.Entry<Serializable, Touch> e : batch.entrySet())
+                        touch(cache, e.getKey(), e.getValue()).execute(pipeline);
+                }
+            });
+        } else {
+            for (Map.Entry<Serializable, Touch> e : batch.entrySet())
+                touch(cache, e.getKey(), e.getValue()).execute();
+        }
+    }
+
+    private JScriptCall touch(JCache cache, Serializable sessionId, Touch touch) {
+        return cache.script(TOUCH_SCRIPT).key(keyPrefix + sessionId).args(touch.lastAccess, touch.timeout);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("flush shiro session access time fail", e);
+        }
+    }
+
+    private byte[] key(Serializable sessionId) {
+        return SafeEncoder.encode(keyPrefix + sessionId);
+    }
+
+    private JCache jcache() {
+        JCache cache = this.cache;
+        if (cache == null) {
+            cache = cacheName == null || cacheName.trim().isEmpty() ? JRedis.use() : JRedis.use(cacheName.trim());
+            if (cache == null)
+                throw new IllegalStateException("the cache not exists: " + cacheName + ", start JRedisPlugin before shiro");
+            this.cache = cache;
+        }
+        return cache;
+    }
+
+    private static class Touch {
+        final long lastAccess;
+        final long timeout;
+
+        Touch(long lastAccess, long timeout) {
+            this.lastAccess = lastAccess;
+            this.timeout = timeout;
+        }
+    }
+
+    // ---------
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public void setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    public long getTouchFlushMillis() {
+        return touchFlushMillis;
+    }
+
+    public void setTouchFlushMillis(long touchFlushMillis) {
+        this.touchFlushMillis = touchFlushMillis;
+    }
+}
@@ -0,0 +1,107 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.kit.StrKit;
+import redis.clients.jedis.Jedis;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 基准测试使用的 redis，由系统属性选择：
+ * <ul>
+ * <li>-Dredis.fake=true：JVM 内的 FakeRedisServer，不需要 redis，只支持连接、字符串、hash、list 及 sorted set 命令</li>
+ * <li>-Dredis.server=/usr/local/bin/redis-server：在随机端口启动一个不持久化的 redis-server 进程，结束时关闭</li>
+ * <li>默认：连接 -Dredis.host / -Dredis.port 指定的 redis，默认 127.0.0.1:6379</li>
+ * </ul>
+ * <pre>
+ * 运行：mvn -Pbenchmark verify -Dbenchmark=JCacheBenchmark
+ * </pre>
+ */
+final class BenchmarkRedis {
+
+    private static final String HOST = "127.0.0.1";
+    private static final long STARTUP_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+    private final FakeRedisServer fake;
+    private final Process process;
+
+    private BenchmarkRedis(String host, int port, FakeRedisServer fake, Process process) {
+        this.host = host;
+        this.port = port;
+        this.fake = fake;
+        this.process = process;
+    }
+
+    static BenchmarkRedis start() {
+        try {
+            if (Boolean.getBoolean("redis.fake")) {
+                FakeRedisServer fake = FakeRedisServer.start();
+                return new BenchmarkRedis(HOST, fake.getPort(), fake, null);
+            }
+            String server = System.getProperty("redis.server");
+            if (StrKit.notBlank(server))
+                return launch(server);
+        } catch (IOException e) {
+            throw new IllegalStateException("can not start redis for benchmark", e);
+        }
+        return new BenchmarkRedis(System.getProperty("redis.host", HOST), Integer.getInteger("redis.port", 6379), null, null);
+    }
+
+    private static BenchmarkRedis launch(String server) throws IOException {
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+        File log = File.createTempFile("redis-benchmark-", ".log");
+        log.deleteOnExit();
+        Process process = new ProcessBuilder(server, "--port", String.valueOf(port), "--bind", HOST,
+                "--save", "", "--appendonly", "no")
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        BenchmarkRedis redis = new BenchmarkRedis(HOST, port, null, process);
+        long deadline = System.currentTimeMillis() + STARTUP_MILLIS;
+        while (true) {
+            Jedis jedis = new Jedis(HOST, port);
+            try {
+                jedis.ping();
+                return redis;
+            } catch (RuntimeException e) {
+                if (System.currentTimeMillis() > deadline || !process.isAlive()) {
+                    redis.stop();
+                    throw new IllegalStateException("redis-server did not start, see " + log, e);
+                }
+            } finally {
+                jedis.close();
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                redis.stop();
+                throw new IllegalStateException("interrupted while starting redis-server", e);
+            }
+        }
+    }
+
+    JRedisPlugin newPlugin(String cacheName) {
+        return new JRedisPlugin(cacheName, host, port);
+    }
+
+    boolean isFake() {
+        return fake != null;
+    }
+
+    void stop() {
+        if (fake != null)
+            fake.stop();
+        if (process != null)
+            process.destroy();
+    }
+}
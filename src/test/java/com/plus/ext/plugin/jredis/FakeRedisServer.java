@@ -0,0 +1,726 @@
+package com.plus.ext.plugin.jredis;
+
+import com.google.common.hash.Hashing;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 在 JVM 内运行的 redis 替身，实现 RESP 协议及基准测试、单元测试用到的连接、字符串、hash、list、sorted set 命令、SETBIT/GETBIT 及 SCAN，
+ * 数据只保存在内存中，不支持过期、发布订阅。与 redis 一样全部命令串行执行，客户端 pipeline 的命令读完后才一次性写回响应。
+ * 没有 Lua，EVAL/EVALSHA 执行的是通过 script(...) 注册的 Java 实现，未注册的脚本返回错误。
+ * <p/>
+ * 用于没有 redis 的环境测量 JCache 自身的开销(借还连接、序列化、协议编解码)以及测试依赖 redis 的逻辑，
+ * 服务端几乎没有耗时，结果只适合版本之间互相比较，不代表真实 redis 的延迟
+ */
+final class FakeRedisServer {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NIL = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String WRONG_TYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<Socket>());
+
+    /**
+     * key 以 ISO-8859-1 解码，与原始字节一一对应；value 为 byte[]、Map&lt;String, byte[]&gt;、LinkedList&lt;byte[]&gt; 或 ZSet
+     */
+    private final Map<String, Object> data = new HashMap<String, Object>();
+
+    /**
+     * 按 sha1 注册的脚本实现，及已经由 EVAL 或 SCRIPT LOAD 缓存的 sha1
+     */
+    private final Map<String, Script> scripts = new HashMap<String, Script>();
+    private final Set<String> loadedScripts = new HashSet<String>();
+
+    /**
+     * 脚本的 Java 实现，在服务端的锁中执行，通过 list(...)、zset(...) 等方法读写数据。
+     * 返回 Long 为整数回复，byte[] 或 String 为 bulk 回复，null 为 nil，抛出异常为脚本错误回复
+     */
+    interface Script {
+        Object call(FakeRedisServer server, List<String> keys, List<byte[]> args);
+    }
+
+    private FakeRedisServer(ServerSocket serverSocket) {
+        this.serverSocket = serverSocket;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fake-redis");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 在本机随机端口启动
+     */
+    static FakeRedisServer start() throws IOException {
+        final FakeRedisServer server = new FakeRedisServer(new ServerSocket(0, 128, InetAddress.getLoopbackAddress()));
+        server.executor.execute(new Runnable() {
+            public void run() {
+                server.accept();
+            }
+        });
+        return server;
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 注册脚本的实现，EVAL 该脚本或 EVALSHA 其 sha1 时执行
+     */
+    FakeRedisServer script(JScript script, Script implementation) {
+        synchronized (data) {
+            scripts.put(script.getSha1(), implementation);
+        }
+        return this;
+    }
+
+    void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (sockets) {
+            for (Socket socket : sockets)
+                closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return;
+            }
+            sockets.add(socket);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                        // 客户端断开
+                    } finally {
+                        sockets.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        while (true) {
+            List<byte[]> command = readCommand(in);
+            if (command == null)
+                return;
+            if (command.isEmpty())
+                continue;
+            String name = new String(command.get(0), StandardCharsets.US_ASCII).toUpperCase(Locale.ENGLISH);
+            if ("QUIT".equals(name)) {
+                out.write(OK);
+                out.flush();
+                return;
+            }
+            synchronized (data) {
+                try {
+                    execute(name, command, out);
+                } catch (InterruptedException e) {
+                    // stop() 时中断阻塞命令
+                    return;
+                }
+            }
+            // pipeline 中还有未读的命令时继续读，最后一起写回
+            if (in.available() == 0)
+                out.flush();
+        }
+    }
+
+    // --------- 命令
+
+    private void execute(String name, List<byte[]> args, OutputStream out) throws IOException, InterruptedException {
+        try {
+            if ("PING".equals(name)) {
+                if (args.size() > 1)
+                    writeBulk(out, args.get(1));
+                else
+                    writeStatus(out, "PONG");
+            } else if ("ECHO".equals(name)) {
+                writeBulk(out, arg(args, 1));
+            } else if ("SELECT".equals(name) || "AUTH".equals(name) || "CLIENT".equals(name)) {
+                out.write(OK);
+            } else if ("FLUSHDB".equals(name) || "FLUSHALL".equals(name)) {
+                data.clear();
+                out.write(OK);
+            } else if ("DBSIZE".equals(name)) {
+                writeInteger(out, data.size());
+            } else if ("GET".equals(name)) {
+                writeBulk(out, string(key(args, 1)));
+            } else if ("SETBIT".equals(name)) {
+                writeInteger(out, setbit(key(args, 1), Long.parseLong(text(args, 2)), "1".equals(text(args, 3))));
+            } else if ("GETBIT".equals(name)) {
+                byte[] value = string(key(args, 1));
+                long offset = Long.parseLong(text(args, 2));
+                writeInteger(out, value != null && offset / 8 < value.length && (value[(int) (offset / 8)] & (0x80 >> (offset % 8))) != 0 ? 1 : 0);
+            } else if ("SET".equals(name)) {
+                set(args, out);
+            } else if ("SETEX".equals(name) || "PSETEX".equals(name)) {
+                data.put(key(args, 1), arg(args, 3));
+                out.write(OK);
+            } else if ("MGET".equals(name)) {
+                List<byte[]> values = new ArrayList<byte[]>();
+                for (int i = 1; i < args.size(); i++) {
+                    Object value = data.get(key(args, i));
+                    values.add(value instanceof byte[] ? (byte[]) value : null);
+                }
+                writeArray(out, values);
+            } else if ("MSET".equals(name)) {
+                for (int i = 1; i + 1 < args.size(); i += 2)
+                    data.put(key(args, i), args.get(i + 1));
+                out.write(OK);
+            } else if ("DEL".equals(name) || "UNLINK".equals(name)) {
+                int removed = 0;
+                for (int i = 1; i < args.size(); i++) {
+                    if (remove(key(args, i)))
+                        removed++;
+                }
+                writeInteger(out, removed);
+            } else if ("SCAN".equals(name)) {
+                scan(args, out);
+            } else if ("EXISTS".equals(name)) {
+                int exists = 0;
+                for (int i = 1; i < args.size(); i++) {
+                    if (data.containsKey(key(args, i)))
+                        exists++;
+                }
+                writeInteger(out, exists);
+            } else if ("INCR".equals(name) || "DECR".equals(name) || "INCRBY".equals(name) || "DECRBY".equals(name)) {
+                long delta = args.size() > 2 ? Long.parseLong(text(args, 2)) : 1;
+                incr(key(args, 1), name.startsWith("DECR") ? -delta : delta, out);
+            } else if ("EXPIRE".equals(name) || "PEXPIRE".equals(name) || "EXPIREAT".equals(name) || "PEXPIREAT".equals(name)
+                    || "PERSIST".equals(name)) {
+                // 不过期，只返回 key 是否存在
+                writeInteger(out, data.containsKey(key(args, 1)) ? 1 : 0);
+            } else if ("TTL".equals(name) || "PTTL".equals(name)) {
+                writeInteger(out, data.containsKey(key(args, 1)) ? -1 : -2);
+            } else if ("HSET".equals(name) || "HMSET".equals(name)) {
+                Map<String, byte[]> hash = hash(key(args, 1), true);
+                int added = 0;
+                for (int i = 2; i + 1 < args.size(); i += 2) {
+                    if (hash.put(key(args, i), args.get(i + 1)) == null)
+                        added++;
+                }
+                if ("HMSET".equals(name))
+                    out.write(OK);
+                else
+                    writeInteger(out, added);
+            } else if ("HGET".equals(name)) {
+                Map<String, byte[]> hash = hash(key(args, 1), false);
+                writeBulk(out, hash != null ? hash.get(key(args, 2)) : null);
+            } else if ("HMGET".equals(name)) {
+                Map<String, byte[]> hash = hash(key(args, 1), false);
+                List<byte[]> values = new ArrayList<byte[]>();
+                for (int i = 2; i < args.size(); i++)
+                    values.add(hash != null ? hash.get(key(args, i)) : null);
+                writeArray(out, values);
+            } else if ("HGETALL".equals(name)) {
+                Map<String, byte[]> hash = hash(key(args, 1), false);
+                List<byte[]> values = new ArrayList<byte[]>();
+                if (hash != null) {
+                    for (Map.Entry<String, byte[]> e : hash.entrySet()) {
+                        values.add(e.getKey().getBytes(StandardCharsets.ISO_8859_1));
+                        values.add(e.getValue());
+                    }
+                }
+                writeArray(out, values);
+            } else if ("HDEL".equals(name)) {
+                Map<String, byte[]> hash = hash(key(args, 1), false);
+                int removed = 0;
+                for (int i = 2; hash != null && i < args.size(); i++) {
+                    if (hash.remove(key(args, i)) != null)
+                        removed++;
+                }
+                if (hash != null && hash.isEmpty())
+                    data.remove(key(args, 1));
+                writeInteger(out, removed);
+            } else if ("HLEN".equals(name)) {
+                Map<String, byte[]> hash = hash(key(args, 1), false);
+                writeInteger(out, hash != null ? hash.size() : 0);
+            } else if ("LPUSH".equals(name) || "RPUSH".equals(name)) {
+                LinkedList<byte[]> list = list(key(args, 1), true);
+                for (int i = 2; i < args.size(); i++) {
+                    if ("LPUSH".equals(name))
+                        list.addFirst(args.get(i));
+                    else
+                        list.addLast(args.get(i));
+                }
+                data.notifyAll();
+                writeInteger(out, list.size());
+            } else if ("LPOP".equals(name) || "RPOP".equals(name)) {
+                writeBulk(out, pop(key(args, 1), "LPOP".equals(name)));
+            } else if ("RPOPLPUSH".equals(name)) {
+                writeBulk(out, rpoplpush(key(args, 1), key(args, 2)));
+            } else if ("BRPOPLPUSH".equals(name)) {
+                writeBulk(out, brpoplpush(key(args, 1), key(args, 2), Long.parseLong(text(args, 3))));
+            } else if ("LLEN".equals(name)) {
+                LinkedList<byte[]> list = list(key(args, 1), false);
+                writeInteger(out, list != null ? list.size() : 0);
+            } else if ("LRANGE".equals(name)) {
+                writeArray(out, lrange(key(args, 1), Integer.parseInt(text(args, 2)), Integer.parseInt(text(args, 3))));
+            } else if ("LREM".equals(name)) {
+                writeInteger(out, lrem(key(args, 1), Integer.parseInt(text(args, 2)), arg(args, 3)));
+            } else if ("ZADD".equals(name)) {
+                ZSet zset = zset(key(args, 1), true);
+                int added = 0;
+                for (int i = 2; i + 1 < args.size(); i += 2) {
+                    if (zset.scores.put(key(args, i + 1), Double.parseDouble(text(args, i))) == null)
+                        added++;
+                }
+                writeInteger(out, added);
+            } else if ("ZREM".equals(name)) {
+                ZSet zset = zset(key(args, 1), false);
+                int removed = 0;
+                for (int i = 2; zset != null && i < args.size(); i++) {
+                    if (zset.scores.remove(key(args, i)) != null)
+                        removed++;
+                }
+                if (zset != null && zset.scores.isEmpty())
+                    data.remove(key(args, 1));
+                writeInteger(out, removed);
+            } else if ("ZRANGEBYSCORE".equals(name)) {
+                writeArray(out, zrangeByScore(key(args, 1), score(text(args, 2)), score(text(args, 3))));
+            } else if ("EVAL".equals(name) || "EVALSHA".equals(name)) {
+                eval("EVAL".equals(name), args, out);
+            } else if ("SCRIPT".equals(name)) {
+                script(args, out);
+            } else {
+                writeError(out, "ERR unknown command '" + name + "'");
+            }
+        } catch (WrongTypeException e) {
+            writeError(out, WRONG_TYPE);
+        } catch (IndexOutOfBoundsException e) {
+            writeError(out, "ERR wrong number of arguments for '" + name.toLowerCase(Locale.ENGLISH) + "' command");
+        } catch (NumberFormatException e) {
+            writeError(out, "ERR value is not an integer or out of range");
+        }
+    }
+
+    /**
+     * SET key value [EX seconds] [PX milliseconds] [NX|XX]，过期参数被忽略
+     */
+    private void set(List<byte[]> args, OutputStream out) throws IOException {
+        String key = key(args, 1);
+        boolean nx = false, xx = false;
+        for (int i = 3; i < args.size(); i++) {
+            String option = text(args, i).toUpperCase(Locale.ENGLISH);
+            if ("NX".equals(option))
+                nx = true;
+            else if ("XX".equals(option))
+                xx = true;
+            else if ("EX".equals(option) || "PX".equals(option))
+                i++;
+        }
+        boolean exists = data.containsKey(key);
+        if ((nx && exists) || (xx && !exists)) {
+            out.write(NIL);
+            return;
+        }
+        data.put(key, arg(args, 2));
+        out.write(OK);
+    }
+
+    private void incr(String key, long delta, OutputStream out) throws IOException {
+        byte[] value = string(key);
+        long n = value != null ? Long.parseLong(new String(value, StandardCharsets.US_ASCII)) : 0;
+        n += delta;
+        data.put(key, Long.toString(n).getBytes(StandardCharsets.US_ASCII));
+        writeInteger(out, n);
+    }
+
+    private byte[] string(String key) {
+        Object value = data.get(key);
+        if (value != null && !(value instanceof byte[]))
+            throw new WrongTypeException();
+        return (byte[]) value;
+    }
+
+    /**
+     * SETBIT key offset value，返回原来的位，字符串按需以 0 补齐
+     */
+    private int setbit(String key, long offset, boolean bit) {
+        byte[] value = string(key);
+        int index = (int) (offset / 8);
+        if (value == null || index >= value.length) {
+            value = value == null ? new byte[index + 1] : Arrays.copyOf(value, index + 1);
+            data.put(key, value);
+        }
+        int mask = 0x80 >> (offset % 8);
+        int old = (value[index] & mask) != 0 ? 1 : 0;
+        value[index] = (byte) (bit ? value[index] | mask : value[index] & ~mask);
+        return old;
+    }
+
+    /**
+     * 等待 timeout 秒(0 为一直等待)直到 source 中有消息，等待时释放锁
+     */
+    private byte[] brpoplpush(String source, String destination, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        while (true) {
+            byte[] value = rpoplpush(source, destination);
+            if (value != null)
+                return value;
+            long wait = deadline - System.currentTimeMillis();
+            if (timeout > 0 && wait <= 0)
+                return null;
+            data.wait(timeout > 0 ? wait : 0);
+        }
+    }
+
+    byte[] rpoplpush(String source, String destination) {
+        list(destination, false);
+        byte[] value = pop(source, false);
+        if (value != null)
+            list(destination, true).addFirst(value);
+        return value;
+    }
+
+    byte[] pop(String key, boolean first) {
+        LinkedList<byte[]> list = list(key, false);
+        if (list == null)
+            return null;
+        byte[] value = first ? list.removeFirst() : list.removeLast();
+        if (list.isEmpty())
+            data.remove(key);
+        return value;
+    }
+
+    /**
+     * 与 LREM 相同：count &gt; 0 从头、count &lt; 0 从尾删除最多 |count| 个，0 删除全部
+     */
+    int lrem(String key, int count, byte[] value) {
+        LinkedList<byte[]> list = list(key, false);
+        if (list == null)
+            return 0;
+        int removed = 0;
+        Iterator<byte[]> iterator = count < 0 ? list.descendingIterator() : list.iterator();
+        while (iterator.hasNext() && (count == 0 || removed < Math.abs(count))) {
+            if (Arrays.equals(iterator.next(), value)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        if (list.isEmpty())
+            data.remove(key);
+        return removed;
+    }
+
+    private List<byte[]> lrange(String key, int start, int stop) {
+        LinkedList<byte[]> list = list(key, false);
+        if (list == null)
+            return Collections.emptyList();
+        int size = list.size();
+        start = Math.max(start < 0 ? size + start : start, 0);
+        stop = Math.min(stop < 0 ? size + stop : stop, size - 1);
+        if (start > stop)
+            return Collections.emptyList();
+        return new ArrayList<byte[]>(list.subList(start, stop + 1));
+    }
+
+    private List<byte[]> zrangeByScore(String key, double min, double max) {
+        ZSet zset = zset(key, false);
+        if (zset == null)
+            return Collections.emptyList();
+        List<Map.Entry<String, Double>> entries = new ArrayList<Map.Entry<String, Double>>(zset.scores.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+            public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+                int c = Double.compare(a.getValue(), b.getValue());
+                return c != 0 ? c : a.getKey().compareTo(b.getKey());
+            }
+        });
+        List<byte[]> members = new ArrayList<byte[]>();
+        for (Map.Entry<String, Double> e : entries) {
+            if (e.getValue() >= min && e.getValue() <= max)
+                members.add(e.getKey().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return members;
+    }
+
+    private static double score(String text) {
+        if ("-inf".equalsIgnoreCase(text))
+            return Double.NEGATIVE_INFINITY;
+        if ("+inf".equalsIgnoreCase(text) || "inf".equalsIgnoreCase(text))
+            return Double.POSITIVE_INFINITY;
+        return Double.parseDouble(text);
+    }
+
+    /**
+     * SCAN cursor [MATCH pattern] [COUNT count]，一次返回全部匹配的 key，游标总是 0
+     */
+    private void scan(List<byte[]> args, OutputStream out) throws IOException {
+        String pattern = "*";
+        for (int i = 2; i + 1 < args.size(); i += 2) {
+            if ("MATCH".equalsIgnoreCase(text(args, i)))
+                pattern = key(args, i + 1);
+        }
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*')
+                regex.append(".*");
+            else if (c == '?')
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        Pattern matcher = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        for (String key : data.keySet()) {
+            if (matcher.matcher(key).matches())
+                keys.add(key.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.write('*');
+        out.write('2');
+        out.write(CRLF);
+        writeBulk(out, "0".getBytes(StandardCharsets.US_ASCII));
+        writeArray(out, keys);
+    }
+
+    /**
+     * EVAL script numkeys key... arg... / EVALSHA sha1 numkeys key... arg...
+     */
+    private void eval(boolean source, List<byte[]> args, OutputStream out) throws IOException {
+        String sha1 = source ? Hashing.sha1().hashBytes(arg(args, 1)).toString() : text(args, 1).toLowerCase(Locale.ENGLISH);
+        Script script = scripts.get(sha1);
+        if (!source && (script == null || !loadedScripts.contains(sha1))) {
+            writeError(out, "NOSCRIPT No matching script. Please use EVAL.");
+            return;
+        }
+        if (script == null) {
+            writeError(out, "ERR fake redis has no implementation of script " + sha1);
+            return;
+        }
+        loadedScripts.add(sha1);
+        int numKeys = Integer.parseInt(text(args, 2));
+        List<String> keys = new ArrayList<String>(numKeys);
+        for (int i = 0; i < numKeys; i++)
+            keys.add(key(args, 3 + i));
+        Object result;
+        try {
+            result = script.call(this, keys, new ArrayList<byte[]>(args.subList(3 + numKeys, args.size())));
+        } catch (WrongTypeException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            writeError(out, "ERR Error running script (call to f_" + sha1 + "): @user_script:1: " + e.getMessage());
+            return;
+        }
+        if (result instanceof Number)
+            writeInteger(out, ((Number) result).longValue());
+        else if (result instanceof String)
+            writeBulk(out, ((String) result).getBytes(StandardCharsets.UTF_8));
+        else
+            writeBulk(out, (byte[]) result);
+        data.notifyAll();
+    }
+
+    /**
+     * SCRIPT LOAD / EXISTS / FLUSH
+     */
+    private void script(List<byte[]> args, OutputStream out) throws IOException {
+        String subcommand = text(args, 1).toUpperCase(Locale.ENGLISH);
+        if ("LOAD".equals(subcommand)) {
+            String sha1 = Hashing.sha1().hashBytes(arg(args, 2)).toString();
+            loadedScripts.add(sha1);
+            writeBulk(out, sha1.getBytes(StandardCharsets.US_ASCII));
+        } else if ("FLUSH".equals(subcommand)) {
+            loadedScripts.clear();
+            out.write(OK);
+        } else if ("EXISTS".equals(subcommand)) {
+            out.write('*');
+            out.write(Integer.toString(args.size() - 2).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            for (int i = 2; i < args.size(); i++)
+                writeInteger(out, loadedScripts.contains(text(args, i).toLowerCase(Locale.ENGLISH)) ? 1 : 0);
+        } else {
+            writeError(out, "ERR unknown subcommand '" + subcommand + "'");
+        }
+    }
+
+    boolean remove(String key) {
+        return data.remove(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    LinkedList<byte[]> list(String key, boolean create) {
+        Object value = data.get(key);
+        if (value == null) {
+            if (!create)
+                return null;
+            value = new LinkedList<byte[]>();
+            data.put(key, value);
+        }
+        if (!(value instanceof LinkedList))
+            throw new WrongTypeException();
+        return (LinkedList<byte[]>) value;
+    }
+
+    ZSet zset(String key, boolean create) {
+        Object value = data.get(key);
+        if (value == null) {
+            if (!create)
+                return null;
+            value = new ZSet();
+            data.put(key, value);
+        }
+        if (!(value instanceof ZSet))
+            throw new WrongTypeException();
+        return (ZSet) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> hash(String key, boolean create) {
+        Object value = data.get(key);
+        if (value == null) {
+            if (!create)
+                return null;
+            value = new LinkedHashMap<String, byte[]>();
+            data.put(key, value);
+        }
+        if (!(value instanceof Map))
+            throw new WrongTypeException();
+        return (Map<String, byte[]>) value;
+    }
+
+    private static byte[] arg(List<byte[]> args, int index) {
+        return args.get(index);
+    }
+
+    private static String key(List<byte[]> args, int index) {
+        return new String(args.get(index), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String text(List<byte[]> args, int index) {
+        return new String(args.get(index), StandardCharsets.US_ASCII);
+    }
+
+    private static class WrongTypeException extends RuntimeException {
+    }
+
+    static final class ZSet {
+        final Map<String, Double> scores = new HashMap<String, Double>();
+    }
+
+    // --------- RESP
+
+    /**
+     * 读取一条命令，连接关闭时返回 null。支持 multibulk 及 redis-cli 的 inline 命令
+     */
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1)
+            return null;
+        if (b != '*') {
+            String line = (char) b + readLine(in);
+            List<byte[]> command = new ArrayList<byte[]>();
+            for (String part : line.trim().split("\\s+")) {
+                if (!part.isEmpty())
+                    command.add(part.getBytes(StandardCharsets.UTF_8));
+            }
+            return command;
+        }
+        int count = Integer.parseInt(readLine(in));
+        List<byte[]> command = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$')
+                throw new IOException("protocol error: expected bulk string");
+            int length = Integer.parseInt(readLine(in));
+            byte[] arg = new byte[length];
+            int n = 0;
+            while (n < length) {
+                int read = in.read(arg, n, length - n);
+                if (read == -1)
+                    throw new EOFException();
+                n += read;
+            }
+            in.read();
+            in.read();
+            command.add(arg);
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1)
+                throw new EOFException();
+            line.append((char) b);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static void writeStatus(OutputStream out, String status) throws IOException {
+        out.write('+');
+        out.write(status.getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+
+    private static void writeError(OutputStream out, String message) throws IOException {
+        out.write('-');
+        out.write(message.getBytes(StandardCharsets.UTF_8));
+        out.write(CRLF);
+    }
+
+    private static void writeInteger(OutputStream out, long n) throws IOException {
+        out.write(':');
+        out.write(Long.toString(n).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write(NIL);
+            return;
+        }
+        out.write('$');
+        out.write(Integer.toString(value.length).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(value);
+        out.write(CRLF);
+    }
+
+    private static void writeArray(OutputStream out, List<byte[]> values) throws IOException {
+        out.write('*');
+        out.write(Integer.toString(values.size()).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        for (byte[] value : values)
+            writeBulk(out, value);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
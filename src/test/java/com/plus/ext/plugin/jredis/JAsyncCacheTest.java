@@ -0,0 +1,80 @@
+package com.plus.ext.plugin.jredis;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JAsyncCache 的自动 pipeline，及停止时已提交命令的 future 都会完成
+ */
+public class JAsyncCacheTest extends TestCase {
+
+    private FakeRedisServer server;
+    private JRedisPlugin plugin;
+    private JAsyncCache async;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = FakeRedisServer.start();
+        plugin = new JRedisPlugin("async-test", "127.0.0.1", server.getPort());
+        plugin.start();
+        async = JRedis.use("async-test").async();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        plugin.stop();
+        server.stop();
+    }
+
+    public void testCommands() throws Exception {
+        assertEquals("OK", async.set("k", "v").get(5, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(3), async.incrBy("n", 3).get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("v", "3", null), async.mget("k", "n", "missing").get(5, TimeUnit.SECONDS));
+        assertEquals(0, async.getPendingCount());
+    }
+
+    /**
+     * 与 stop() 并发提交的命令要么被发送，要么以异常完成，调用者不会一直等待
+     */
+    public void testStopCompletesConcurrentCommands() throws Exception {
+        final List<CompletableFuture<String>> futures = Collections.synchronizedList(new ArrayList<CompletableFuture<String>>());
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < 20000; i++)
+                        futures.add(async.set("k" + id + ":" + i, "v"));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        started.await();
+        Thread.sleep(5);
+        async.stop();
+        for (Thread thread : threads)
+            thread.join();
+
+        int failed = 0;
+        for (CompletableFuture<String> future : futures) {
+            try {
+                assertEquals("OK", future.get(10, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        assertTrue(failed > 0);
+        assertEquals(0, async.getPendingCount());
+    }
+}
@@ -0,0 +1,136 @@
+package com.plus.ext.plugin.jredis;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JBloomFilter 的位数、哈希函数个数及位偏移的计算，在本地 BitSet 上验证误判率；
+ * 跨多个 pipeline 的批量添加及判断在 FakeRedisServer 上运行
+ */
+public class JBloomFilterTest extends TestCase {
+
+    public void testOptimalBitSize() {
+        // m = -n * ln(p) / (ln 2)^2，一千万元素、1% 误判率约 9.585 位每元素
+        long bits = JBloomFilter.optimalBitSize(10000000, 0.01);
+        assertEquals(95850584, bits, 1);
+        assertEquals(7, JBloomFilter.optimalHashCount(10000000, bits));
+        assertTrue(JBloomFilter.optimalBitSize(1000, 0.001) > JBloomFilter.optimalBitSize(1000, 0.01));
+        assertEquals(10, JBloomFilter.optimalHashCount(1000, JBloomFilter.optimalBitSize(1000, 0.001)));
+    }
+
+    public void testOptimalBitSizeHasMinimum() {
+        assertEquals(64, JBloomFilter.optimalBitSize(1, 0.5));
+        assertEquals(1, JBloomFilter.optimalHashCount(1000, 64));
+    }
+
+    public void testTooManyBitsRejected() {
+        try {
+            new JBloomFilter(null, "too-large", 1000000000L, 0.01);
+            fail("more than 2^32 bits should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testInvalidArgumentsRejected() {
+        for (double fpp : new double[]{0, 1, -0.1}) {
+            try {
+                new JBloomFilter(null, "bloom", 1000, fpp);
+                fail("fpp " + fpp + " should be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            new JBloomFilter(null, "bloom", 0, 0.01);
+            fail("expectedInsertions 0 should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testOffsetsInRangeAndStable() {
+        JBloomFilter filter = new JBloomFilter(null, "bloom", 10000, 0.01);
+        JBloomFilter other = new JBloomFilter(null, "bloom", 10000, 0.01);
+        for (String value : new String[]{"", "a", "article:42", "中文", "http://example.com/?q=1"}) {
+            long[] offsets = filter.offsets(value);
+            assertEquals(filter.getHashCount(), offsets.length);
+            for (long offset : offsets)
+                assertTrue(offset >= 0 && offset < filter.getBitSize());
+            // 同样参数的实例(其他进程)必须得到相同的位
+            assertTrue(Arrays.equals(offsets, other.offsets(value)));
+        }
+        assertFalse(Arrays.equals(filter.offsets("a"), filter.offsets("b")));
+    }
+
+    /**
+     * 以 offsets 在本地位图上模拟 SETBIT/GETBIT，已添加的元素一定存在，误判率接近 fpp
+     */
+    public void testFalsePositiveRate() {
+        int n = 10000;
+        double fpp = 0.01;
+        JBloomFilter filter = new JBloomFilter(null, "bloom", n, fpp);
+        BitSet bits = new BitSet((int) filter.getBitSize());
+        for (int i = 0; i < n; i++) {
+            for (long offset : filter.offsets("added-" + i))
+                bits.set((int) offset);
+        }
+        for (int i = 0; i < n; i++)
+            assertTrue(contains(filter, bits, "added-" + i));
+        int probes = 100000;
+        int falsePositives = 0;
+        for (int i = 0; i < probes; i++) {
+            if (contains(filter, bits, "absent-" + i))
+                falsePositives++;
+        }
+        double rate = (double) falsePositives / probes;
+        assertTrue("false positive rate " + rate, rate < fpp * 1.5);
+    }
+
+    private static boolean contains(JBloomFilter filter, BitSet bits, String value) {
+        for (long offset : filter.offsets(value)) {
+            if (!bits.get((int) offset))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 超过一批(1000 个)的元素分多个 pipeline 发送，结果与输入顺序一致
+     */
+    public void testBatchesAcrossPipelines() throws Exception {
+        FakeRedisServer server = FakeRedisServer.start();
+        JRedisPlugin plugin = new JRedisPlugin("bloom-test", "127.0.0.1", server.getPort());
+        plugin.start();
+        try {
+            JBloomFilter filter = JRedis.use("bloom-test").bloomFilter("bloom", 10000, 0.01);
+            Set<String> added = new LinkedHashSet<String>();
+            for (int i = 0; i < 2500; i++)
+                added.add("a" + i);
+            assertTrue(filter.addAll(added) > 2450);
+            assertEquals(0, filter.addAll(added));
+
+            List<String> queried = new ArrayList<String>();
+            for (int i = 0; i < 1500; i++) {
+                queried.add("a" + i);
+                queried.add("b" + i);
+            }
+            List<Boolean> contains = filter.mightContainAll(queried);
+            assertEquals(queried.size(), contains.size());
+            int falsePositives = 0;
+            for (int i = 0; i < queried.size(); i += 2) {
+                assertTrue(contains.get(i));
+                if (contains.get(i + 1))
+                    falsePositives++;
+            }
+            assertTrue("false positives: " + falsePositives, falsePositives < 100);
+            assertTrue(filter.mightContain("a2499"));
+        } finally {
+            plugin.stop();
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.plus.ext.plugin.jredis;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JBulkDeleter 的 UNLINK 脚本：NOSCRIPT 时重新 EVAL，只有 redis 不支持 UNLINK 时才退回 DEL，其他错误直接抛出
+ */
+public class JBulkDeleterTest extends TestCase {
+
+    private FakeRedisServer server;
+    private JRedisPlugin plugin;
+    private JCache cache;
+    private final AtomicInteger unlinkCalls = new AtomicInteger();
+    private volatile String unlinkError;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = FakeRedisServer.start()
+                .script(JBulkDeleter.UNLINK_SCRIPT, new FakeRedisServer.Script() {
+                    public Object call(FakeRedisServer server, List<String> keys, List<byte[]> args) {
+                        unlinkCalls.incrementAndGet();
+                        if (unlinkError != null)
+                            throw new IllegalStateException(unlinkError);
+                        long n = 0;
+                        for (String key : keys) {
+                            if (server.remove(key))
+                                n++;
+                        }
+                        return n;
+                    }
+                });
+        plugin = new JRedisPlugin("bulk-test", "127.0.0.1", server.getPort());
+        plugin.start();
+        cache = JRedis.use("bulk-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        plugin.stop();
+        server.stop();
+    }
+
+    private void populate(int n) {
+        for (int i = 0; i < n; i++)
+            cache.set("user:" + i, "v");
+        cache.set("order:1", "v");
+    }
+
+    private JBulkDeleter.Result delete() {
+        return new JBulkDeleter(cache).match("user:*").batchSize(100).execute();
+    }
+
+    public void testUnlink() {
+        populate(250);
+        JBulkDeleter.Result result = delete();
+        assertEquals(250, result.getScanned());
+        assertEquals(250, result.getDeleted());
+        assertEquals(3, unlinkCalls.get());
+        assertFalse(cache.exists("user:0"));
+        assertTrue(cache.exists("order:1"));
+    }
+
+    /**
+     * 重启或 SCRIPT FLUSH 后 EVALSHA 返回 NOSCRIPT，重新 EVAL 后继续使用 UNLINK
+     */
+    public void testNoScriptReloadsScript() {
+        populate(10);
+        delete();
+        Jedis jedis = new Jedis("127.0.0.1", server.getPort());
+        try {
+            jedis.scriptFlush();
+        } finally {
+            jedis.close();
+        }
+
+        populate(250);
+        unlinkCalls.set(0);
+        JBulkDeleter.Result result = delete();
+        assertEquals(250, result.getDeleted());
+        assertEquals(1, result.getBatches());
+        assertEquals(3, unlinkCalls.get());
+        assertFalse(cache.exists("user:0"));
+    }
+
+    public void testUnknownCommandFallsBackToDel() {
+        unlinkError = "Unknown Redis command called from Lua script";
+        populate(250);
+        JBulkDeleter.Result result = delete();
+        assertEquals(250, result.getDeleted());
+        assertEquals(1, result.getBatches());
+        assertFalse(cache.exists("user:0"));
+        assertTrue(cache.exists("order:1"));
+    }
+
+    public void testOtherErrorIsThrown() {
+        unlinkError = "OOM command not allowed when used memory > 'maxmemory'";
+        populate(10);
+        try {
+            delete();
+            fail("script error should be thrown");
+        } catch (JedisDataException e) {
+            assertTrue(e.getMessage().contains("OOM"));
+        }
+        assertTrue(cache.exists("user:0"));
+    }
+}
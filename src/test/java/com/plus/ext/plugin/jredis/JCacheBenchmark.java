@@ -0,0 +1,147 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.plugin.activerecord.Record;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import redis.clients.jedis.Pipeline;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JCache 各层开销的回归基准：单条命令(含借还连接)、mget、pipeline、对象 api 的序列化，
+ * 以及 JRedisInterceptor/JRedis.call(...) 在线程内共享连接时逐条调用的开销。
+ * 使用 -Dredis.fake=true 时不需要 redis，主要反映客户端自身的开销，见 BenchmarkRedis
+ * <pre>
+ * 运行：mvn -Pbenchmark verify，或直接执行 main 方法
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JCacheBenchmark {
+
+    private static final String CACHE_NAME = "cacheBenchmark";
+
+    /**
+     * mget、pipeline 及共享连接方法中每次调用的 key 数
+     */
+    @Param({"10", "100"})
+    int batch;
+
+    private BenchmarkRedis redis;
+    private JRedisPlugin plugin;
+    private JCache cache;
+    private String[] keys;
+    private Record record;
+
+    @Setup
+    public void setup() {
+        redis = BenchmarkRedis.start();
+        plugin = redis.newPlugin(CACHE_NAME);
+        plugin.start();
+        cache = JRedis.use(CACHE_NAME);
+        keys = new String[batch];
+        for (int i = 0; i < batch; i++) {
+            keys[i] = "bench:cache:" + i;
+            cache.set(keys[i], "value-" + i);
+        }
+        cache.hset("bench:cache:hash", "name", "value");
+        record = SerializerBenchmark.newRecord(1);
+        cache.objects().set("bench:cache:record", record);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.del(keys);
+        cache.del("bench:cache:hash", "bench:cache:counter", "bench:cache:set");
+        cache.objects().del("bench:cache:record");
+        plugin.stop();
+        redis.stop();
+    }
+
+    // --------- 单条命令，每次从连接池借出 jedis
+
+    @Benchmark
+    public String get() {
+        return cache.get(keys[0]);
+    }
+
+    @Benchmark
+    public String set() {
+        return cache.set("bench:cache:set", "value");
+    }
+
+    @Benchmark
+    public String hget() {
+        return cache.hget("bench:cache:hash", "name");
+    }
+
+    @Benchmark
+    public Long incr() {
+        return cache.incr("bench:cache:counter");
+    }
+
+    // --------- 多个 key
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public List mget() {
+        return cache.mget(keys);
+    }
+
+    @Benchmark
+    public List<Object> pipelined() {
+        return cache.pipelined(new JIPipelineCallback() {
+            public void call(Pipeline pipeline) {
+                for (String key : keys)
+                    pipeline.get(key);
+            }
+        });
+    }
+
+    /**
+     * 逐条调用，每条命令借还一次连接
+     */
+    @Benchmark
+    public void borrowPerCommand(Blackhole bh) {
+        for (String key : keys)
+            bh.consume(cache.get(key));
+    }
+
+    /**
+     * 逐条调用，线程内共享同一个 jedis(JRedisInterceptor 的方式)
+     */
+    @Benchmark
+    public void threadLocalJedis(final Blackhole bh) {
+        JRedis.call(new JICallback() {
+            public <T> T call(JCache cache) {
+                for (String key : keys)
+                    bh.consume(cache.get(key));
+                return null;
+            }
+        }, CACHE_NAME);
+    }
+
+    // --------- 对象 api，包含 FstSerializer 序列化
+
+    @Benchmark
+    public Object objectGet() {
+        return cache.objects().get("bench:cache:record");
+    }
+
+    @Benchmark
+    public String objectSet() {
+        return cache.objects().set("bench:cache:record", record);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JCacheBenchmark.class.getSimpleName()).build()).run();
+    }
+}
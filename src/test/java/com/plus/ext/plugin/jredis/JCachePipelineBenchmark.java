@@ -0,0 +1,96 @@
+package com.plus.ext.plugin.jredis;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import redis.clients.jedis.Pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比一次请求中扇出多个 redis 命令时，逐条调用与 pipelined 批量调用的耗时。
+ * 使用的 redis 见 BenchmarkRedis，默认连接 127.0.0.1:6379
+ * <pre>
+ * 运行：直接执行 main 方法
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JCachePipelineBenchmark {
+
+    private static final String CACHE_NAME = "pipelineBenchmark";
+
+    @Param({"50", "200"})
+    int commands;
+
+    private BenchmarkRedis redis;
+    private JRedisPlugin plugin;
+    private JCache cache;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        redis = BenchmarkRedis.start();
+        plugin = redis.newPlugin(CACHE_NAME);
+        plugin.start();
+        cache = JRedis.use(CACHE_NAME);
+        keys = new String[commands];
+        for (int i = 0; i < commands; i++) {
+            keys[i] = "bench:pipeline:" + i;
+            cache.set(keys[i], "value-" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.del(keys);
+        plugin.stop();
+        redis.stop();
+    }
+
+    /**
+     * 现有方式：每条命令从连接池借出 jedis 并产生一次网络往返
+     */
+    @Benchmark
+    public void oneCallPerRoundTrip(Blackhole bh) {
+        for (String key : keys)
+            bh.consume(cache.get(key));
+    }
+
+    /**
+     * 共享同一线程内的 jedis（JRedisInterceptor 的方式），省去借还连接，但仍逐条往返
+     */
+    @Benchmark
+    public void threadLocalJedis(final Blackhole bh) {
+        JRedis.call(new JICallback() {
+            public <T> T call(JCache cache) {
+                for (String key : keys)
+                    bh.consume(cache.get(key));
+                return null;
+            }
+        }, CACHE_NAME);
+    }
+
+    /**
+     * 所有命令放入同一个 Pipeline，一次网络往返
+     */
+    @Benchmark
+    public void pipelined(Blackhole bh) {
+        bh.consume(cache.pipelined(new JIPipelineCallback() {
+            public void call(Pipeline pipeline) {
+                for (String key : keys)
+                    pipeline.get(key);
+            }
+        }));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JCachePipelineBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,97 @@
+package com.plus.ext.plugin.jredis;
+
+import junit.framework.TestCase;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.Jedis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JCircuitBreaker 的慢调用统计：借出等待及命令耗时都计入，每次借出最多计一次，阻塞命令等待数据的时间不计入
+ */
+public class JCircuitBreakerTest extends TestCase {
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private JCircuitBreaker breaker;
+
+    @Override
+    protected void setUp() {
+        breaker = new JCircuitBreaker().slowCall(100, 0.5).minimumCalls(4);
+        breaker.bind("test");
+    }
+
+    public void testSlowCommandOpens() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onBorrow(FAST, true);
+            breaker.onRelease(false, SLOW);
+        }
+        assertEquals(JCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(4L, breaker.snapshot().get("slowCalls"));
+    }
+
+    public void testFastCallsStayClosed() {
+        for (int i = 0; i < 10; i++) {
+            breaker.onBorrow(FAST, true);
+            breaker.onRelease(false, FAST);
+        }
+        assertEquals(JCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0L, breaker.snapshot().get("slowCalls"));
+    }
+
+    /**
+     * 归还时回报的耗时已包括借出等待，借出时不再重复统计
+     */
+    public void testSlowBorrowCountedOnce() {
+        breaker.onBorrow(SLOW, true);
+        breaker.onRelease(false, SLOW);
+        assertEquals(1L, breaker.snapshot().get("slowCalls"));
+    }
+
+    /**
+     * 无法取得命令耗时的连接(集群模式)只按借出等待统计
+     */
+    public void testSlowBorrowWithoutCommandTiming() {
+        breaker.onBorrow(SLOW, false);
+        breaker.onRelease(false, -1);
+        assertEquals(1L, breaker.snapshot().get("slowCalls"));
+    }
+
+    public void testBrokenConnectionIsFailure() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onBorrow(FAST, true);
+            breaker.onRelease(true, FAST);
+        }
+        assertEquals(JCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(4L, breaker.snapshot().get("failures"));
+        assertEquals(0L, breaker.snapshot().get("slowCalls"));
+    }
+
+    /**
+     * BRPOPLPUSH 在空队列上等待超时不是慢调用，同一次借出中的其他命令照常计时
+     */
+    public void testBlockingCommandNotTimed() throws Exception {
+        FakeRedisServer server = FakeRedisServer.start();
+        JMeteredJedisPool pool = new JMeteredJedisPool(new GenericObjectPoolConfig(), "127.0.0.1", server.getPort(),
+                5000, null, 0, null, "test", null);
+        try {
+            Jedis jedis = pool.getResource();
+            try {
+                assertTrue(JMeteredJedisPool.startCall(jedis, FAST));
+                assertNull(jedis.brpoplpush("queue", "processing", 1));
+                long nanos = JMeteredJedisPool.endCall(jedis);
+                assertTrue(nanos >= FAST && nanos < SLOW);
+
+                JMeteredJedisPool.startCall(jedis, 0);
+                jedis.set("k", "v");
+                assertTrue(JMeteredJedisPool.endCall(jedis) > 0);
+            } finally {
+                jedis.close();
+            }
+        } finally {
+            pool.destroy();
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.plugin.redis.serializer.ISerializer;
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * JCompressionSerializer 的压缩阈值、旧数据兼容及损坏数据的处理
+ */
+public class JCompressionSerializerTest extends TestCase {
+
+    private static final int THRESHOLD = 64;
+
+    private final JCompressionSerializer serializer = new JCompressionSerializer(new Utf8Serializer(), THRESHOLD);
+
+    public void testLargeValueIsCompressed() {
+        String value = repeat("compressible ", 100);
+        byte[] bytes = serializer.valueToBytes(value);
+        assertTrue(JCompressionSerializer.isCompressed(bytes));
+        assertTrue(bytes.length < value.length());
+        assertEquals(value, serializer.valueFromBytes(bytes));
+    }
+
+    public void testValueBelowThresholdIsUnchanged() {
+        String value = repeat("a", THRESHOLD - 1);
+        byte[] bytes = serializer.valueToBytes(value);
+        assertTrue(Arrays.equals(utf8(value), bytes));
+        assertEquals(value, serializer.valueFromBytes(bytes));
+    }
+
+    public void testIncompressibleValueIsUnchanged() {
+        StringBuilder value = new StringBuilder();
+        Random random = new Random(1);
+        for (int i = 0; i < THRESHOLD * 2; i++)
+            value.append((char) ('!' + random.nextInt(94)));
+        byte[] bytes = serializer.valueToBytes(value.toString());
+        assertTrue(Arrays.equals(utf8(value.toString()), bytes));
+    }
+
+    /**
+     * 开启压缩前写入的 value 没有魔数，原样交给被包装的 serializer
+     */
+    public void testLegacyUncompressedValueIsReadable() {
+        String value = repeat("legacy ", 100);
+        assertEquals(value, serializer.valueFromBytes(utf8(value)));
+        assertNull(serializer.valueFromBytes(null));
+    }
+
+    public void testCorruptLengthIsReadAsUncompressed() {
+        byte[] bytes = serializer.valueToBytes(repeat("corrupt ", 100));
+        byte[] corrupt = bytes.clone();
+        corrupt[4] = (byte) 0x7f;
+        assertEquals(new String(corrupt, StandardCharsets.UTF_8), serializer.valueFromBytes(corrupt));
+        corrupt = bytes.clone();
+        corrupt[4] = (byte) 0xff;
+        assertEquals(new String(corrupt, StandardCharsets.UTF_8), serializer.valueFromBytes(corrupt));
+    }
+
+    public void testCorruptBodyIsReadAsUncompressed() {
+        byte[] bytes = serializer.valueToBytes(repeat("truncated ", 100));
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+        assertEquals(new String(truncated, StandardCharsets.UTF_8), serializer.valueFromBytes(truncated));
+        byte[] garbage = bytes.clone();
+        for (int i = 8; i < garbage.length; i++)
+            garbage[i] = (byte) 0xff;
+        assertEquals(new String(garbage, StandardCharsets.UTF_8), serializer.valueFromBytes(garbage));
+    }
+
+    public void testKeysAndFieldsAreNotCompressed() {
+        String key = repeat("k", THRESHOLD * 2);
+        assertTrue(Arrays.equals(utf8(key), serializer.keyToBytes(key)));
+        assertTrue(Arrays.equals(utf8(key), serializer.fieldToBytes(key)));
+    }
+
+    /**
+     * 多个线程共用空闲的 Deflater/Inflater，互不影响
+     */
+    public void testConcurrentRoundTrips() throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final String prefix = "thread-" + t + " ";
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            String value = repeat(prefix + i + " ", 20);
+                            assertEquals(value, serializer.valueFromBytes(serializer.valueToBytes(value)));
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertNull(error.get());
+    }
+
+    /**
+     * close() 释放空闲实例后仍可以读写
+     */
+    public void testUsableAfterClose() {
+        String value = repeat("compressible ", 100);
+        byte[] bytes = serializer.valueToBytes(value);
+        serializer.close();
+        assertEquals(value, serializer.valueFromBytes(bytes));
+        assertTrue(Arrays.equals(bytes, serializer.valueToBytes(value)));
+    }
+
+    public void testInvalidArguments() {
+        try {
+            new JCompressionSerializer(new Utf8Serializer(), 0);
+            fail("threshold 0 should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new JCompressionSerializer(new Utf8Serializer(), THRESHOLD, 10, null, null);
+            fail("level 10 should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // ---------
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 以 UTF-8 读写字符串，便于检查写入 redis 的字节
+     */
+    private static class Utf8Serializer implements ISerializer {
+
+        public byte[] keyToBytes(String key) {
+            return utf8(key);
+        }
+
+        public String keyFromBytes(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public byte[] fieldToBytes(Object field) {
+            return utf8(field.toString());
+        }
+
+        public Object fieldFromBytes(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public byte[] valueToBytes(Object value) {
+            return value != null ? utf8(value.toString()) : null;
+        }
+
+        public Object valueFromBytes(byte[] bytes) {
+            return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.plus.ext.plugin.jredis;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import redis.clients.jedis.Jedis;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程竞争同一组锁时，对比自行用 SET NX + 轮询实现的锁与 JLock 的吞吐量，
+ * 临界区内执行一次 INCR。locks 为 1 时全部线程竞争同一把锁。
+ * 使用的 redis 见 BenchmarkRedis，默认连接 127.0.0.1:6379；JLock 依赖脚本及发布订阅，不支持 -Dredis.fake
+ * <pre>
+ * 运行：直接执行 main 方法
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class JLockBenchmark {
+
+    private static final String CACHE_NAME = "lockBenchmark";
+    private static final int POLL_MILLIS = 10;
+
+    @Param({"1", "4"})
+    int locks;
+
+    private BenchmarkRedis redis;
+    private JRedisPlugin plugin;
+    private JCache cache;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        redis = BenchmarkRedis.start();
+        plugin = redis.newPlugin(CACHE_NAME);
+        plugin.getJedisPoolConfig().setMaxTotal(64);
+        plugin.start();
+        cache = JRedis.use(CACHE_NAME);
+        names = new String[locks];
+        for (int i = 0; i < locks; i++) {
+            names[i] = "bench:lock:" + i;
+            cache.del(names[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.del(names);
+        cache.del("bench:lock:counter");
+        plugin.stop();
+        redis.stop();
+    }
+
+    /**
+     * 原有的做法：SET NX PX 失败后 sleep 轮询，解锁时 GET 比较后 DEL(两条命令之间存在竞态)
+     */
+    @Benchmark
+    public long spinLock() throws InterruptedException {
+        String name = pick();
+        String token = UUID.randomUUID().toString();
+        while (true) {
+            Jedis jedis = cache.getJedis(name);
+            try {
+                if ("OK".equals(jedis.set(name, token, "NX", "PX", 30000)))
+                    break;
+            } finally {
+                cache.close(jedis);
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        try {
+            return cache.incr("bench:lock:counter");
+        } finally {
+            if (token.equals(cache.get(name)))
+                cache.del(name);
+        }
+    }
+
+    /**
+     * JLock：等待解锁消息，同一进程内排队
+     */
+    @Benchmark
+    public long jlock() {
+        JLock lock = cache.getLock(pick());
+        lock.lock();
+        try {
+            return cache.incr("bench:lock:counter");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String pick() {
+        return names[ThreadLocalRandom.current().nextInt(names.length)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JLockBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,54 @@
+package com.plus.ext.plugin.jredis;
+
+import junit.framework.TestCase;
+
+/**
+ * JNearCache 的本地读写、读穿透期间失效时不回填，以及失效统计只计实际清除的条目
+ */
+public class JNearCacheTest extends TestCase {
+
+    private JNearCache nearCache;
+
+    @Override
+    protected void setUp() {
+        nearCache = new JNearCache("test", 100, 60, "user:");
+    }
+
+    public void testAcceptByPrefix() {
+        assertTrue(nearCache.accept("user:1"));
+        assertFalse(nearCache.accept("order:1"));
+        assertFalse(nearCache.accept(null));
+        assertTrue(new JNearCache("all", 100, 60).accept("order:1"));
+    }
+
+    public void testPutAndEvict() {
+        nearCache.put("user:1", "a", nearCache.stamp());
+        nearCache.hput("user:2", "name", "b", nearCache.stamp());
+        assertEquals("a", nearCache.get("user:1"));
+        assertEquals("b", nearCache.hget("user:2", "name"));
+        assertNull(nearCache.get("user:2"));
+
+        nearCache.evict("user:1", "user:2");
+        assertNull(nearCache.get("user:1"));
+        assertNull(nearCache.hget("user:2", "name"));
+        assertEquals(0, nearCache.size());
+    }
+
+    /**
+     * 读取 redis 之后、回填之前发生失效，回填的旧值立即被清除
+     */
+    public void testStaleFillIsDropped() {
+        long stamp = nearCache.stamp();
+        nearCache.evict("user:1");
+        nearCache.put("user:1", "old", stamp);
+        assertNull(nearCache.get("user:1"));
+    }
+
+    public void testInvalidationCountsOnlyRemovedEntries() {
+        nearCache.put("user:1", "a", nearCache.stamp());
+        nearCache.evict("user:1", "user:2", "order:1");
+        assertEquals(1L, nearCache.getStats().get("invalidationCount").longValue());
+        nearCache.evict("user:1");
+        assertEquals(1L, nearCache.getStats().get("invalidationCount").longValue());
+    }
+}
@@ -0,0 +1,176 @@
+package com.plus.ext.plugin.jredis;
+
+import junit.framework.TestCase;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JQueueConsumer 的确认、重新入队及死信，在 FakeRedisServer 上运行，队列脚本由 Java 实现代替
+ */
+public class JQueueConsumerTest extends TestCase {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private FakeRedisServer server;
+    private JRedisPlugin plugin;
+    private JQueue queue;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = FakeRedisServer.start()
+                .script(JQueueConsumer.ACK_SCRIPT, new FakeRedisServer.Script() {
+                    public Object call(FakeRedisServer server, List<String> keys, List<byte[]> args) {
+                        for (byte[] message : args)
+                            server.lrem(keys.get(0), 1, message);
+                        return (long) args.size();
+                    }
+                })
+                .script(JQueueConsumer.MOVE_SCRIPT, new FakeRedisServer.Script() {
+                    public Object call(FakeRedisServer server, List<String> keys, List<byte[]> args) {
+                        for (byte[] message : args) {
+                            if (server.lrem(keys.get(0), 1, message) > 0)
+                                server.list(keys.get(1), true).addFirst(message);
+                        }
+                        return (long) args.size();
+                    }
+                })
+                .script(JQueueConsumer.MOVE_ALL_SCRIPT, new FakeRedisServer.Script() {
+                    public Object call(FakeRedisServer server, List<String> keys, List<byte[]> args) {
+                        long n = 0;
+                        byte[] message;
+                        while ((message = server.pop(keys.get(0), true)) != null) {
+                            server.list(keys.get(1), true).addLast(message);
+                            n++;
+                        }
+                        return n;
+                    }
+                });
+        plugin = new JRedisPlugin("queue-test", "127.0.0.1", server.getPort());
+        plugin.start();
+        queue = JRedis.use("queue-test").queue("mail");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        plugin.stop();
+        server.stop();
+    }
+
+    public void testAckRemovesFromProcessing() throws Exception {
+        final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(5);
+        JQueueConsumer consumer = queue.consumer(new JIQueueHandler() {
+            public void handle(List<String> messages) {
+                handled.addAll(messages);
+                for (int i = 0; i < messages.size(); i++)
+                    latch.countDown();
+            }
+        }).batchSize(3).start();
+        try {
+            queue.push("1", "2", "3", "4", "5");
+            assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            waitForEmpty(processingKey(consumer));
+            assertEquals(5, handled.size());
+            assertTrue(handled.containsAll(list("1", "2", "3", "4", "5")));
+            assertEquals(0L, (long) queue.size());
+            assertEquals(0L, (long) queue.deadLetterSize());
+        } finally {
+            consumer.stop();
+        }
+    }
+
+    public void testFailedBatchGoesToDeadLetter() throws Exception {
+        JQueueConsumer consumer = queue.consumer(new JIQueueHandler() {
+            public void handle(List<String> messages) throws Exception {
+                throw new Exception("handler fail");
+            }
+        }).batchSize(2).start();
+        try {
+            queue.push("a", "b");
+            waitFor(2, queue.deadLetterKey());
+            waitForEmpty(processingKey(consumer));
+            assertEquals(0L, (long) queue.size());
+        } finally {
+            consumer.stop();
+        }
+        // 与队列相同，最早的消息在队尾
+        assertEquals(list("b", "a"), queue.peekDeadLetters(2));
+        assertEquals(2L, (long) queue.requeueDeadLetters());
+        assertEquals(0L, (long) queue.deadLetterSize());
+        assertEquals(2L, (long) queue.size());
+    }
+
+    public void testRequeueOnFailure() throws Exception {
+        final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(2);
+        JQueueConsumer consumer = queue.consumer(new JIQueueHandler() {
+            public void handle(List<String> messages) throws Exception {
+                handled.addAll(messages);
+                latch.countDown();
+                if (latch.getCount() > 0)
+                    throw new Exception("first attempt fails");
+            }
+        }).requeueOnFailure(true).start();
+        try {
+            queue.push("x");
+            assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            waitForEmpty(processingKey(consumer));
+            assertEquals(list("x", "x"), handled);
+            assertEquals(0L, (long) queue.size());
+            assertEquals(0L, (long) queue.deadLetterSize());
+        } finally {
+            consumer.stop();
+        }
+    }
+
+    public void testStopRequeuesUnfinishedMessages() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        JQueueConsumer consumer = queue.consumer(new JIQueueHandler() {
+            public void handle(List<String> messages) throws Exception {
+                started.countDown();
+                release.await();
+            }
+        }).start();
+        try {
+            queue.push("slow");
+            assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            consumer.stop(100, TimeUnit.MILLISECONDS);
+            assertFalse(consumer.isRunning());
+            assertEquals(0L, (long) JRedis.use("queue-test").llen(processingKey(consumer)));
+            assertEquals(list("slow"), JRedis.use("queue-test").lrange(queue.getName(), 0, -1));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    // ---------
+
+    private String processingKey(JQueueConsumer consumer) {
+        return queue.processingKey(consumer.getConsumerId());
+    }
+
+    private void waitForEmpty(String key) throws InterruptedException {
+        waitFor(0, key);
+    }
+
+    private void waitFor(long length, String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (JRedis.use("queue-test").llen(key) != length) {
+            if (System.currentTimeMillis() > deadline)
+                fail("length of " + key + " is not " + length + " after " + TIMEOUT_MILLIS + "ms");
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
@@ -0,0 +1,98 @@
+package com.plus.ext.plugin.jredis;
+
+import com.jfinal.plugin.activerecord.Record;
+import com.jfinal.plugin.redis.serializer.FstSerializer;
+import com.jfinal.plugin.redis.serializer.ISerializer;
+import com.plus.ext.kit.SerializableKit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比 JObjectCache 默认使用的 FstSerializer 与 SerializableKit(JDK 序列化)
+ * 在典型 Record 上的序列化、反序列化耗时，序列化后的字节数在 setup 时打印
+ * <pre>
+ * 运行：直接执行 main 方法，不需要 redis
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializerBenchmark {
+
+    /**
+     * single: 单条 Record，page: 一页 20 条 Record
+     */
+    @Param({"single", "page"})
+    String shape;
+
+    private final ISerializer fst = FstSerializer.me;
+
+    private Serializable value;
+    private byte[] fstBytes;
+    private byte[] jdkBytes;
+
+    @Setup
+    public void setup() {
+        if ("single".equals(shape)) {
+            value = newRecord(1);
+        } else {
+            ArrayList<Record> page = new ArrayList<Record>();
+            for (int i = 0; i < 20; i++)
+                page.add(newRecord(i));
+            value = page;
+        }
+        fstBytes = fst.valueToBytes(value);
+        jdkBytes = SerializableKit.toByteArray(value);
+        System.out.println(shape + ": fst " + fstBytes.length + " bytes, jdk " + jdkBytes.length + " bytes");
+    }
+
+    static Record newRecord(int id) {
+        return new Record()
+                .set("id", (long) id)
+                .set("user_name", "user-" + id)
+                .set("email", "user-" + id + "@example.com")
+                .set("age", 20 + id % 40)
+                .set("balance", new BigDecimal("1024.50").add(BigDecimal.valueOf(id)))
+                .set("score", id * 1.5d)
+                .set("vip", id % 2 == 0)
+                .set("tags", "java,redis,jfinal")
+                .set("remark", "remark of user " + id + ", used to make the record a bit closer to a real row")
+                .set("create_time", new Date())
+                .set("update_time", new Date());
+    }
+
+    @Benchmark
+    public byte[] fstSerialize() {
+        return fst.valueToBytes(value);
+    }
+
+    @Benchmark
+    public byte[] jdkSerialize() {
+        return SerializableKit.toByteArray(value);
+    }
+
+    @Benchmark
+    public Object fstDeserialize() {
+        return fst.valueFromBytes(fstBytes);
+    }
+
+    @Benchmark
+    public Object jdkDeserialize() {
+        return SerializableKit.toObject(jdkBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,59 @@
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.plugin.activerecord.Record;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import junit.framework.TestCase;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * insert(Record) 与单条插入一样把生成的 _id 写回 Record，已有的 _id 保持不变
+ */
+public class MongoBulkWriterTest extends TestCase {
+
+    private final List<Document> sent = new ArrayList<Document>();
+
+    @SuppressWarnings("unchecked")
+    private MongoCollection<Document> collection() {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("bulkWrite")) {
+                            List<WriteModel<Document>> models = (List<WriteModel<Document>>) args[0];
+                            for (WriteModel<Document> model : models)
+                                sent.add(((InsertOneModel<Document>) model).getDocument());
+                            return BulkWriteResult.acknowledged(models.size(), 0, 0, 0, Collections.<BulkWriteUpsert>emptyList());
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    public void testInsertRecordWritesBackId() {
+        Record generated = new Record().set("name", "a");
+        ObjectId id = new ObjectId();
+        Record given = new Record().set("_id", id).set("name", "b");
+
+        MongoBulkWriter writer = new MongoBulkWriter(collection());
+        writer.insert(generated).insert(given);
+        assertTrue(generated.get("_id") instanceof ObjectId);
+        MongoBulkResult result = writer.finish();
+
+        assertEquals(2, result.getInsertedCount());
+        assertEquals(2, sent.size());
+        assertEquals(generated.get("_id"), sent.get(0).get("_id"));
+        assertEquals(id, given.get("_id"));
+        assertEquals(id, sent.get(1).get("_id"));
+    }
+}
@@ -0,0 +1,46 @@
+package com.plus.ext.plugin.monogodb;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * MongoCsvExporter 单元格按 RFC 4180 加引号转义
+ */
+public class MongoCsvExporterTest extends TestCase {
+
+    public void testPlainCellIsNotQuoted() throws IOException {
+        assertEquals("abc", cell("abc"));
+        assertEquals("a b", cell("a b"));
+        assertEquals("中文;1", cell("中文;1"));
+    }
+
+    public void testEmptyCell() throws IOException {
+        assertEquals("", cell(null));
+        assertEquals("", cell(""));
+    }
+
+    public void testSeparatorAndLineBreakAreQuoted() throws IOException {
+        assertEquals("\"a,b\"", cell("a,b"));
+        assertEquals("\"line1\nline2\"", cell("line1\nline2"));
+        assertEquals("\"line1\r\nline2\"", cell("line1\r\nline2"));
+    }
+
+    public void testQuoteIsDoubled() throws IOException {
+        assertEquals("\"say \"\"hi\"\"\"", cell("say \"hi\""));
+        assertEquals("\"\"\"\"", cell("\""));
+    }
+
+    public void testLeadingOrTrailingSpaceIsQuoted() throws IOException {
+        assertEquals("\" a\"", cell(" a"));
+        assertEquals("\"a \"", cell("a "));
+        assertEquals("\" \"", cell(" "));
+    }
+
+    private static String cell(String value) throws IOException {
+        StringWriter writer = new StringWriter();
+        MongoCsvExporter.writeCell(writer, value);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.plus.ext.plugin.monogodb;
+
+import com.mongodb.BasicDBObject;
+import junit.framework.TestCase;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+/**
+ * MongoKeyset 的排序规范化、起点条件及 token 编解码，不需要 mongod
+ */
+public class MongoKeysetTest extends TestCase {
+
+    public void testSortOfAppendsId() {
+        Map<String, Object> sort = new LinkedHashMap<String, Object>();
+        sort.put("score", "asc");
+        sort.put("create_time", "desc");
+        LinkedHashMap<String, Integer> normalized = MongoKeyset.sortOf(sort);
+        assertEquals(Arrays.asList("score", "create_time", "_id"), new ArrayList<String>(normalized.keySet()));
+        assertEquals(Arrays.asList(1, -1, -1), new ArrayList<Integer>(normalized.values()));
+
+        assertEquals(Collections.singletonMap("_id", 1), MongoKeyset.sortOf(null));
+        assertEquals(Collections.singletonMap("_id", -1),
+                MongoKeyset.sortOf(Collections.<String, Object>singletonMap("_id", "desc")));
+    }
+
+    public void testSeekWithoutTokenKeepsConditions() {
+        BasicDBObject conditions = new BasicDBObject("status", 1);
+        assertSame(conditions, MongoKeyset.seek(conditions, MongoKeyset.sortOf(null), null));
+    }
+
+    public void testSeekSingleField() {
+        ObjectId id = new ObjectId();
+        BasicDBObject seek = MongoKeyset.seek(new BasicDBObject(), MongoKeyset.sortOf(null), Collections.<Object>singletonList(id));
+        assertEquals(new BasicDBObject("_id", new BasicDBObject("$gt", id)), seek);
+    }
+
+    public void testSeekMultipleFields() {
+        Map<String, Object> sort = new LinkedHashMap<String, Object>();
+        sort.put("create_time", "desc");
+        Date time = new Date(1500000000000L);
+        ObjectId id = new ObjectId();
+        BasicDBObject conditions = new BasicDBObject("status", 1);
+        BasicDBObject seek = MongoKeyset.seek(conditions, MongoKeyset.sortOf(sort), Arrays.<Object>asList(time, id));
+
+        BasicDBObject position = new BasicDBObject("$or", Arrays.asList(
+                new BasicDBObject("create_time", new BasicDBObject("$lt", time)),
+                new BasicDBObject("create_time", time).append("_id", new BasicDBObject("$lt", id))));
+        assertEquals(new BasicDBObject("$and", Arrays.asList(conditions, position)), seek);
+    }
+
+    public void testValueOfNestedField() {
+        Document document = new Document("a", new Document("b", 2)).append("c", 3);
+        assertEquals(2, MongoKeyset.valueOf(document, "a.b"));
+        assertEquals(3, MongoKeyset.valueOf(document, "c"));
+        assertNull(MongoKeyset.valueOf(document, "a.x"));
+        assertNull(MongoKeyset.valueOf(document, "c.d"));
+    }
+
+    /**
+     * ObjectId、Date 及 long 经过 token 后类型不变，才能直接用作下一页的查询条件
+     */
+    public void testTokenRoundTrip() {
+        Map<String, Object> sort = new LinkedHashMap<String, Object>();
+        sort.put("create_time", "desc");
+        sort.put("user.age", "asc");
+        LinkedHashMap<String, Integer> normalized = MongoKeyset.sortOf(sort);
+        ObjectId id = new ObjectId();
+        Date time = new Date(1500000000123L);
+        Document last = new Document("_id", id)
+                .append("create_time", time)
+                .append("user", new Document("age", 9000000000L))
+                .append("title", "ignored");
+
+        String token = MongoKeyset.encode(normalized, last, 42);
+        assertFalse(token.contains("=") || token.contains("+") || token.contains("/"));
+        Object[] decoded = MongoKeyset.decode(token, normalized);
+        assertEquals(Arrays.<Object>asList(time, 9000000000L, id), decoded[0]);
+        assertEquals(42L, decoded[1]);
+        List<?> values = (List<?>) decoded[0];
+        assertTrue(values.get(0) instanceof Date);
+        assertTrue(values.get(1) instanceof Long);
+        assertTrue(values.get(2) instanceof ObjectId);
+    }
+
+    public void testTokenRejectsDifferentSort() {
+        LinkedHashMap<String, Integer> byTime = MongoKeyset.sortOf(Collections.<String, Object>singletonMap("create_time", "desc"));
+        String token = MongoKeyset.encode(byTime, new Document("_id", new ObjectId()).append("create_time", new Date()), 1);
+
+        LinkedHashMap<String, Integer> byScore = MongoKeyset.sortOf(Collections.<String, Object>singletonMap("score", "desc"));
+        try {
+            MongoKeyset.decode(token, byScore);
+            fail("token of another sort should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            MongoKeyset.decode(token, MongoKeyset.sortOf(null));
+            fail("token with more fields should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        LinkedHashMap<String, Integer> byTimeAsc = MongoKeyset.sortOf(Collections.<String, Object>singletonMap("create_time", "asc"));
+        try {
+            MongoKeyset.decode(token, byTimeAsc);
+            fail("token of the opposite direction should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1L, MongoKeyset.decode(token, byTime)[1]);
+    }
+
+    public void testTokenRejectsGarbage() {
+        for (String token : new String[]{"not a token", "e30", "!!!"}) {
+            try {
+                MongoKeyset.decode(token, MongoKeyset.sortOf(null));
+                fail("invalid token " + token + " should be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.plugin.activerecord.Record;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import junit.framework.TestCase;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MongoKit 查询返回的 Record 中嵌套文档为 BasicDBObject、数组为 BasicDBList，与改用 MongoCollection 之前的 DBCollection 一致；
+ * MongodbKit 的 Record 由 MongoRecordCodec 解码，嵌套文档为 Document、数组为 List
+ */
+public class MongoKitTest extends TestCase {
+
+    private byte[] bytes;
+
+    @Override
+    protected void setUp() {
+        Document document = new Document("_id", new ObjectId())
+                .append("name", "jfinal")
+                .append("sub", new Document("x", 1).append("inner", new Document("y", 2)))
+                .append("tags", Arrays.asList("a", new Document("k", "v")));
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        MongodbKit.CODEC_REGISTRY.get(Document.class).encode(new BsonBinaryWriter(buffer), document,
+                EncoderContext.builder().build());
+        bytes = buffer.toByteArray();
+    }
+
+    public void testMongoKitRecordKeepsDBObjectTypes() {
+        DBObject dbObject = MongodbKit.CODEC_REGISTRY.get(DBObject.class)
+                .decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+        Record record = MongoKit.toRecord(dbObject);
+        assertEquals("jfinal", record.getStr("name"));
+        assertTrue(record.get("_id") instanceof ObjectId);
+
+        Object sub = record.get("sub");
+        assertTrue(sub instanceof BasicDBObject);
+        assertTrue(((BasicDBObject) sub).get("inner") instanceof BasicDBObject);
+        Object tags = record.get("tags");
+        assertTrue(tags instanceof BasicDBList);
+        assertEquals("a", ((BasicDBList) tags).get(0));
+        assertTrue(((BasicDBList) tags).get(1) instanceof BasicDBObject);
+    }
+
+    public void testMongodbKitRecordUsesDocumentTypes() {
+        Record record = MongodbKit.CODEC_REGISTRY.get(Record.class)
+                .decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+        assertEquals("jfinal", record.getStr("name"));
+        Object sub = record.get("sub");
+        assertTrue(sub instanceof Document);
+        assertTrue(((Document) sub).get("inner") instanceof Document);
+        Object tags = record.get("tags");
+        assertTrue(tags instanceof List);
+        assertFalse(tags instanceof BasicDBList);
+        assertTrue(((List<?>) tags).get(1) instanceof Document);
+    }
+
+    /**
+     * toRecord 复制字段，修改 Record 不影响原来的 DBObject
+     */
+    public void testToRecordCopiesColumns() {
+        BasicDBObject dbObject = new BasicDBObject("a", 1);
+        Record record = MongoKit.toRecord(dbObject);
+        record.set("b", 2);
+        assertFalse(dbObject.containsField("b"));
+        assertEquals(1, record.getInt("a").intValue());
+    }
+}
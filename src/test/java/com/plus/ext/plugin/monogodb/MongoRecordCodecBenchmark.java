@@ -0,0 +1,122 @@
+package com.plus.ext.plugin.monogodb;
+
+import com.jfinal.plugin.activerecord.Record;
+import com.mongodb.BasicDBObject;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record 与 BSON 互转的开销：原来先解码为 Document 再经 BasicDBObject 复制到 Record，
+ * 现在由 MongoRecordCodec 直接解码。不需要 mongod，只测客户端编解码。
+ * main 方法带有 gc profiler，可以对比每次操作的分配量(gc.alloc.rate.norm)
+ * <pre>
+ * 运行：mvn -Pbenchmark verify -Dbenchmark=MongoRecordCodecBenchmark，或直接执行 main 方法
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MongoRecordCodecBenchmark {
+
+    /**
+     * 文档的顶层字段数
+     */
+    @Param({"10", "50"})
+    int fields;
+
+    private Codec<Document> documentCodec;
+    private Codec<Record> recordCodec;
+    private byte[] bytes;
+    private Record record;
+
+    @Setup
+    public void setup() {
+        documentCodec = MongodbKit.CODEC_REGISTRY.get(Document.class);
+        recordCodec = MongodbKit.CODEC_REGISTRY.get(Record.class);
+        Document document = new Document("_id", new ObjectId());
+        for (int i = 0; i < fields; i++) {
+            switch (i % 5) {
+                case 0:
+                    document.append("name" + i, "value-" + i);
+                    break;
+                case 1:
+                    document.append("count" + i, (long) i);
+                    break;
+                case 2:
+                    document.append("create_time" + i, new Date());
+                    break;
+                case 3:
+                    document.append("tags" + i, Arrays.asList("a", "b", "c"));
+                    break;
+                default:
+                    document.append("sub" + i, new Document("x", i).append("y", "y-" + i));
+            }
+        }
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        documentCodec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        bytes = buffer.toByteArray();
+        record = new Record().setColumns(document);
+    }
+
+    // --------- 解码
+
+    /**
+     * 原来的路径：Document -> BasicDBObject -> toMap() -> Record
+     */
+    @Benchmark
+    public Record decodeViaDocument() {
+        Document document = documentCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+        return new Record().setColumns(new BasicDBObject(document).toMap());
+    }
+
+    @Benchmark
+    public Record decodeRecord() {
+        return recordCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build());
+    }
+
+    // --------- 编码
+
+    /**
+     * 原来的路径：Record 复制为 BasicDBObject 后编码
+     */
+    @Benchmark
+    public byte[] encodeViaDocument() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        documentCodec.encode(new BsonBinaryWriter(buffer), new Document(new BasicDBObject(record.getColumns())),
+                EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeRecord() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        recordCodec.encode(new BsonBinaryWriter(buffer), record, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MongoRecordCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
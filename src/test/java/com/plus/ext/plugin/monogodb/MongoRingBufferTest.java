@@ -0,0 +1,138 @@
+package com.plus.ext.plugin.monogodb;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MongoRingBuffer 的容量、满及空、绕圈复用槽位及多生产者并发写入
+ */
+public class MongoRingBufferTest extends TestCase {
+
+    public void testCapacityRoundsUpToPowerOfTwo() {
+        assertEquals(1, new MongoRingBuffer<Integer>(1).capacity());
+        assertEquals(4, new MongoRingBuffer<Integer>(3).capacity());
+        assertEquals(1024, new MongoRingBuffer<Integer>(1000).capacity());
+        assertEquals(1024, new MongoRingBuffer<Integer>(1024).capacity());
+    }
+
+    public void testInvalidCapacity() {
+        for (int capacity : new int[]{0, -1, (1 << 30) + 1}) {
+            try {
+                new MongoRingBuffer<Integer>(capacity);
+                fail("capacity " + capacity + " should be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    public void testFullAndEmpty() {
+        MongoRingBuffer<Integer> ring = new MongoRingBuffer<Integer>(4);
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+        for (int i = 0; i < 4; i++)
+            assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+        for (int i = 1; i <= 4; i++)
+            assertEquals(Integer.valueOf(i), ring.poll());
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    /**
+     * 多次绕圈后槽位的序号仍然正确，元素保持先进先出
+     */
+    public void testWraparound() {
+        MongoRingBuffer<Integer> ring = new MongoRingBuffer<Integer>(4);
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 1000; round++) {
+            int n = round % 4 + 1;
+            for (int i = 0; i < n; i++)
+                assertTrue(ring.offer(next++));
+            for (int i = 0; i < n; i++)
+                assertEquals(Integer.valueOf(expected++), ring.poll());
+            assertNull(ring.poll());
+        }
+    }
+
+    public void testDrainTo() {
+        MongoRingBuffer<Integer> ring = new MongoRingBuffer<Integer>(8);
+        for (int i = 0; i < 5; i++)
+            ring.offer(i);
+        List<Integer> list = new ArrayList<Integer>();
+        assertEquals(3, ring.drainTo(list, 3));
+        assertEquals(2, ring.drainTo(list, 10));
+        assertEquals(0, ring.drainTo(list, 10));
+        for (int i = 0; i < 5; i++)
+            assertEquals(Integer.valueOf(i), list.get(i));
+    }
+
+    /**
+     * 多个生产者同时写入一个小容量的队列，消费者收到全部元素，且每个生产者的元素保持写入顺序
+     */
+    public void testMultipleProducers() throws Exception {
+        final int producers = 4;
+        final int perProducer = 200000;
+        final MongoRingBuffer<Long> ring = new MongoRingBuffer<Long>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final long producer = p;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (long i = 0; i < perProducer; i++) {
+                            Long value = producer * perProducer + i;
+                            while (!ring.offer(value))
+                                Thread.yield();
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            }, "ring-producer-" + p);
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        long[] last = new long[producers];
+        for (int p = 0; p < producers; p++)
+            last[p] = -1;
+        long received = 0;
+        long sum = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received < (long) producers * perProducer) {
+            Long value = ring.poll();
+            if (value == null) {
+                assertTrue("timeout, received " + received, System.currentTimeMillis() < deadline);
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) (value / perProducer);
+            long index = value % perProducer;
+            assertEquals(last[producer] + 1, index);
+            last[producer] = index;
+            received++;
+            sum += value;
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertNull(error.get());
+        long n = (long) producers * perProducer;
+        assertEquals(n * (n - 1) / 2, sum);
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+}
@@ -0,0 +1,118 @@
+package com.plus.ext.plugin.monogodb;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import junit.framework.TestCase;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 驱动 3.3 的编解码器不支持 BigDecimal：含 BigDecimal 的文档计为失败且不重试，同批其余文档照常写入，
+ * 溢出时逐个编码，后台线程不会因此退出
+ */
+public class MongoWriteBehindTest extends TestCase {
+
+    private final CodecRegistry registry = MongoClient.getDefaultCodecRegistry();
+    private final List<Document> inserted = new ArrayList<Document>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile boolean unavailable;
+
+    /**
+     * 与驱动一样在发送前编码文档，编码失败时抛出 CodecConfigurationException；unavailable 时模拟网络错误
+     */
+    @SuppressWarnings("unchecked")
+    private MongoCollection<Document> collection() {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MongoCollection.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getNamespace"))
+                            return new MongoNamespace("test", "logs");
+                        if (method.getName().equals("getCodecRegistry"))
+                            return registry;
+                        if (method.getName().equals("insertMany")) {
+                            calls.incrementAndGet();
+                            List<Document> documents = (List<Document>) args[0];
+                            for (Document document : documents)
+                                registry.get(Document.class).encode(new BsonDocumentWriter(new BsonDocument()), document,
+                                        EncoderContext.builder().build());
+                            if (unavailable)
+                                throw new IllegalStateException("unavailable");
+                            synchronized (inserted) {
+                                inserted.addAll(documents);
+                            }
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    public void testUnencodableDocumentIsFailedWithoutRetry() {
+        MongoWriteBehind writeBehind = new MongoWriteBehind(collection()).batchSize(3).retry(3, 1000).start();
+        writeBehind.offer(new Document("i", 1));
+        writeBehind.offer(new Document("amount", new BigDecimal("1.5")));
+        writeBehind.offer(new Document("i", 2));
+        assertTrue(writeBehind.stop(5, TimeUnit.SECONDS));
+
+        assertEquals(2, calls.get());
+        assertEquals(2, writeBehind.getWritten());
+        assertEquals(1, writeBehind.getFailed());
+        assertEquals(0, writeBehind.getDropped());
+        assertEquals(2, inserted.size());
+        assertEquals(1, inserted.get(0).get("i"));
+        assertEquals(2, inserted.get(1).get("i"));
+    }
+
+    /**
+     * 无法编码的文档不会使后台线程退出，之后的文档照常写入，队列满时 BLOCK 的调用线程不会一直等待
+     */
+    public void testFlusherKeepsRunningAfterUnencodableDocument() {
+        MongoWriteBehind writeBehind = new MongoWriteBehind(collection()).capacity(2).batchSize(1).blockTimeout(2000).start();
+        writeBehind.offer(new Document("amount", new BigDecimal("1.5")));
+        for (int i = 0; i < 10; i++)
+            assertTrue(writeBehind.offer(new Document("i", i)));
+        assertTrue(writeBehind.stop(5, TimeUnit.SECONDS));
+        assertEquals(10, writeBehind.getWritten());
+        assertEquals(1, writeBehind.getFailed());
+    }
+
+    public void testSpillEncodesDocumentsOneByOne() throws Exception {
+        Path dir = Files.createTempDirectory("write-behind");
+        unavailable = true;
+        MongoWriteBehind writeBehind = new MongoWriteBehind(collection()).batchSize(3).retry(0, 0).spillDir(dir).start();
+        writeBehind.offer(new Document("i", 1));
+        writeBehind.offer(new Document("i", 2));
+        assertTrue(writeBehind.stop(5, TimeUnit.SECONDS));
+        assertEquals(2, writeBehind.getSpilled());
+
+        // 停止后提交的文档直接写入溢出文件
+        assertFalse(writeBehind.offer(new Document("amount", new BigDecimal("1.5"))));
+        assertTrue(writeBehind.offer(new Document("i", 3)));
+        assertEquals(3, writeBehind.getSpilled());
+        assertEquals(1, writeBehind.getFailed());
+        assertEquals(0, writeBehind.getDropped());
+
+        List<String> lines = Files.readAllLines(writeBehind.getSpillFile(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        for (int i = 0; i < 3; i++)
+            assertEquals(i + 1, Document.parse(lines.get(i)).get("i"));
+        Files.delete(writeBehind.getSpillFile());
+        Files.delete(dir);
+    }
+}